@@ -15,6 +15,7 @@ import game.ui.window.GameWindow;
 import game.world.dimensions.Point3D;
 import game.world.dimensions.Rectangle3D;
 import game.world.dimensions.Vector3D;
+import game.world.logic.ClientWorld;
 import game.world.model.Cube;
 import game.world.model.FinishPortal;
 import game.world.model.Place;
@@ -65,6 +66,19 @@ public class Renderer {
 	 * @param rotateAmount
 	 */
 	public static void renderPlace(Graphics g, Place place, Vector3D rotateAmount){
+		renderPlace(g, place, rotateAmount, null);
+	}
+
+	/**
+	 * Draws a place, asking the world where each object should be drawn so
+	 * that other players move smoothly between updates from the server.
+	 *
+	 * @param g
+	 * @param place
+	 * @param rotateAmount
+	 * @param world the world being shown, or null to draw everything where it is
+	 */
+	public static void renderPlace(Graphics g, Place place, Vector3D rotateAmount, ClientWorld world){
 		long startTime = System.currentTimeMillis();
 
 		Graphics2D g2 = (Graphics2D) g;
@@ -121,7 +135,7 @@ public class Renderer {
 		// get everything ready to render
 		renderables.addAll(floorTrixelsToRenderables(floorTrixels.iterator(), Trixel.DEFAULT_SIZE, transform));
 		renderables.addAll(trixelsToRenderables(otherTrixels.iterator(), trixelSize, transform));
-		renderables.addAll(drawablesToRenderables(gameObjects.iterator(), transform, place));
+		renderables.addAll(drawablesToRenderables(gameObjects.iterator(), transform, place, world));
 
 		flipYAxis(renderables);
 
@@ -155,7 +169,7 @@ public class Renderer {
 
 		toDraw.addAll(floorTrixelsToRenderables(floorTrixels, trixelSize, transform));
 		toDraw.addAll(trixelsToRenderables(trixels, trixelSize, transform));
-		toDraw.addAll(drawablesToRenderables(drawables, transform, null));
+		toDraw.addAll(drawablesToRenderables(drawables, transform, null, null));
 
 		flipYAxis(toDraw);
 
@@ -192,16 +206,17 @@ public class Renderer {
 	 * Makes a list of transformed renderable objects
 	 * @param drawables
 	 * @param place
+	 * @param world gives where to draw each drawable, or null
 	 * @return
 	 */
-	private static List<Renderable> drawablesToRenderables(Iterator<Drawable> drawables, Transform transform, Place place) {
+	private static List<Renderable> drawablesToRenderables(Iterator<Drawable> drawables, Transform transform, Place place, ClientWorld world) {
 		List<Renderable> renderables = new ArrayList<Renderable>();
 		while (drawables.hasNext()){
 			Drawable drawable = drawables.next();
 
 			// drawable is an image
 			GameImage image = new GameImage(Res.getImageFromName(drawable.getImageName()),
-					drawable.getPosition(place),
+					world != null ? world.getDrawnPosition(drawable, place) : drawable.getPosition(place),
 					drawable.getBoundingBox());
 
 			image.transform(transform);
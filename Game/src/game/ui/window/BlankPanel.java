@@ -67,6 +67,16 @@ public class BlankPanel extends JPanel{
 		currentMenu.keyPressed(keyPressed);
 	}
 
+	/**
+	 *handles a key being let go of on the keyboard
+	 *only the game screen needs to know, to stop the player walking
+	 * */
+	public void keyReleased(String keyReleased){
+		if(currentMenu instanceof GameScreen){
+			((GameScreen) currentMenu).keyReleased(keyReleased);
+		}
+	}
+
 
 	/**
 	 * Sets up the mouse listener for the panel
@@ -6,6 +6,7 @@ import game.ui.window.menus.InventoryMenu;
 import game.ui.window.menus.MainMenu;
 import game.ui.window.menus.MenuUtil;
 import game.ui.window.menus.PauseMenu;
+import game.world.commands.InputCommand;
 import game.world.dimensions.Vector3D;
 import game.world.model.Item;
 import game.world.model.Player;
@@ -166,7 +167,7 @@ public class GameScreen implements GraphicsPane  {
 		//render the game
 		if(GameWindow.currentRoom != null){
 			//Renderer.renderPlace(g, GameWindow.currentRoom, rotateVector, player);
-			Renderer.renderPlace(g, GameWindow.currentRoom, rotateVector);
+			Renderer.renderPlace(g, GameWindow.currentRoom, rotateVector, client.getWorld());
 		}
 
 		//draws the selected inventory bar
@@ -197,6 +198,9 @@ public class GameScreen implements GraphicsPane  {
 		Vector3D rotateAcceleration = nextRotation.minus(rotateVector).makeScaled(SLOW_DOWN_SPEED);
 		rotateVelocity = rotateVelocity.plus(rotateAcceleration);
 		rotateVector = rotateVector.plus(rotateVelocity);
+		if(Client.INPUT_MODE){
+			Client.look(rotateVector.getY());//so a walking player turns with the view
+		}
 
 		/*System.out.println("acc	"+rotateAcceleration);
 		System.out.println("vel	"+rotateVelocity);
@@ -277,6 +281,16 @@ public class GameScreen implements GraphicsPane  {
 		}
 	}
 
+	/**
+	 * Stops the player walking when a movement key is let go, in input mode
+	 * */
+	@SuppressWarnings("static-access")
+	public void keyReleased(String keyEvent) {
+		if(Client.INPUT_MODE && InputCommand.bitOf(keyEvent) != 0){
+			client.hold(keyEvent, false, rotateVector.getY());
+		}
+	}
+
 	@SuppressWarnings("static-access")
 	@Override
 	public void keyPressed(String keyEvent) {
@@ -297,6 +311,9 @@ public class GameScreen implements GraphicsPane  {
 		else if(keyEvent.equals("escape")){
 			currentMenu = new PauseMenu(panel, this, starMation);
 		}
+		else if(Client.INPUT_MODE && InputCommand.bitOf(keyEvent) != 0){
+			client.hold(keyEvent, true, rotateVector.getY());//the server walks the player until it is let go
+		}
 		else if(releventQueKeypress.contains(keyEvent)){
 			client.makeMove(keyEvent, rotateVector.getY());//pass key onto client
 		}
@@ -98,6 +98,15 @@ public class keyInputManagment implements KeyEventDispatcher{
 			}
 			panel.keyPressed("unbound key");//unknown key pressed
 		}
+		//if a key is let go of
+		else if(e.getID() == KeyEvent.KEY_RELEASED){
+			for(String key : keyMap.keySet() ){
+				if(keyMap.get(key) == e.getKeyCode()){
+					panel.keyReleased(key);//send the key release to the panel
+					return false;
+				}
+			}
+		}
 		return false;
 	}
 
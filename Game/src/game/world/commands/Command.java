@@ -0,0 +1,100 @@
+package game.world.commands;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A command for a world. Commands are immutable, so one can be handed to any
+ * number of worlds and connections without being copied.
+ *
+ * A command sent to the SERVER is a request that the server world checks. A
+ * command sent to the CLIENT is a result the server has already accepted,
+ * which every client world applies.
+ */
+public abstract class Command implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Which world a command is for.
+	 */
+	public enum Target {
+		SERVER, CLIENT
+	}
+
+	private final Target target;
+	private final String playerName;
+
+	protected Command(Target target, String playerName) {
+		this.target = target;
+		this.playerName = playerName;
+	}
+
+	/**
+	 * Gets the kind of command this is.
+	 *
+	 * @return - the type.
+	 */
+	public abstract CommandType getType();
+
+	/**
+	 * Gets which world this command is for.
+	 *
+	 * @return - the target.
+	 */
+	public Target getTarget() {
+		return target;
+	}
+
+	/**
+	 * Gets the name of the player doing the command.
+	 *
+	 * @return - the players name.
+	 */
+	public String getPlayerName() {
+		return playerName;
+	}
+
+	/**
+	 * Checks if this is a result of the given type.
+	 *
+	 * @param type
+	 *            - the type to check for.
+	 * @return - true if this is for the clients and of that type.
+	 */
+	public boolean isResult(CommandType type) {
+		return target == Target.CLIENT && getType() == type;
+	}
+
+	/**
+	 * Gets the fields that make this command different from others of the
+	 * same type, apart from the player name.
+	 *
+	 * @return - the fields.
+	 */
+	protected abstract Object[] getFields();
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || obj.getClass() != getClass()) {
+			return false;
+		}
+		Command other = (Command) obj;
+		return target == other.target && playerName.equals(other.playerName)
+				&& Arrays.equals(getFields(), other.getFields());
+	}
+
+	@Override
+	public int hashCode() {
+		return (target.hashCode() * 31 + playerName.hashCode()) * 31
+				+ Arrays.hashCode(getFields());
+	}
+
+	@Override
+	public String toString() {
+		return TextCommandCodec.INSTANCE.encode(this);
+	}
+}
@@ -0,0 +1,28 @@
+package game.world.commands;
+
+/**
+ * Turns commands into some other form and back.
+ *
+ * @param <T>
+ *            - the form commands are encoded to.
+ */
+public interface CommandCodec<T> {
+
+	/**
+	 * Encodes a command.
+	 *
+	 * @param command
+	 *            - the command.
+	 * @return - the encoded command.
+	 */
+	public T encode(Command command);
+
+	/**
+	 * Decodes a command.
+	 *
+	 * @param encoded
+	 *            - something made by encode.
+	 * @return - the command or null if it isn't one.
+	 */
+	public Command decode(T encoded);
+}
@@ -0,0 +1,47 @@
+package game.world.commands;
+
+/**
+ * The kinds of command the worlds understand, each with the name it has in
+ * the text format.
+ */
+public enum CommandType {
+	PLAYER_PLACEMENT("PlayerPlacement"),
+	MOVE("Move"),
+	EXIT("Exit"),
+	ITEM_PICK_UP("ItemPickUp"),
+	ITEM_DROP("ItemDrop"),
+	CONTAINER("Container"),
+	USE("Use"),
+	INPUT("Input");
+
+	private final String name;
+
+	private CommandType(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Gets the name used for this type in the text format.
+	 *
+	 * @return - the name, for example "Move".
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Finds the type with a name.
+	 *
+	 * @param name
+	 *            - the name used in the text format.
+	 * @return - the type or null if there isn't one.
+	 */
+	public static CommandType fromName(String name) {
+		for (CommandType type : values()) {
+			if (type.name.equals(name)) {
+				return type;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,37 @@
+package game.world.commands;
+
+/**
+ * Takes everything out of a container.
+ */
+public class ContainerCommand extends Command {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String containerName;
+	private final String placeName;
+
+	public ContainerCommand(Target target, String playerName,
+			String containerName, String placeName) {
+		super(target, playerName);
+		this.containerName = containerName;
+		this.placeName = placeName;
+	}
+
+	@Override
+	protected Object[] getFields() {
+		return new Object[] { containerName, placeName };
+	}
+
+	@Override
+	public CommandType getType() {
+		return CommandType.CONTAINER;
+	}
+
+	public String getContainerName() {
+		return containerName;
+	}
+
+	public String getPlaceName() {
+		return placeName;
+	}
+}
@@ -0,0 +1,51 @@
+package game.world.commands;
+
+import game.world.dimensions.Point3D;
+
+/**
+ * Drops an item from a players inventory. The result carries the point the
+ * item landed at.
+ */
+public class DropCommand extends Command {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String itemName;
+	private final String placeName;
+	private final Point3D point;
+
+	public DropCommand(Target target, String playerName, String itemName,
+			String placeName, Point3D point) {
+		super(target, playerName);
+		this.itemName = itemName;
+		this.placeName = placeName;
+		this.point = point;
+	}
+
+	@Override
+	protected Object[] getFields() {
+		return new Object[] { itemName, placeName, point };
+	}
+
+	@Override
+	public CommandType getType() {
+		return CommandType.ITEM_DROP;
+	}
+
+	public String getItemName() {
+		return itemName;
+	}
+
+	public String getPlaceName() {
+		return placeName;
+	}
+
+	/**
+	 * Gets where the item landed.
+	 *
+	 * @return - the point or null for a request.
+	 */
+	public Point3D getPoint() {
+		return point;
+	}
+}
@@ -0,0 +1,56 @@
+package game.world.commands;
+
+import game.world.dimensions.Point3D;
+
+/**
+ * Takes a player through an exit out of a place. The result carries the
+ * position the player ends up at on the other side.
+ */
+public class ExitCommand extends Command {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String exitName;
+	private final String placeName;
+	private final Point3D position;
+
+	public ExitCommand(Target target, String playerName, String exitName,
+			String placeName, Point3D position) {
+		super(target, playerName);
+		this.exitName = exitName;
+		this.placeName = placeName;
+		this.position = position;
+	}
+
+	@Override
+	protected Object[] getFields() {
+		return new Object[] { exitName, placeName, position };
+	}
+
+	@Override
+	public CommandType getType() {
+		return CommandType.EXIT;
+	}
+
+	public String getExitName() {
+		return exitName;
+	}
+
+	/**
+	 * Gets the place the player is leaving.
+	 *
+	 * @return - the place name.
+	 */
+	public String getPlaceName() {
+		return placeName;
+	}
+
+	/**
+	 * Gets where the player is in the new place.
+	 *
+	 * @return - the position or null for a request.
+	 */
+	public Point3D getPosition() {
+		return position;
+	}
+}
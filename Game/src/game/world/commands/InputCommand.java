@@ -0,0 +1,84 @@
+package game.world.commands;
+
+/**
+ * The movement keys a player is holding and which way they are looking.
+ *
+ * Instead of a move for every key press, a client in input mode sends one of
+ * these only when what it holds or where it looks changes. The server moves
+ * the player a step every tick for as long as the keys are held, so it
+ * decides how fast players go. The moves it makes carry this command's
+ * sequence number back to the client.
+ */
+public class InputCommand extends Command {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int UP = 1;
+	public static final int DOWN = 2;
+	public static final int LEFT = 4;
+	public static final int RIGHT = 8;
+
+	private final int held;
+	private final float viewAngle;
+	private final int sequence;
+
+	public InputCommand(Target target, String playerName, int held,
+			float viewAngle, int sequence) {
+		super(target, playerName);
+		this.held = held;
+		this.viewAngle = viewAngle;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Gets the bit that stands for a movement key.
+	 *
+	 * @param action
+	 *            - the action the key does, for example "Up".
+	 * @return - the bit, or 0 if the action isn't a movement.
+	 */
+	public static int bitOf(String action) {
+		if (action.equals("Up")) {
+			return UP;
+		} else if (action.equals("Down")) {
+			return DOWN;
+		} else if (action.equals("Left")) {
+			return LEFT;
+		} else if (action.equals("Right")) {
+			return RIGHT;
+		}
+		return 0;
+	}
+
+	@Override
+	protected Object[] getFields() {
+		return new Object[] { held, viewAngle, sequence };
+	}
+
+	@Override
+	public CommandType getType() {
+		return CommandType.INPUT;
+	}
+
+	/**
+	 * Gets the movement keys being held.
+	 *
+	 * @return - UP, DOWN, LEFT and RIGHT or'd together, or 0 to stand still.
+	 */
+	public int getHeld() {
+		return held;
+	}
+
+	public float getViewAngle() {
+		return viewAngle;
+	}
+
+	/**
+	 * Gets the number the client gave this input.
+	 *
+	 * @return - the sequence number.
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+}
@@ -0,0 +1,59 @@
+package game.world.commands;
+
+import game.world.dimensions.Point3D;
+
+/**
+ * Moves a player to a point in the place they are in.
+ *
+ * Clients number their own moves, and the server hands the number back on the
+ * result, so a client that has already moved its player can tell which of its
+ * moves the server has caught up with.
+ */
+public class MoveCommand extends Command {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Point3D point;
+	private final String placeName;
+	private final int sequence;
+
+	public MoveCommand(Target target, String playerName, Point3D point,
+			String placeName) {
+		this(target, playerName, point, placeName, 0);
+	}
+
+	public MoveCommand(Target target, String playerName, Point3D point,
+			String placeName, int sequence) {
+		super(target, playerName);
+		this.point = point;
+		this.placeName = placeName;
+		this.sequence = sequence;
+	}
+
+	@Override
+	protected Object[] getFields() {
+		return new Object[] { point, placeName, sequence };
+	}
+
+	@Override
+	public CommandType getType() {
+		return CommandType.MOVE;
+	}
+
+	public Point3D getPoint() {
+		return point;
+	}
+
+	public String getPlaceName() {
+		return placeName;
+	}
+
+	/**
+	 * Gets the number the moving client gave this move.
+	 *
+	 * @return - the sequence number, or 0 if the move wasn't numbered.
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+}
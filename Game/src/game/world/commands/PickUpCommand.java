@@ -0,0 +1,37 @@
+package game.world.commands;
+
+/**
+ * Picks an item up off the floor of a place.
+ */
+public class PickUpCommand extends Command {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String itemName;
+	private final String placeName;
+
+	public PickUpCommand(Target target, String playerName, String itemName,
+			String placeName) {
+		super(target, playerName);
+		this.itemName = itemName;
+		this.placeName = placeName;
+	}
+
+	@Override
+	protected Object[] getFields() {
+		return new Object[] { itemName, placeName };
+	}
+
+	@Override
+	public CommandType getType() {
+		return CommandType.ITEM_PICK_UP;
+	}
+
+	public String getItemName() {
+		return itemName;
+	}
+
+	public String getPlaceName() {
+		return placeName;
+	}
+}
@@ -0,0 +1,45 @@
+package game.world.commands;
+
+import game.world.dimensions.Point3D;
+
+/**
+ * Puts a new player into the world. The server works out where the player
+ * goes, so the request has no position and the result does.
+ */
+public class PlacementCommand extends Command {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String imageName;
+	private final Point3D position;
+
+	public PlacementCommand(Target target, String playerName, String imageName,
+			Point3D position) {
+		super(target, playerName);
+		this.imageName = imageName;
+		this.position = position;
+	}
+
+	@Override
+	protected Object[] getFields() {
+		return new Object[] { imageName, position };
+	}
+
+	@Override
+	public CommandType getType() {
+		return CommandType.PLAYER_PLACEMENT;
+	}
+
+	public String getImageName() {
+		return imageName;
+	}
+
+	/**
+	 * Gets where the player was placed.
+	 *
+	 * @return - the position or null for a request.
+	 */
+	public Point3D getPosition() {
+		return position;
+	}
+}
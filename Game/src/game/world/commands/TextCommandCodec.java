@@ -0,0 +1,261 @@
+package game.world.commands;
+
+import game.world.commands.Command.Target;
+import game.world.dimensions.Point3D;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The original text form of commands, for example
+ * "Server Move Name ( Bob ) Point Point: ( 1.0 , 0.0 , 2.0 ) Name ( Room1 ) ".
+ *
+ * Text is split by hand rather than with a Scanner or regular expressions, so
+ * it is cheap enough to use wherever text still turns up.
+ */
+public class TextCommandCodec implements CommandCodec<String> {
+
+	public static final TextCommandCodec INSTANCE = new TextCommandCodec();
+
+	@Override
+	public String encode(Command command) {
+		StringBuilder text = new StringBuilder(96);
+		text.append(command.getTarget() == Target.SERVER ? "Server " : "Client ");
+		text.append(command.getType().getName());
+		name(text, command.getPlayerName());
+		switch (command.getType()) {
+		case PLAYER_PLACEMENT:
+			PlacementCommand placement = (PlacementCommand) command;
+			text.append(" Image ( ").append(placement.getImageName()).append(" )");
+			position(text, placement.getPosition());
+			break;
+		case MOVE:
+			MoveCommand move = (MoveCommand) command;
+			text.append(" Point ").append(move.getPoint());
+			name(text, move.getPlaceName());
+			if (move.getSequence() != 0) {
+				text.append(" Sequence ( ").append(move.getSequence()).append(" )");
+			}
+			break;
+		case EXIT:
+			ExitCommand exit = (ExitCommand) command;
+			name(text, exit.getExitName());
+			name(text, exit.getPlaceName());
+			position(text, exit.getPosition());
+			break;
+		case ITEM_PICK_UP:
+			PickUpCommand pickUp = (PickUpCommand) command;
+			name(text, pickUp.getItemName());
+			name(text, pickUp.getPlaceName());
+			break;
+		case ITEM_DROP:
+			DropCommand drop = (DropCommand) command;
+			name(text, drop.getItemName());
+			name(text, drop.getPlaceName());
+			if (drop.getPoint() != null) {
+				text.append(" Point ").append(drop.getPoint());
+			}
+			break;
+		case CONTAINER:
+			ContainerCommand container = (ContainerCommand) command;
+			name(text, container.getContainerName());
+			name(text, container.getPlaceName());
+			break;
+		case USE:
+			name(text, ((UseCommand) command).getItemName());
+			break;
+		case INPUT:
+			InputCommand input = (InputCommand) command;
+			text.append(" Held ( ").append(input.getHeld()).append(" )");
+			text.append(" View ( ").append(input.getViewAngle()).append(" )");
+			text.append(" Sequence ( ").append(input.getSequence()).append(" )");
+			break;
+		}
+		return text.append(' ').toString();
+	}
+
+	@Override
+	public Command decode(String text) {
+		Tokens tokens = new Tokens(text);
+		String word = tokens.next();
+		Target target;
+		if ("Server".equals(word)) {
+			target = Target.SERVER;
+		} else if ("Client".equals(word)) {
+			target = Target.CLIENT;
+		} else {
+			return null;
+		}
+		CommandType type = CommandType.fromName(tokens.next());
+		if (type == null) {
+			return null;
+		}
+
+		// Read every labelled field, the type decides what they mean.
+		List<String> names = new ArrayList<String>(3);
+		String image = null;
+		Point3D point = null;
+		int sequence = 0;
+		int held = 0;
+		float view = 0;
+		while ((word = tokens.next()) != null) {
+			if (word.equals("Name")) {
+				String name = tokens.bracketed();
+				if (name == null) {
+					return null;
+				}
+				names.add(name);
+			} else if (word.equals("Image")) {
+				image = tokens.bracketed();
+				if (image == null) {
+					return null;
+				}
+			} else if (word.equals("Point")) {
+				if (!"Point:".equals(tokens.next())
+						|| (point = tokens.point()) == null) {
+					return null;
+				}
+			} else if (word.equals("Sequence")) {
+				try {
+					sequence = Integer.parseInt(tokens.bracketed());
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			} else if (word.equals("Held")) {
+				try {
+					held = Integer.parseInt(tokens.bracketed());
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			} else if (word.equals("View")) {
+				String angle = tokens.bracketed();
+				try {
+					view = angle == null ? 0 : Float.parseFloat(angle);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			} else if (word.equals("Position")) {
+				if (!"(".equals(tokens.next()) || !"Point:".equals(tokens.next())
+						|| (point = tokens.point()) == null
+						|| !")".equals(tokens.next())) {
+					return null;
+				}
+			} else {
+				return null;
+			}
+		}
+
+		int needed = type == CommandType.PLAYER_PLACEMENT || type == CommandType.INPUT ? 1
+				: type == CommandType.MOVE || type == CommandType.USE ? 2 : 3;
+		if (names.size() < needed) {
+			return null;
+		}
+		String player = names.get(0);
+		switch (type) {
+		case PLAYER_PLACEMENT:
+			return image == null ? null : new PlacementCommand(target, player, image, point);
+		case MOVE:
+			return point == null ? null : new MoveCommand(target, player, point, names.get(1), sequence);
+		case EXIT:
+			return new ExitCommand(target, player, names.get(1), names.get(2), point);
+		case ITEM_PICK_UP:
+			return new PickUpCommand(target, player, names.get(1), names.get(2));
+		case ITEM_DROP:
+			return new DropCommand(target, player, names.get(1), names.get(2), point);
+		case CONTAINER:
+			return new ContainerCommand(target, player, names.get(1), names.get(2));
+		case INPUT:
+			return new InputCommand(target, player, held, view, sequence);
+		default:
+			return new UseCommand(target, player, names.get(1));
+		}
+	}
+
+	private static void name(StringBuilder text, String name) {
+		text.append(" Name ( ").append(name).append(" )");
+	}
+
+	private static void position(StringBuilder text, Point3D position) {
+		if (position != null) {
+			text.append(" Position ( ").append(position).append(" )");
+		}
+	}
+
+	/**
+	 * Splits text on spaces.
+	 */
+	private static class Tokens {
+		private final String s;
+		private int pos = 0;
+
+		public Tokens(String s) {
+			this.s = s;
+		}
+
+		/**
+		 * @return - the next token, or null at the end.
+		 */
+		public String next() {
+			while (pos < s.length() && s.charAt(pos) == ' ') {
+				pos++;
+			}
+			if (pos >= s.length()) {
+				return null;
+			}
+			int start = pos;
+			while (pos < s.length() && s.charAt(pos) != ' ') {
+				pos++;
+			}
+			return s.substring(start, pos);
+		}
+
+		/**
+		 * Reads "( some words )".
+		 *
+		 * @return - the words joined by single spaces, or null if they aren't
+		 *         bracketed.
+		 */
+		public String bracketed() {
+			if (!"(".equals(next())) {
+				return null;
+			}
+			StringBuilder value = null;
+			String word;
+			while ((word = next()) != null && !word.equals(")")) {
+				if (value == null) {
+					value = new StringBuilder(word);
+				} else {
+					value.append(' ').append(word);
+				}
+			}
+			return word == null || value == null ? null : value.toString();
+		}
+
+		/**
+		 * Reads "( x , y , z )".
+		 *
+		 * @return - the point, or null if it isn't one.
+		 */
+		public Point3D point() {
+			if (!"(".equals(next())) {
+				return null;
+			}
+			float[] xyz = new float[3];
+			for (int i = 0; i < 3; i++) {
+				String value = next();
+				if (value == null) {
+					return null;
+				}
+				try {
+					xyz[i] = Float.parseFloat(value);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+				if (!(i < 2 ? "," : ")").equals(next())) {
+					return null;
+				}
+			}
+			return new Point3D(xyz[0], xyz[1], xyz[2]);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package game.world.commands;
+
+/**
+ * Uses an item in a players inventory. The server sends the accepted request
+ * back out unchanged and every client world runs it again.
+ */
+public class UseCommand extends Command {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String itemName;
+
+	public UseCommand(Target target, String playerName, String itemName) {
+		super(target, playerName);
+		this.itemName = itemName;
+	}
+
+	@Override
+	protected Object[] getFields() {
+		return new Object[] { itemName };
+	}
+
+	@Override
+	public CommandType getType() {
+		return CommandType.USE;
+	}
+
+	public String getItemName() {
+		return itemName;
+	}
+}
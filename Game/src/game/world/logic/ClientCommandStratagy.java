@@ -1,11 +1,10 @@
 package game.world.logic;
 
+import game.world.commands.*;
 import game.world.dimensions.*;
 import game.world.model.*;
-import game.world.util.Parser;
 
 import java.io.Serializable;
-import java.util.*;
 
 
 /**
@@ -15,33 +14,31 @@ public interface ClientCommandStratagy extends Serializable{
 	/**
 	 * Used to set values in the world depending on if the server
 	 *
-	 * @param scan - has the command in it.
+	 * @param command - the command the server sent.
 	 *
 	 * @param world - the current world that is to be modifyed by the setters.
 	 */
-	public void clientSetCommand(Scanner scan, ClientWorld world);
+	public void clientSetCommand(Command command, ClientWorld world);
 }
 
 class ClientExitStratagy implements ClientCommandStratagy{
+	private static final long serialVersionUID = 3527581370571330520L;
 
 	@Override
-	public void clientSetCommand(Scanner scan, ClientWorld world){
-		// gets the name of the player that is to be moved.
-		Parser.removeUnneedText("Name", scan);
-		String playerName = Parser.parseName(scan);
-		// gets the name of the exit the player moved through
-		Parser.removeUnneedText("Name", scan);
-		String exitName = Parser.parseName(scan);
-		// gets the name of the place that the player will be in.
-		Parser.removeUnneedText("Name", scan);
-		String placeName = Parser.parseName(scan);
+	public void clientSetCommand(Command command, ClientWorld world){
+		ExitCommand exitCommand = (ExitCommand)command;
 		// gets the new position in the new room.
-		Parser.removeUnneedText("Position", scan);
-		Point3D playerPosition = Parser.parsePosition(scan);
+		Point3D playerPosition = exitCommand.getPosition();
 		// gets the all from the world.
-		Player player = world.getPlayerByName(playerName);
-		Place place = world.getPlaceByName(placeName);
-		Exit exit = world.getExitByName(exitName);
+		Player player = world.getPlayerByName(exitCommand.getPlayerName());
+		Place place = world.getPlaceByName(exitCommand.getPlaceName());
+		Exit exit = world.getExitByName(exitCommand.getExitName());
+		if (player == null) {
+			// came from a place another server runs, so this world hasn't
+			// seen them yet
+			player = new Player(exitCommand.getPlayerName());
+			world.addPlayer(player);
+		}
 		exit.setLocked(false);
 		if (!exit.isLocked() && exit instanceof FinishPortal){
 			world.changeHasWon(true);
@@ -55,32 +52,28 @@ class ClientExitStratagy implements ClientCommandStratagy{
 		otherPlace.addPlayer(player);
 		// and moves him to his new position.
 		player.move(playerPosition);
+		world.forgetPositions(player);
 		// and if the players that moved is the clients on then the new current
 		// place is the other place
-		if (player.name.equals(world.getClientsPlayer().name)) {
+		if (world.isClientsPlayer(player.name)) {
 			world.setCurrentPlace(otherPlace);
+			// moves made in the old place mean nothing now.
+			world.clearPendingMoves();
 		}
 	}
 }
 
 
 class ClientItemPickupStratagy implements ClientCommandStratagy{
+	private static final long serialVersionUID = 8167271780364716667L;
 
 	@Override
-	public void clientSetCommand(Scanner scan, ClientWorld world){
-		// Gets the players name.
-		Parser.removeUnneedText("Name", scan);
-		String playerName = Parser.parseName(scan);
-		// Gets the items name.
-		Parser.removeUnneedText("Name", scan);
-		String itemName = Parser.parseName(scan);
-		// Gets the place name.
-		Parser.removeUnneedText("Name", scan);
-		String placeName = Parser.parseName(scan);
+	public void clientSetCommand(Command command, ClientWorld world){
+		PickUpCommand pickUp = (PickUpCommand)command;
 		// gets the place, player and items from the world.
-		Player player = world.getPlayerByName(playerName);
-		Item item = world.getItemByName(itemName);
-		Place place = world.getPlaceByName(placeName);
+		Player player = world.getPlayerByName(pickUp.getPlayerName());
+		Item item = world.getItemByName(pickUp.getItemName());
+		Place place = world.getPlaceByName(pickUp.getPlaceName());
 		// removes item from place
 		// adds item to the players inventory
 		// sets items position.
@@ -91,25 +84,17 @@ class ClientItemPickupStratagy implements ClientCommandStratagy{
 }
 
 class ClientItemDropStratagy implements ClientCommandStratagy{
+	private static final long serialVersionUID = -2363944784029401903L;
 
 	@Override
-	public void clientSetCommand(Scanner scan, ClientWorld world){
-		// Gets the players name.
-		Parser.removeUnneedText("Name", scan);
-		String playerName = Parser.parseName(scan);
-		// Gets the item name.
-		Parser.removeUnneedText("Name", scan);
-		String itemName = Parser.parseName(scan);
-		// Gets the placeName.
-		Parser.removeUnneedText("Name", scan);
-		String placeName = Parser.parseName(scan);
+	public void clientSetCommand(Command command, ClientWorld world){
+		DropCommand drop = (DropCommand)command;
 		// Gets the point that the item will fall.
-		Parser.removeUnneedText("Point", scan);
-		Point3D position = Parser.parsePosition(scan);
+		Point3D position = drop.getPoint();
 		// Gets player item and place from the world.
-		Player player = world.getPlayerByName(playerName);
-		Item item = world.getItemByName(itemName);
-		Place place = world.getPlaceByName(placeName);
+		Player player = world.getPlayerByName(drop.getPlayerName());
+		Item item = world.getItemByName(drop.getItemName());
+		Place place = world.getPlaceByName(drop.getPlaceName());
 		// handles all mnoving and setting logic that
 		// comes with droping and item.
 		item.setSelected(false); // items that are nolonger in the inventory cant be selected.
@@ -120,18 +105,14 @@ class ClientItemDropStratagy implements ClientCommandStratagy{
 }
 
 class ClientContainerStratagy implements ClientCommandStratagy{
+	private static final long serialVersionUID = -4370745736618437853L;
 
 	@Override
-	public void clientSetCommand(Scanner scan, ClientWorld world){
-		// Gets the player name.
-		Parser.removeUnneedText("Name", scan);
-		String playerName = Parser.parseName(scan);
-		// Gets the item name.
-		Parser.removeUnneedText("Name", scan);
-		String itemName = Parser.parseName(scan);
+	public void clientSetCommand(Command command, ClientWorld world){
+		ContainerCommand loot = (ContainerCommand)command;
 		// gets the item and player from the world.
-		Player player = world.getPlayerByName(playerName);
-		Item item = world.getItemByName(itemName);
+		Player player = world.getPlayerByName(loot.getPlayerName());
+		Item item = world.getItemByName(loot.getContainerName());
 		// Item is a container server confermed.
 		Container container = (Container) item;
 		// Adds and removes items.
@@ -145,38 +126,35 @@ class ClientContainerStratagy implements ClientCommandStratagy{
 }
 
 class ClientMoveStratagy implements ClientCommandStratagy{
+	private static final long serialVersionUID = 4169126236802372015L;
 
 	@Override
-	public void clientSetCommand(Scanner scan, ClientWorld world){
-		// Gets the players name.
-		Parser.removeUnneedText("Name", scan);
-		String playerName = Parser.parseName(scan);
-		// Gets the players position.
-		Parser.removeUnneedText("Point", scan);
-		Point3D playerPosition = Parser.parsePosition(scan);
+	public void clientSetCommand(Command command, ClientWorld world){
+		MoveCommand move = (MoveCommand)command;
+		// this clients player has already been moved, so check the server agrees.
+		if (world.isClientsPlayer(move.getPlayerName())) {
+			world.reconcileMove(move);
+			return;
+		}
 		// moves the player to the new position.
-		Player player = world.getPlayerByName(playerName);
-		player.move(playerPosition);
+		Player player = world.getPlayerByName(move.getPlayerName());
+		world.moveRemotePlayer(player, move.getPoint());
 	}
 }
 
 class ClientAddPlayerStratagy implements ClientCommandStratagy{
+	private static final long serialVersionUID = -3814696521450693342L;
 
 	@Override
-	public void clientSetCommand(Scanner scan, ClientWorld world){
-		// Gets the player name.
-		Parser.removeUnneedText("Name", scan);
-		String name = Parser.parseName(scan);
-		// Gets the image name of the player.
-		Parser.removeUnneedText("Image", scan);
-		String imageName = Parser.parseName(scan);
-		// Gets the postion of the player.
-		Parser.removeUnneedText("Position", scan);
-		Point3D position = Parser.parsePosition(scan);
+	public void clientSetCommand(Command command, ClientWorld world){
+		PlacementCommand placement = (PlacementCommand)command;
+		String name = placement.getPlayerName();
+		String imageName = placement.getImageName();
+		Point3D position = placement.getPosition();
 		// Get the players place form the world
 		Place place = world.getStartPlace();
 		// Logic for if the player is this clients player.
-		if (name.equals(world.getClientsPlayer().name)) {
+		if (world.isClientsPlayer(name)) {
 			world.setCurrentPlace(place);
 			world.addPlayer(world.getClientsPlayer());
 			world.getClientsPlayer().move(position);
@@ -194,18 +172,14 @@ class ClientAddPlayerStratagy implements ClientCommandStratagy{
 }
 
 class ClientUseStratagy implements ClientCommandStratagy{
+	private static final long serialVersionUID = -5659543923972213848L;
 
 	@Override
-	public void clientSetCommand(Scanner scan, ClientWorld world){
-		// Gets the player name.
-		Parser.removeUnneedText("Name", scan);
-		String playerName = Parser.parseName(scan);
-		// Gets the item of the player.
-		Parser.removeUnneedText("Name", scan);
-		String itemName = Parser.parseName(scan);
-
-		Player player = world.getPlayerByName(playerName);
-		Item item = world.getItemByName(itemName);
+	public void clientSetCommand(Command command, ClientWorld world){
+		UseCommand use = (UseCommand)command;
+
+		Player player = world.getPlayerByName(use.getPlayerName());
+		Item item = world.getItemByName(use.getItemName());
 
 		if (item.canUse() && item instanceof UsableItem){
 			UsableItem usable = (UsableItem) item;
@@ -1,11 +1,16 @@
 package game.world.logic;
 
 import game.ui.render.util.Transform;
+import game.world.commands.*;
+import game.world.commands.Command.Target;
 import game.world.dimensions.*;
 import game.world.model.*;
-import game.world.util.Parser;
+import game.world.util.Drawable;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.plaf.basic.BasicScrollPaneUI.HSBChangeListener;
 
@@ -17,18 +22,41 @@ import javax.swing.plaf.basic.BasicScrollPaneUI.HSBChangeListener;
  */
 public abstract class ClientWorld extends ServerWorld {
 
+	private static final long serialVersionUID = -8931796525432885753L;
+
 	private boolean hasWon;
 	private float movmentScaler = 8.0f;
-	private HashMap<String, Transform> keyPressToDirection;
-	private Map<String, ClientCommandStratagy> clientCommands;
+	// Neither of these hold state so they are not sent with the world.
+	private transient HashMap<String, Transform> keyPressToDirection;
+	private transient Map<CommandType, ClientCommandStratagy> clientCommands;
 	private Player clientsPlayer;
 	private Place currentPlace;
+	// Moves this client has made but the server hasn't answered yet, oldest first.
+	private transient LinkedList<MoveCommand> pendingMoves;
+	private transient int nextSequence;
+	// Where other players have recently been, so they can be drawn between updates.
+	private transient Map<String, PositionHistory> remotePositions;
+	private transient long interpolationDelay;
+
+	/**
+	 * How far behind the present other players are drawn by default, in
+	 * milliseconds. Long enough for the next update to have arrived at the
+	 * servers normal rate.
+	 */
+	public static final long DEFAULT_INTERPOLATION_DELAY = 100;
 
 	/**
 	 * Used to set up all the key to transform mappings.
 	 */
 	public ClientWorld() {
 		super();
+		setUpClientCommands();
+	}
+
+	/**
+	 * Sets up the key to transform mappings and the client stratagys.
+	 */
+	private void setUpClientCommands() {
 		// Adds all posible player move directions to hashmap for ease
 		// of getting.
 		keyPressToDirection = new HashMap<String, Transform>();
@@ -40,15 +68,25 @@ public abstract class ClientWorld extends ServerWorld {
 		keyPressToDirection.put("Left",
 				Transform.newYRotation((float) (Math.PI)));
 
+		pendingMoves = new LinkedList<MoveCommand>();
+		nextSequence = 1;
+		remotePositions = new ConcurrentHashMap<String, PositionHistory>();
+		interpolationDelay = DEFAULT_INTERPOLATION_DELAY;
+
 		// Adds all the stratagys to  a hashmap for ease of getting.
-		clientCommands = new HashMap<String, ClientCommandStratagy>();
-		clientCommands.put("PlayerPlacement", new ClientAddPlayerStratagy());
-		clientCommands.put("Move", new ClientMoveStratagy());
-		clientCommands.put("Exit", new ClientExitStratagy());
-		clientCommands.put("ItemPickUp", new ClientItemPickupStratagy());
-		clientCommands.put("ItemDrop", new ClientItemDropStratagy());
-		clientCommands.put("Container", new ClientContainerStratagy());
-		clientCommands.put("Use", new ClientUseStratagy());
+		clientCommands = new EnumMap<CommandType, ClientCommandStratagy>(CommandType.class);
+		clientCommands.put(CommandType.PLAYER_PLACEMENT, new ClientAddPlayerStratagy());
+		clientCommands.put(CommandType.MOVE, new ClientMoveStratagy());
+		clientCommands.put(CommandType.EXIT, new ClientExitStratagy());
+		clientCommands.put(CommandType.ITEM_PICK_UP, new ClientItemPickupStratagy());
+		clientCommands.put(CommandType.ITEM_DROP, new ClientItemDropStratagy());
+		clientCommands.put(CommandType.CONTAINER, new ClientContainerStratagy());
+		clientCommands.put(CommandType.USE, new ClientUseStratagy());
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		setUpClientCommands();
 	}
 
 	public void tick(){
@@ -66,14 +104,31 @@ public abstract class ClientWorld extends ServerWorld {
 	 * @return - a string the represents a command or the empty string.
 	 */
 	public String getCommand(String action, float viewAngle) {
+		Command command = makeCommand(action, viewAngle);
+		return command == null ? "" : TextCommandCodec.INSTANCE.encode(command);
+	}
+
+	/**
+	 * Takes a commands form the client and returns a command intended for the
+	 * server World.
+	 *
+	 * @param action
+	 *            - the action the client wishes to do.
+	 * @return - the command or null if there is nothing to do.
+	 */
+	public Command makeCommand(String action, float viewAngle) {
 		// where action is like "up", "down", "right", etc
-		String command = "";
+		Command command = null;
 		// If the clients player doesent exsist.
 		if (clientsPlayer == null || getPlayerByName(clientsPlayer.name) == null) return command;
 		// checks if the any of the commands are movement related.
 		if (action.equals("Up") || action.equals("Down")
 				|| action.equals("Right") || action.equals("Left")) {
-			command = getMoveCommand(action, viewAngle);
+			MoveCommand move = getMoveCommand(action, viewAngle);
+			// moves the player straight away rather than waiting for the server.
+			if (predictMove(move)) {
+				command = move;
+			}
 
 		} // checks if the interaction was happening.
 		else if (action.equals("Interact")) {
@@ -82,7 +137,7 @@ public abstract class ClientWorld extends ServerWorld {
 		else if (action.equals("PickUp")) {
 			command = getContainerInteractCommand();
 			// if it wasent a container loot maby they where looting a container.
-			if (command.equals("")){
+			if (command == null){
 				command = getItemPickUpCommand();
 			}
 		} // checks if it was an item that was getting droped.
@@ -93,14 +148,10 @@ public abstract class ClientWorld extends ServerWorld {
 	}
 
 	@Override
-	public List<String> applyCommand(String command) {
-		List<String> commandList = super.applyCommand(command);
-		Scanner scan = new Scanner(command);
-		if (scan.hasNext("Client")) {
-			scan.next();
-			ClientCommandStratagy cmd = clientCommands.get(scan.next());
-			if(cmd == null) return commandList;
-			cmd.clientSetCommand(scan, this);
+	public List<Command> applyCommand(Command command) {
+		List<Command> commandList = super.applyCommand(command);
+		if (command.getTarget() == Target.CLIENT) {
+			clientCommands.get(command.getType()).clientSetCommand(command, this);
 		}
 
 		return commandList;
@@ -114,8 +165,7 @@ public abstract class ClientWorld extends ServerWorld {
 	 *
 	 * @param viewAngle - used for changing the direction the player is going.
 	 */
-	public String getMoveCommand(String action, float viewAngle){
-		String command = "";
+	public MoveCommand getMoveCommand(String action, float viewAngle){
 		Vector3D newDirection = keyPressToDirection.get(action)
 				.multiply(clientsPlayer.getDirection()).unitVector();
 
@@ -132,10 +182,141 @@ public abstract class ClientWorld extends ServerWorld {
 		Point3D newPosition = clientsPlayer.getPosition()
 				.getTranslatedPoint(newMove);
 		// Sructures a command to get the player to move.
-		command = "Server Move Name ( " + clientsPlayer.getName()
-				+ " ) Point " + newPosition.toString() + " Name ( "
-				+ getPlaceOfPlayer(clientsPlayer).getName() + " ) ";
-		return command;
+		return new MoveCommand(Target.SERVER, clientsPlayer.getName(),
+				newPosition, getPlaceOfPlayer(clientsPlayer).getName(), nextSequence++);
+	}
+
+	/**
+	 * Gets the input command for the movement keys this client is holding.
+	 * The server moves the player while they are held, so nothing is
+	 * predicted here.
+	 *
+	 * @param held
+	 *            - the keys, as InputCommand bits.
+	 * @param viewAngle
+	 *            - which way the player is looking.
+	 * @return - the command, or null if this client has no player yet.
+	 */
+	public InputCommand getInputCommand(int held, float viewAngle) {
+		if (clientsPlayer == null || getPlayerByName(clientsPlayer.name) == null) {
+			return null;
+		}
+		return new InputCommand(Target.SERVER, clientsPlayer.getName(), held,
+				viewAngle, nextSequence++);
+	}
+
+	/**
+	 * Moves this clients player the way the server will, and remembers the
+	 * move until the server answers it.
+	 *
+	 * @param move
+	 *            - the move about to be sent.
+	 * @return - false if the move isn't allowed, so there is no point sending it.
+	 */
+	private boolean predictMove(MoveCommand move) {
+		if (!MovementHandler.playerMove(clientsPlayer, move.getPoint(),
+				getPlaceOfPlayer(clientsPlayer))) {
+			return false;
+		}
+		pendingMoves.add(move);
+		return true;
+	}
+
+	/**
+	 * Brings this clients player in line with the server. The player goes
+	 * back to where the server says it is, and any moves the server hasn't
+	 * seen yet are made again from there.
+	 *
+	 * @param move
+	 *            - the servers answer to one of this clients moves.
+	 */
+	protected void reconcileMove(MoveCommand move) {
+		while (!pendingMoves.isEmpty()
+				&& pendingMoves.getFirst().getSequence() <= move.getSequence()) {
+			pendingMoves.removeFirst();
+		}
+		clientsPlayer.move(move.getPoint());
+		Place place = getPlaceOfPlayer(clientsPlayer);
+		for (MoveCommand pending : pendingMoves) {
+			MovementHandler.playerMove(clientsPlayer, pending.getPoint(), place);
+		}
+	}
+
+	/**
+	 * Forgets every move the server hasn't answered.
+	 */
+	protected void clearPendingMoves() {
+		pendingMoves.clear();
+	}
+
+	/**
+	 * Moves another player and remembers when it got there, so it can be
+	 * drawn moving smoothly.
+	 *
+	 * @param player
+	 *            - the player that moved.
+	 * @param point
+	 *            - where the server says it is now.
+	 */
+	protected void moveRemotePlayer(Player player, Point3D point) {
+		player.move(point);
+		PositionHistory history = remotePositions.get(player.getName());
+		if (history == null) {
+			history = new PositionHistory();
+			remotePositions.put(player.getName(), history);
+		}
+		history.add(now(), point, interpolationDelay);
+	}
+
+	/**
+	 * Stops drawing a player between old positions, for when it has been
+	 * put somewhere it didn't walk to.
+	 *
+	 * @param player
+	 *            - the player that was moved.
+	 */
+	protected void forgetPositions(Player player) {
+		remotePositions.remove(player.getName());
+	}
+
+	/**
+	 * Gets where something should be drawn. Other players are drawn a little
+	 * in the past, part way between the positions the server sent, so they
+	 * move smoothly however often those arrive. Everything else, this clients
+	 * player included, is drawn where it is.
+	 *
+	 * @param drawable
+	 *            - the thing being drawn.
+	 * @param place
+	 *            - the place it is being drawn in.
+	 * @return - the position to draw it at.
+	 */
+	public Point3D getDrawnPosition(Drawable drawable, Place place) {
+		if (drawable instanceof Player && !drawable.equals(clientsPlayer)) {
+			PositionHistory history = remotePositions.get(drawable.getName());
+			if (history != null) {
+				Point3D point = history.at(now() - interpolationDelay);
+				if (point != null) {
+					return point;
+				}
+			}
+		}
+		return drawable.getPosition(place);
+	}
+
+	/**
+	 * Sets how far behind the present other players are drawn. Longer hides
+	 * more lost or late updates, shorter shows moves sooner.
+	 *
+	 * @param millis
+	 *            - the delay in milliseconds.
+	 */
+	public void setInterpolationDelay(long millis) {
+		interpolationDelay = Math.max(0, millis);
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000L;
 	}
 
 	/**
@@ -146,14 +327,43 @@ public abstract class ClientWorld extends ServerWorld {
 	 * @return - a string only ment to be parsed by the server.
 	 */
 	public String getSetClientPlayer(Player player) {
+		Command command = setClientPlayer(player);
+		return command == null ? "" : TextCommandCodec.INSTANCE.encode(command);
+	}
+
+	/**
+	 * Makes the first player.
+	 *
+	 * @param player
+	 *            - player that is to be the player of this client.
+	 * @return - a command for the server, or null if the player is already in
+	 *         the world.
+	 */
+	public PlacementCommand setClientPlayer(Player player) {
 		clientsPlayer = player;
 		// if the player already exsists then we dont need to make the player.
 		if (getPlayerByName(player.getName()) != null) {
-			return "";
+			return null;
 		}
-		String command = "Server PlayerPlacement Name ( " + player.name + " ) Image ( " +player.getImageName()+" ) ";
+		return new PlacementCommand(Target.SERVER, player.name, player.getImageName(), null);
+	}
 
-		return command;
+	/**
+	 * Takes back the player this client had, in a world just sent again by
+	 * the server after the connection dropped. The server keeps the player,
+	 * so it is already in the world.
+	 *
+	 * @param name
+	 *            - name of the player this client had.
+	 * @return - the player, or null if the world doesn't have it.
+	 */
+	public Player resumePlayer(String name) {
+		Player player = getPlayerByName(name);
+		if (player != null) {
+			clientsPlayer = player;
+			setCurrentPlace(getPlaceOfPlayer(player));
+		}
+		return player;
 	}
 
 
@@ -161,12 +371,12 @@ public abstract class ClientWorld extends ServerWorld {
 	 * Gets the Interaction command from the exit. This one dose some
 	 * computation to find a exit nere the player that they can interact with.
 	 *
-	 * @return - returns the string intended for the server world to handle.
+	 * @return - returns the command intended for the server world to handle, or null.
 	 */
-	private String getInteractionCommand() {
+	private Command getInteractionCommand() {
 		Place place = getPlaceOfPlayer(clientsPlayer);
 		Iterator<Exit> exits = place.getExits();
-		String command = "";
+		Command command = null;
 		// looks through all the exits.
 		while (exits.hasNext()) {
 			Exit temp = exits.next();
@@ -175,17 +385,16 @@ public abstract class ClientWorld extends ServerWorld {
 					clientsPlayer.getBoundingBox(), temp.getPosition(place),
 					temp.getBoundingBox())) {
 				// then structure a command for the server.
-				command = "Server Exit Name ( " + clientsPlayer.getName()
-						+ " ) Name ( " + temp.getName() + " ) Name ( "
-						+ place.getName() + " )";
+				command = new ExitCommand(Target.SERVER, clientsPlayer.getName(),
+						temp.getName(), place.getName(), null);
 			}
 
 		}
-		if (command.equals("")){
+		if (command == null){
 			for (Item item : clientsPlayer.getInventory()){
 				if(item.isSlelected() && item.canUse()){
-					command = "Server Use Name ( " + clientsPlayer.getName()
-						+ " ) Name ( " + item.getName() +" ) ";
+					command = new UseCommand(Target.SERVER, clientsPlayer.getName(),
+							item.getName());
 				}
 			}
 		}
@@ -195,13 +404,12 @@ public abstract class ClientWorld extends ServerWorld {
 	/**
 	 * Gets the commands for picking up items.
 	 *
-	 * @return - return a string for the pickup command if unable string will be
-	 *         empty.
+	 * @return - return the pickup command, or null if unable.
 	 */
-	private String getItemPickUpCommand() {
+	private Command getItemPickUpCommand() {
 		Place place = getCurrentPlace();
 		Iterator<Item> items = place.getItems();
-		String command = "";
+		Command command = null;
 		// looks through all the items in the place.
 		while (items.hasNext()) {
 			Item item = items.next();
@@ -211,9 +419,8 @@ public abstract class ClientWorld extends ServerWorld {
 					clientsPlayer.getBoundingBox(), item.getPosition(),
 					item.getBoundingBox())) {
 				// structers a command for the server.
-				command = "Server ItemPickUp Name ( " + clientsPlayer.getName()
-						+ " ) Name ( " + item.getName() + " ) Name ( "
-						+ place.getName() + " )";
+				command = new PickUpCommand(Target.SERVER, clientsPlayer.getName(),
+						item.getName(), place.getName());
 			}
 		}
 		return command;
@@ -222,19 +429,18 @@ public abstract class ClientWorld extends ServerWorld {
 	/**
 	 * Gets the command for droping an item
 	 *
-	 * @return - returns the command for the server or an expty string.
+	 * @return - returns the command for the server or null.
 	 */
-	private String getItemDropCommand() {
-		String command = "";
+	private Command getItemDropCommand() {
+		Command command = null;
 		Inventory inventory = clientsPlayer.getInventory();
 		// Checks the inventory
 		for (Item item : inventory) {
 			// if the item is selected then we can drop it.
 			if (item.isSlelected()) {
 				// structures a command for the server.
-				command = "Server ItemDrop Name ( " + clientsPlayer.getName()
-						+ " ) Name ( " + item.getName() + " )  Name ( "
-						+ currentPlace.getName() + " )";
+				command = new DropCommand(Target.SERVER, clientsPlayer.getName(),
+						item.getName(), currentPlace.getName(), null);
 			}
 		}
 		return command;
@@ -242,10 +448,10 @@ public abstract class ClientWorld extends ServerWorld {
 
 	/**
 	 * Gets the command for interacting with a container.
-	 * @return - return a structured command for interation or and empty string.
+	 * @return - return a structured command for interation or null.
 	 */
-	private String getContainerInteractCommand() {
-		String command = "";
+	private Command getContainerInteractCommand() {
+		Command command = null;
 		Iterator<Item> items = currentPlace.getItems();
 		// looks thorught all the items.
 		while (items.hasNext()) {
@@ -258,9 +464,8 @@ public abstract class ClientWorld extends ServerWorld {
 							clientsPlayer.getPosition(),
 							clientsPlayer.getBoundingBox())) {
 				// if they are then we will make the command.
-				command =  "Server Container Name ( "+ clientsPlayer.getName()
-						+ " ) Name ( " + item.getName() + " )  Name ( "
-						+ currentPlace.getName() + " )";
+				command = new ContainerCommand(Target.SERVER, clientsPlayer.getName(),
+						item.getName(), currentPlace.getName());
 			}
 		}
 		return command;
@@ -301,4 +506,16 @@ public abstract class ClientWorld extends ServerWorld {
 		return clientsPlayer;
 	}
 
+	/**
+	 * Checks whether a name is this clients player. Results for other players
+	 * can arrive before this client has made its own, so there may not be one.
+	 *
+	 * @param name
+	 *            - name of a player.
+	 * @return - true if it is this clients player.
+	 */
+	protected boolean isClientsPlayer(String name){
+		return clientsPlayer != null && clientsPlayer.name.equals(name);
+	}
+
 }
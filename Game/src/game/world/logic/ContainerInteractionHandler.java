@@ -27,7 +27,7 @@ public class ContainerInteractionHandler {
 		}
 		// the place and the container must be in the place.
 		if (!place.containsPlayer(player)
-				&& !place.containsItem(container)) {
+				|| !place.containsItem(container)) {
 			return false;
 		}
 		// the container could be locked.
@@ -0,0 +1,272 @@
+package game.world.logic;
+
+import game.world.dimensions.Point3D;
+import game.world.model.*;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * The parts of a world that change while a game is played: where the players are and what they
+ * carry, where every item is, and which exits are locked. Together with a copy of the world as
+ * it was loaded this is enough to rebuild the current world, and it is a tiny fraction of the
+ * size of the whole thing.
+ *
+ * A state never changes once it is made, so any thread can read or serialize it while the world
+ * carries on. It is kept one place at a time, and a state made by update shares every place that
+ * didn't change with the state it was made from, so making one after each tick only costs as
+ * much as the places that tick touched.
+ */
+public class EntityState implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long version;
+	private final Map<String, PlaceState> places;
+
+	private EntityState(long version, Map<String, PlaceState> places) {
+		this.version = version;
+		this.places = Collections.unmodifiableMap(places);
+	}
+
+	/**
+	 * Records the state of every entity in the world.
+	 *
+	 * @param world
+	 *            - the world to record.
+	 * @param version
+	 *            - the number of commands the world has applied.
+	 * @return - the state of the world.
+	 */
+	public static EntityState capture(ServerWorld world, long version) {
+		Map<String, PlaceState> places = new LinkedHashMap<String, PlaceState>();
+		Iterator<Place> it = world.getPlaces();
+		while (it.hasNext()) {
+			Place place = it.next();
+			places.put(place.getName(), new PlaceState(place));
+		}
+		return new EntityState(version, places);
+	}
+
+	/**
+	 * Makes a new state from this one, recording again only the places that
+	 * have changed since this one was made. Must be called by whatever is
+	 * allowed to change the world, while nothing is changing it.
+	 *
+	 * @param world
+	 *            - the world this state was recorded from.
+	 * @param version
+	 *            - the number of commands the world has applied.
+	 * @param changed
+	 *            - names of the places that have changed, or null if any of
+	 *            them may have.
+	 * @return - the state of the world now.
+	 */
+	public EntityState update(ServerWorld world, long version, Set<String> changed) {
+		if (changed == null) {
+			return capture(world, version);
+		}
+		Map<String, PlaceState> updated = new LinkedHashMap<String, PlaceState>(places);
+		for (String name : changed) {
+			Place place = world.getPlaceByName(name);
+			if (place != null) {
+				updated.put(name, new PlaceState(place));
+			}
+		}
+		return new EntityState(version, updated);
+	}
+
+	/**
+	 * Makes a world that has just been loaded match this state. The world
+	 * should have no players in it yet.
+	 *
+	 * @param world
+	 *            - the world to change.
+	 */
+	public void applyTo(ServerWorld world) {
+		// Empty every place and container, the state says where everything goes.
+		List<Container> containers = new ArrayList<Container>();
+		Iterator<Place> places = world.getPlaces();
+		while (places.hasNext()) {
+			Place place = places.next();
+			List<Item> placeItems = new ArrayList<Item>();
+			Iterator<Item> it = place.getItems();
+			while (it.hasNext()) {
+				placeItems.add(it.next());
+			}
+			for (Item item : placeItems) {
+				place.removeItem(item);
+				if (item instanceof Container) {
+					containers.add((Container) item);
+				}
+			}
+			PlaceState state = this.places.get(place.getName());
+			Iterator<Exit> exits = place.getExits();
+			while (exits.hasNext() && state != null) {
+				Exit exit = exits.next();
+				Boolean locked = state.exitLocks.get(exit.getName());
+				if (locked != null) {
+					exit.setLocked(locked);
+				}
+			}
+		}
+		for (Container container : containers) {
+			List<Item> contents = new ArrayList<Item>();
+			for (Item item : container.getContents()) {
+				contents.add(item);
+			}
+			for (Item item : contents) {
+				container.getContents().removeItem(item);
+			}
+		}
+
+		for (PlaceState state : this.places.values()) {
+			state.applyTo(world);
+		}
+	}
+
+	/**
+	 * Gets the number of commands the world had applied when it was recorded.
+	 *
+	 * @return - the version.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Counts the players in every place.
+	 *
+	 * @return - the number of players.
+	 */
+	public int getPlayerCount() {
+		int count = 0;
+		for (PlaceState state : places.values()) {
+			count += state.players.size();
+		}
+		return count;
+	}
+
+	private static List<String> names(Inventory inventory) {
+		List<String> names = new ArrayList<String>();
+		for (Item item : inventory) {
+			names.add(item.getName());
+		}
+		return names;
+	}
+
+	private static List<Item> items(ServerWorld world, List<String> names) {
+		List<Item> items = new ArrayList<Item>();
+		for (String name : names) {
+			Item item = world.getItemByName(name);
+			if (item != null) {
+				items.add(item);
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Everything in one place: the items lying in it, what is in its
+	 * containers, the players in it and whether its exits are locked.
+	 */
+	private static class PlaceState implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final String name;
+		private final List<ItemState> items = new ArrayList<ItemState>();
+		private final Map<String, List<String>> containerContents = new HashMap<String, List<String>>();
+		private final List<PlayerState> players = new ArrayList<PlayerState>();
+		// Exits are shared between places so may be in two of these.
+		private final Map<String, Boolean> exitLocks = new HashMap<String, Boolean>();
+
+		public PlaceState(Place place) {
+			name = place.getName();
+			// Items lying in the place, and the contents of any containers.
+			Iterator<Item> it = place.getItems();
+			while (it.hasNext()) {
+				Item item = it.next();
+				items.add(new ItemState(item.getName(), item.getPosition()));
+				if (item instanceof Container) {
+					containerContents.put(item.getName(),
+							names(((Container) item).getContents()));
+				}
+			}
+			Iterator<Player> ps = place.getPlayers();
+			while (ps.hasNext()) {
+				Player player = ps.next();
+				players.add(new PlayerState(player.getName(), player.getImageName(),
+						player.getPosition(), names(player.getInventory())));
+			}
+			Iterator<Exit> exits = place.getExits();
+			while (exits.hasNext()) {
+				Exit exit = exits.next();
+				exitLocks.put(exit.getName(), exit.isLocked());
+			}
+		}
+
+		private void applyTo(ServerWorld world) {
+			Place place = world.getPlaceByName(name);
+			if (place == null) {
+				return;
+			}
+			for (ItemState itemState : items) {
+				Item item = world.getItemByName(itemState.name);
+				if (item != null) {
+					item.setPosition(itemState.position);
+					place.addItem(item);
+				}
+			}
+			for (Map.Entry<String, List<String>> entry : containerContents.entrySet()) {
+				Item container = world.getItemByName(entry.getKey());
+				if (container instanceof Container) {
+					for (Item item : items(world, entry.getValue())) {
+						((Container) container).getContents().addItem(item);
+					}
+				}
+			}
+			for (PlayerState playerState : players) {
+				Player player = new Player(playerState.name);
+				player.setImageName(playerState.imageName);
+				player.move(playerState.position);
+				for (Item item : items(world, playerState.inventory)) {
+					player.addItem(item);
+				}
+				world.addPlayer(player);
+				place.addPlayer(player);
+			}
+		}
+	}
+
+	/**
+	 * Where a player is and what they are carrying.
+	 */
+	private static class PlayerState implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final String name;
+		private final String imageName;
+		private final Point3D position;
+		private final List<String> inventory;
+
+		public PlayerState(String name, String imageName, Point3D position,
+				List<String> inventory) {
+			this.name = name;
+			this.imageName = imageName;
+			this.position = position;
+			this.inventory = inventory;
+		}
+	}
+
+	/**
+	 * Where an item lying in a place is.
+	 */
+	private static class ItemState implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final String name;
+		private final Point3D position;
+
+		public ItemState(String name, Point3D position) {
+			this.name = name;
+			this.position = position;
+		}
+	}
+}
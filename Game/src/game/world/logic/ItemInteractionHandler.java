@@ -32,7 +32,7 @@ public class ItemInteractionHandler {
 			return false;
 		}
 		// the place must contain both the player and the item.
-		if (!place.containsPlayer(player) && !place.containsItem(item)) {
+		if (!place.containsPlayer(player) || !place.containsItem(item)) {
 			return false;
 		}
 		// the player must be withing range to pick up an item.
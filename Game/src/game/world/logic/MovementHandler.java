@@ -1,5 +1,7 @@
 package game.world.logic;
 
+import game.ui.render.util.Transform;
+import game.world.commands.InputCommand;
 import game.world.dimensions.*;
 import game.world.model.*;
 
@@ -63,6 +65,51 @@ public class MovementHandler {
 		return true;
 	}
 
+	/**
+	 * Works out where a player holding movement keys wants to be next. Each
+	 * key held turns the players direction the way that key would, they are
+	 * added together, then turned by the view angle as a single key press is.
+	 *
+	 * @param player
+	 *            - the player holding the keys.
+	 * @param held
+	 *            - the keys, as InputCommand bits.
+	 * @param viewAngle
+	 *            - which way the player is looking.
+	 * @param distance
+	 *            - how far to go.
+	 * @return - the point to move to, or null if the keys held cancel out.
+	 */
+	public static Point3D walk(Player player, int held, float viewAngle,
+			float distance) {
+		Vector3D sum = new Vector3D(0, 0, 0);
+		if ((held & InputCommand.UP) != 0) {
+			sum = sum.plus(turn(player, (float) (Math.PI / 2.0f)));
+		}
+		if ((held & InputCommand.DOWN) != 0) {
+			sum = sum.plus(turn(player, (float) -(Math.PI / 2.0f)));
+		}
+		if ((held & InputCommand.LEFT) != 0) {
+			sum = sum.plus(turn(player, (float) Math.PI));
+		}
+		if ((held & InputCommand.RIGHT) != 0) {
+			sum = sum.plus(turn(player, 0));
+		}
+		if (sum.mag < 0.001f) {
+			return null;
+		}
+		// Needed to be negitive becasue the render is using the view wiredly.
+		Vector3D direction = Transform.newYRotation(-viewAngle)
+				.multiply(sum).unitVector();
+		return player.getPosition().getTranslatedPoint(
+				direction.makeScaled(distance));
+	}
+
+	private static Vector3D turn(Player player, float angle) {
+		return Transform.newYRotation(angle).multiply(player.getDirection())
+				.unitVector();
+	}
+
 	/**
 	 * Check the enviroment for colitions.
 	 * @param player - player to be checked.
@@ -177,7 +224,8 @@ public class MovementHandler {
 
 	// ==========================Exiting Room Logic=========================//
 	/**
-	 * Helps a player exit from one room to another.
+	 * Helps a player exit from one room to another. This is the two halves
+	 * of the handoff, leavePlace then enterPlace, done one after the other.
 	 *
 	 * @param player
 	 *            - player to be moved
@@ -188,6 +236,31 @@ public class MovementHandler {
 	 * @return - returns true if the player exited correctly.
 	 */
 	public static boolean exitPlace(Player player, Place place, Exit exit) {
+		if (!leavePlace(player, place, exit)) {
+			return false;
+		}
+		if (enterPlace(player, exit, exit.getOtherPlace(place))) {
+			return true;
+		}
+		// will fail if no position in other place is found.
+		place.addPlayer(player);
+		return false;
+	}
+
+	/**
+	 * The first half of taking an exit, which only touches the place being
+	 * left. Checks the player can use the exit and takes them out of the
+	 * place. If the other half fails the player must be put back.
+	 *
+	 * @param player
+	 *            - player to be moved
+	 * @param place
+	 *            - place the player is moving from.
+	 * @param exit
+	 *            - the exit the player is going to use.
+	 * @return - true if the player has left the place.
+	 */
+	public static boolean leavePlace(Player player, Place place, Exit exit) {
 		// None of the parameters should be null.
 		if (player == null || exit == null || place == null){
 			return false;
@@ -197,22 +270,38 @@ public class MovementHandler {
 				exit.getPosition(place), exit.getBoundingBox())) {
 			return false;
 		}
-		// Checks if the exit is locked.
-		if (exit.isLocked()) {
-			// will try to unlock the exit
-			if (!exit.unlock(player.getInventory())) {
-				return false;
+		// The exit is shared with the place on the other side.
+		synchronized (exit) {
+			// Checks if the exit is locked.
+			if (exit.isLocked()) {
+				// will try to unlock the exit
+				if (!exit.unlock(player.getInventory())) {
+					return false;
+				}
 			}
 		}
-		// gets the place the player is moving to.
-		Place otherPlace = exit.getOtherPlace(place);
-		// will set a new psoition for the player and remove and add him/her.
+		place.removePlayer(player);
+		return true;
+	}
+
+	/**
+	 * The second half of taking an exit, which only touches the place being
+	 * entered. Finds somewhere by the exit for the player and adds them.
+	 *
+	 * @param player
+	 *            - player that has left the other place.
+	 * @param exit
+	 *            - the exit the player is using.
+	 * @param otherPlace
+	 *            - the place the player is going to.
+	 * @return - false if there was no room for the player.
+	 */
+	public static boolean enterPlace(Player player, Exit exit, Place otherPlace) {
+		// will set a new psoition for the player and add him/her.
 		if (setPlayerExitPosition(player, exit, otherPlace)){
-			place.removePlayer(player);
 			otherPlace.addPlayer(player);
 			return true;
 		}
-		// will fail if no position in other place is found.
 		return false;
 	}
 
@@ -0,0 +1,124 @@
+package game.world.logic;
+
+import game.world.dimensions.Point3D;
+
+/**
+ * The last few positions a player was seen at, each with the time it arrived.
+ * Used to draw other players smoothly between the updates the server sends,
+ * rather than jumping each time one arrives.
+ *
+ * Positions are written by the thread reading from the server and read by
+ * the thread drawing, so every method is synchronized.
+ */
+public class PositionHistory {
+
+	// How many positions are kept. Only the ones around the time being drawn matter.
+	private static final int CAPACITY = 16;
+
+	// Guessing where a player has gone stops after this long without news.
+	public static final long MAX_EXTRAPOLATION = 200;
+
+	private final long[] times = new long[CAPACITY];
+	private final Point3D[] points = new Point3D[CAPACITY];
+	private int start = 0;
+	private int size = 0;
+
+	/**
+	 * Records a position.
+	 *
+	 * @param time
+	 *            - when it arrived in milliseconds, never earlier than the
+	 *            last one added.
+	 * @param point
+	 *            - where the player is.
+	 * @param delay
+	 *            - how far behind the present players are drawn. If the
+	 *            player hasn't moved for longer than this they start moving
+	 *            from where they stood rather than jumping.
+	 */
+	public synchronized void add(long time, Point3D point, long delay) {
+		if (size > 0 && time - times[last()] > delay) {
+			put(time - delay, points[last()]);
+		}
+		put(time, point);
+	}
+
+	/**
+	 * Forgets every position, so the next one is drawn straight away. Used
+	 * when a player is moved somewhere it didn't walk to.
+	 */
+	public synchronized void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Works out where the player was at a time. Between two positions it
+	 * is part way along the line joining them. After the last one the player
+	 * carries on the way it was going, but for no more than
+	 * MAX_EXTRAPOLATION.
+	 *
+	 * @param time
+	 *            - the time being drawn in milliseconds.
+	 * @return - the position, or null if there are none.
+	 */
+	public synchronized Point3D at(long time) {
+		if (size == 0) {
+			return null;
+		}
+		if (time <= times[start]) {
+			return points[start];
+		}
+		for (int i = 1; i < size; i++) {
+			int next = index(i);
+			if (time <= times[next]) {
+				int previous = index(i - 1);
+				return lerp(previous, next, time);
+			}
+		}
+		if (size == 1) {
+			return points[start];
+		}
+		// Nothing has arrived for this time yet, so guess from the last two.
+		long latest = times[last()];
+		long ahead = Math.min(time, latest + MAX_EXTRAPOLATION);
+		return lerp(index(size - 2), last(), ahead);
+	}
+
+	/**
+	 * @return - the number of positions held.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	private void put(long time, Point3D point) {
+		if (size == CAPACITY) {
+			start = (start + 1) % CAPACITY;
+			size--;
+		}
+		int i = index(size);
+		times[i] = time;
+		points[i] = point;
+		size++;
+	}
+
+	private Point3D lerp(int from, int to, long time) {
+		long span = times[to] - times[from];
+		if (span <= 0) {
+			return points[to];
+		}
+		float f = (float) (time - times[from]) / span;
+		Point3D a = points[from];
+		Point3D b = points[to];
+		return new Point3D(a.x + (b.x - a.x) * f, a.y + (b.y - a.y) * f,
+				a.z + (b.z - a.z) * f);
+	}
+
+	private int index(int i) {
+		return (start + i) % CAPACITY;
+	}
+
+	private int last() {
+		return index(size - 1);
+	}
+}
@@ -1,8 +1,8 @@
 package game.world.logic;
 
-import game.world.dimensions.*;
+import game.world.commands.*;
+import game.world.commands.Command.Target;
 import game.world.model.*;
-import game.world.util.Parser;
 
 import java.io.Serializable;
 import java.util.*;
@@ -15,26 +15,27 @@ import java.util.*;
 public interface ServerCommandStratagy extends Serializable{
 	/**
 	 * Handles commands for the server
-	 * @param scan - has the clients command in it.
 	 * @param command - the command that is the clients.
+	 * @param world - the world the command is run on.
+	 * @return - the commands to send to the clients.
 	 */
-	public List<String> handleCommand(Scanner scan, String command, ServerWorld world);
+	public List<Command> handleCommand(Command command, ServerWorld world);
 }
 //=============================Implementations=============================================//
 
 class ServerPlayerPlacementStratagy implements ServerCommandStratagy{
+	private static final long serialVersionUID = -8993308574367163768L;
+
 	@Override
-	public List<String> handleCommand(Scanner scan, String command, ServerWorld world){
-		List<String> commands = new ArrayList<String>();
-		Player player = Parser.parsePlayer(scan);
-		Parser.removeUnneedText("Image", scan);
-		String imageName = Parser.parseName(scan);
+	public List<Command> handleCommand(Command command, ServerWorld world){
+		List<Command> commands = new ArrayList<Command>();
+		PlacementCommand placement = (PlacementCommand)command;
+		Player player = new Player(placement.getPlayerName());
+		String imageName = placement.getImageName();
 		player.setImageName(imageName);
 		if (world.addPlayerToGameWorld(player)) {
-			String newCommand = "Client PlayerPlacement Name ( "
-					+ player.getName() + " ) Image ( " +imageName+" ) Position ( "
-					+ player.getPosition().toString() + " )";
-			commands.add(newCommand);
+			commands.add(new PlacementCommand(Target.CLIENT, player.getName(),
+					imageName, player.getPosition()));
 		}
 		return commands;
 	}
@@ -47,29 +48,19 @@ class ServerPlayerPlacementStratagy implements ServerCommandStratagy{
  *
  */
 class ServerMoveStratagy implements ServerCommandStratagy{
+	private static final long serialVersionUID = -5056130728540645450L;
 
 	@Override
-	public List<String> handleCommand(Scanner scan, String command, ServerWorld world){
-		List<String> commands = new ArrayList<String>();
-		// Gets the players name
-		Parser.removeUnneedText("Name", scan);
-		String playerName = Parser.parseName(scan);
-		// Gets the point the player is to move to.
-		Parser.removeUnneedText("Point", scan);
-		Point3D playerPosition = Parser.parsePosition(scan);
-		// get the place which the player is to move in.
-		Parser.removeUnneedText("Name", scan);
-		String placeName = Parser.parseName(scan);
+	public List<Command> handleCommand(Command command, ServerWorld world){
+		List<Command> commands = new ArrayList<Command>();
+		MoveCommand move = (MoveCommand)command;
 
 		// Checks the logic to sort all of the players movement.
-		if (MovementHandler.playerMove(world.getPlayerByName(playerName),
-				playerPosition, world.getPlaceByName(placeName))) {
+		if (MovementHandler.playerMove(world.getPlayerByName(move.getPlayerName()),
+				move.getPoint(), world.getPlaceByName(move.getPlaceName()))) {
 			// Makes the command for the client.
-			Scanner sc = new Scanner(command);
-			sc.next();
-			String newCommand = "Client " + sc.nextLine();
-			commands.add(newCommand);
-			sc.close();
+			commands.add(new MoveCommand(Target.CLIENT, move.getPlayerName(),
+					move.getPoint(), move.getPlaceName(), move.getSequence()));
 		}
 
 		// Returns the new command.
@@ -83,27 +74,18 @@ class ServerMoveStratagy implements ServerCommandStratagy{
  *
  */
 class ServerExitStratagy implements ServerCommandStratagy{
+	private static final long serialVersionUID = 4769067755502119802L;
 
 	@Override
-	public List<String> handleCommand(Scanner scan, String command, ServerWorld world){
-		List<String> commands = new ArrayList<String>();
-
-		Parser.removeUnneedText("Name", scan);
-		String playerName = Parser.parseName(scan);
-
-		Parser.removeUnneedText("Name", scan);
-		String exitName = Parser.parseName(scan);
-
-		Parser.removeUnneedText("Name", scan);
-		String placeName = Parser.parseName(scan);
-		if (MovementHandler.exitPlace(world.getPlayerByName(playerName),
-				world.getPlaceByName(placeName), world.getExitByName(exitName))) {
-			Scanner sc = new Scanner(command);
-			sc.next();
-			Player player = world.getPlayerByName(playerName);
-			commands.add("Client " + sc.nextLine() + " Position ( "
-					+ player.getPosition() + " )");
-			sc.close();
+	public List<Command> handleCommand(Command command, ServerWorld world){
+		List<Command> commands = new ArrayList<Command>();
+		ExitCommand exit = (ExitCommand)command;
+
+		Player player = world.getPlayerByName(exit.getPlayerName());
+		if (MovementHandler.exitPlace(player,
+				world.getPlaceByName(exit.getPlaceName()), world.getExitByName(exit.getExitName()))) {
+			commands.add(new ExitCommand(Target.CLIENT, exit.getPlayerName(),
+					exit.getExitName(), exit.getPlaceName(), player.getPosition()));
 		}
 		return commands;
 	}
@@ -115,29 +97,20 @@ class ServerExitStratagy implements ServerCommandStratagy{
  *
  */
 class ServerItemPickupStratagy implements ServerCommandStratagy{
+	private static final long serialVersionUID = -911090646070130107L;
 
 	@Override
-	public List<String> handleCommand(Scanner scan, String command, ServerWorld world){
-		List<String> commands = new ArrayList<String>();
-
-		Parser.removeUnneedText("Name", scan);
-		String playerName = Parser.parseName(scan);
-
-		Parser.removeUnneedText("Name", scan);
-		String itemName = Parser.parseName(scan);
+	public List<Command> handleCommand(Command command, ServerWorld world){
+		List<Command> commands = new ArrayList<Command>();
+		PickUpCommand pickUp = (PickUpCommand)command;
 
-		Parser.removeUnneedText("Name", scan);
-		String placeName = Parser.parseName(scan);
-
-		Player player = world.getPlayerByName(playerName);
-		Item item = world.getItemByName(itemName);
-		Place place = world.getPlaceByName(placeName);
+		Player player = world.getPlayerByName(pickUp.getPlayerName());
+		Item item = world.getItemByName(pickUp.getItemName());
+		Place place = world.getPlaceByName(pickUp.getPlaceName());
 
 		if (ItemInteractionHandler.pickupItem(player, item, place)){
-			Scanner sc = new Scanner(command);
-			sc.next();
-			commands.add("Client "+ sc.nextLine());
-			sc.close();
+			commands.add(new PickUpCommand(Target.CLIENT, pickUp.getPlayerName(),
+					pickUp.getItemName(), pickUp.getPlaceName()));
 		}
 		return commands;
 	}
@@ -149,29 +122,20 @@ class ServerItemPickupStratagy implements ServerCommandStratagy{
  *
  */
 class ServerItemDropStratagy implements ServerCommandStratagy{
+	private static final long serialVersionUID = -7806017175636965206L;
 
 	@Override
-	public List<String> handleCommand(Scanner scan, String command, ServerWorld world){
-		List<String> commands = new ArrayList<String>();
-
-		Parser.removeUnneedText("Name", scan);
-		String playerName = Parser.parseName(scan);
+	public List<Command> handleCommand(Command command, ServerWorld world){
+		List<Command> commands = new ArrayList<Command>();
+		DropCommand drop = (DropCommand)command;
 
-		Parser.removeUnneedText("Name", scan);
-		String itemName = Parser.parseName(scan);
-
-		Parser.removeUnneedText("Name", scan);
-		String placeName = Parser.parseName(scan);
-
-		Player player = world.getPlayerByName(playerName);
-		Item item = world.getItemByName(itemName);
-		Place place = world.getPlaceByName(placeName);
+		Player player = world.getPlayerByName(drop.getPlayerName());
+		Item item = world.getItemByName(drop.getItemName());
+		Place place = world.getPlaceByName(drop.getPlaceName());
 
 		if (ItemInteractionHandler.dropItem(player, item, place)){
-			Scanner sc = new Scanner(command);
-			sc.next();
-			commands.add("Client "+ sc.nextLine() + " Point " + item.getPosition());
-			sc.close();
+			commands.add(new DropCommand(Target.CLIENT, drop.getPlayerName(),
+					drop.getItemName(), drop.getPlaceName(), item.getPosition()));
 		}
 		return commands;
 	}
@@ -183,24 +147,17 @@ class ServerItemDropStratagy implements ServerCommandStratagy{
  *
  */
 class ServerContainerStratagy implements ServerCommandStratagy{
+	private static final long serialVersionUID = -8893916824500789029L;
 
 	@Override
-	public List<String> handleCommand(Scanner scan, String command, ServerWorld world){
-		List<String> commands = new ArrayList<String>();
-		// Get the player name.
-		Parser.removeUnneedText("Name", scan);
-		String playerName = Parser.parseName(scan);
-		// get the item name.
-		Parser.removeUnneedText("Name", scan);
-		String itemName = Parser.parseName(scan);
-		// get the place name.
-		Parser.removeUnneedText("Name", scan);
-		String placeName = Parser.parseName(scan);
+	public List<Command> handleCommand(Command command, ServerWorld world){
+		List<Command> commands = new ArrayList<Command>();
+		ContainerCommand loot = (ContainerCommand)command;
 
 		// Get the player , item and Place.
-		Player player = world.getPlayerByName(playerName);
-		Item item = world.getItemByName(itemName);
-		Place place = world.getPlaceByName(placeName);
+		Player player = world.getPlayerByName(loot.getPlayerName());
+		Item item = world.getItemByName(loot.getContainerName());
+		Place place = world.getPlaceByName(loot.getPlaceName());
 		Container container;
 
 		// Checks if the item is a container if not returns the empty command.
@@ -214,10 +171,8 @@ class ServerContainerStratagy implements ServerCommandStratagy{
 		// Make a request of the container handler to check logic
 		if (ContainerInteractionHandler.getItemsFromContainer(player, container, place)){
 			// if true then make the client command.
-			Scanner sc = new Scanner(command);
-			sc.next();
-			commands.add("Client "+ sc.nextLine());
-			sc.close();
+			commands.add(new ContainerCommand(Target.CLIENT, loot.getPlayerName(),
+					loot.getContainerName(), loot.getPlaceName()));
 		}
 		// returns the command for the client to do.
 		return commands;
@@ -225,26 +180,21 @@ class ServerContainerStratagy implements ServerCommandStratagy{
 }
 
 class ServerUseStratagy implements ServerCommandStratagy{
-	public List<String> handleCommand(Scanner scan, String command, ServerWorld world){
-		List<String> commands = new ArrayList<String>();
-		// Gets the player name.
-		Parser.removeUnneedText("Name", scan);
-		String playerName = Parser.parseName(scan);
-		// Gets the item of the player.
-		Parser.removeUnneedText("Name", scan);
-		String itemName = Parser.parseName(scan);
-
-		Player player = world.getPlayerByName(playerName);
-		Item item = world.getItemByName(itemName);
+	private static final long serialVersionUID = 4409489540776819497L;
+
+	public List<Command> handleCommand(Command command, ServerWorld world){
+		List<Command> commands = new ArrayList<Command>();
+		UseCommand use = (UseCommand)command;
+
+		Player player = world.getPlayerByName(use.getPlayerName());
+		Item item = world.getItemByName(use.getItemName());
 
 		if (item.canUse() && item instanceof UsableItem){
 			UsableItem usable = (UsableItem) item;
 			usable.use(player);
 			player.getInventory().removeItem(item);
-			Scanner sc = new Scanner(command);
-			sc.next();
-			commands.add("Server "+sc.nextLine());
-			sc.close();
+			// Every client runs the use too.
+			commands.add(use);
 		}
 		return commands;
 	}
@@ -1,9 +1,10 @@
 package game.world.logic;
 
-import game.world.dimensions.Point3D;
+import game.world.commands.*;
 import game.world.model.*;
-import game.world.util.Parser;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -14,18 +15,161 @@ import java.util.*;
  */
 public abstract class ServerWorld implements Serializable {
 
+	private static final long serialVersionUID = -7584074326494813730L;
 
-	private final Map<String, ServerCommandStratagy> serverCommands;
+	// The stratagys hold no state so they are not sent with the world.
+	private transient Map<CommandType, ServerCommandStratagy> serverCommands;
 
 	public ServerWorld (){
-		serverCommands = new HashMap<String, ServerCommandStratagy>();
-		serverCommands.put("PlayerPlacement", new ServerPlayerPlacementStratagy());
-		serverCommands.put("Move", new ServerMoveStratagy());
-		serverCommands.put("Exit", new ServerExitStratagy());
-		serverCommands.put("ItemPickUp", new ServerItemPickupStratagy());
-		serverCommands.put("ItemDrop", new ServerItemDropStratagy());
-		serverCommands.put("Container", new ServerContainerStratagy());
-		serverCommands.put("Use", new ServerUseStratagy());
+		setUpServerCommands();
+	}
+
+	/**
+	 * Adds all the stratagys to a hashmap for ease of getting.
+	 */
+	private void setUpServerCommands(){
+		serverCommands = new EnumMap<CommandType, ServerCommandStratagy>(CommandType.class);
+		serverCommands.put(CommandType.PLAYER_PLACEMENT, new ServerPlayerPlacementStratagy());
+		serverCommands.put(CommandType.MOVE, new ServerMoveStratagy());
+		serverCommands.put(CommandType.EXIT, new ServerExitStratagy());
+		serverCommands.put(CommandType.ITEM_PICK_UP, new ServerItemPickupStratagy());
+		serverCommands.put(CommandType.ITEM_DROP, new ServerItemDropStratagy());
+		serverCommands.put(CommandType.CONTAINER, new ServerContainerStratagy());
+		serverCommands.put(CommandType.USE, new ServerUseStratagy());
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		setUpServerCommands();
+	}
+
+	/**
+	 * Checks a player is in a place, without looking in any other place. Used
+	 * before a command is run by something that only owns that one place.
+	 *
+	 * @param playerName
+	 *            - name of the player.
+	 * @param placeName
+	 *            - name of the place.
+	 * @return - true if the player is in the place.
+	 */
+	public boolean isInPlace(String playerName, String placeName) {
+		Player player = getPlayerByName(playerName);
+		Place place = getPlaceByName(placeName);
+		return player != null && place != null && place.containsPlayer(player);
+	}
+
+	/**
+	 * The first half of an exit being taken, touching only the place being
+	 * left. Must be followed by enterPlace for the place being entered.
+	 *
+	 * @param exit
+	 *            - the clients exit command.
+	 * @return - the name of the place being entered, or null if the player
+	 *         can't leave.
+	 */
+	public String leavePlace(ExitCommand exit) {
+		Player player = getPlayerByName(exit.getPlayerName());
+		Place place = getPlaceByName(exit.getPlaceName());
+		Exit ex = getExitByName(exit.getExitName());
+		if (player == null || place == null || ex == null
+				|| !place.containsPlayer(player)) {
+			return null;
+		}
+		if (!MovementHandler.leavePlace(player, place, ex)) {
+			return null;
+		}
+		return ex.getOtherPlace(place).getName();
+	}
+
+	/**
+	 * @param exit
+	 *            - the clients exit command.
+	 * @return - the name of the place on the other side of the exit, or null
+	 *         if there is no such exit.
+	 */
+	public String leadsTo(ExitCommand exit) {
+		Place place = getPlaceByName(exit.getPlaceName());
+		Exit ex = getExitByName(exit.getExitName());
+		if (place == null || ex == null) {
+			return null;
+		}
+		Place other = ex.getOtherPlace(place);
+		return other == null ? null : other.getName();
+	}
+
+	/**
+	 * The second half of an exit being taken, touching only the place being
+	 * entered. If it fails the player has to go back with returnToPlace.
+	 *
+	 * @param exit
+	 *            - the clients exit command, which leavePlace accepted.
+	 * @return - the commands for the clients, or nothing if there was no room.
+	 */
+	public List<Command> enterPlace(ExitCommand exit) {
+		List<Command> commands = new ArrayList<Command>();
+		Player player = getPlayerByName(exit.getPlayerName());
+		Exit ex = getExitByName(exit.getExitName());
+		Place otherPlace = ex.getOtherPlace(getPlaceByName(exit.getPlaceName()));
+		if (MovementHandler.enterPlace(player, ex, otherPlace)) {
+			commands.add(new ExitCommand(Command.Target.CLIENT, exit.getPlayerName(),
+					exit.getExitName(), exit.getPlaceName(), player.getPosition()));
+		}
+		return commands;
+	}
+
+	/**
+	 * Puts a player back in the place they tried to leave, when there was no
+	 * room on the other side.
+	 *
+	 * @param exit
+	 *            - the clients exit command.
+	 */
+	public void returnToPlace(ExitCommand exit) {
+		getPlaceByName(exit.getPlaceName()).addPlayer(
+				getPlayerByName(exit.getPlayerName()));
+	}
+
+	/**
+	 * The second half of an exit being taken, when the player has come from a
+	 * place another server runs. The player is added to this world with
+	 * everything they carry, unless there is no room for them.
+	 *
+	 * @param player
+	 *            - the player, as the other server sent them.
+	 * @param exit
+	 *            - the clients exit command, which the other server's
+	 *            leavePlace accepted.
+	 * @return - the commands for the clients, or nothing if there was no room.
+	 */
+	public List<Command> arrive(Player player, ExitCommand exit) {
+		// a copy left over from the last time they were here
+		Player old = getPlayerByName(player.getName());
+		if (old != null) {
+			removePlayer(old);
+		}
+		addPlayer(player);
+		List<Command> commands = enterPlace(exit);
+		if (commands.isEmpty()) {
+			removePlayer(player);
+		}
+		return commands;
+	}
+
+	/**
+	 * Takes a player who has gone to a place another server runs out of this
+	 * world. The player must have left their place with leavePlace.
+	 *
+	 * @param playerName
+	 *            - name of the player.
+	 * @return - the player, or null if there is no such player.
+	 */
+	public Player depart(String playerName) {
+		Player player = getPlayerByName(playerName);
+		if (player != null) {
+			removePlayer(player);
+		}
+		return player;
 	}
 
 	/**
@@ -35,16 +179,30 @@ public abstract class ServerWorld implements Serializable {
 	 *            - clients command.
 	 * @return - returns a list of commands.
 	 */
+	public List<Command> applyCommand(Command command) {
+		ServerCommandStratagy stratagy = serverCommands.get(command.getType());
+		// input is turned into moves before it gets to the world
+		if (command.getTarget() != Command.Target.SERVER || stratagy == null) {
+			return new ArrayList<Command>();
+		}
+		return stratagy.handleCommand(command, this);
+	}
+
+	/**
+	 * Applys a command in the text format.
+	 *
+	 * @param command
+	 *            - clients command as text.
+	 * @return - returns a list of commands as text.
+	 */
 	public List<String> applyCommand(String command) {
 		List<String> commands = new ArrayList<String>();
-		Scanner scan = new Scanner(command);
-
-
-		if (scan.hasNext("Server")) {
-			scan.next();
-	 		ServerCommandStratagy stratagy = serverCommands.get(scan.next());
-			if (stratagy == null) return commands;
-			commands = stratagy.handleCommand(scan, command, this);
+		Command decoded = TextCommandCodec.INSTANCE.decode(command);
+		if (decoded == null) {
+			return commands;
+		}
+		for (Command result : applyCommand(decoded)) {
+			commands.add(TextCommandCodec.INSTANCE.encode(result));
 		}
 		return commands;
 	}
@@ -97,6 +255,14 @@ public abstract class ServerWorld implements Serializable {
 	 */
 	protected abstract void addPlayer(Player player);
 
+	/**
+	 * Takes a player and everything they carry out of the world.
+	 *
+	 * @param player
+	 *            - the player to be removed.
+	 */
+	protected abstract void removePlayer(Player player);
+
 	/**
 	 * Gets the player based on this name.
 	 *
@@ -20,7 +20,9 @@ import java.util.Map;
  */
 public class World extends ClientWorld implements Serializable{
 
-
+	// the saved world files were written with this, so it is fixed here to keep
+	// them loading as methods are added.
+	private static final long serialVersionUID = 2183710604456477533L;
 	
 	private Place startPlace;
 	// both of these once set should not change.
@@ -113,6 +115,15 @@ public class World extends ClientWorld implements Serializable{
 		players.add(player);
 	}
 
+	@Override
+	protected void removePlayer(Player player) {
+		allPlayers.remove(player.getName());
+		for (Item item: player.getInventory()){
+			allItems.remove(item.getName());
+		}
+		players.remove(player);
+	}
+
 	@Override
 	protected Player getPlayerByName(String playerName) {
 		return allPlayers.get(playerName);
@@ -0,0 +1,92 @@
+package nw;
+
+import java.io.*;
+import java.util.regex.Pattern;
+
+/**
+ * Client side cache of world baselines, kept on disk so a baseline is only downloaded once no
+ * matter how many times the client reconnects or restarts.  Baselines are stored in files named
+ * after their hash in the directory given by -Dnw.baselineCache, or ~/.space-escape/baselines.
+ * The hash comes from the server, so anything that isn't one is never used as a file name.
+ */
+public class BaselineCache {
+	//What Sync.hash gives, a SHA-1 in lower case hex
+	private static final Pattern HASH = Pattern.compile("[0-9a-f]{40}");
+
+	private final File dir;
+
+	public BaselineCache(){
+		this(new File(System.getProperty("nw.baselineCache",
+				System.getProperty("user.home") + File.separator + ".space-escape" + File.separator + "baselines")));
+	}
+
+	public BaselineCache(File dir){
+		this.dir = dir;
+	}
+
+	/**
+	 * @param hash Hash of the baseline
+	 * @return true if the baseline is in the cache
+	 */
+	public boolean contains(String hash){
+		File f = file(hash);
+		return f != null && f.isFile();
+	}
+
+	/**
+	 * Read a baseline back out of the cache.
+	 * @param hash Hash of the baseline
+	 * @return The serialized world, or null if it is missing or has been corrupted
+	 */
+	public byte[] load(String hash){
+		File f = file(hash);
+		if(f == null){
+			return null;
+		}
+		byte[] bytes = new byte[(int)f.length()];
+		try{
+			DataInputStream in = new DataInputStream(new FileInputStream(f));
+			try{
+				in.readFully(bytes);
+			}finally{
+				in.close();
+			}
+		}catch(IOException e){
+			System.err.println("Baseline cache: " + e);
+			return null;
+		}
+		return hash.equals(Sync.hash(bytes)) ? bytes : null;
+	}
+
+	/**
+	 * Save a baseline.  A failure to save is not fatal, it just means downloading it again.
+	 * @param baseline The baseline to save
+	 */
+	public void store(Sync.Baseline baseline){
+		File f = file(baseline.hash);
+		if(f == null || !dir.isDirectory() && !dir.mkdirs()){
+			return;
+		}
+		try{
+			File tmp = File.createTempFile("baseline", ".tmp", dir);
+			OutputStream out = new FileOutputStream(tmp);
+			try{
+				out.write(baseline.world);
+			}finally{
+				out.close();
+			}
+			if(!tmp.renameTo(f)){
+				tmp.delete();
+			}
+		}catch(IOException e){
+			System.err.println("Baseline cache: " + e);
+		}
+	}
+
+	/*
+	 * The file a baseline is kept in, or null if the hash isn't one.
+	 */
+	private File file(String hash){
+		return hash != null && HASH.matcher(hash).matches() ? new File(dir, hash) : null;
+	}
+}
@@ -0,0 +1,167 @@
+package nw;
+
+import game.world.commands.*;
+import game.world.commands.Command.Target;
+import game.world.dimensions.Point3D;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Compact binary encoding of commands.
+ *
+ * A command is sent as a one byte opcode saying which world it is for and what type it is,
+ * followed by the fields of that type in a fixed order: names as a short length and UTF-8 bytes,
+ * points as three floats.  Points that only results carry (where a player was placed, where an
+ * exit led, where a dropped item landed) are preceded by a byte saying whether they are there.
+ */
+public class BinaryCodec {
+
+	private static final CommandType[] TYPES = CommandType.values();
+
+	//Opcode ranges for commands going to the server and results going to clients
+	public static final int SERVER_BASE = 0x10;
+	public static final int CLIENT_BASE = 0x20;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * @param opcode The first byte of a payload
+	 * @return true if it is a command opcode this codec can decode
+	 */
+	public static boolean isCommand(int opcode){
+		return (opcode >= SERVER_BASE && opcode < SERVER_BASE + TYPES.length)
+				|| (opcode >= CLIENT_BASE && opcode < CLIENT_BASE + TYPES.length);
+	}
+
+	/**
+	 * Encode a command.
+	 * @param cmd The command
+	 * @param out Buffer to write the opcode and fields to
+	 */
+	public static void encode(Command cmd, ByteBuffer out){
+		int base = cmd.getTarget() == Target.SERVER ? SERVER_BASE : CLIENT_BASE;
+		out.put((byte)(base + cmd.getType().ordinal()));
+		putString(out, cmd.getPlayerName());
+		switch(cmd.getType()){
+		case PLAYER_PLACEMENT:
+			PlacementCommand placement = (PlacementCommand)cmd;
+			putString(out, placement.getImageName());
+			putOptionalPoint(out, placement.getPosition());
+			break;
+		case MOVE:
+			MoveCommand move = (MoveCommand)cmd;
+			putPoint(out, move.getPoint());
+			putString(out, move.getPlaceName());
+			out.putInt(move.getSequence());
+			break;
+		case EXIT:
+			ExitCommand exit = (ExitCommand)cmd;
+			putString(out, exit.getExitName());
+			putString(out, exit.getPlaceName());
+			putOptionalPoint(out, exit.getPosition());
+			break;
+		case ITEM_PICK_UP:
+			PickUpCommand pickUp = (PickUpCommand)cmd;
+			putString(out, pickUp.getItemName());
+			putString(out, pickUp.getPlaceName());
+			break;
+		case ITEM_DROP:
+			DropCommand drop = (DropCommand)cmd;
+			putString(out, drop.getItemName());
+			putString(out, drop.getPlaceName());
+			putOptionalPoint(out, drop.getPoint());
+			break;
+		case CONTAINER:
+			ContainerCommand container = (ContainerCommand)cmd;
+			putString(out, container.getContainerName());
+			putString(out, container.getPlaceName());
+			break;
+		case USE:
+			putString(out, ((UseCommand)cmd).getItemName());
+			break;
+		case INPUT:
+			InputCommand input = (InputCommand)cmd;
+			out.put((byte)input.getHeld());
+			out.putFloat(input.getViewAngle());
+			out.putInt(input.getSequence());
+			break;
+		}
+	}
+
+	/**
+	 * Decode a command.
+	 * @param in Buffer positioned at the opcode
+	 * @return The command
+	 */
+	public static Command decode(ByteBuffer in){
+		int opcode = in.get() & 0xff;
+		Target target = opcode >= CLIENT_BASE ? Target.CLIENT : Target.SERVER;
+		CommandType type = TYPES[opcode - (target == Target.CLIENT ? CLIENT_BASE : SERVER_BASE)];
+		String player = getString(in);
+		switch(type){
+		case PLAYER_PLACEMENT:
+			return new PlacementCommand(target, player, getString(in), getOptionalPoint(in));
+		case MOVE:
+			return new MoveCommand(target, player, getPoint(in), getString(in), in.getInt());
+		case EXIT:
+			return new ExitCommand(target, player, getString(in), getString(in), getOptionalPoint(in));
+		case ITEM_PICK_UP:
+			return new PickUpCommand(target, player, getString(in), getString(in));
+		case ITEM_DROP:
+			return new DropCommand(target, player, getString(in), getString(in), getOptionalPoint(in));
+		case CONTAINER:
+			return new ContainerCommand(target, player, getString(in), getString(in));
+		case INPUT:
+			return new InputCommand(target, player, in.get(), in.getFloat(), in.getInt());
+		default:
+			return new UseCommand(target, player, getString(in));
+		}
+	}
+
+	private static void putString(ByteBuffer out, String s){
+		byte[] bytes = s.getBytes(UTF8);
+		if(bytes.length > 0xffff){
+			throw new IllegalArgumentException("Name too long");
+		}
+		out.putShort((short)bytes.length);
+		out.put(bytes);
+	}
+
+	private static String getString(ByteBuffer in){
+		int length = in.getShort() & 0xffff;
+		String s;
+		if(in.hasArray()){
+			s = new String(in.array(), in.arrayOffset() + in.position(), length, UTF8);
+			in.position(in.position() + length);
+		}else{
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			s = new String(bytes, UTF8);
+		}
+		return s;
+	}
+
+	private static void putPoint(ByteBuffer out, Point3D p){
+		out.putFloat(p.x);
+		out.putFloat(p.y);
+		out.putFloat(p.z);
+	}
+
+	private static Point3D getPoint(ByteBuffer in){
+		return new Point3D(in.getFloat(), in.getFloat(), in.getFloat());
+	}
+
+	private static void putOptionalPoint(ByteBuffer out, Point3D p){
+		if(p == null){
+			out.put((byte)0);
+		}else{
+			out.put((byte)1);
+			putPoint(out, p);
+		}
+	}
+
+	private static Point3D getOptionalPoint(ByteBuffer in){
+		return in.get() == 0 ? null : getPoint(in);
+	}
+}
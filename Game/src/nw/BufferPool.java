@@ -0,0 +1,47 @@
+package nw;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of fixed size byte buffers shared by the encoders, decoders and socket writers, so the
+ * steady stream of small messages doesn't allocate a fresh buffer for each one.
+ */
+public class BufferPool {
+
+	//Every pooled buffer is this big.  Commands are a few dozen bytes, so most writes batch many.
+	public static final int BUFFER_SIZE = 8192;
+
+	//Buffers beyond this many are left for the garbage collector
+	private static final int MAX_POOLED = 256;
+
+	private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+	private static final AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * @return A cleared buffer of BUFFER_SIZE bytes
+	 */
+	public static ByteBuffer acquire(){
+		ByteBuffer buf = pool.poll();
+		if(buf == null){
+			return ByteBuffer.allocate(BUFFER_SIZE);
+		}
+		pooled.decrementAndGet();
+		buf.clear();
+		return buf;
+	}
+
+	/**
+	 * Give a buffer back.  It must not be used again by the caller.
+	 * @param buf A buffer from acquire
+	 */
+	public static void release(ByteBuffer buf){
+		if(buf.capacity() != BUFFER_SIZE || pooled.get() >= MAX_POOLED){
+			return;
+		}
+		pooled.incrementAndGet();
+		pool.offer(buf);
+	}
+}
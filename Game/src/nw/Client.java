@@ -1,41 +1,41 @@
 package nw;
 
 import game.ui.window.GameWindow;
+import game.world.commands.Command;
 import game.world.model.*;
 import game.world.logic.*;
 
 import java.io.*;
 import java.net.*;
-import java.util.*;
-import java.awt.Component;
 
 /**
  *@author Aaron Haslett 300306981
  */
 
-public class Client extends Thread{
-	private static Server server;//This client may instantiate a server if single player mode is chosen
-	private static ClientWorld world = null;
+public class Client{
 	private static boolean singlePlayerMode;
 
-	//The two client IO streams
-	private static InputStream inStream;
-	private static OutputStream outStream;
+	//The connection and world this client shows.  All of the networking lives in here.
+	private static volatile ClientCore core = null;
 
-	private static Player player;//The player to enter the game, given by the caller
+	//Baselines we have downloaded before
+	private static BaselineCache baselineCache = new BaselineCache();
 
-	//Keep the last command so we can ignore duplicate commands
-	private static String lastCommand = "";
-
-	//Outgoing command queue.  Key events are not actually accepted by the server, they have to be translated.
-	//We translate them, then add them to this queue which is polled and added to by the main loop.
-	private static Queue<String> commandQueue = new LinkedList<String>();
+	//Block on reads and send from a separate thread instead of polling every 10ms.  The old
+	//polling loop can still be chosen with -Dnw.mode=polling to compare against.
+	private static boolean blockingMode = !"polling".equals(System.getProperty("nw.mode"));
 
 	//Flag for printing debug messages
 	private static boolean printing = false;
 
-	//Time the world was last ticked
-	private static long timeAtLastTick = 0L;
+	//How far behind the present other players are drawn, in milliseconds.  Raise it when the
+	//server's tick rate is turned down so there is always a next position to move towards.
+	private static final long INTERPOLATION_DELAY = Long.getLong("nw.interpolationDelay",
+			ClientWorld.DEFAULT_INTERPOLATION_DELAY);
+
+	//Send the movement keys held rather than a move for every key press, and let the server walk
+	//the player
+	public static final boolean INPUT_MODE = Boolean.getBoolean("nw.input");
 
 	//Last connection error if there was one.
 	private static String connectError = "";
@@ -45,29 +45,16 @@ public class Client extends Thread{
 	 * @param singlePlayerMode flag for single player mode
 	 */
 	public Client(boolean singlePlayerMode){
-		this.player = player;
 		this.singlePlayerMode = singlePlayerMode;
 
 		if(singlePlayerMode){
-			try{
-				//Server's io streams
-				PipedInputStream sIn = new PipedInputStream();
-				PipedOutputStream sOut = new PipedOutputStream();
-
-				//Client's io streams, with links to the servers (other side of the links are created automatically)
-				inStream = new PipedInputStream(sOut);
-				outStream = new PipedOutputStream(sIn);
-
-				//Create new server with the server's streams
-				server = new Server(sIn, sOut, 0);
-				server.initialiseWorld();//Initialise the static world before starting
-				server.start();
-
-				start();
-				waitForConnection();
-			}catch(IOException e){
-				System.err.println(e);
-			}
+			//Run the server in this process, and talk to it in memory rather than over pipes.
+			//Both sides load their own copy of the world, so it is never sent.
+			Server.initialiseWorld(false);
+			ClientCore c = new ClientCore(new LocalConnection(0), true, baselineCache);
+			c.setTemplate(Server.loadWorld());
+			start(c);
+			waitForConnection();
 		}
 	}
 
@@ -77,7 +64,7 @@ public class Client extends Thread{
 	 * @param port Port number the game is on.
 	 * @return true if connection was successful, false otherwise.
 	 */
-	public boolean connect(String host, int port){
+	public boolean connect(final String host, final int port){
 		if(singlePlayerMode){
 			System.err.println("You tried to connect to a multiplayer game in single player mode!");
 			return false;
@@ -85,12 +72,17 @@ public class Client extends Thread{
 
 		//This is multiplayer mode, so we assume a server is already active at hort/port
 		try{
-			//Make socket
+			//Make socket and start talking on its streams
 			Socket sock = new Socket(host, port);
-
-			//Get the streams
-			inStream = sock.getInputStream();
-			outStream = sock.getOutputStream();
+			ClientCore c = new ClientCore(sock.getInputStream(), sock.getOutputStream(), blockingMode, baselineCache);
+			c.setServerAddress(sock.getInetAddress());//In case the server offers datagrams
+			c.setReconnector(new ClientCore.Reconnector(){
+				public ClientChannel reconnect() throws IOException{
+					Socket again = new Socket(host, port);
+					return new StreamChannel(again.getInputStream(), again.getOutputStream());
+				}
+			});
+			start(c);
 		}catch(UnknownHostException e){
 			connectError = "Unknown host";
 			return false;
@@ -106,7 +98,6 @@ public class Client extends Thread{
 			return false;
 		}
 
-		start();
 		waitForConnection();
 
 		connectError = "";
@@ -114,6 +105,34 @@ public class Client extends Thread{
 		return true;
 	}
 
+	/*
+	 * Start a client core, showing its world in the game window.
+	 */
+	private static void start(ClientCore c){
+		c.setInterpolationDelay(INTERPOLATION_DELAY);
+		c.setPrinting(printing);
+		c.setListener(new ClientCore.Listener(){
+			public void worldReceived(ClientWorld world){
+				//Set the room as the player's current place
+				Room cp = (Room)world.getCurrentPlace();
+				GameWindow.setRoom((Room)(cp != null ? cp : world.getPlaces().next()));
+			}
+
+			public void commandApplied(Command command){
+				ClientWorld world = core.getWorld();
+				if(world != null){
+					GameWindow.setRoom((Room)world.getCurrentPlace());
+				}
+			}
+
+			public void resumed(boolean replayed){
+				print("Reconnected to the server" + (replayed ? "" : ", and sent the world again"));
+			}
+		});
+		core = c;
+		c.start("Client");
+	}
+
 	/**
 	 * Get the error from the last connection attempt, if there was one
 	 * @return The error from the last connection attempt;
@@ -126,65 +145,84 @@ public class Client extends Thread{
 	 * Return whether the game has been won
 	 */
 	public boolean hasWon(){
+		ClientWorld world = getWorld();
 		if(world != null){
 			return world.hasWon();
 		}
 		return false;
 	}
 
+	/**
+	 * Return the world this client is showing, or null if it hasn't arrived yet
+	 */
+	public ClientWorld getWorld(){
+		ClientCore c = core;
+		return c == null ? null : c.getWorld();
+	}
+
 	/**
 	 * Move a local player by adding the move (left, right etc) to the
-	 * key code queue to be processed and sent to the server
+	 * key code queue to be processed and sent to the server.  Moves are
+	 * made on our own world straight away, and put right if the server disagrees.
 	 * @param move The move to be sent
 	 */
 	public static void makeMove(String move, float y){
-		if (player != null){
-			String cmd = world.getCommand(move, y);
-			if(!cmd.equals(lastCommand)){
-				lastCommand = cmd;
-				commandQueue.add(cmd);
+		ClientCore c = core;
+		if(c != null){
+			c.makeMove(move, y);
+		}
+	}
+
+	/**
+	 * Start or stop holding a movement key, in input mode (-Dnw.input=true).  The server moves
+	 * the player while it is held.
+	 * @param move "Up", "Down", "Left" or "Right"
+	 * @param pressed true when the key goes down, false when it comes up
+	 * @param y Which way the player is looking
+	 */
+	public static void hold(String move, boolean pressed, float y){
+		ClientCore c = core;
+		if(c != null){
+			if(pressed){
+				c.press(move, y);
+			}else{
+				c.release(move, y);
 			}
 		}
 	}
 
+	/**
+	 * Tell the server which way the player is looking, in input mode, if they are walking.
+	 * @param y Which way the player is looking
+	 */
+	public static void look(float y){
+		ClientCore c = core;
+		if(c != null){
+			c.look(y);
+		}
+	}
+
 	/**
 	 * Wait until connection has been established and world has been received.
 	 */
 	public static void waitForConnection(){
-		while(world==null){
-			try{
-				Thread.sleep(50);
-			}catch(InterruptedException e){System.err.println(e);}
-		}
+		core.waitForWorld(0);
 	}
 
 	/**
-	 * Create the command string for adding a player to the server and send it.
+	 * Create the command for adding a player to the server and send it.
 	 * Raise an error if the world says there's already a player with that name.
 	 * @param p Player to add to the world
 	 */
 	public boolean addPlayerToWorld(Player p){
-		String cmd = world.getSetClientPlayer(p);
-		if(cmd.equals("")){
-			return false;
-		}else{
-			commandQueue.add(cmd);
-			player = p;
-		}
-
-		return true;
+		return core.addPlayer(p);
 	}
 
 	/**
 	 * Tell the Server and the Client thread to close the connection
 	 */
 	public void quit(){
-		commandQueue.add("Quit");
-		while(world!=null){
-			try{
-				Thread.sleep(50);
-			}catch(InterruptedException e){System.err.println(e);}
-		}
+		core.quit();
 	}
 
 	/**
@@ -197,84 +235,6 @@ public class Client extends Thread{
 		}
 	}
 
-	/**
-	 * The full client loop.  Creates connections to server, then runs the main loop which
-	 * reads one item from the incoming queue and processes it, then sends one item
-	 * from the outgoing queue, then re-renders the game.
-	 */
-	public void run(){
-		ObjectOutputStream out = null;
-		ObjectInputStream in = null;
-
-		try{
-			//Wrap the output and input streams in a ObjectOutputStreams so we can send and receive objects
-			out = new ObjectOutputStream(outStream);
-			out.flush();
-
-			//Use buffering for the input stream so we don't block the
-			//thread while waiting for the server to send.
-			BufferedInputStream bis = new BufferedInputStream(inStream);
-			in = new ObjectInputStream(bis);
-
-			Object received =  null;//The last object polled from the incoming queue
-			Room currentRoom = null;//The current room to be rendered
-			String cmd;
-
-			while(true){
-				if(bis.available() != 0){//If there is an object ready to be read
-					received = in.readObject();//Read it in
-
-					if(received instanceof String){//If it's a string, it's a command
-						print("[Client] Got: " + (String)received);
-						world.applyCommand((String)received);//So run it on the world
-						GameWindow.setRoom((Room)world.getCurrentPlace());
-					}
-					else if(received instanceof World){//If we got a world, then
-						print("[Client] Got world!: " + received);
-						world = (World)received;//Save it
-
-						//Set the room as the player's current place
-						Room cp = (Room)world.getCurrentPlace();
-						GameWindow.setRoom((Room)(cp != null ? cp : world.getPlaces().next()));
-					}else{
-						print("[Client] No idea what this is: " + received);
-					}
-				}
-
-				if(commandQueue.size() != 0){
-					cmd = commandQueue.poll();
-					out.writeObject(cmd);
-					if(cmd.equals("Quit")){
-						throw new QuitException();
-					}
-				}
-
-				long currentTime = System.currentTimeMillis();
-				if(currentTime - timeAtLastTick >= 1000L && world != null){
-					timeAtLastTick = currentTime;
-					world.tick();
-				}
-
-				Thread.sleep(10);
-			}
-
-		}catch(ClassNotFoundException e){
-			System.err.println("Client CNF: " + e);
-		}catch(IOException e){
-			System.err.println("Client IO: " + e);
-		}catch(InterruptedException e){
-			System.err.println("Client IE: " + e);
-		}catch(QuitException e){
-			System.out.println("Quit");
-		}finally{
-			world=null;
-			try{
-				out.close();
-				in.close();
-			}catch(IOException e){System.err.println("Client close" + e);}
-		}
-	}
-
 	public static void main(String[] args){
 		GameWindow gw = new GameWindow();
 		if(args.length == 3){
@@ -283,7 +243,7 @@ public class Client extends Thread{
 		}else if(args.length == 0){
 			new Client(true);
 		}else{
-			System.err.println("Usage: java Client [host] [port] playername    [or nothing for single player]");
+			System.err.println("Usage: java [-Dnw.mode=polling] Client [host] [port] playername    [or nothing for single player]");
 			System.exit(1);
 		}
 	}
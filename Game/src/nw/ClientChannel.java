@@ -0,0 +1,38 @@
+package nw;
+
+import java.io.IOException;
+
+/**
+ * A client's end of its link to the server.  Over a socket or pipes messages are framed and
+ * encoded (see StreamChannel), and in single player they are handed across in memory (see
+ * LocalConnection), so the client core doesn't need to know which it has.
+ */
+public interface ClientChannel {
+
+	/**
+	 * @return true if read will return without waiting
+	 */
+	public boolean ready() throws IOException;
+
+	/**
+	 * Wait for the next message from the server.
+	 * @return The message
+	 */
+	public Object read() throws IOException, ClassNotFoundException;
+
+	/**
+	 * Send a message to the server.  It may wait in a buffer until the next flush.
+	 * @param o Message to send
+	 */
+	public void write(Object o) throws IOException;
+
+	/**
+	 * Send everything written so far.
+	 */
+	public void flush() throws IOException;
+
+	/**
+	 * Close the link.  Safe to call more than once.
+	 */
+	public void close();
+}
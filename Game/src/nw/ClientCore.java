@@ -0,0 +1,836 @@
+package nw;
+
+import game.world.commands.Command;
+import game.world.commands.InputCommand;
+import game.world.commands.MoveCommand;
+import game.world.model.*;
+import game.world.logic.*;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One connection to a server and the world it keeps up to date, with no window attached.
+ *
+ * The game's Client drives a single one of these and shows its world.  The load generator runs
+ * hundreds side by side in one JVM, which is why nothing in here is static.
+ *
+ * Given a Reconnector, a client whose connection drops makes a new one and resumes its session,
+ * keeping its world and player and being sent only what it missed (see Sync).
+ *
+ * A server hosting several games can be asked which it has, to start one, and to move this client
+ * to another (see Lobby).  Moving drops the world and player, and the new game's world arrives as
+ * it did when the client first connected.
+ *
+ * When a world is split across several servers (see ShardMap), a player who goes through an exit
+ * to a place another server runs is redirected there, and the client resumes there as if its
+ * connection had dropped.  It keeps its player, and is sent the new server's state in full.
+ */
+public class ClientCore implements Runnable {
+
+	/**
+	 * Told about what arrives from the server.  Called on the thread reading from the server, after
+	 * the world has been changed.
+	 */
+	public interface Listener{
+		/**
+		 * @param world The world as the server sent it, now ready to use
+		 */
+		void worldReceived(ClientWorld world);
+
+		/**
+		 * @param command A result the world has just applied
+		 */
+		void commandApplied(Command command);
+
+		/**
+		 * The connection dropped and a new one has picked up where it left off.
+		 * @param replayed true if the server sent only what was missed, false if it sent the
+		 *        whole state again and worldReceived has been told about a new world
+		 */
+		void resumed(boolean replayed);
+	}
+
+	/**
+	 * Makes a new link to the server, when the old one has dropped.
+	 */
+	public interface Reconnector{
+		ClientChannel reconnect() throws IOException;
+	}
+
+	//Time between world ticks
+	private static final long TICK_PERIOD = 1000L;
+
+	//How long to keep trying to get back to the server after the connection drops.  The server
+	//keeps a session this long by default.
+	private static final long RESUME_TIMEOUT = 30000L;
+
+	//Ticks every client's world.  Shared, so a load generator running hundreds of clients doesn't
+	//need a thread for each.
+	private static final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+		public Thread newThread(Runnable r){
+			Thread t = new Thread(r, "Client ticker");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private volatile ClientChannel channel;
+	private volatile Reconnector reconnector = null;
+
+	//Block on reads and send from a separate writer thread, instead of polling every 10ms
+	private final boolean blocking;
+
+	private Thread writer;
+	private ScheduledFuture<?> ticks;
+
+	private volatile ClientWorld world = null;
+	private volatile Player player;//The player this client plays as, once placed
+
+	//Keep the last command so we can ignore duplicate commands
+	private Command lastCommand = null;
+
+	//In input mode, the movement keys held and the view angle the server was last told of
+	private int held = 0;
+	private float heldAngle = 0;
+
+	//Outgoing queue.  Any thread can add, and it is emptied by the writer thread in blocking mode
+	//and by the loop in polling mode.
+	private final BlockingQueue<Object> commandQueue = new LinkedBlockingQueue<Object>();
+
+	//Baselines we have downloaded before, and the one the current world is being built from
+	private final BaselineCache baselineCache;
+	private byte[] baseline = null;
+
+	private String baselineHash = null;
+
+	//A copy of the server's world made in this process, used instead of a downloaded baseline
+	private World template = null;
+
+	//The session the server gave us and the last tick we heard about, to resume after a drop.
+	//Only touched by the reading thread.
+	private long session = 0;
+	private long lastSequence = 0;
+	private boolean resuming = false;
+
+	//Where the server is, so moves can go as datagrams if it offers, and the link once it has
+	private InetAddress serverAddress = null;
+	private volatile DatagramLink datagrams = null;
+
+	//Answers to lobby requests, for the one waiting on them
+	private final BlockingQueue<Object> lobbyReplies = new LinkedBlockingQueue<Object>();
+	private final Object asking = new Object();//Held while waiting for a lobby reply
+
+	//The game the server has moved us to, or null for the one every connection starts in.  Only
+	//changed by the reading thread.
+	private volatile String game = null;
+
+	//The server our player was last handed to, if it isn't the one we first connected to, and
+	//how many times that has happened
+	private volatile Handoff.Redirect redirectedTo = null;
+	private volatile int redirects = 0;
+
+	//Set once the quit command has gone out, so the server closing the stream is not an error
+	private volatile boolean quitSent = false;
+
+	private long interpolationDelay = ClientWorld.DEFAULT_INTERPOLATION_DELAY;
+	private volatile Listener listener;
+	private boolean printing = false;
+
+	/**
+	 * @param inStream Stream from the server
+	 * @param outStream Stream to the server
+	 * @param blocking true to block on reads and write from a separate thread
+	 * @param baselineCache Where to look for and keep world baselines
+	 */
+	public ClientCore(InputStream inStream, OutputStream outStream, boolean blocking, BaselineCache baselineCache){
+		this(new StreamChannel(inStream, outStream), blocking, baselineCache);
+	}
+
+	/**
+	 * @param channel The link to the server
+	 * @param blocking true to block on reads and write from a separate thread
+	 * @param baselineCache Where to look for and keep world baselines
+	 */
+	public ClientCore(ClientChannel channel, boolean blocking, BaselineCache baselineCache){
+		this.channel = channel;
+		this.blocking = blocking;
+		this.baselineCache = baselineCache;
+	}
+
+	public void setListener(Listener listener){
+		this.listener = listener;
+	}
+
+	public void setInterpolationDelay(long millis){
+		this.interpolationDelay = millis;
+	}
+
+	public void setPrinting(boolean printing){
+		this.printing = printing;
+	}
+
+	/**
+	 * Use a world loaded in this process as the baseline, rather than asking the server for one.
+	 * Must be called before start, and the world must be the one the server loaded.  The server
+	 * is asked for the state straight away instead of waiting to be offered a baseline.
+	 * @param world A fresh copy of the server's world, which this client then owns
+	 */
+	public void setTemplate(World world){
+		this.template = world;
+	}
+
+	/**
+	 * Send and receive moves as datagrams if the server offers to.  Must be called before start.
+	 * @param address The server's address
+	 */
+	public void setServerAddress(InetAddress address){
+		this.serverAddress = address;
+	}
+
+	/**
+	 * Resume the session on a new link if the connection drops, rather than giving up.
+	 * @param reconnector Makes the new link
+	 */
+	public void setReconnector(Reconnector reconnector){
+		this.reconnector = reconnector;
+	}
+
+	/**
+	 * Start talking to the server.
+	 * @param name Name for the client's threads
+	 */
+	public void start(String name){
+		if(template != null){
+			commandQueue.add(new Sync.Request(false));
+		}
+		new Thread(this, name).start();
+	}
+
+	/**
+	 * @return The world, or null if it hasn't arrived yet or the connection has closed
+	 */
+	public ClientWorld getWorld(){
+		return world;
+	}
+
+	/**
+	 * @return The player added with addPlayer, or null
+	 */
+	public Player getPlayer(){
+		return player;
+	}
+
+	/**
+	 * Wait until the world has been received.
+	 * @param timeout Longest to wait in milliseconds, or 0 to wait forever
+	 * @return true if the world arrived
+	 */
+	public boolean waitForWorld(long timeout){
+		long end = System.currentTimeMillis() + timeout;
+		while(world == null){
+			if(timeout > 0 && System.currentTimeMillis() >= end){
+				return false;
+			}
+			try{
+				Thread.sleep(50);
+			}catch(InterruptedException e){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Ask the server to put a player in the world.
+	 * @param p Player to add to the world
+	 * @return false if the world already has a player with that name
+	 */
+	public boolean addPlayer(Player p){
+		Command cmd;
+		ClientWorld w = world;
+		synchronized(w){
+			cmd = w.setClientPlayer(p);
+		}
+		if(cmd == null){
+			return false;
+		}
+		player = p;
+		commandQueue.add(cmd);
+		return true;
+	}
+
+	/**
+	 * Turn a key press into a command and send it.  Moves are made on our own world straight away,
+	 * and put right if the server disagrees.
+	 * @param action The key press (Up, Left, Interact etc)
+	 * @param viewAngle The angle the world is being viewed from
+	 * @return The command sent, or null if there was nothing to send
+	 */
+	public Command makeMove(String action, float viewAngle){
+		ClientWorld w = world;
+		if(player == null || w == null){
+			return null;
+		}
+		Command cmd;
+		synchronized(w){//The receiving thread changes the world too
+			cmd = w.makeCommand(action, viewAngle);
+		}
+		if(cmd == null || cmd.equals(lastCommand)){
+			return null;
+		}
+		lastCommand = cmd;
+		commandQueue.add(cmd);
+		return cmd;
+	}
+
+	/**
+	 * Start holding a movement key, in input mode.  The server moves the player until it is let
+	 * go, so nothing is sent while it stays held.
+	 * @param action "Up", "Down", "Left" or "Right"
+	 * @param viewAngle Which way the player is looking
+	 * @return The input sent, or null if nothing changed
+	 */
+	public synchronized Command press(String action, float viewAngle){
+		return input(held | InputCommand.bitOf(action), viewAngle);
+	}
+
+	/**
+	 * Let go of a movement key, in input mode.
+	 * @param action "Up", "Down", "Left" or "Right"
+	 * @param viewAngle Which way the player is looking
+	 * @return The input sent, or null if nothing changed
+	 */
+	public synchronized Command release(String action, float viewAngle){
+		return input(held & ~InputCommand.bitOf(action), viewAngle);
+	}
+
+	/**
+	 * Look another way, in input mode.  Only sent if the player is walking.
+	 * @param viewAngle Which way the player is looking
+	 * @return The input sent, or null if nothing changed
+	 */
+	public synchronized Command look(float viewAngle){
+		return held == 0 ? null : input(held, viewAngle);
+	}
+
+	/*
+	 * Tell the server what is held, unless it already knows.
+	 */
+	private Command input(int keys, float viewAngle){
+		if(keys == held && (keys == 0 || viewAngle == heldAngle)){
+			return null;
+		}
+		ClientWorld w = world;
+		if(player == null || w == null){
+			return null;
+		}
+		Command cmd;
+		synchronized(w){
+			cmd = w.getInputCommand(keys, viewAngle);
+		}
+		if(cmd == null){
+			return null;
+		}
+		held = keys;
+		heldAngle = viewAngle;
+		commandQueue.add(cmd);
+		return cmd;
+	}
+
+	/*
+	 * The server forgets what was held when a connection goes, so say it again.
+	 */
+	private synchronized void inputAgain(){
+		int keys = held;
+		if(keys != 0){
+			held = 0;
+			input(keys, heldAngle);
+		}
+	}
+
+	/**
+	 * Ask the server which games it is hosting.
+	 * @param timeout Longest to wait for an answer in milliseconds
+	 * @return Every game, by name
+	 */
+	public List<Lobby.Game> listGames(long timeout) throws IOException, InterruptedException{
+		return ((Lobby.Games)ask(new Lobby.ListGames(), timeout)).games;
+	}
+
+	/**
+	 * Ask the server to start a new game.  This client stays in the game it is in.
+	 * @param name What to call the game
+	 * @param world World file on the server, or null for the server's default world
+	 * @param timeout Longest to wait for an answer in milliseconds
+	 */
+	public void createGame(String name, String world, long timeout) throws IOException, InterruptedException{
+		ask(new Lobby.Create(name, world), timeout);
+	}
+
+	/**
+	 * Move to another game.  The world and player are dropped, so once this returns wait for the
+	 * new world and add a player again.
+	 * @param name The game to move to
+	 * @param timeout Longest to wait for an answer in milliseconds
+	 */
+	public void joinGame(String name, long timeout) throws IOException, InterruptedException{
+		ask(new Lobby.Join(name), timeout);
+	}
+
+	/**
+	 * @return The game the server has moved us to, or null if we are in the one we started in
+	 */
+	public String getGame(){
+		return game;
+	}
+
+	/*
+	 * Send a lobby request and wait for its answer.  One at a time, so answers can't be mixed up.
+	 * Not under this client's own lock, which the receiving thread needs before it can answer.
+	 */
+	private Object ask(Lobby.Request request, long timeout) throws IOException, InterruptedException{
+		synchronized(asking){
+			lobbyReplies.clear();
+			commandQueue.add(request);
+			Object reply = lobbyReplies.poll(timeout, TimeUnit.MILLISECONDS);
+			if(reply == null){
+				throw new IOException("No answer from the lobby");
+			}
+			if(reply instanceof Lobby.Refused){
+				throw new IOException(((Lobby.Refused)reply).reason);
+			}
+			return reply;
+		}
+	}
+
+	/**
+	 * Tell the server we are leaving, and wait until the connection has closed.
+	 */
+	public void quit(){
+		commandQueue.add("Quit");
+		while(world != null){
+			try{
+				Thread.sleep(50);
+			}catch(InterruptedException e){System.err.println(e);}
+		}
+	}
+
+	private void print(String msg){
+		if(printing){
+			System.out.println(msg);
+		}
+	}
+
+	/**
+	 * The reader.  Waits for each object from the server and processes it as soon as it arrives.
+	 * Commands are sent by the writer thread as soon as they are queued, and the world is ticked
+	 * by the shared ticker, so nothing here ever sleeps.
+	 *
+	 * In polling mode this thread does all three instead, checking for something to read and
+	 * sending what is queued every 10ms.  It is kept to compare against.
+	 */
+	public void run(){
+		ticks = ticker.scheduleAtFixedRate(new Runnable(){
+			public void run(){
+				tick();
+			}
+		}, TICK_PERIOD, TICK_PERIOD, TimeUnit.MILLISECONDS);
+		try{
+			if(blocking){
+				startWriter();
+			}
+			while(true){
+				try{
+					serve();
+				}catch(IOException e){
+					if(quitSent || !reconnect(e)){
+						throw e;
+					}
+				}
+			}
+		}catch(ClassNotFoundException e){
+			System.err.println("Client CNF: " + e);
+		}catch(IOException e){
+			if(quitSent){
+				print("Quit");
+			}else{
+				System.err.println("Client IO: " + e);
+			}
+		}catch(InterruptedException e){
+			System.err.println("Client IE: " + e);
+		}catch(QuitException e){
+			print("Quit");
+		}finally{
+			world = null;
+			ticks.cancel(false);
+			DatagramLink link = datagrams;
+			if(link != null){
+				link.close();
+			}
+			if(writer != null){
+				writer.interrupt();
+			}
+			channel.close();
+		}
+	}
+
+	/*
+	 * Talk to the server until the connection drops.
+	 */
+	private void serve() throws IOException, ClassNotFoundException, InterruptedException, QuitException{
+		if(blocking){
+			while(true){
+				receive(channel.read());//Wait for the next object and process it
+			}
+		}
+
+		List<Object> batch = new ArrayList<Object>();
+
+		while(true){
+			while(channel.ready()){//Everything that is ready to be read
+				receive(channel.read());//Read it in and process it
+			}
+
+			commandQueue.drainTo(batch);
+			if(send(batch)){
+				throw new QuitException();
+			}
+
+			Thread.sleep(10);
+		}
+	}
+
+	/*
+	 * Get a new link to the server after the connection has dropped, backing off between tries.
+	 * The session is asked for when the server offers its world again.
+	 * @return false if there's no session to resume or the server couldn't be reached in time
+	 */
+	private boolean reconnect(IOException cause) throws InterruptedException{
+		Reconnector r = reconnector;
+		if(r == null || session == 0 || world == null){
+			return false;
+		}
+		print("[Client] Lost the connection, resuming: " + cause);
+		channel.close();
+		DatagramLink link = datagrams;
+		datagrams = null;//The server will offer them again
+		if(link != null){
+			link.close();
+		}
+		long end = System.currentTimeMillis() + RESUME_TIMEOUT;
+		long wait = 50;
+		while(true){
+			try{
+				Handoff.Redirect to = redirectedTo;
+				channel = to != null ? connect(to) : r.reconnect();
+				resuming = true;
+				return true;
+			}catch(IOException e){
+				if(System.currentTimeMillis() + wait > end){
+					System.err.println("Client could not reconnect: " + e);
+					return false;
+				}
+			}
+			Thread.sleep(wait);
+			wait = Math.min(wait * 2, 1000);
+		}
+	}
+
+	/*
+	 * Open a link to another server of the same world.
+	 */
+	private ClientChannel connect(Handoff.Redirect to) throws IOException{
+		Socket socket = new Socket(to.host, to.port);
+		socket.setTcpNoDelay(true);
+		if(serverAddress != null){
+			serverAddress = socket.getInetAddress();
+		}
+		return new StreamChannel(socket.getInputStream(), socket.getOutputStream());
+	}
+
+	/*
+	 * Our player has gone through an exit to a place another server runs, which is keeping a
+	 * session for us.  Connect to it and resume that session as if our connection had dropped.
+	 */
+	private void redirect(Handoff.Redirect to) throws IOException{
+		print("[Client] Redirected to " + to.host + ":" + to.port);
+		redirectedTo = to;
+		redirects++;
+		session = to.ticket;
+		lastSequence = -1;//So we are sent the whole state
+		resuming = true;
+		game = null;
+		DatagramLink link = datagrams;
+		datagrams = null;//The new server offers them again
+		if(link != null){
+			link.close();
+		}
+		ClientChannel old = channel;
+		channel = connect(to);
+		old.close();
+	}
+
+	/**
+	 * @return How many times our player has been handed to another server
+	 */
+	public int getRedirects(){
+		return redirects;
+	}
+
+	/**
+	 * Process one object received from the server.
+	 * @param received The decoded object
+	 */
+	private void receive(Object received) throws IOException, ClassNotFoundException{
+		if(received instanceof Protocol.Batch){//Everything from one server tick
+			for(Object message : ((Protocol.Batch)received).messages){
+				receive(message);
+			}
+			long sequence = ((Protocol.Batch)received).sequence;
+			if(sequence > lastSequence){
+				lastSequence = sequence;
+			}
+		}
+		else if(received instanceof Command){
+			print("[Client] Got: " + received);
+			ClientWorld w = world;
+			synchronized(w){
+				w.applyCommand((Command)received);//So run it on the world
+			}
+			Listener l = listener;
+			if(l != null){
+				l.commandApplied((Command)received);
+			}
+		}
+		else if(received instanceof Sync.Udp){//The server will take moves as datagrams
+			if(serverAddress != null){
+				Sync.Udp udp = (Sync.Udp)received;
+				DatagramLink link = new DatagramLink(serverAddress, udp.port, udp.token, new DatagramLink.Receiver(){
+					public void moveReceived(MoveCommand move){
+						receiveDatagram(move);
+					}
+				});
+				link.start(Thread.currentThread().getName() + " datagrams");
+				datagrams = link;
+			}
+		}
+		else if(received instanceof Sync.Offer){//The server is telling us which world it has
+			String hash = ((Sync.Offer)received).hash;
+			if(resuming && hash.equals(baselineHash)){
+				print("[Client] Resuming session after tick " + lastSequence);
+				commandQueue.add(new Sync.Request(session, lastSequence));
+				return;
+			}
+			if(resuming && game != null){
+				//Reconnecting puts us back in the first game, so go back to ours and resume there
+				commandQueue.add(new Lobby.Join(game));
+				return;
+			}
+			baselineHash = hash;
+			baseline = baselineCache.contains(hash) ? baselineCache.load(hash) : null;
+			print("[Client] Offered world " + hash + (baseline != null ? ", cached" : ""));
+			commandQueue.add(new Sync.Request(baseline == null));
+		}
+		else if(received instanceof Sync.Baseline){//We didn't have the world, so the server sent it
+			Sync.Baseline sent = (Sync.Baseline)received;
+			//Only keep the world we were offered, so a server can't have us write anything else
+			if(baselineHash == null || !baselineHash.equals(sent.hash) || !baselineHash.equals(Sync.hash(sent.world))){
+				throw new IOException("Sent a world that isn't the one offered");
+			}
+			baselineCache.store(sent);
+			baseline = sent.world;
+		}
+		else if(received instanceof Sync.State){//The state of everything in the world right now
+			Sync.State state = (Sync.State)received;
+			World w = template != null ? template : (World)Protocol.decode(baseline);
+			template = null;
+			state.entities.applyTo(w);
+			w.setInterpolationDelay(interpolationDelay);
+			session = state.session;
+			lastSequence = state.sequence;
+			Player p = player;
+			if(p != null){//We had a player before the connection dropped, and the server kept it
+				player = w.resumePlayer(p.getName());
+			}
+			print("[Client] Got world!: " + w);
+			world = w;//Save it
+			Listener l = listener;
+			if(l != null){
+				l.worldReceived(w);
+			}
+			if(resuming){
+				resuming = false;
+				inputAgain();
+				if(l != null){
+					l.resumed(false);
+				}
+			}
+		}
+		else if(received instanceof Lobby.Joined){//Everything from here on is from the new game
+			game = ((Lobby.Joined)received).name;
+			if(!resuming){
+				print("[Client] Moved to game " + game);
+				world = null;
+				player = null;
+				lastCommand = null;
+				synchronized(this){
+					held = 0;
+				}
+				session = 0;
+				lastSequence = 0;
+				template = null;
+				DatagramLink link = datagrams;
+				datagrams = null;//The new game offers them again
+				if(link != null){
+					link.close();
+				}
+				lobbyReplies.add(received);
+			}
+		}
+		else if(received instanceof Lobby.Games || received instanceof Lobby.Created || received instanceof Lobby.Refused){
+			lobbyReplies.add(received);
+		}
+		else if(received instanceof Handoff.Redirect){//Our player is now on another server
+			redirect((Handoff.Redirect)received);
+		}
+		else if(received instanceof Sync.Ping){//The server is timing a round trip, so answer at once
+			commandQueue.add(new Sync.Pong(((Sync.Ping)received).sent));
+		}
+		else if(received instanceof Sync.Resumed){//We've been sent everything we missed
+			print("[Client] Resumed at tick " + ((Sync.Resumed)received).sequence);
+			resuming = false;
+			inputAgain();
+			Listener l = listener;
+			if(l != null){
+				l.resumed(true);
+			}
+		}else{
+			print("[Client] No idea what this is: " + received);
+		}
+	}
+
+	/**
+	 * Apply a move that arrived as a datagram.  It may have been overtaken by something on the
+	 * stream, such as its player going through an exit, so it is dropped unless its player is
+	 * still in the place it was made in.
+	 * @param move A move from the server, later than any before it for its player
+	 */
+	private void receiveDatagram(MoveCommand move){
+		ClientWorld w = world;
+		if(w == null){
+			return;
+		}
+		synchronized(w){
+			if(!w.isInPlace(move.getPlayerName(), move.getPlaceName())){
+				return;
+			}
+			w.applyCommand(move);
+		}
+		Listener l = listener;
+		if(l != null){
+			l.commandApplied(move);
+		}
+	}
+
+	/**
+	 * Tick the world, if it has arrived.  Run by the shared ticker.
+	 */
+	private void tick(){
+		ClientWorld w = world;
+		if(w != null){
+			synchronized(w){
+				w.tick();
+			}
+		}
+	}
+
+	/**
+	 * Send a batch of queued commands together, and empty it.
+	 * @param batch Commands in the order they were queued
+	 * @return true if the batch had Quit in it, in which case nothing after it is sent
+	 */
+	private boolean send(List<Object> batch) throws IOException{
+		if(batch.isEmpty()){
+			return false;
+		}
+		boolean quit = false;
+		ClientChannel ch = channel;
+		DatagramLink link = datagrams;
+		for(Object cmd : batch){
+			if(cmd.equals("Quit")){
+				//Set first, the server may close the link before write returns
+				quitSent = quit = true;
+			}
+			if(link != null && cmd instanceof MoveCommand){
+				link.send((MoveCommand)cmd);
+				continue;
+			}
+			try{
+				ch.write(cmd);
+			}catch(IOException e){
+				if(ch == channel){
+					throw e;
+				}
+				//We've been redirected to another server, and what was being sent is lost
+				break;
+			}
+			if(quit){
+				break;
+			}
+		}
+		batch.clear();
+		try{
+			ch.flush();
+		}catch(IOException e){
+			if(ch == channel){
+				throw e;
+			}
+		}
+		return quit;
+	}
+
+	/**
+	 * Start the thread that sends queued commands in blocking mode.  It waits for a command, then
+	 * takes everything else queued by then and sends it all at once.
+	 */
+	private void startWriter(){
+		writer = new Thread(Thread.currentThread().getName() + " writer"){
+			public void run(){
+				List<Object> batch = new ArrayList<Object>();
+				try{
+					while(true){
+						batch.add(commandQueue.take());
+						commandQueue.drainTo(batch);
+						try{
+							if(send(batch)){
+								return;
+							}
+						}catch(IOException e){
+							if(quitSent || reconnector == null){
+								System.err.println("Client writer IO: " + e);
+								return;
+							}
+							//The reader is getting a new connection.  What was being sent is lost.
+							batch.clear();
+						}
+					}
+				}catch(InterruptedException e){
+					//The connection has closed
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+}
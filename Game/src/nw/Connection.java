@@ -0,0 +1,27 @@
+package nw;
+
+import java.io.IOException;
+
+/**
+ * One client as seen by the server.  The thread-per-connection engine and the selector engine
+ * each provide their own implementation, so broadcasting does not need to know which engine
+ * accepted the client.
+ */
+public interface Connection {
+
+	/**
+	 * @return The id the server gave this connection when it was accepted.
+	 */
+	public int getId();
+
+	/**
+	 * Send an object to this client.
+	 * @param o Object to send
+	 */
+	public void send(Object o) throws IOException;
+
+	/**
+	 * Close the connection.  Safe to call more than once.
+	 */
+	public void close();
+}
@@ -0,0 +1,128 @@
+package nw;
+
+import game.world.commands.MoveCommand;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A client's end of the datagram channel for moves (see Datagrams).
+ *
+ * Moves from the server can arrive out of order or not at all, so each player's latest move
+ * number is kept and anything older is dropped.  Moves without a number, which the server only
+ * sends on the stream, are never dropped.
+ */
+public class DatagramLink implements Runnable {
+
+	/**
+	 * Told about each move from the server that is newer than any before it for that player.
+	 */
+	public interface Receiver{
+		void moveReceived(MoveCommand move);
+	}
+
+	private final DatagramSocket socket;
+	private final InetAddress host;
+	private final int port;
+	private final long token;
+	private final Receiver receiver;
+	private volatile double loss = Datagrams.LOSS;
+
+	//Latest move number seen for each player.  Only touched by the receiving thread.
+	private final Map<String, Integer> latest = new HashMap<String, Integer>();
+
+	/**
+	 * @param host The server
+	 * @param port The server's UDP port
+	 * @param token The token the server gave us
+	 * @param receiver Where moves from the server go
+	 */
+	public DatagramLink(InetAddress host, int port, long token, Receiver receiver) throws SocketException{
+		this.socket = new DatagramSocket();
+		this.host = host;
+		this.port = port;
+		this.token = token;
+		this.receiver = receiver;
+	}
+
+	/**
+	 * @param loss Fraction of datagrams to throw away rather than send
+	 */
+	public void setLoss(double loss){
+		this.loss = loss;
+	}
+
+	/**
+	 * Start receiving, and tell the server where we are so it can send moves straight away.
+	 * @param name Name for the receiving thread
+	 */
+	public void start(String name) throws IOException{
+		Thread t = new Thread(this, name);
+		t.setDaemon(true);
+		t.start();
+		send(null);
+	}
+
+	/**
+	 * Send a move to the server.
+	 * @param move The move, or null to just say where we are
+	 */
+	public void send(MoveCommand move) throws IOException{
+		byte[] datagram = Datagrams.toServer(token, move);
+		Datagrams.send(socket, new DatagramPacket(datagram, datagram.length, host, port), loss);
+	}
+
+	public void close(){
+		socket.close();
+	}
+
+	/**
+	 * Take moves off the socket until it is closed.
+	 */
+	public void run(){
+		byte[] buffer = new byte[Datagrams.MAX_SIZE];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while(!socket.isClosed()){
+			try{
+				packet.setLength(buffer.length);
+				socket.receive(packet);
+				if(!packet.getAddress().equals(host)){
+					continue;
+				}
+				for(Object received : Datagrams.fromServer(buffer, packet.getLength())){
+					if(received instanceof MoveCommand && isLatest((MoveCommand)received)){
+						receiver.moveReceived((MoveCommand)received);
+					}
+				}
+			}catch(IOException e){
+				if(!socket.isClosed()){
+					System.err.println("Datagram receive: " + e);
+				}
+			}catch(RuntimeException e){
+				System.err.println("Bad datagram: " + e);
+			}catch(ClassNotFoundException e){
+				System.err.println("Bad datagram: " + e);
+			}
+		}
+	}
+
+	/*
+	 * Note a move's number, and say whether it is later than any seen before for its player.
+	 */
+	private boolean isLatest(MoveCommand move){
+		if(move.getSequence() == 0){
+			return true;
+		}
+		Integer last = latest.get(move.getPlayerName());
+		if(last != null && last >= move.getSequence()){
+			return false;
+		}
+		latest.put(move.getPlayerName(), move.getSequence());
+		return true;
+	}
+}
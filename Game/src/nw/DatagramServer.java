@@ -0,0 +1,181 @@
+package nw;
+
+import game.world.commands.Command.Target;
+import game.world.commands.MoveCommand;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The server's end of the datagram channel for moves (see Datagrams).
+ *
+ * Each client that joins is given a random token, which it puts on every datagram it sends so
+ * they can be told apart from each other and from anything else arriving on the port.  Where
+ * the last datagram from a client came from is where its moves are sent, so until it has sent
+ * one its moves go on the stream like everything else.
+ *
+ * Only moves are taken from datagrams, and a move is dropped if its client has already sent a
+ * later one.  Anything else has to come on the stream.
+ */
+public class DatagramServer implements Runnable {
+
+	private final DatagramSocket socket;
+	private final SecureRandom random = new SecureRandom();
+	private final Map<Long, Peer> byToken = new ConcurrentHashMap<Long, Peer>();
+	private final Map<Integer, Peer> byConnection = new ConcurrentHashMap<Integer, Peer>();
+	private volatile double loss = Datagrams.LOSS;
+
+	/**
+	 * @param port UDP port to listen on, or 0 for any
+	 */
+	public DatagramServer(int port) throws SocketException{
+		socket = new DatagramSocket(port);
+	}
+
+	/**
+	 * @return The UDP port being listened on
+	 */
+	public int getPort(){
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * @param loss Fraction of datagrams to throw away rather than send
+	 */
+	public void setLoss(double loss){
+		this.loss = loss;
+	}
+
+	public void start(){
+		Thread t = new Thread(this, "Datagrams");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	public void close(){
+		socket.close();
+	}
+
+	/**
+	 * Let a connection send and receive moves as datagrams.
+	 * @param c A newly accepted connection
+	 * @return The token it must put on its datagrams
+	 */
+	public long register(Connection c){
+		Peer peer = new Peer(c, random.nextLong());
+		byToken.put(peer.token, peer);
+		byConnection.put(c.getId(), peer);
+		return peer.token;
+	}
+
+	/**
+	 * @param c A connection that has gone away
+	 */
+	public void unregister(Connection c){
+		Peer peer = byConnection.remove(c.getId());
+		if(peer != null){
+			byToken.remove(peer.token);
+		}
+	}
+
+	/**
+	 * @param c A connection
+	 * @return true if moves for it can go as datagrams, which is once it has sent one
+	 */
+	public boolean canSend(Connection c){
+		Peer peer = byConnection.get(c.getId());
+		return peer != null && peer.address != null;
+	}
+
+	/**
+	 * Send moves to a client as datagrams.
+	 * @param c A connection that canSend
+	 * @param moves The encoded moves
+	 */
+	public void send(Connection c, List<Protocol.Encoded> moves){
+		Peer peer = byConnection.get(c.getId());
+		if(peer == null || peer.address == null || moves == null){
+			return;
+		}
+		try{
+			for(byte[] datagram : Datagrams.toClient(moves)){
+				Datagrams.send(socket, new DatagramPacket(datagram, datagram.length, peer.address), loss);
+			}
+		}catch(IOException e){
+			//Only lost moves, and the next tick sends newer ones
+			Server.print("Datagram send: " + e);
+		}
+	}
+
+	/**
+	 * Take moves off the socket until it is closed.
+	 */
+	public void run(){
+		byte[] buffer = new byte[Datagrams.MAX_SIZE];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while(!socket.isClosed()){
+			try{
+				packet.setLength(buffer.length);
+				socket.receive(packet);
+				receive(packet);
+			}catch(IOException e){
+				if(!socket.isClosed()){
+					System.err.println("Datagram receive: " + e);
+				}
+			}catch(RuntimeException e){
+				//Junk from who knows where
+				Server.print("Bad datagram: " + e);
+			}catch(ClassNotFoundException e){
+				Server.print("Bad datagram: " + e);
+			}
+		}
+	}
+
+	private void receive(DatagramPacket packet) throws IOException, ClassNotFoundException{
+		if(packet.getLength() < Datagrams.TOKEN_SIZE){
+			return;
+		}
+		ByteBuffer in = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+		Peer peer = byToken.get(in.getLong());
+		if(peer == null){
+			return;
+		}
+		peer.address = packet.getSocketAddress();
+		if(!in.hasRemaining()){
+			return;//Just saying where it is
+		}
+		Object received = Protocol.decode(in);
+		if(!(received instanceof MoveCommand) || ((MoveCommand)received).getTarget() != Target.SERVER){
+			return;
+		}
+		MoveCommand move = (MoveCommand)received;
+		if(move.getSequence() <= peer.lastSequence){
+			return;//Overtaken by a later move
+		}
+		peer.lastSequence = move.getSequence();
+		Server.handle(peer.connection, move);
+	}
+
+	/**
+	 * A client that can use datagrams.
+	 */
+	private static class Peer{
+		final Connection connection;
+		final long token;
+		volatile SocketAddress address;//Where its last datagram came from
+		int lastSequence = 0;//Only touched by the receiving thread
+
+		Peer(Connection connection, long token){
+			this.connection = connection;
+			this.token = token;
+		}
+	}
+}
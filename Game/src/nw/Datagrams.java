@@ -0,0 +1,132 @@
+package nw;
+
+import game.world.commands.Command;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The format of moves sent as UDP datagrams, next to the stream that carries everything else.
+ *
+ * A move is superseded by the next one for the same player, so there's no point waiting for a
+ * lost one to be sent again, and none in holding up the items and exits behind it while it is.
+ * Each move carries the number the moving client gave it, and whoever receives one drops it if
+ * they have already seen a later move for that player.  Anything that must arrive still goes on
+ * the stream.
+ *
+ * To the server a datagram is the token the server gave the client, then one encoded move, or
+ * nothing to just say where the client is.  To a client it is a count, then that many encoded
+ * moves each with a short length in front.
+ *
+ * Setting -Dnw.udpLoss to a fraction throws that much of what is sent away at random, on both
+ * sides, to try out a lossy network on localhost.
+ */
+public class Datagrams {
+
+	//Largest datagram sent, small enough not to be split up on any ordinary network
+	public static final int MAX_SIZE = 1200;
+
+	//Size of the token at the front of a datagram to the server
+	public static final int TOKEN_SIZE = 8;
+
+	//Fraction of datagrams to throw away instead of sending
+	public static final double LOSS = Double.parseDouble(System.getProperty("nw.udpLoss", "0"));
+
+	private static final Random random = new Random();
+
+	/**
+	 * Send a datagram, unless the loss injector decides it is lost.
+	 * @param socket Socket to send on
+	 * @param packet Datagram to send
+	 * @param loss Fraction of datagrams to throw away
+	 */
+	public static void send(DatagramSocket socket, DatagramPacket packet, double loss) throws IOException{
+		if(loss > 0 && random.nextDouble() < loss){
+			return;
+		}
+		socket.send(packet);
+	}
+
+	/**
+	 * @param token The token the server gave the client
+	 * @param move A move, or null for a datagram that only says where the client is
+	 * @return A datagram for the server
+	 */
+	public static byte[] toServer(long token, Command move) throws IOException{
+		byte[] payload = move == null ? new byte[0] : Protocol.encode(move);
+		ByteBuffer buf = ByteBuffer.allocate(TOKEN_SIZE + payload.length);
+		buf.putLong(token);
+		buf.put(payload);
+		return buf.array();
+	}
+
+	/**
+	 * Pack encoded moves into as few datagrams as they fit in.
+	 * @param moves Moves for a client
+	 * @return The datagrams, which may be none
+	 */
+	public static List<byte[]> toClient(List<Protocol.Encoded> moves){
+		List<byte[]> datagrams = new ArrayList<byte[]>();
+		ByteBuffer buf = ByteBuffer.allocate(MAX_SIZE);
+		buf.putShort((short)0);
+		int count = 0;
+		for(Protocol.Encoded move : moves){
+			int size = 2 + move.payload.length;
+			if(size + 2 > MAX_SIZE){
+				continue;//Can't happen with names a player could type
+			}
+			if(buf.remaining() < size){
+				datagrams.add(finish(buf, count));
+				buf = ByteBuffer.allocate(MAX_SIZE);
+				buf.putShort((short)0);
+				count = 0;
+			}
+			buf.putShort((short)move.payload.length);
+			buf.put(move.payload);
+			count++;
+		}
+		if(count > 0){
+			datagrams.add(finish(buf, count));
+		}
+		return datagrams;
+	}
+
+	private static byte[] finish(ByteBuffer buf, int count){
+		buf.putShort(0, (short)count);
+		byte[] datagram = new byte[buf.position()];
+		buf.flip();
+		buf.get(datagram);
+		return datagram;
+	}
+
+	/**
+	 * Unpack a datagram made by toClient.
+	 * @param data The datagram's buffer
+	 * @param length Bytes received
+	 * @return The moves in it
+	 */
+	public static List<Object> fromServer(byte[] data, int length) throws IOException, ClassNotFoundException{
+		ByteBuffer in = ByteBuffer.wrap(data, 0, length);
+		if(in.remaining() < 2){
+			throw new IOException("Short datagram");
+		}
+		int count = in.getShort();
+		List<Object> moves = new ArrayList<Object>(count);
+		for(int i = 0; i < count; i++){
+			int size = in.getShort();
+			if(size <= 0 || size > in.remaining()){
+				throw new IOException("Bad datagram");
+			}
+			int end = in.position() + size;
+			ByteBuffer part = ByteBuffer.wrap(data, in.position(), size);
+			moves.add(Protocol.decode(part));
+			in.position(end);
+		}
+		return moves;
+	}
+}
@@ -0,0 +1,344 @@
+package nw;
+
+import game.world.logic.ServerWorld;
+import game.world.model.World;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Every game a server is hosting, and which one each connection is in.
+ *
+ * Each game is a world with a Simulation of its own, so it has its own players, its own broadcast
+ * group and its own ticks.  They all share one scheduler for their ticks, one pool for their
+ * place actors and one for sending snapshots to joining clients, so a process can host dozens of
+ * small games for about the cost of one.  The scheduler has -Dnw.gameThreads threads, one per
+ * core by default.
+ *
+ * Every connection starts in the default game.  The lobby (see Lobby) lists the games, starts new
+ * ones and moves connections between them.  At most -Dnw.maxGames run at once, and a game started
+ * from the lobby is stopped once nobody has been in it for -Dnw.gameIdle seconds.
+ */
+public class GameHost {
+
+	public static final String DEFAULT = "main";
+	public static final int THREADS = Integer.getInteger("nw.gameThreads", Runtime.getRuntime().availableProcessors());
+	public static final int MAX_GAMES = Integer.getInteger("nw.maxGames", 64);
+	public static final int IDLE_TIMEOUT = Integer.getInteger("nw.gameIdle", 300);
+
+	//What a game may be called
+	private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
+	private final Metrics metrics;
+	private final ScheduledExecutorService ticker;
+	private final ExecutorService placePool = PlaceActors.newPool(PlaceActors.DEFAULT_THREADS);
+	private final ExecutorService joinPool = Executors.newCachedThreadPool(new ThreadFactory(){
+		private int n = 0;
+		public synchronized Thread newThread(Runnable r){
+			Thread t = new Thread(r, "Joiner-" + n++);
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	//Sorted by name, so they are listed in order
+	private final ConcurrentMap<String, Game> games = new ConcurrentSkipListMap<String, Game>();
+	private final Map<Integer, Game> byConnection = new ConcurrentHashMap<Integer, Game>();
+
+	//Every game is offered the same datagram socket, once there is one
+	private volatile DatagramServer datagrams;
+
+	/**
+	 * @param metrics Where every game records how long things take
+	 */
+	public GameHost(Metrics metrics){
+		this.metrics = metrics;
+		this.ticker = Executors.newScheduledThreadPool(Math.max(1, THREADS), new ThreadFactory(){
+			private int n = 0;
+			public synchronized Thread newThread(Runnable r){
+				Thread t = new Thread(r, "Simulation-" + n++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ticker.scheduleWithFixedDelay(new Runnable(){
+			public void run(){
+				reap();
+			}
+		}, 10, 10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Make a simulation that runs on the shared pools.  It isn't started until it is added.
+	 * @param world The world to run
+	 * @param remote false if every client will be a LocalConnection
+	 */
+	public Simulation simulate(ServerWorld world, boolean remote) throws IOException{
+		return new Simulation(world, Simulation.DEFAULT_TICK_RATE, metrics, remote, placePool, joinPool);
+	}
+
+	/**
+	 * Start hosting a game, stopping any game by the same name.  Anyone still in the old one is
+	 * left in the default game, and has to reconnect to be brought up to date.
+	 * @param name The game's name
+	 * @param world World file it was loaded from, or null for the default world
+	 * @param simulation Made with simulate, not yet started
+	 */
+	public void add(String name, String world, Simulation simulation){
+		Game game = new Game(name, world, simulation);
+		DatagramServer d = datagrams;
+		if(d != null){
+			simulation.setDatagrams(d);
+		}
+		simulation.start(ticker);
+		Game old = games.put(name, game);
+		if(old != null){
+			old.simulation.stop();
+			byConnection.values().removeAll(Collections.singleton(old));
+		}
+	}
+
+	/**
+	 * @param name A game's name
+	 * @return Its simulation, or null if there is no such game
+	 */
+	public Simulation get(String name){
+		Game g = games.get(name);
+		return g == null ? null : g.simulation;
+	}
+
+	/**
+	 * Offer every game, now and later, to send and receive moves as datagrams.
+	 * @param datagrams The server's datagram socket
+	 */
+	public void setDatagrams(DatagramServer datagrams){
+		this.datagrams = datagrams;
+		for(Game g : games.values()){
+			g.simulation.setDatagrams(datagrams);
+		}
+	}
+
+	/**
+	 * Put a newly accepted connection in the default game.
+	 * @param c The connection
+	 */
+	public void join(Connection c) throws IOException{
+		Game g = games.get(DEFAULT);
+		byConnection.put(c.getId(), g);
+		g.simulation.join(c);
+	}
+
+	/**
+	 * Take a connection that has gone away out of its game.
+	 * @param c The connection
+	 * @return false if it was never brought up to date
+	 */
+	public boolean leave(Connection c){
+		Game g = byConnection.remove(c.getId());
+		if(g == null){
+			g = games.get(DEFAULT);
+		}
+		g.touch();
+		return g.simulation.leave(c);
+	}
+
+	/**
+	 * @param c A connection
+	 * @return The simulation of the game it is in
+	 */
+	public Simulation of(Connection c){
+		Game g = byConnection.get(c.getId());
+		return g != null ? g.simulation : games.get(DEFAULT).simulation;
+	}
+
+	/**
+	 * Queue a command or sync request for the game a connection is in.  A client resuming a
+	 * session joins the default game when it reconnects, so if the session is another game's the
+	 * connection is moved there first.
+	 * @param c The connection it arrived on
+	 * @param message A Command or a Sync.Request
+	 */
+	public void submit(Connection c, Object message){
+		if(message instanceof Sync.Request && ((Sync.Request)message).session != 0){
+			long token = ((Sync.Request)message).session;
+			for(Game g : games.values()){
+				if(g.simulation.hasSession(token)){
+					byConnection.put(c.getId(), g);
+					break;
+				}
+			}
+		}
+		of(c).submit(c, message);
+	}
+
+	/**
+	 * Answer a lobby request.
+	 * @param c The connection it arrived on
+	 * @param request The request
+	 */
+	public void handle(Connection c, Lobby.Request request) throws IOException{
+		if(request instanceof Lobby.ListGames){
+			c.send(list());
+		}else if(request instanceof Lobby.Create){
+			Lobby.Create create = (Lobby.Create)request;
+			c.send(create(create.name, create.world));
+		}else if(request instanceof Lobby.Join){
+			move(c, ((Lobby.Join)request).name);
+		}
+	}
+
+	/**
+	 * @return Every game running
+	 */
+	public Lobby.Games list(){
+		Map<Game, Integer> players = new HashMap<Game, Integer>();
+		for(Game g : byConnection.values()){
+			Integer n = players.get(g);
+			players.put(g, n == null ? 1 : n + 1);
+		}
+		List<Lobby.Game> list = new ArrayList<Lobby.Game>();
+		for(Game g : games.values()){
+			Integer n = players.get(g);
+			list.add(new Lobby.Game(g.name, g.world, n == null ? 0 : n));
+		}
+		return new Lobby.Games(list);
+	}
+
+	/**
+	 * Start a new game.
+	 * @param name What to call it
+	 * @param world World file in the nw.worlds directory, or null for the default world
+	 * @return Created, or Refused saying why not
+	 */
+	public Object create(String name, String world){
+		if(name == null || !NAME.matcher(name).matches()){
+			return new Lobby.Refused("Not a game name: " + name);
+		}
+		if(world != null && !NAME.matcher(world).matches()){
+			return new Lobby.Refused("Not a world name: " + world);
+		}
+		synchronized(games){
+			if(games.containsKey(name)){
+				return new Lobby.Refused("There is already a game called " + name);
+			}
+			if(games.size() >= MAX_GAMES){
+				return new Lobby.Refused("No room for more games");
+			}
+			try{
+				World w = Server.loadWorld(world);
+				if(w == null){
+					return new Lobby.Refused("No world called " + world);
+				}
+				add(name, world, simulate(w, true));
+			}catch(IOException e){
+				return new Lobby.Refused("Could not start " + name + ": " + e.getMessage());
+			}catch(RuntimeException e){
+				//A world file that doesn't parse
+				return new Lobby.Refused("Could not load " + world + ": " + e);
+			}
+		}
+		Server.print("[Server] Started game " + name);
+		return new Lobby.Created(name);
+	}
+
+	/*
+	 * Move a connection to another game.  The game it is in lets it go between ticks, then it is
+	 * told it has moved and offered the new world as if it had just connected.
+	 */
+	private void move(final Connection c, final String name) throws IOException{
+		final Game to = games.get(name);
+		Game from = byConnection.get(c.getId());
+		if(to == null){
+			c.send(new Lobby.Refused("No game called " + name));
+			return;
+		}
+		if(c instanceof LocalConnection){
+			c.send(new Lobby.Refused("Only clients connected over the network can change game"));
+			return;
+		}
+		if(from == to){
+			c.send(new Lobby.Refused("Already in " + name));
+			return;
+		}
+		if(from == null){
+			from = games.get(DEFAULT);
+		}
+		from.touch();
+		from.simulation.handOff(c, new Runnable(){
+			public void run(){
+				try{
+					byConnection.put(c.getId(), to);
+					to.touch();
+					c.send(new Lobby.Joined(name));
+					to.simulation.join(c);
+				}catch(IOException e){
+					System.err.println("Lobby: " + e);
+					c.close();
+				}
+			}
+		});
+	}
+
+	/*
+	 * Stop games started from the lobby that nobody has been in for a while.
+	 */
+	private void reap(){
+		long now = System.nanoTime();
+		long timeout = TimeUnit.SECONDS.toNanos(IDLE_TIMEOUT);
+		for(Game g : games.values()){
+			if(g.name.equals(DEFAULT) || byConnection.containsValue(g)){
+				continue;
+			}
+			if(now - g.lastUsed > timeout && games.remove(g.name, g)){
+				g.simulation.stop();
+				Server.print("[Server] Stopped idle game " + g.name);
+			}
+		}
+	}
+
+	/**
+	 * Stop every game and the shared threads.
+	 */
+	public void stop(){
+		for(Game g : games.values()){
+			g.simulation.stop();
+		}
+		games.clear();
+		ticker.shutdownNow();
+		placePool.shutdownNow();
+		joinPool.shutdownNow();
+	}
+
+	/**
+	 * One hosted game.
+	 */
+	private static class Game{
+		final String name;
+		final String world;
+		final Simulation simulation;
+		volatile long lastUsed = System.nanoTime();//When someone last joined or left
+
+		Game(String name, String world, Simulation simulation){
+			this.name = name;
+			this.world = world;
+			this.simulation = simulation;
+		}
+
+		void touch(){
+			lastUsed = System.nanoTime();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package nw;
+
+import game.world.commands.Command;
+import game.world.commands.ExitCommand;
+import game.world.model.Player;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Messages used to move a player between servers that each run some of a world's places (see
+ * ShardMap).
+ *
+ * A server first says hello with the cluster's shared key on the link it sends players over, and
+ * players are only taken from a link that has.  When a player takes an exit to a place another
+ * server runs, the server they are on takes them out of their place and sends them, with
+ * everything they carry, to the other:
+ *   server: Hello(key), once
+ *   server: Transfer(player, exit)
+ *   other:  Accepted(ticket, results) or Rejected
+ * If accepted, the other server has put the player in its place and kept a session for them
+ * under the ticket.  The first server takes the player out of its world and sends the client a
+ * Redirect, and the client connects to the other server and resumes the session there as if its
+ * connection had dropped (see Sync).  If rejected, the player goes back where they were.
+ */
+public class Handoff {
+
+	/**
+	 * The first thing sent on a link to another server, showing it is from one of the cluster so
+	 * clients can't send players.
+	 */
+	public static class Hello implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final String key;//The cluster's shared key
+
+		public Hello(String key){
+			this.key = key;
+		}
+	}
+
+	/**
+	 * A player on their way to a place the receiving server runs.
+	 */
+	public static class Transfer implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final long id;//Names the transfer in the answer
+		public final Player player;
+		public final ExitCommand exit;//The exit command the sending server accepted
+
+		public Transfer(long id, Player player, ExitCommand exit){
+			this.id = id;
+			this.player = player;
+			this.exit = exit;
+		}
+	}
+
+	/**
+	 * The player is in their new place.
+	 */
+	public static class Accepted implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final long id;
+		public final long ticket;//Session the client resumes on the new server
+		public final List<Command> results;//What the new server's clients were told
+
+		public Accepted(long id, long ticket, List<Command> results){
+			this.id = id;
+			this.ticket = ticket;
+			this.results = results;
+		}
+	}
+
+	/**
+	 * There was no room for the player, or the link hasn't shown it is from a server in the cluster.
+	 */
+	public static class Rejected implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final long id;
+
+		public Rejected(long id){
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Sent to a client whose player is now on another server, which it should connect to and
+	 * resume the session named by the ticket.
+	 */
+	public static class Redirect implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final String host;
+		public final int port;
+		public final long ticket;
+
+		public Redirect(String host, int port, long ticket){
+			this.host = host;
+			this.port = port;
+			this.ticket = ticket;
+		}
+	}
+}
@@ -0,0 +1,298 @@
+package nw;
+
+import game.world.commands.Command;
+import game.world.commands.CommandType;
+import game.world.commands.ExitCommand;
+import game.world.logic.ServerWorld;
+import game.world.model.Player;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One game's side of moving players between servers that each run some of its world's places
+ * (see ShardMap and Handoff).
+ *
+ * Players leaving for a place another server runs are sent to it, and wait in no place until it
+ * answers.  Players arriving from another server are put in their place and kept a session.
+ * Everything other servers send, and the news that one is lost, comes to the simulation thread
+ * through the game's inbound queue, and is handed here from there.
+ *
+ * Without a ShardMap this server runs every place, and every player sent to it is refused.
+ *
+ * Only used by the simulation thread, except for owns and ownsStart.
+ */
+public class Handoffs {
+
+	/**
+	 * What the handoffs need of the game they move players in and out of.  Called on its
+	 * simulation thread, except for post.
+	 */
+	public interface Game{
+		/**
+		 * Queue a message for the game's next tick, to come back to handle.  Safe to call from any
+		 * thread.
+		 * @param message The message
+		 */
+		void post(Object message);
+
+		/**
+		 * Players have gone through an exit, into or out of this server, so tell its clients.
+		 * @param exit The exit command
+		 * @param results What the world made of it
+		 */
+		void moved(ExitCommand exit, List<Command> results);
+
+		/**
+		 * A player has arrived from another server, so keep a session for their client to resume.
+		 * @param player The player
+		 * @return The session's token
+		 */
+		long reserve(Player player);
+
+		/**
+		 * A connection's player is on another server now, along with their session.
+		 * @param c The connection
+		 */
+		void left(Connection c);
+	}
+
+	private final ServerWorld world;
+	private final Metrics metrics;
+	private final Game game;
+
+	//Which server runs each place, or null if this one runs them all
+	private volatile ShardMap shards;
+
+	//Players sent to another server that hasn't answered yet, by transfer id
+	private final Map<Long, Transfer> transfers = new HashMap<Long, Transfer>();
+	private long lastTransfer = 0;
+
+	//Connections that have shown they are from another server in the cluster, by id
+	private final Set<Integer> peers = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	//Hands what other servers answer to the simulation thread
+	private final ShardMap.Receiver receiver = new ShardMap.Receiver(){
+		public void received(int node, Object message){
+			game.post(message);
+		}
+
+		public void lost(int node){
+			game.post(new LostNode(node));
+		}
+	};
+
+	/**
+	 * @param world The game's world
+	 * @param metrics Where to record how long exits take
+	 * @param game The game
+	 */
+	public Handoffs(ServerWorld world, Metrics metrics, Game game){
+		this.world = world;
+		this.metrics = metrics;
+		this.game = game;
+	}
+
+	/**
+	 * Run only the places this server owns.  Must be called before the game starts.
+	 * @param shards Which server runs each place
+	 */
+	public void setShards(ShardMap shards){
+		this.shards = shards;
+	}
+
+	/**
+	 * @param place A place's name
+	 * @return true if this server runs it.  Safe to call from any thread.
+	 */
+	public boolean owns(String place){
+		ShardMap s = shards;
+		return s == null || s.owns(place);
+	}
+
+	/**
+	 * @return true if players are placed on this server.  Safe to call from any thread.
+	 */
+	public boolean ownsStart(){
+		ShardMap s = shards;
+		return s == null || s.ownsStart();
+	}
+
+	/**
+	 * Handle a message if it is about moving players between servers.
+	 * @param from The connection it arrived on, or null if it came over a link of this server's
+	 * @param message The message
+	 * @return false if it isn't one
+	 */
+	public boolean handle(Connection from, Object message){
+		if(message instanceof Handoff.Hello){
+			hello(from, (Handoff.Hello)message);
+		}else if(message instanceof Handoff.Transfer){
+			arrive(from, (Handoff.Transfer)message);
+		}else if(message instanceof Handoff.Accepted){
+			transferred((Handoff.Accepted)message);
+		}else if(message instanceof Handoff.Rejected){
+			notTransferred(((Handoff.Rejected)message).id);
+		}else if(message instanceof LostNode){
+			lost(((LostNode)message).node);
+		}else{
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Forget a connection that has gone.  Safe to call from any thread.
+	 * @param c The connection
+	 */
+	public void leave(Connection c){
+		peers.remove(c.getId());
+	}
+
+	/**
+	 * Send a player who has left their place for one another server runs to that server.  Until
+	 * it answers they are in no place, so nothing they send is applied.
+	 * @param c Their client's connection
+	 * @param player The player
+	 * @param exit The exit command the world accepted
+	 */
+	public void transfer(Connection c, Player player, ExitCommand exit){
+		ShardMap s = shards;
+		int node = s.ownerOf(world.leadsTo(exit));
+		long id = ++lastTransfer;
+		transfers.put(id, new Transfer(c, exit, node));
+		try{
+			s.send(node, new Handoff.Transfer(id, player, exit), receiver);
+		}catch(IOException e){
+			System.err.println("Handoffs transfer to " + node + ": " + e);
+			notTransferred(id);
+		}
+	}
+
+	/**
+	 * Close the links to other servers.
+	 */
+	public void close(){
+		ShardMap s = shards;
+		if(s != null){
+			s.close();
+		}
+	}
+
+	/*
+	 * Another server has opened a link to send players over.  One that doesn't know the key is
+	 * not one of the cluster, and is cut off.
+	 */
+	private void hello(Connection from, Handoff.Hello hello){
+		ShardMap s = shards;
+		if(s != null && s.accepts(hello.key)){
+			peers.add(from.getId());
+		}else{
+			System.err.println("Handoffs: connection " + from.getId() + " isn't from the cluster");
+			from.close();
+		}
+	}
+
+	/*
+	 * Another server has taken a player, so take them out of this world and send their client
+	 * there.  Everyone here is told where they went.
+	 */
+	private void transferred(Handoff.Accepted accepted){
+		Transfer t = transfers.remove(accepted.id);
+		if(t == null){
+			return;
+		}
+		metrics.command(CommandType.EXIT).record(System.nanoTime() - t.started, true);
+		world.depart(t.exit.getPlayerName());
+		game.left(t.connection);
+		game.moved(t.exit, accepted.results);
+		InetSocketAddress node = shards.getNode(t.node);
+		try{
+			t.connection.send(new Handoff.Redirect(node.getHostString(), node.getPort(), accepted.ticket));
+		}catch(IOException e){
+			//It will resume on the other server when it reconnects, if it knows to
+			System.err.println("Handoffs redirect: " + e);
+		}
+	}
+
+	/*
+	 * Another server couldn't take a player, so put them back where they were.
+	 */
+	private void notTransferred(long id){
+		Transfer t = transfers.remove(id);
+		if(t == null){
+			return;
+		}
+		metrics.command(CommandType.EXIT).record(System.nanoTime() - t.started, false);
+		world.returnToPlace(t.exit);
+	}
+
+	/*
+	 * A link to another server has failed, so nothing sent to it will be answered.
+	 */
+	private void lost(int node){
+		for(Long id : new ArrayList<Long>(transfers.keySet())){
+			if(transfers.get(id).node == node){
+				notTransferred(id);
+			}
+		}
+	}
+
+	/*
+	 * A player has come from another server.  If there's room for them they are given a session
+	 * for their client to resume here.  Only a link that has said hello can send players.
+	 */
+	private void arrive(Connection from, Handoff.Transfer t){
+		ShardMap s = shards;
+		List<Command> results = new ArrayList<Command>();
+		if(s != null && peers.contains(from.getId()) && s.owns(world.leadsTo(t.exit))){
+			results = world.arrive(t.player, t.exit);
+		}
+		Object answer;
+		if(results.isEmpty()){
+			answer = new Handoff.Rejected(t.id);
+		}else{
+			game.moved(t.exit, results);
+			answer = new Handoff.Accepted(t.id, game.reserve(t.player), results);
+		}
+		try{
+			from.send(answer);
+		}catch(IOException e){
+			System.err.println("Handoffs arrive: " + e);
+		}
+	}
+
+	/**
+	 * A player sent to another server, waiting for it to answer.
+	 */
+	private static class Transfer{
+		final Connection connection;
+		final ExitCommand exit;
+		final int node;
+		final long started = System.nanoTime();
+
+		Transfer(Connection connection, ExitCommand exit, int node){
+			this.connection = connection;
+			this.exit = exit;
+			this.node = node;
+		}
+	}
+
+	/**
+	 * The link to another server has failed.
+	 */
+	private static class LostNode{
+		final int node;
+
+		LostNode(int node){
+			this.node = node;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package nw;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds, cheap enough to record into on every command.
+ *
+ * Values are counted in buckets that split every power of two into four, so a percentile is
+ * never more than 25% above the true value.  Recording is a handful of atomic adds and never
+ * allocates, and any thread can read it while others record.
+ */
+public class Histogram {
+
+	//Sub buckets per power of two, as a number of bits
+	private static final int SUB_BITS = 2;
+	private static final int SUB = 1 << SUB_BITS;
+
+	//Values from 2^40ns (about 18 minutes) up all land in the last bucket
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos A duration
+	 */
+	public void record(long nanos){
+		if(nanos < 0){
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long m;
+		while(nanos > (m = max.get()) && !max.compareAndSet(m, nanos)){
+		}
+	}
+
+	public long getCount(){
+		return count.get();
+	}
+
+	public long getMax(){
+		return max.get();
+	}
+
+	/**
+	 * @return The mean in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public long getMean(){
+		long n = count.get();
+		return n == 0 ? 0 : total.get() / n;
+	}
+
+	/**
+	 * @param p Percentile from 0 to 100
+	 * @return The top of the bucket holding that percentile in nanoseconds, or 0 if nothing has
+	 * been recorded
+	 */
+	public long getPercentile(double p){
+		long n = count.get();
+		if(n == 0){
+			return 0;
+		}
+		long wanted = Math.max(1, (long)Math.ceil(p / 100 * n));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			seen += counts.get(i);
+			if(seen >= wanted){
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/*
+	 * Values below SUB get a bucket each.  Above that, the exponent picks a group of SUB buckets
+	 * and the bits just below the leading one pick the bucket in the group.
+	 */
+	private static int bucket(long v){
+		if(v < SUB){
+			return (int)v;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(v);
+		if(exponent > MAX_EXPONENT){
+			return BUCKETS - 1;
+		}
+		int sub = (int)(v >>> (exponent - SUB_BITS)) & (SUB - 1);
+		return (exponent - SUB_BITS + 1) * SUB + sub;
+	}
+
+	/*
+	 * The largest value that lands in a bucket.
+	 */
+	private static long upperBound(int bucket){
+		if(bucket < SUB){
+			return bucket;
+		}
+		if(bucket == BUCKETS - 1){
+			return Long.MAX_VALUE;
+		}
+		int exponent = bucket / SUB + SUB_BITS - 1;
+		int sub = bucket % SUB;
+		long width = 1L << (exponent - SUB_BITS);
+		return ((SUB + sub) * width) + width - 1;
+	}
+}
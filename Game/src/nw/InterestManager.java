@@ -0,0 +1,104 @@
+package nw;
+
+import game.world.commands.Command;
+import game.world.commands.CommandType;
+import game.world.commands.MoveCommand;
+import game.world.model.Place;
+import game.world.model.Player;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps track of which Place each client can see, so room local traffic only goes to the clients
+ * in that room.
+ *
+ * A connection is subscribed to the Place its player is in once the player has been placed, and
+ * moved to the other Place whenever the player takes an Exit.  Moves are the only room local
+ * results; everything else changes state every client keeps (inventories, locks, who is in which
+ * room) and still goes to everyone.
+ */
+public class InterestManager {
+
+	//Player controlled by each connection, and the connection controlling each player
+	private final Map<Integer, Player> players = new ConcurrentHashMap<Integer, Player>();
+	private final ConcurrentMap<String, Connection> connectionsByPlayer = new ConcurrentHashMap<String, Connection>();
+
+	//Place each connection is subscribed to
+	private final Map<Integer, String> subscriptions = new ConcurrentHashMap<Integer, String>();
+
+	/**
+	 * Record that a connection controls a player, and subscribe it to the player's place.
+	 * @param c The connection that placed the player
+	 * @param player The player it controls
+	 * @param place The place the player is in
+	 */
+	public void bind(Connection c, Player player, Place place){
+		players.put(c.getId(), player);
+		connectionsByPlayer.put(player.getName(), c);
+		subscribe(c, place);
+	}
+
+	/**
+	 * Move a connection's subscription to another place.
+	 * @param c The connection whose player changed place
+	 * @param place The place the player is now in
+	 */
+	public void subscribe(Connection c, Place place){
+		if(place == null){
+			subscriptions.remove(c.getId());
+		}else{
+			subscriptions.put(c.getId(), place.getName());
+		}
+	}
+
+	/**
+	 * Forget everything about a connection.
+	 * @param c The connection that has gone away
+	 */
+	public void remove(Connection c){
+		subscriptions.remove(c.getId());
+		Player player = players.remove(c.getId());
+		if(player != null){
+			//Unless a resumed session has already bound the player to a new connection
+			connectionsByPlayer.remove(player.getName(), c);
+		}
+	}
+
+	/**
+	 * @param c A connection
+	 * @return The player it controls, or null if it hasn't placed one yet
+	 */
+	public Player getPlayer(Connection c){
+		return players.get(c.getId());
+	}
+
+	/**
+	 * @param c A connection
+	 * @return The name of the place it is subscribed to, or null if it isn't subscribed
+	 */
+	public String getPlace(Connection c){
+		return subscriptions.get(c.getId());
+	}
+
+	/**
+	 * @param playerName Name of a player
+	 * @return The connection controlling that player, or null if there isn't one
+	 */
+	public Connection getConnection(String playerName){
+		return connectionsByPlayer.get(playerName);
+	}
+
+	/**
+	 * Work out who needs to see a command result.
+	 * @param cmd A result returned by the world
+	 * @return The name of the place it is local to, or null if everyone needs it
+	 */
+	public static String scopeOf(Command cmd){
+		if(!cmd.isResult(CommandType.MOVE)){
+			return null;
+		}
+		return ((MoveCommand)cmd).getPlaceName();
+	}
+}
@@ -0,0 +1,334 @@
+package nw;
+
+import game.world.commands.Command;
+import game.world.logic.EntityState;
+import game.world.logic.ServerWorld;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the world safe on disk, so a server that crashes can start again where it was.
+ *
+ * Every command the world accepts is appended to a write-ahead journal before its results are
+ * sent.  Commands are written a tick at a time and synced to disk once per tick, so the cost of
+ * the sync is shared by everything in the tick.  Each record is its length, the version the world
+ * reached by accepting it, and the command in the wire format.
+ *
+ * Every so often the world's EntityState is written out as a snapshot by a background thread,
+ * and the journal is started again in a new segment.  Once the snapshot is safely written the
+ * segments and snapshots before it are deleted, so the journal only ever holds what happened
+ * since the last snapshot.
+ *
+ * To recover, the latest snapshot is applied to the world as it was loaded, and then every
+ * command in the journal after it is applied again in order.  A record cut short by the crash
+ * ends the replay.
+ *
+ * Not thread safe, apart from the snapshot writer.  Only the simulation thread uses it.
+ */
+public class Journal {
+
+	//Seconds between snapshots, set with -Dnw.snapshotInterval
+	public static final int SNAPSHOT_INTERVAL = Integer.getInteger("nw.snapshotInterval", 60);
+
+	//Sync every tick to disk, unless -Dnw.journalSync=false trades the last few ticks for speed
+	public static final boolean SYNC = !"false".equals(System.getProperty("nw.journalSync"));
+
+	private static final String SEGMENT = "journal-";
+	private static final String SNAPSHOT = "snapshot-";
+	private static final String SUFFIX = ".dat";
+
+	private final File dir;
+	private final boolean sync;
+	private final long snapshotNanos;
+
+	private FileChannel segment;
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private final DataOutputStream pendingOut = new DataOutputStream(pending);
+	private int pendingCount = 0;
+	private long lastVersion = 0;//Version of the last command appended
+	private long lastSnapshotVersion = -1;
+	private long lastSnapshot = System.nanoTime();
+
+	//What recovery found
+	private long snapshotVersion = 0;
+	private long replayed = 0;
+
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory(){
+		public Thread newThread(Runnable r){
+			Thread t = new Thread(r, "Snapshots");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * @param dir Directory to keep the journal and snapshots in, made if it doesn't exist
+	 */
+	public Journal(File dir) throws IOException{
+		this(dir, SYNC, SNAPSHOT_INTERVAL);
+	}
+
+	/**
+	 * @param dir Directory to keep the journal and snapshots in, made if it doesn't exist
+	 * @param sync true to sync every commit to disk
+	 * @param snapshotInterval Seconds between snapshots
+	 */
+	public Journal(File dir, boolean sync, int snapshotInterval) throws IOException{
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Can't make journal directory " + dir);
+		}
+		this.dir = dir;
+		this.sync = sync;
+		this.snapshotNanos = TimeUnit.SECONDS.toNanos(snapshotInterval);
+	}
+
+	/**
+	 * Bring a freshly loaded world back to where it was, and start a new journal segment after it.
+	 * Must be called once, before anything is appended.
+	 * @param world The world as it was loaded
+	 * @return The version the world is now at
+	 */
+	public long recover(ServerWorld world) throws IOException, ClassNotFoundException{
+		File latest = latest(SNAPSHOT);
+		long version = 0;
+		if(latest != null){
+			ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(latest)));
+			try{
+				EntityState state = (EntityState)in.readObject();
+				state.applyTo(world);
+				version = state.getVersion();
+			}finally{
+				in.close();
+			}
+		}
+		snapshotVersion = version;
+		lastSnapshotVersion = version;
+
+		for(File f : files(SEGMENT)){
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+			try{
+				while(true){
+					int length;
+					long recorded;
+					byte[] payload;
+					try{
+						length = in.readInt();
+						recorded = in.readLong();
+						if(length < 0 || length > Protocol.MAX_FRAME_SIZE){
+							break;
+						}
+						payload = new byte[length];
+						in.readFully(payload);
+					}catch(EOFException e){
+						break;//The end, or a record the crash cut short
+					}
+					if(recorded <= version){
+						continue;//Already in the snapshot
+					}
+					if(recorded != version + 1){
+						throw new IOException("Journal " + f.getName() + " skips from " + version + " to " + recorded);
+					}
+					world.applyCommand((Command)Protocol.decode(payload));
+					version = recorded;
+					replayed++;
+				}
+			}finally{
+				in.close();
+			}
+		}
+		lastVersion = version;
+		open(version + 1);
+		return version;
+	}
+
+	/**
+	 * @return The version of the snapshot recovery started from
+	 */
+	public long getSnapshotVersion(){
+		return snapshotVersion;
+	}
+
+	/**
+	 * @return Number of commands recovery replayed from the journal
+	 */
+	public long getReplayed(){
+		return replayed;
+	}
+
+	/**
+	 * Add a command the world has accepted to the next commit.
+	 * @param version The version the world reached by accepting it
+	 * @param command The command
+	 */
+	public void append(long version, Command command) throws IOException{
+		byte[] payload = Protocol.encode(command);
+		pendingOut.writeInt(payload.length);
+		pendingOut.writeLong(version);
+		pendingOut.write(payload);
+		pendingCount++;
+		lastVersion = version;
+	}
+
+	/**
+	 * Write everything appended since the last commit, and wait for it to reach the disk.
+	 * @return Number of bytes written
+	 */
+	public int commit() throws IOException{
+		if(pendingCount == 0){
+			return 0;
+		}
+		ByteBuffer buf = ByteBuffer.wrap(pending.toByteArray());
+		int bytes = buf.remaining();
+		while(buf.hasRemaining()){
+			segment.write(buf);
+		}
+		if(sync){
+			segment.force(false);
+		}
+		pending.reset();
+		pendingCount = 0;
+		return bytes;
+	}
+
+	/**
+	 * @return Number of commands waiting for the next commit
+	 */
+	public int getPending(){
+		return pendingCount;
+	}
+
+	/**
+	 * @return true if it is time for another snapshot
+	 */
+	public boolean snapshotDue(){
+		return System.nanoTime() - lastSnapshot >= snapshotNanos && lastVersion != lastSnapshotVersion;
+	}
+
+	/**
+	 * Start a new journal segment and have the state written out in the background.  Once it is,
+	 * everything older is deleted.  Anything appended must have been committed first.
+	 * @param state The world as of the last command appended
+	 */
+	public void snapshot(final EntityState state) throws IOException{
+		if(pendingCount != 0 || state.getVersion() != lastVersion){
+			throw new IllegalStateException("Snapshot at " + state.getVersion() + " but the journal is at " + lastVersion);
+		}
+		lastSnapshot = System.nanoTime();
+		if(state.getVersion() == lastSnapshotVersion){
+			return;
+		}
+		lastSnapshotVersion = state.getVersion();
+		segment.close();
+		open(state.getVersion() + 1);
+		writer.execute(new Runnable(){
+			public void run(){
+				try{
+					write(state);
+				}catch(IOException e){
+					//The journal still has everything since the last snapshot that was written
+					System.err.println("Snapshot: " + e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Commit anything left and stop.  Snapshots already started are finished first.
+	 */
+	public void close() throws IOException{
+		commit();
+		segment.close();
+		writer.shutdown();
+		try{
+			writer.awaitTermination(10, TimeUnit.SECONDS);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Start a new segment.  One already there by the same name can only hold a record the last
+	 * crash cut short, so it is emptied.
+	 */
+	private void open(long firstVersion) throws IOException{
+		File f = new File(dir, SEGMENT + firstVersion + SUFFIX);
+		segment = new FileOutputStream(f).getChannel();
+	}
+
+	/*
+	 * Write a snapshot to a temporary file and move it into place, so a crash part way through
+	 * never leaves a broken one behind.  Then delete everything it replaces.
+	 */
+	private void write(EntityState state) throws IOException{
+		File tmp = new File(dir, SNAPSHOT + state.getVersion() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(tmp);
+		try{
+			ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fileOut));
+			out.writeObject(state);
+			out.flush();
+			fileOut.getFD().sync();
+		}finally{
+			fileOut.close();
+		}
+		File done = new File(dir, SNAPSHOT + state.getVersion() + SUFFIX);
+		Files.move(tmp.toPath(), done.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		for(File f : files(SNAPSHOT)){
+			if(versionOf(f, SNAPSHOT) < state.getVersion()){
+				f.delete();
+			}
+		}
+		for(File f : files(SEGMENT)){
+			if(versionOf(f, SEGMENT) <= state.getVersion()){
+				f.delete();
+			}
+		}
+	}
+
+	/*
+	 * The files with a prefix, oldest first.
+	 */
+	private List<File> files(final String prefix){
+		List<File> found = new ArrayList<File>();
+		File[] all = dir.listFiles();
+		if(all != null){
+			for(File f : all){
+				if(f.getName().startsWith(prefix) && f.getName().endsWith(SUFFIX) && versionOf(f, prefix) >= 0){
+					found.add(f);
+				}
+			}
+		}
+		Collections.sort(found, new Comparator<File>(){
+			public int compare(File a, File b){
+				return Long.compare(versionOf(a, prefix), versionOf(b, prefix));
+			}
+		});
+		return found;
+	}
+
+	private File latest(String prefix){
+		List<File> found = files(prefix);
+		return found.isEmpty() ? null : found.get(found.size() - 1);
+	}
+
+	private static long versionOf(File f, String prefix){
+		String name = f.getName();
+		try{
+			return Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length()));
+		}catch(NumberFormatException e){
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,681 @@
+package nw;
+
+import game.world.commands.*;
+import game.world.logic.ClientWorld;
+import game.world.model.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Capacity test.  Connects a crowd of headless bot players to a server over localhost sockets,
+ * has them wander about sending commands, and reports how the server coped.
+ *
+ * Unless a host is given the server is started in this JVM, so its CPU time can be measured.
+ * Each bot places a player, then sends a command at a fixed rate: random moves, with the odd
+ * attempt to go through an exit or pick something up, or the actions of a script played on a
+ * loop.  A command's latency is the time from sending it to its result coming back.
+ *
+ * Usage: java nw.LoadGenerator [-bots n] [-rate commands per second per bot] [-seconds n]
+ *            [-mode threads|blocking|nio] [-host host -port port] [-script Up,Up,Interact,...]
+ *            [-seed n] [-udp true|false] [-loss fraction] [-blip seconds] [-games n] [-shards n]
+ *            [-input true|false]
+ *
+ * With -udp the server also takes and sends moves as datagrams, and -loss throws away that
+ * fraction of datagrams on both sides to try out a lossy network.  Both only apply to a server
+ * started here, though the bots use datagrams with any server that offers them.
+ *
+ * With -input the bots send the movement keys they hold, and only when that changes, and the
+ * server walks them.  An input's latency is the time until the first step it makes comes back,
+ * and one whose way is blocked from the start is never answered.
+ *
+ * With -blip, every so many seconds one bot's connection is cut, and how long it takes to resume
+ * its session is reported.
+ *
+ * With -games the bots are shared out between that many games on the one server.  The first bot
+ * in each game starts it from the lobby, and the rest join it.
+ *
+ * With -shards the world's places are split between that many servers (see ShardMap): the one in
+ * this JVM and the rest in child processes, whose output goes to files in the temp directory.
+ * Bots going through exits are handed between them, and how many times is reported.
+ */
+public class LoadGenerator {
+
+	private static final String[] DIRECTIONS = {"Up", "Down", "Left", "Right"};
+
+	//Commands with no answer after this long were refused, so stop waiting for them
+	private static final long ANSWER_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+
+	private int bots = 50;
+	private double rate = 10;
+	private int seconds = 30;
+	private String mode = "nio";
+	private String host = null;
+	private int port = 0;
+	private String[] script = null;
+	private long seed = 1;
+	private boolean udp = false;
+	private double loss = 0;
+	private int blip = 0;
+	private int games = 1;
+	private int shards = 1;
+	private boolean input = false;
+	private final List<Process> children = new ArrayList<Process>();
+	private final AtomicLong redirected = new AtomicLong();
+
+	private final List<Bot> crowd = new ArrayList<Bot>();
+	private final Latencies latencies = new Latencies();
+	private final Latencies resumes = new Latencies();//Time from cutting a connection to resuming
+	private final AtomicLong replayed = new AtomicLong();
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong answered = new AtomicLong();
+	private final AtomicLong unanswered = new AtomicLong();
+	private final AtomicLong superseded = new AtomicLong();//Moves answered by the answer to a later one
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong holding = new AtomicLong();//Steps with keys held and nothing to send
+	private final Map<CommandType, AtomicLong> sentByType = new EnumMap<CommandType, AtomicLong>(CommandType.class);
+
+	public LoadGenerator(){
+		for(CommandType type : CommandType.values()){
+			sentByType.put(type, new AtomicLong());
+		}
+	}
+
+	public static void main(String[] args) throws Exception{
+		LoadGenerator generator = new LoadGenerator();
+		try{
+			generator.parse(args);
+		}catch(RuntimeException e){
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java nw.LoadGenerator [-bots n] [-rate n] [-seconds n] [-mode threads|blocking|nio]"
+					+ " [-host host -port port] [-script Up,Up,Interact,...] [-seed n] [-udp true|false] [-loss fraction] [-blip seconds]"
+					+ " [-games n] [-shards n] [-input true|false]");
+			System.exit(1);
+		}
+		generator.run();
+		System.exit(0);
+	}
+
+	private void parse(String[] args){
+		for(int i = 0; i < args.length; i += 2){
+			if(i + 1 >= args.length){
+				throw new IllegalArgumentException("No value for " + args[i]);
+			}
+			String value = args[i + 1];
+			if(args[i].equals("-bots")){
+				bots = Integer.parseInt(value);
+			}else if(args[i].equals("-rate")){
+				rate = Double.parseDouble(value);
+			}else if(args[i].equals("-seconds")){
+				seconds = Integer.parseInt(value);
+			}else if(args[i].equals("-mode")){
+				mode = value;
+			}else if(args[i].equals("-host")){
+				host = value;
+			}else if(args[i].equals("-port")){
+				port = Integer.parseInt(value);
+			}else if(args[i].equals("-script")){
+				script = value.split(",");
+			}else if(args[i].equals("-seed")){
+				seed = Long.parseLong(value);
+			}else if(args[i].equals("-udp")){
+				udp = Boolean.parseBoolean(value);
+			}else if(args[i].equals("-loss")){
+				loss = Double.parseDouble(value);
+			}else if(args[i].equals("-blip")){
+				blip = Integer.parseInt(value);
+			}else if(args[i].equals("-games")){
+				games = Math.max(1, Integer.parseInt(value));
+			}else if(args[i].equals("-input")){
+				input = Boolean.parseBoolean(value);
+			}else if(args[i].equals("-shards")){
+				shards = Math.max(1, Integer.parseInt(value));
+			}else{
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if(host != null && port == 0){
+			throw new IllegalArgumentException("A port is needed with -host");
+		}
+		if(shards > 1 && (host != null || games > 1)){
+			throw new IllegalArgumentException("-shards starts its own servers, and only splits the first game");
+		}
+		//Read when the server and the bots' datagram links start
+		System.setProperty("nw.udp", String.valueOf(udp));
+		System.setProperty("nw.udpLoss", String.valueOf(loss));
+	}
+
+	private void run() throws Exception{
+		boolean local = host == null;
+		if(local){
+			startShards();
+			startServer();
+		}
+
+		//Every bot shares one baseline cache, so the world is only downloaded once
+		File cacheDir = new File(System.getProperty("java.io.tmpdir"), "space-escape-load");
+		BaselineCache cache = new BaselineCache(cacheDir);
+
+		System.out.println("Connecting " + bots + " bots to " + host + ":" + port);
+		Random random = new Random(seed);
+		for(int i = 0; i < bots; i++){
+			Bot bot = new Bot("Bot" + i, new Random(random.nextLong()));
+			int game = i % games;
+			bot.connect(cache, game == 0 ? null : "load" + game, i < games);
+			crowd.add(bot);
+		}
+		for(Bot bot : crowd){
+			if(!bot.awaitPlaced(30000)){
+				throw new IOException(bot.name + " was never placed");
+			}
+		}
+		System.out.println("All bots placed, running for " + seconds + "s");
+
+		//Only count what happens while the bots are running
+		latencies.clear();
+		sent.set(0);
+		answered.set(0);
+		unanswered.set(0);
+		superseded.set(0);
+		skipped.set(0);
+		holding.set(0);
+		for(AtomicLong count : sentByType.values()){
+			count.set(0);
+		}
+		long serverCpuStart = local ? serverCpuTime() : 0;
+		long start = System.nanoTime();
+
+		ScheduledExecutorService drivers = Executors.newScheduledThreadPool(
+				Math.max(1, Runtime.getRuntime().availableProcessors() / 2), new ThreadFactory(){
+			private int n = 0;
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "Bot driver " + n++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1L, (long)(TimeUnit.SECONDS.toMicros(1) / rate));
+		for(final Bot bot : crowd){
+			drivers.scheduleAtFixedRate(new Runnable(){
+				public void run(){
+					try{
+						bot.step();
+					}catch(RuntimeException e){
+						System.err.println(bot.name + ": " + e);
+					}
+				}
+			}, bot.random.nextInt((int)Math.min(Integer.MAX_VALUE, period)), period, TimeUnit.MICROSECONDS);
+		}
+		if(blip > 0){
+			final Random victims = new Random(seed);
+			drivers.scheduleAtFixedRate(new Runnable(){
+				public void run(){
+					crowd.get(victims.nextInt(crowd.size())).blip();
+				}
+			}, blip, blip, TimeUnit.SECONDS);
+		}
+
+		Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+		drivers.shutdownNow();
+		//Give the last results a moment to come back
+		Thread.sleep(500);
+
+		long elapsed = System.nanoTime() - start;
+		long serverCpu = local ? serverCpuTime() - serverCpuStart : 0;
+		report(elapsed, local, serverCpu);
+
+		for(Bot bot : crowd){
+			bot.core.quit();
+		}
+		for(Process child : children){
+			child.destroy();
+		}
+	}
+
+	/*
+	 * Start a server for each shard but the first in a process of its own, on free ports, and
+	 * tell every server where the others are.  The first is the one started in this JVM.
+	 */
+	private void startShards() throws Exception{
+		if(shards <= 1){
+			return;
+		}
+		int[] ports = new int[shards];
+		StringBuilder list = new StringBuilder();
+		for(int i = 0; i < shards; i++){
+			ports[i] = i == 0 && port != 0 ? port : freePort();
+			list.append(i == 0 ? "" : ",").append("localhost:").append(ports[i]);
+		}
+		port = ports[0];
+		String key = UUID.randomUUID().toString();
+		System.setProperty("nw.shards", list.toString());
+		System.setProperty("nw.shard", "0");
+		System.setProperty("nw.shardKey", key);
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		for(int i = 1; i < shards; i++){
+			File log = new File(System.getProperty("java.io.tmpdir"), "space-escape-shard" + i + ".log");
+			ProcessBuilder builder = new ProcessBuilder(java, "-Djava.awt.headless=true",
+					"-Dnw.shards=" + list, "-Dnw.shard=" + i, "-Dnw.shardKey=" + key, "-Dnw.udp=" + udp, "-Dnw.udpLoss=" + loss,
+					"-cp", System.getProperty("java.class.path"), "nw.Server", String.valueOf(ports[i]), mode);
+			builder.redirectErrorStream(true);
+			builder.redirectOutput(log);
+			children.add(builder.start());
+			System.out.println("Started shard " + i + " on port " + ports[i] + ", output in " + log);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread("Stop shards"){
+			public void run(){
+				for(Process child : children){
+					child.destroy();
+				}
+			}
+		});
+		for(int i = 1; i < shards; i++){
+			waitFor(ports[i]);
+		}
+	}
+
+	private static int freePort() throws IOException{
+		ServerSocket probe = new ServerSocket(0);
+		int free = probe.getLocalPort();
+		probe.close();
+		return free;
+	}
+
+	/*
+	 * Wait until a server is accepting connections.
+	 */
+	private void waitFor(int port) throws Exception{
+		long end = System.currentTimeMillis() + 10000;
+		while(true){
+			try{
+				new Socket("localhost", port).close();
+				return;
+			}catch(IOException e){
+				if(System.currentTimeMillis() > end){
+					throw e;
+				}
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	/*
+	 * Start a server in this JVM on a free port, and wait until it is accepting connections.
+	 */
+	private void startServer() throws Exception{
+		host = "localhost";
+		if(port == 0){
+			port = freePort();
+		}
+		Thread server = new Thread("Server main"){
+			public void run(){
+				try{
+					Server.serve(port, mode);
+				}catch(IOException e){
+					System.err.println("Server: " + e);
+				}
+			}
+		};
+		server.setDaemon(true);
+		server.start();
+		waitFor(port);
+	}
+
+	/*
+	 * CPU time used by every live thread that isn't a bot or this tool, in nanoseconds.  Threads
+	 * that have finished are not counted, which is fine while every connection stays open.
+	 */
+	private static long serverCpuTime(){
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(!threads.isThreadCpuTimeSupported()){
+			return 0;
+		}
+		long total = 0;
+		for(ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())){
+			if(info == null || info.getThreadName().startsWith("Bot") || info.getThreadName().equals("main")){
+				continue;
+			}
+			long cpu = threads.getThreadCpuTime(info.getThreadId());
+			if(cpu > 0){
+				total += cpu;
+			}
+		}
+		return total;
+	}
+
+	private void report(long elapsed, boolean local, long serverCpu){
+		double secs = elapsed / 1e9;
+		System.out.println();
+		System.out.println("Bots:            " + bots + " at " + rate + " commands/s each, server mode " + (local ? mode : "remote")
+				+ (udp ? ", moves as datagrams with " + format(loss * 100) + "% loss" : "")
+				+ (games > 1 ? ", in " + games + " games" : "")
+				+ (shards > 1 ? ", world split between " + shards + " servers" : "")
+				+ (input ? ", sending held keys" : ""));
+		StringBuilder types = new StringBuilder();
+		for(Map.Entry<CommandType, AtomicLong> count : sentByType.entrySet()){
+			if(count.getValue().get() > 0){
+				types.append(" ").append(count.getKey().getName()).append(" ").append(count.getValue().get());
+			}
+		}
+		System.out.println("Sent:            " + sent.get() + " (" + format(sent.get() / secs) + "/s)" + types);
+		System.out.println("Answered:        " + answered.get() + " (" + format(answered.get() / secs) + "/s)");
+		System.out.println("Unanswered:      " + unanswered.get());
+		if(superseded.get() > 0){
+			System.out.println("Superseded:      " + superseded.get() + " moves, overtaken by a later move before the server applied them");
+		}
+		System.out.println("Not sent:        " + skipped.get() + " (nothing to do, or refused by the bot's own world)");
+		if(input){
+			System.out.println("Held:            " + holding.get() + " steps with nothing new to send");
+		}
+		long[] sorted = latencies.sorted();
+		if(sorted.length > 0){
+			System.out.println("Latency ms:      p50 " + millis(percentile(sorted, 50))
+					+ "  p90 " + millis(percentile(sorted, 90))
+					+ "  p99 " + millis(percentile(sorted, 99))
+					+ "  max " + millis(sorted[sorted.length - 1]));
+		}
+		if(shards > 1){
+			System.out.println("Handed over:     " + redirected.get() + " times between servers");
+		}
+		long[] resumed = resumes.sorted();
+		if(resumed.length > 0){
+			System.out.println("Resumed:         " + resumed.length + " (" + replayed.get() + " replayed), ms p50 "
+					+ millis(percentile(resumed, 50)) + "  max " + millis(resumed[resumed.length - 1]));
+		}
+		if(local){
+			System.out.println("Server CPU:      " + format(serverCpu / (double)elapsed * 100) + "% of one core");
+			MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+			System.gc();
+			System.out.println("Heap after GC:   " + memory.getHeapMemoryUsage().getUsed() / (1024 * 1024)
+					+ "MB (server and bots together)");
+			System.out.println();
+			System.out.print(Server.getMetrics().report());
+		}
+	}
+
+	private static long percentile(long[] sorted, int p){
+		int i = (int)Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+	}
+
+	private static String millis(long nanos){
+		return format(nanos / 1e6);
+	}
+
+	private static String format(double d){
+		return String.format("%.2f", d);
+	}
+
+	/**
+	 * Latencies of answered commands, in nanoseconds.
+	 */
+	private static class Latencies{
+		private long[] values = new long[1024];
+		private int size = 0;
+
+		synchronized void add(long nanos){
+			if(size == values.length){
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = nanos;
+		}
+
+		synchronized void clear(){
+			size = 0;
+		}
+
+		synchronized long[] sorted(){
+			long[] copy = Arrays.copyOf(values, size);
+			Arrays.sort(copy);
+			return copy;
+		}
+	}
+
+	/**
+	 * One headless player.  It remembers when each command went out, and when the result for its
+	 * own player comes back the difference is that command's latency.
+	 */
+	private class Bot implements ClientCore.Listener{
+		final String name;
+		final Random random;
+		ClientCore core;
+		private volatile Socket socket;
+		private volatile long blipped;//When its connection was last cut
+
+		private volatile boolean placed = false;
+		private long placementSent;
+		private String direction;
+		private int stepsLeft = 0;
+		private int scriptPosition = 0;
+		private float viewAngle = 0;
+		private int redirects = 0;//Handovers seen so far
+
+		//Send time of each unanswered command by type, oldest first.  Moves also keep their number.
+		private final Map<CommandType, Deque<long[]>> waiting = new EnumMap<CommandType, Deque<long[]>>(CommandType.class);
+
+		Bot(String name, Random random){
+			this.name = name;
+			this.random = random;
+			for(CommandType type : CommandType.values()){
+				waiting.put(type, new ArrayDeque<long[]>());
+			}
+		}
+
+		/*
+		 * Connect, move to a game if it should be in one other than the first, and place a player.
+		 * @param game The game to play in, or null for the first
+		 * @param first true if no bot has started the game yet
+		 */
+		void connect(BaselineCache cache, String game, boolean first) throws IOException, InterruptedException{
+			Socket sock = open();
+			core = new ClientCore(sock.getInputStream(), sock.getOutputStream(), true, cache);
+			core.setServerAddress(sock.getInetAddress());
+			core.setReconnector(new ClientCore.Reconnector(){
+				public ClientChannel reconnect() throws IOException{
+					Socket again = open();
+					return new StreamChannel(again.getInputStream(), again.getOutputStream());
+				}
+			});
+			core.setListener(this);
+			core.start(name);
+			if(!core.waitForWorld(30000)){
+				throw new IOException(name + " never got the world");
+			}
+			if(game != null){
+				if(first){
+					core.createGame(game, null, 10000);
+				}
+				core.joinGame(game, 10000);
+				if(!core.waitForWorld(30000)){
+					throw new IOException(name + " never got the world of " + game);
+				}
+			}
+			placementSent = System.nanoTime();
+			if(!core.addPlayer(new Player(name))){
+				throw new IOException(name + " is already in the world");
+			}
+		}
+
+		private Socket open() throws IOException{
+			Socket sock = new Socket(host, port);
+			sock.setTcpNoDelay(true);
+			socket = sock;
+			return sock;
+		}
+
+		/*
+		 * Cut the connection, as a dropped network would.
+		 */
+		void blip(){
+			blipped = System.nanoTime();
+			try{
+				socket.close();
+			}catch(IOException e){
+				System.err.println(name + " blip: " + e);
+			}
+		}
+
+		boolean awaitPlaced(long timeout) throws InterruptedException{
+			long end = System.currentTimeMillis() + timeout;
+			while(!placed && System.currentTimeMillis() < end){
+				Thread.sleep(10);
+			}
+			return placed;
+		}
+
+		/*
+		 * Send the next command.
+		 */
+		void step(){
+			Command cmd = null;
+			if(script != null){
+				cmd = core.makeMove(script[scriptPosition], viewAngle);
+				scriptPosition = (scriptPosition + 1) % script.length;
+			}else{
+				int roll = random.nextInt(100);
+				if(roll < 5){
+					cmd = core.makeMove("Interact", viewAngle);//Through an exit if one is near
+				}else if(roll < 8){
+					cmd = core.makeMove("PickUp", viewAngle);//Whatever is near
+				}
+				if(cmd == null && input){
+					//Hold a key for a while, then another.  The server walks us in between.
+					if(stepsLeft-- > 0){
+						holding.incrementAndGet();
+						return;
+					}
+					String old = direction;
+					direction = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+					stepsLeft = 5 + random.nextInt(20);
+					if(old != null && !old.equals(direction)){
+						sent(core.release(old, viewAngle));
+					}
+					cmd = core.press(direction, viewAngle);
+				}else if(cmd == null){
+					//Walk in one direction for a while, and turn when something is in the way
+					if(stepsLeft-- <= 0){
+						direction = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+						stepsLeft = 5 + random.nextInt(20);
+					}
+					cmd = core.makeMove(direction, viewAngle);
+					//Something is in the way, so try the other directions
+					for(int i = random.nextInt(DIRECTIONS.length), tries = 0; cmd == null && tries < DIRECTIONS.length; i++, tries++){
+						direction = DIRECTIONS[i % DIRECTIONS.length];
+						cmd = core.makeMove(direction, viewAngle);
+					}
+				}
+			}
+			if(cmd == null){
+				skipped.incrementAndGet();
+				return;
+			}
+			sent(cmd);
+		}
+
+		/*
+		 * Note when a command went, to time its answer.
+		 */
+		private void sent(Command cmd){
+			if(cmd == null){
+				return;
+			}
+			long now = System.nanoTime();
+			int sequence = cmd instanceof MoveCommand ? ((MoveCommand)cmd).getSequence()
+					: cmd instanceof InputCommand ? ((InputCommand)cmd).getSequence() : 0;
+			synchronized(this){
+				Deque<long[]> queue = waiting.get(cmd.getType());
+				//Anything refused by the server never gets an answer
+				while(!queue.isEmpty() && now - queue.peekFirst()[1] > ANSWER_TIMEOUT){
+					queue.removeFirst();
+					unanswered.incrementAndGet();
+				}
+				queue.addLast(new long[]{sequence, now});
+			}
+			sent.incrementAndGet();
+			sentByType.get(cmd.getType()).incrementAndGet();
+		}
+
+		public void worldReceived(ClientWorld world){
+		}
+
+		public void resumed(boolean replay){
+			int r = core.getRedirects();
+			if(r != redirects){
+				//Handed to another server through an exit, which answers the exit
+				redirects = r;
+				redirected.incrementAndGet();
+				long[] answer;
+				synchronized(this){
+					answer = waiting.get(CommandType.EXIT).pollFirst();
+				}
+				if(answer != null){
+					latencies.add(System.nanoTime() - answer[1]);
+					answered.incrementAndGet();
+				}
+				return;
+			}
+			resumes.add(System.nanoTime() - blipped);
+			if(replay){
+				replayed.incrementAndGet();
+			}
+		}
+
+		public void commandApplied(Command command){
+			if(!command.getPlayerName().equals(name)){
+				return;
+			}
+			long now = System.nanoTime();
+			if(command.getType() == CommandType.PLAYER_PLACEMENT){
+				if(!placed){
+					latencies.add(now - placementSent);
+					placed = true;
+				}
+				return;
+			}
+			List<long[]> answers = new ArrayList<long[]>(1);
+			synchronized(this){
+				Deque<long[]> queue = waiting.get(command.getType());
+				if(command instanceof MoveCommand && input){
+					//Steps carry the number of the input that made them, and answer it and any
+					//input before it, such as letting go of the last key
+					int sequence = ((MoveCommand)command).getSequence();
+					queue = waiting.get(CommandType.INPUT);
+					while(!queue.isEmpty() && queue.peekFirst()[0] <= sequence){
+						answers.add(queue.removeFirst());
+					}
+				}else if(command instanceof MoveCommand){
+					//Moves are answered in order, with the number of the move answered.  The server
+					//only applies the last of the moves it gets from us in a tick, or one may have
+					//been lost as a datagram, so the answer covers the moves before it too.
+					int sequence = ((MoveCommand)command).getSequence();
+					while(!queue.isEmpty() && queue.peekFirst()[0] <= sequence){
+						long[] next = queue.removeFirst();
+						if(next[0] == sequence){
+							answers.add(next);
+						}else{
+							superseded.incrementAndGet();
+						}
+					}
+				}else if(!queue.isEmpty()){
+					answers.add(queue.pollFirst());
+				}
+			}
+			for(long[] answer : answers){
+				latencies.add(now - answer[1]);
+				answered.incrementAndGet();
+			}
+		}
+	}
+}
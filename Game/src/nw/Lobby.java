@@ -0,0 +1,128 @@
+package nw;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Messages a client uses to find, start and move between the games a server is hosting (see
+ * GameHost).
+ *
+ * Every connection starts in the default game, so a client that never uses the lobby plays there
+ * as it always has.  The exchanges are:
+ *   client: ListGames          server: Games
+ *   client: Create(name, world) server: Created or Refused
+ *   client: Join(name)         server: Joined, then the new game's Offer as if newly connected
+ *                              (see Sync), or Refused
+ *
+ * Nothing from the game being left arrives after Joined, so everything after it belongs to the
+ * new game.
+ */
+public class Lobby {
+
+	/**
+	 * Anything a client sends to the lobby.
+	 */
+	public interface Request extends Serializable{
+	}
+
+	/**
+	 * Asks which games are running.
+	 */
+	public static class ListGames implements Request{
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Asks for a new game.
+	 */
+	public static class Create implements Request{
+		private static final long serialVersionUID = 1L;
+		public final String name;
+		public final String world;//World file in the server's nw.worlds directory, or null for the default world
+
+		public Create(String name, String world){
+			this.name = name;
+			this.world = world;
+		}
+	}
+
+	/**
+	 * Asks to leave the current game for another.
+	 */
+	public static class Join implements Request{
+		private static final long serialVersionUID = 1L;
+		public final String name;
+
+		public Join(String name){
+			this.name = name;
+		}
+	}
+
+	/**
+	 * One game, as listed.
+	 */
+	public static class Game implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final String name;
+		public final String world;//null for the default world
+		public final int players;//Connections in it now
+
+		public Game(String name, String world, int players){
+			this.name = name;
+			this.world = world;
+			this.players = players;
+		}
+
+		public String toString(){
+			return name + " (" + (world == null ? "default world" : world) + ", " + players + " playing)";
+		}
+	}
+
+	/**
+	 * Every game running, by name.
+	 */
+	public static class Games implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final List<Game> games;
+
+		public Games(List<Game> games){
+			this.games = games;
+		}
+	}
+
+	/**
+	 * The game asked for has been started.
+	 */
+	public static class Created implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final String name;
+
+		public Created(String name){
+			this.name = name;
+		}
+	}
+
+	/**
+	 * The connection has left its game for this one.
+	 */
+	public static class Joined implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final String name;
+
+		public Joined(String name){
+			this.name = name;
+		}
+	}
+
+	/**
+	 * A Create or Join couldn't be done.
+	 */
+	public static class Refused implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final String reason;
+
+		public Refused(String reason){
+			this.reason = reason;
+		}
+	}
+}
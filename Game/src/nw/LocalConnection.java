@@ -0,0 +1,105 @@
+package nw;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Both ends of a single player link, with the client and the server in one process.
+ *
+ * Messages are handed across as objects and never encoded.  What the client writes goes
+ * straight onto the simulation's inbound queue, and what the server sends is put on a queue the
+ * client reads from.  The server sees an ordinary Connection and the client an ordinary
+ * ClientChannel, so nothing else changes for single player.
+ *
+ * Commands and the entity states they carry never change once made, so sharing them between
+ * the two worlds is safe.  The client must have its own copy of the world though, as it is never
+ * sent one.
+ */
+public class LocalConnection implements Connection, ClientChannel {
+
+	//Put on the client's queue when the link closes, so a waiting read wakes up
+	private static final Object CLOSED = new Object();
+
+	private final int id;
+	private final BlockingQueue<Object> toClient = new LinkedBlockingQueue<Object>();
+	private final Metrics.ConnectionStats stats;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param id The id the server knows this connection by
+	 */
+	public LocalConnection(int id){
+		this.id = id;
+		this.stats = Server.getMetrics().connect(id, null);
+	}
+
+	@Override
+	public int getId(){
+		return id;
+	}
+
+	/*
+	 * From the server.
+	 */
+	@Override
+	public void send(Object o){
+		if(closed){
+			return;
+		}
+		toClient.add(o instanceof Protocol.Encoded ? ((Protocol.Encoded)o).message : o);
+		stats.frameOut();
+	}
+
+	/*
+	 * From the client.
+	 */
+	@Override
+	public void write(Object o) throws IOException{
+		if(closed){
+			throw new EOFException("Connection closed");
+		}
+		stats.frameIn();
+		if(!Server.handle(this, o)){
+			close();
+		}
+	}
+
+	/*
+	 * Writes are handed over straight away, so there's nothing to flush.
+	 */
+	@Override
+	public void flush(){
+	}
+
+	@Override
+	public boolean ready(){
+		return !toClient.isEmpty();
+	}
+
+	@Override
+	public Object read() throws IOException{
+		Object o;
+		try{
+			o = toClient.take();
+		}catch(InterruptedException e){
+			throw new EOFException("Interrupted");
+		}
+		if(o == CLOSED){
+			toClient.add(CLOSED);//Any other reader needs to see it too
+			throw new EOFException("Connection closed");
+		}
+		return o;
+	}
+
+	@Override
+	public void close(){
+		if(closed){
+			return;
+		}
+		closed = true;
+		Server.leave(this);
+		toClient.add(CLOSED);
+	}
+}
@@ -0,0 +1,393 @@
+package nw;
+
+import game.world.commands.CommandType;
+import game.world.logic.EntityState;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the server has been doing and how long it took, for working out where lag comes from.
+ *
+ * For each command type there is a histogram of the time the world took to apply it, and how
+ * many were accepted and rejected.  Inputs are applied by walking their players each tick, so
+ * for them it is the time each step took.  For each tick there is how many messages were waiting,
+ * how long encoding the results took and how long the whole tick took.  For each client there is
+ * what it sent and received, how far behind its outbound queue is, and how often it is being sent
+ * distant players' moves (see UpdateRate).
+ *
+ * Recording is lock free.  report() can be called from any thread at any time.
+ */
+public class Metrics {
+
+	private final long started = System.nanoTime();
+
+	private final Map<CommandType, CommandStats> commands = new EnumMap<CommandType, CommandStats>(CommandType.class);
+	private final Histogram ticks = new Histogram();
+	private final Histogram encoding = new Histogram();
+	private final AtomicInteger inboundDepth = new AtomicInteger();
+	private final AtomicInteger maxInboundDepth = new AtomicInteger();
+	private final Map<Integer, ConnectionStats> connections = new ConcurrentHashMap<Integer, ConnectionStats>();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private volatile EntityState world;//The last snapshot the simulation published
+	private final AtomicLong replayed = new AtomicLong();//Sessions resumed by replaying what they missed
+	private final AtomicLong replayedBytes = new AtomicLong();
+	private final AtomicLong resent = new AtomicLong();//Sessions resumed by sending the whole state again
+	private final AtomicLong coalesced = new AtomicLong();//Moves overtaken by a later one in the same tick
+	private final Histogram journalCommits = new Histogram();
+	private final AtomicLong journalCommands = new AtomicLong();
+	private final AtomicLong journalBytes = new AtomicLong();
+	private final AtomicLong journalNanos = new AtomicLong();//Appending and committing together
+	private volatile String recovery = null;
+
+	public Metrics(){
+		for(CommandType type : CommandType.values()){
+			commands.put(type, new CommandStats());
+		}
+	}
+
+	/**
+	 * Note the snapshot the simulation has just published, to report on what is in the world.
+	 * @param state The new snapshot
+	 */
+	public void published(EntityState state){
+		world = state;
+	}
+
+	/**
+	 * Note a client coming back to its session after losing its connection.
+	 * @param replay true if it was only sent what it missed, false if it was sent the state again
+	 * @param bytes Size of what it was sent to catch up, if it was a replay
+	 */
+	public void resumed(boolean replay, long bytes){
+		if(replay){
+			replayed.incrementAndGet();
+			replayedBytes.addAndGet(bytes);
+		}else{
+			resent.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Note moves that were dropped because the same player sent a later one before the tick
+	 * applied them.
+	 * @param moves How many were dropped
+	 */
+	public void coalesced(int moves){
+		coalesced.addAndGet(moves);
+	}
+
+	/**
+	 * @return How many moves have been dropped for a later one
+	 */
+	public long getCoalesced(){
+		return coalesced.get();
+	}
+
+	/**
+	 * Note time spent keeping the journal.
+	 * @param commands Commands just committed, or 0 if this was appending one
+	 * @param bytes Bytes just committed
+	 * @param nanos How long it took
+	 */
+	public void journalled(int commands, long bytes, long nanos){
+		journalNanos.addAndGet(nanos);
+		if(commands > 0){
+			journalCommits.record(nanos);
+			journalCommands.addAndGet(commands);
+			journalBytes.addAndGet(bytes);
+		}
+	}
+
+	/**
+	 * Note the world being recovered from the journal when the server started.
+	 * @param snapshotVersion Version of the snapshot it started from
+	 * @param replayed Commands replayed from the journal after it
+	 * @param nanos How long it took
+	 */
+	public void recovered(long snapshotVersion, long replayed, long nanos){
+		recovery = "recovered snapshot at version " + snapshotVersion + " and " + replayed
+				+ " journal commands in " + nanos / 1000000L + "ms";
+	}
+
+	/**
+	 * @param type A command type
+	 * @return The figures for that type
+	 */
+	public CommandStats command(CommandType type){
+		return commands.get(type);
+	}
+
+	/**
+	 * @return Time taken by each simulation tick
+	 */
+	public Histogram ticks(){
+		return ticks;
+	}
+
+	/**
+	 * @return Time taken to encode each result sent to clients
+	 */
+	public Histogram encoding(){
+		return encoding;
+	}
+
+	/**
+	 * Note how many messages were waiting at the start of a tick.
+	 * @param depth Number of messages in the simulation's inbound queue
+	 */
+	public void inboundDepth(int depth){
+		inboundDepth.set(depth);
+		int m;
+		while(depth > (m = maxInboundDepth.get()) && !maxInboundDepth.compareAndSet(m, depth)){
+		}
+	}
+
+	/**
+	 * Start keeping figures for a client.
+	 * @param id The connection's id
+	 * @param queue Its outbound queue, or null if it doesn't have one
+	 * @return The figures for it
+	 */
+	public ConnectionStats connect(int id, OutboundQueue queue){
+		ConnectionStats stats = new ConnectionStats(queue);
+		connections.put(id, stats);
+		return stats;
+	}
+
+	/**
+	 * @param id A connection's id
+	 * @return The figures for it, or null if none are kept
+	 */
+	public ConnectionStats getConnection(int id){
+		return connections.get(id);
+	}
+
+	/**
+	 * Stop keeping figures for a client.  What it sent and received still counts in the totals.
+	 * @param id The connection's id
+	 */
+	public void disconnect(int id){
+		connections.remove(id);
+	}
+
+	/**
+	 * @return Everything, as lines of plain text
+	 */
+	public String report(){
+		StringBuilder out = new StringBuilder();
+		out.append("uptime ").append((System.nanoTime() - started) / 1000000000L).append("s\n");
+		out.append("tick ").append(summary(ticks)).append('\n');
+		out.append("encode ").append(summary(encoding)).append('\n');
+		out.append("inbound depth ").append(inboundDepth.get())
+			.append(" max ").append(maxInboundDepth.get()).append('\n');
+		out.append("bytes in ").append(bytesIn.get()).append(" out ").append(bytesOut.get()).append('\n');
+		EntityState state = world;
+		if(state != null){
+			out.append("world version ").append(state.getVersion())
+				.append(" players ").append(state.getPlayerCount()).append('\n');
+		}
+		if(recovery != null){
+			out.append(recovery).append('\n');
+		}
+		long journalled = journalCommands.get();
+		if(journalled > 0){
+			out.append("journal commit ").append(summary(journalCommits)).append('\n');
+			out.append("journal commands ").append(journalled).append(" bytes ").append(journalBytes.get())
+				.append(" per command ").append(String.format("%.1f", journalNanos.get() / (double)journalled / 1000)).append("us\n");
+		}
+		if(replayed.get() + resent.get() > 0){
+			out.append("sessions resumed ").append(replayed.get()).append(" replaying ").append(replayedBytes.get())
+				.append(" bytes, with the whole state ").append(resent.get()).append('\n');
+		}
+		if(coalesced.get() > 0){
+			out.append("moves coalesced ").append(coalesced.get()).append('\n');
+		}
+		for(Map.Entry<CommandType, CommandStats> e : commands.entrySet()){
+			CommandStats stats = e.getValue();
+			if(stats.handling.getCount() == 0 && stats.accepted.get() + stats.rejected.get() == 0){
+				continue;
+			}
+			out.append("command ").append(e.getKey().getName())
+				.append(" accepted ").append(stats.accepted.get())
+				.append(" rejected ").append(stats.rejected.get())
+				.append(' ').append(summary(stats.handling)).append('\n');
+		}
+		for(Map.Entry<Integer, ConnectionStats> e : new TreeMap<Integer, ConnectionStats>(connections).entrySet()){
+			ConnectionStats stats = e.getValue();
+			out.append("client ").append(e.getKey())
+				.append(" in ").append(stats.bytesIn.get()).append("B/").append(stats.framesIn.get())
+				.append(" out ").append(stats.bytesOut.get()).append("B/").append(stats.framesOut.get());
+			if(stats.queue != null){
+				out.append(" queued ").append(stats.queue.size()).append(" dropped ").append(stats.queue.getDropped());
+			}
+			if(stats.rtt >= 0){
+				out.append(" rtt ").append(String.format("%.1f", stats.rtt / 1000000.0)).append("ms");
+			}
+			if(stats.interval > 1){
+				out.append(" distant every ").append(stats.interval).append(" ticks");
+			}
+			out.append('\n');
+		}
+		return out.toString();
+	}
+
+	/*
+	 * Count, mean and percentiles of a histogram in microseconds.
+	 */
+	private static String summary(Histogram h){
+		return "count " + h.getCount()
+			+ " mean " + micros(h.getMean())
+			+ " p50 " + micros(h.getPercentile(50))
+			+ " p90 " + micros(h.getPercentile(90))
+			+ " p99 " + micros(h.getPercentile(99))
+			+ " max " + micros(h.getMax()) + "us";
+	}
+
+	private static long micros(long nanos){
+		return nanos / 1000;
+	}
+
+	/**
+	 * Figures for one command type.
+	 */
+	public static class CommandStats{
+		private final Histogram handling = new Histogram();
+		private final AtomicLong accepted = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+
+		/**
+		 * @param nanos Time the world took to apply the command
+		 * @param accepted false if the world refused it
+		 */
+		public void record(long nanos, boolean accepted){
+			handling.record(nanos);
+			(accepted ? this.accepted : rejected).incrementAndGet();
+		}
+
+		/**
+		 * Count a command without timing it, for one whose work is done later and timed on its own.
+		 * @param accepted false if the world refused it
+		 */
+		public void count(boolean accepted){
+			(accepted ? this.accepted : rejected).incrementAndGet();
+		}
+
+		/**
+		 * @param nanos Time some work done for commands of this type took, apart from any one command
+		 */
+		public void time(long nanos){
+			handling.record(nanos);
+		}
+
+		public Histogram getHandling(){
+			return handling;
+		}
+
+		public long getAccepted(){
+			return accepted.get();
+		}
+
+		public long getRejected(){
+			return rejected.get();
+		}
+	}
+
+	/**
+	 * Figures for one client.
+	 */
+	public class ConnectionStats{
+		private final OutboundQueue queue;
+		private final AtomicLong bytesIn = new AtomicLong();
+		private final AtomicLong bytesOut = new AtomicLong();
+		private final AtomicLong framesIn = new AtomicLong();
+		private final AtomicLong framesOut = new AtomicLong();
+		private volatile long rtt = -1;
+		private volatile int interval = 1;
+
+		private ConnectionStats(OutboundQueue queue){
+			this.queue = queue;
+		}
+
+		/**
+		 * @param bytes Bytes read from the client
+		 */
+		public void read(long bytes){
+			bytesIn.addAndGet(bytes);
+			Metrics.this.bytesIn.addAndGet(bytes);
+		}
+
+		/**
+		 * @param bytes Bytes written to the client
+		 */
+		public void wrote(long bytes){
+			bytesOut.addAndGet(bytes);
+			Metrics.this.bytesOut.addAndGet(bytes);
+		}
+
+		/**
+		 * @param rtt The last round trip time in nanoseconds, or -1 if there hasn't been one
+		 * @param interval Ticks between sends of distant players' moves
+		 */
+		public void paced(long rtt, int interval){
+			this.rtt = rtt;
+			this.interval = interval;
+		}
+
+		/**
+		 * @return Bytes written to the client so far
+		 */
+		public long getBytesOut(){
+			return bytesOut.get();
+		}
+
+		/**
+		 * @return Frames waiting in its outbound queue, or 0 if it doesn't have one
+		 */
+		public int getBacklog(){
+			return queue == null ? 0 : queue.size();
+		}
+
+		public void frameIn(){
+			framesIn.incrementAndGet();
+		}
+
+		public void frameOut(){
+			framesOut.incrementAndGet();
+		}
+
+		/**
+		 * @param in A stream from the client
+		 * @return The same stream, counting what is read from it
+		 */
+		public InputStream counting(InputStream in){
+			return new FilterInputStream(in){
+				@Override
+				public int read() throws IOException{
+					int b = super.read();
+					if(b >= 0){
+						ConnectionStats.this.read(1);
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException{
+					int n = super.read(b, off, len);
+					if(n > 0){
+						ConnectionStats.this.read(n);
+					}
+					return n;
+				}
+			};
+		}
+	}
+}
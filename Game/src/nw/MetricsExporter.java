@@ -0,0 +1,111 @@
+package nw;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * Makes the server's metrics readable from outside the process, in one or both of two ways:
+ *   -Dnw.adminPort=port      - anyone connecting to this port on the loopback address is sent
+ *                              the current report, then disconnected.  nc localhost port will do.
+ *   -Dnw.metricsFile=file    - the report is written to this file every -Dnw.metricsInterval
+ *                              seconds (10 by default), replacing the last one.
+ * Both run on threads of their own and only read the metrics, so they cost the game nothing
+ * between reports.
+ */
+public class MetricsExporter {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Start whichever exports the system properties ask for.
+	 * @param metrics The metrics to export
+	 */
+	public static void start(Metrics metrics) throws IOException{
+		Integer port = Integer.getInteger("nw.adminPort");
+		if(port != null){
+			startAdmin(metrics, port);
+		}
+		String file = System.getProperty("nw.metricsFile");
+		if(file != null){
+			startDump(metrics, new File(file), Integer.getInteger("nw.metricsInterval", 10));
+		}
+	}
+
+	/**
+	 * Serve the report on a port that only this machine can reach.
+	 * @param metrics The metrics to report
+	 * @param port Port to listen on
+	 */
+	public static void startAdmin(final Metrics metrics, int port) throws IOException{
+		final ServerSocket admin = new ServerSocket(port, 4, InetAddress.getLoopbackAddress());
+		Thread thread = new Thread("Admin"){
+			public void run(){
+				while(true){
+					try{
+						Socket s = admin.accept();
+						try{
+							OutputStream out = s.getOutputStream();
+							out.write(metrics.report().getBytes(UTF8));
+							out.flush();
+						}finally{
+							s.close();
+						}
+					}catch(IOException e){
+						System.err.println("Admin: " + e);
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Write the report to a file every so often.
+	 * @param metrics The metrics to report
+	 * @param file File to write, replaced each time
+	 * @param seconds Time between reports
+	 */
+	public static void startDump(final Metrics metrics, final File file, final int seconds){
+		Thread thread = new Thread("Metrics dump"){
+			public void run(){
+				while(true){
+					try{
+						Thread.sleep(Math.max(1, seconds) * 1000L);
+						write(metrics, file);
+					}catch(InterruptedException e){
+						return;
+					}catch(IOException e){
+						System.err.println("Metrics dump: " + e);
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/*
+	 * Write to a temporary file first, so whoever is watching the file never sees half a report.
+	 */
+	private static void write(Metrics metrics, File file) throws IOException{
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile("metrics", ".tmp", dir);
+		OutputStream out = new FileOutputStream(tmp);
+		try{
+			out.write(metrics.report().getBytes(UTF8));
+		}finally{
+			out.close();
+		}
+		if(!tmp.renameTo(file)){
+			//Some platforms won't rename over an existing file
+			file.delete();
+			if(!tmp.renameTo(file)){
+				tmp.delete();
+			}
+		}
+	}
+}
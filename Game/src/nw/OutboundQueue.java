@@ -0,0 +1,195 @@
+package nw;
+
+import game.world.commands.Command;
+import game.world.commands.CommandType;
+
+import java.util.*;
+
+/**
+ * A bounded queue of messages waiting to be written to one client.
+ *
+ * Each connection has its own queue and its own writer, so a client with a stalled TCP window
+ * only ever fills its own queue.  What happens when the queue is full is decided by the slow
+ * consumer policy, set with -Dnw.slowConsumer=drop|coalesce|disconnect:
+ *   drop       - throw away the oldest queued Move.  Moves are superseded by the next one anyway.
+ *   coalesce   - collapse the queue down to the latest Move for each player.
+ *   disconnect - give up on the client.
+ * Anything other than a Move is never thrown away, and neither is a batch holding anything other
+ * than Moves, so if there is still no room the client is disconnected under every policy.
+ */
+public class OutboundQueue {
+
+	public enum Policy { DROP, COALESCE, DISCONNECT }
+
+	//Defaults for every queue, taken from system properties at startup
+	public static final int DEFAULT_CAPACITY = Integer.getInteger("nw.outboundCapacity", 256);
+	public static final Policy DEFAULT_POLICY = parsePolicy(System.getProperty("nw.slowConsumer", "coalesce"));
+
+	private final LinkedList<Protocol.Encoded> queue = new LinkedList<Protocol.Encoded>();
+	private final int capacity;
+	private final Policy policy;
+
+	//Number of messages thrown away by the policy
+	private long dropped = 0;
+
+	public OutboundQueue(){
+		this(DEFAULT_CAPACITY, DEFAULT_POLICY);
+	}
+
+	public OutboundQueue(int capacity, Policy policy){
+		this.capacity = capacity;
+		this.policy = policy;
+	}
+
+	/**
+	 * Add a message to the queue, applying the slow consumer policy if it is full.
+	 * @param e The message to add
+	 * @return false if the client has fallen too far behind and should be disconnected
+	 */
+	public synchronized boolean offer(Protocol.Encoded e){
+		if(queue.size() >= capacity){
+			if(policy == Policy.DISCONNECT){
+				return false;
+			}else if(policy == Policy.COALESCE){
+				coalesce(e);
+			}else if(!dropOldestMove()){
+				//Nothing stale to throw away.  A new Move can be dropped, anything else can't.
+				if(movingPlayers(e) == null){
+					return false;
+				}
+				dropped++;
+				return true;
+			}
+			if(queue.size() >= capacity){
+				return false;
+			}
+		}
+		queue.add(e);
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Wait for the next message.
+	 * @return The oldest message in the queue
+	 */
+	public synchronized Protocol.Encoded take() throws InterruptedException{
+		while(queue.isEmpty()){
+			wait();
+		}
+		return queue.poll();
+	}
+
+	/**
+	 * @return The oldest message in the queue, or null if it is empty
+	 */
+	public synchronized Protocol.Encoded poll(){
+		return queue.poll();
+	}
+
+	/**
+	 * Take the oldest message only if it is small enough, so a writer can pack messages into
+	 * a buffer without the queue changing under it.
+	 * @param maxPayload Largest payload wanted
+	 * @return The oldest message, or null if the queue is empty or it is too big
+	 */
+	public synchronized Protocol.Encoded poll(int maxPayload){
+		Protocol.Encoded e = queue.peek();
+		if(e == null || e.payload.length > maxPayload){
+			return null;
+		}
+		return queue.poll();
+	}
+
+	/**
+	 * @return Number of messages waiting to be written
+	 */
+	public synchronized int size(){
+		return queue.size();
+	}
+
+	/**
+	 * @return Number of messages the policy has thrown away so far
+	 */
+	public synchronized long getDropped(){
+		return dropped;
+	}
+
+	/*
+	 * Remove the oldest Move, or batch of nothing but Moves, in the queue.  Returns false if there
+	 * wasn't one.
+	 */
+	private boolean dropOldestMove(){
+		Iterator<Protocol.Encoded> it = queue.iterator();
+		while(it.hasNext()){
+			if(movingPlayers(it.next()) != null){
+				it.remove();
+				dropped++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Remove every queued Move that later Moves for the same players supersede, counting the
+	 * message about to be added as the latest.
+	 */
+	private void coalesce(Protocol.Encoded incoming){
+		Set<String> seen = new HashSet<String>();
+		Set<String> incomingPlayers = movingPlayers(incoming);
+		if(incomingPlayers != null){
+			seen.addAll(incomingPlayers);
+		}
+		ListIterator<Protocol.Encoded> it = queue.listIterator(queue.size());
+		while(it.hasPrevious()){
+			Set<String> players = movingPlayers(it.previous());
+			if(players == null){
+				continue;
+			}
+			if(seen.containsAll(players)){
+				it.remove();
+				dropped++;
+			}else{
+				seen.addAll(players);
+			}
+		}
+	}
+
+	/**
+	 * Work out whether a message is nothing but Move results, and for which players.
+	 * @param e The message to look at
+	 * @return The names of the players who moved, or null if it holds anything but Moves
+	 */
+	static Set<String> movingPlayers(Protocol.Encoded e){
+		if(e.message instanceof Protocol.Batch){
+			Set<String> players = new HashSet<String>();
+			for(Object message : ((Protocol.Batch)e.message).messages){
+				String player = movingPlayer(message);
+				if(player == null){
+					return null;
+				}
+				players.add(player);
+			}
+			return players;
+		}
+		String player = movingPlayer(e.message);
+		return player == null ? null : Collections.singleton(player);
+	}
+
+	private static String movingPlayer(Object message){
+		if(!(message instanceof Command) || !((Command)message).isResult(CommandType.MOVE)){
+			return null;
+		}
+		return ((Command)message).getPlayerName();
+	}
+
+	private static Policy parsePolicy(String name){
+		if(name.equalsIgnoreCase("drop")){
+			return Policy.DROP;
+		}else if(name.equalsIgnoreCase("disconnect")){
+			return Policy.DISCONNECT;
+		}
+		return Policy.COALESCE;
+	}
+}
@@ -0,0 +1,159 @@
+package nw;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One actor per Place, all sharing a small pool of threads.
+ *
+ * Each actor has a mailbox of tasks and runs them one at a time in the order they were sent, so
+ * a Place is only ever changed by one thread at once and needs no locks.  Different Places run
+ * at the same time on different threads.  An actor only holds a thread while it has mail.
+ *
+ * The simulation sends a tick's room local commands, then waits for every mailbox to empty
+ * before touching anything shared.  Tasks may send more tasks, as an exit does to hand a player
+ * to the Place on the other side, and the wait covers those too.
+ *
+ * The pool size is set with -Dnw.placeThreads, and defaults to one thread per core.  Games hosted
+ * side by side can share one pool, each with actors of its own.
+ */
+public class PlaceActors {
+
+	public static final int DEFAULT_THREADS = Integer.getInteger("nw.placeThreads",
+			Runtime.getRuntime().availableProcessors());
+
+	//Tasks an actor runs before giving its thread to another actor
+	private static final int BATCH = 64;
+
+	private final ExecutorService pool;
+	private final boolean ownPool;
+	private final Map<String, Actor> actors = new ConcurrentHashMap<String, Actor>();
+
+	//Tasks sent but not yet finished
+	private int pending = 0;
+
+	/**
+	 * @param threads Threads shared by every actor
+	 */
+	public PlaceActors(int threads){
+		this(newPool(threads), true);
+	}
+
+	/**
+	 * @param pool Threads shared with other PlaceActors, which shutdown leaves running
+	 */
+	public PlaceActors(ExecutorService pool){
+		this(pool, false);
+	}
+
+	private PlaceActors(ExecutorService pool, boolean ownPool){
+		this.pool = pool;
+		this.ownPool = ownPool;
+	}
+
+	/**
+	 * @param threads Number of threads
+	 * @return A pool of daemon threads for running actors on
+	 */
+	public static ExecutorService newPool(int threads){
+		return Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory(){
+			private int n = 0;
+			public synchronized Thread newThread(Runnable r){
+				Thread t = new Thread(r, "Place-" + n++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Send a task to a Place's actor.  Safe to call from any thread, including from a task.
+	 * @param place Name of the Place
+	 * @param task What to run on it
+	 */
+	public void send(String place, Runnable task){
+		Actor actor = actors.get(place);
+		if(actor == null){
+			Actor created = new Actor();
+			synchronized(actors){
+				actor = actors.get(place);
+				if(actor == null){
+					actors.put(place, created);
+					actor = created;
+				}
+			}
+		}
+		synchronized(this){
+			pending++;
+		}
+		actor.mailbox.add(task);
+		actor.schedule();
+	}
+
+	/**
+	 * Wait until every task sent so far, and every task they sent, has finished.
+	 */
+	public synchronized void await() throws InterruptedException{
+		while(pending > 0){
+			wait();
+		}
+	}
+
+	/**
+	 * Stop the threads, unless they are shared.  Anything still in a mailbox is never run.
+	 */
+	public void shutdown(){
+		if(ownPool){
+			pool.shutdownNow();
+		}
+	}
+
+	private synchronized void finished(){
+		pending--;
+		if(pending == 0){
+			notifyAll();
+		}
+	}
+
+	/**
+	 * A mailbox, and a flag saying whether it is waiting for or holding a thread.
+	 */
+	private class Actor implements Runnable{
+		final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		void schedule(){
+			if(scheduled.compareAndSet(false, true)){
+				pool.execute(this);
+			}
+		}
+
+		public void run(){
+			Runnable task;
+			int ran = 0;
+			while(ran < BATCH && (task = mailbox.poll()) != null){
+				try{
+					task.run();
+				}catch(RuntimeException e){
+					//A bad command shouldn't stop the Place
+					System.err.println("Place actor: " + e);
+					e.printStackTrace();
+				}finally{
+					finished();
+				}
+				ran++;
+			}
+			scheduled.set(false);
+			//Mail that arrived after the last poll, or was left by the batch limit
+			if(!mailbox.isEmpty()){
+				schedule();
+			}
+		}
+	}
+}
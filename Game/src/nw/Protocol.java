@@ -0,0 +1,292 @@
+package nw;
+
+import game.world.commands.Command;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Wire format shared by the server engines and the client.
+ *
+ * Every message is sent as a frame: a four byte big-endian length followed by that many bytes
+ * of payload.  Framing lets a non-blocking reader tell when a whole message has arrived without
+ * having to understand the payload, so the same stream can be read by a blocking thread or by a
+ * selector loop.
+ *
+ * The first byte of a payload is an opcode.  Commands are sent in the compact form written by
+ * BinaryCodec, Quit is a bare opcode and any other text is sent as UTF-8.  A batch is the server
+ * tick it came from and a count, followed by length prefixed payloads.  Anything else, such as
+ * the world sync messages, is sent as a serialized object.
+ */
+public class Protocol {
+
+	//Size of the length prefix on every frame
+	public static final int HEADER_SIZE = 4;
+
+	//Largest frame we will accept.  Anything bigger is treated as a broken or hostile peer.
+	public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	//Opcodes other than the command ones in BinaryCodec
+	public static final byte OBJECT = 0;
+	public static final byte QUIT = 1;
+	public static final byte TEXT = 2;
+	public static final byte BATCH = 3;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * A message together with its encoded payload.  Broadcasts are encoded once and the same
+	 * bytes are queued on every connection, and the message is kept so queues can tell what
+	 * they are holding.
+	 */
+	public static class Encoded{
+		public final Object message;
+		public final byte[] payload;
+
+		public Encoded(Object message, byte[] payload){
+			this.message = message;
+			this.payload = payload;
+		}
+	}
+
+	/**
+	 * Several messages sent in one frame, to be handled in order.
+	 */
+	public static class Batch{
+		public final List<Object> messages;
+		public final long sequence;//The server tick it came from, or 0
+
+		public Batch(List<Object> messages){
+			this(messages, 0);
+		}
+
+		public Batch(List<Object> messages, long sequence){
+			this.messages = Collections.unmodifiableList(messages);
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * Put encoded messages together into one batch, reusing their payloads.
+	 * @param parts The messages, in the order they should be handled
+	 * @return The encoded batch
+	 */
+	public static Encoded batch(List<Encoded> parts){
+		return batch(parts, 0);
+	}
+
+	/**
+	 * Put encoded messages together into one batch, reusing their payloads.
+	 * @param parts The messages, in the order they should be handled
+	 * @param sequence The server tick they came from
+	 * @return The encoded batch
+	 */
+	public static Encoded batch(List<Encoded> parts, long sequence){
+		int size = 1 + 8 + 4;
+		List<Object> messages = new ArrayList<Object>(parts.size());
+		for(Encoded part : parts){
+			size += 4 + part.payload.length;
+			messages.add(part.message);
+		}
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		buf.put(BATCH);
+		buf.putLong(sequence);
+		buf.putInt(parts.size());
+		for(Encoded part : parts){
+			buf.putInt(part.payload.length);
+			buf.put(part.payload);
+		}
+		return new Encoded(new Batch(messages, sequence), buf.array());
+	}
+
+	/**
+	 * Encode a message, unless it has been already.
+	 * @param o Object to encode
+	 * @return The message and its payload
+	 */
+	public static Encoded encoded(Object o) throws IOException{
+		if(o instanceof Encoded){
+			return (Encoded)o;
+		}
+		return new Encoded(o, encode(o));
+	}
+
+	/**
+	 * Encode a message into a frame payload.  Commands are written into a pooled buffer and
+	 * copied out, objects get their own ObjectOutputStream so no handle table is kept between
+	 * messages.
+	 * @param o Object to encode
+	 * @return The payload bytes, without the length prefix
+	 */
+	public static byte[] encode(Object o) throws IOException{
+		if("Quit".equals(o)){
+			return new byte[]{QUIT};
+		}
+		if(o instanceof Command){
+			ByteBuffer buf = BufferPool.acquire();
+			try{
+				BinaryCodec.encode((Command)o, buf);
+				byte[] payload = new byte[buf.position()];
+				buf.flip();
+				buf.get(payload);
+				return payload;
+			}catch(RuntimeException e){
+				//Names too long for a buffer, send it as an object instead
+			}finally{
+				BufferPool.release(buf);
+			}
+		}else if(o instanceof String){
+			byte[] text = ((String)o).getBytes(UTF8);
+			byte[] payload = new byte[1 + text.length];
+			payload[0] = TEXT;
+			System.arraycopy(text, 0, payload, 1, text.length);
+			return payload;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write(OBJECT);
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(o);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decode a frame payload.
+	 * @param payload Bytes produced by encode
+	 * @return The decoded object
+	 */
+	public static Object decode(byte[] payload) throws IOException, ClassNotFoundException{
+		return decode(ByteBuffer.wrap(payload));
+	}
+
+	/**
+	 * Decode a frame payload in place, without copying it out of the buffer it arrived in.
+	 * @param in Buffer holding exactly one payload between its position and limit.  Its position
+	 *        is moved to the limit.
+	 * @return The decoded object
+	 */
+	public static Object decode(ByteBuffer in) throws IOException, ClassNotFoundException{
+		if(!in.hasRemaining()){
+			throw new IOException("Empty frame");
+		}
+		int opcode = in.get(in.position()) & 0xff;
+		if(BinaryCodec.isCommand(opcode)){
+			try{
+				return BinaryCodec.decode(in);
+			}catch(RuntimeException e){
+				throw new IOException("Bad command frame: " + e);
+			}finally{
+				in.position(in.limit());
+			}
+		}
+		in.get();
+		int offset = in.arrayOffset() + in.position();
+		int length = in.remaining();
+		in.position(in.limit());
+		if(opcode == BATCH){
+			return decodeBatch(ByteBuffer.wrap(in.array(), offset, length));
+		}else if(opcode == QUIT){
+			return "Quit";
+		}else if(opcode == TEXT){
+			return new String(in.array(), offset, length, UTF8);
+		}else if(opcode != OBJECT){
+			throw new IOException("Unknown opcode " + opcode);
+		}
+		ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(in.array(), offset, length));
+		try{
+			return objects.readObject();
+		}finally{
+			objects.close();
+		}
+	}
+
+	private static Batch decodeBatch(ByteBuffer in) throws IOException, ClassNotFoundException{
+		long sequence = in.getLong();
+		int count = in.getInt();
+		List<Object> messages = new ArrayList<Object>(Math.min(count, 1024));
+		int end = in.limit();
+		for(int i = 0; i < count; i++){
+			int length = in.getInt();
+			checkLength(length);
+			int next = in.position() + length;
+			if(next > end){
+				throw new IOException("Bad batch");
+			}
+			in.limit(next);
+			messages.add(decode(in));
+			in.limit(end);
+			in.position(next);
+		}
+		return new Batch(messages, sequence);
+	}
+
+	/**
+	 * Wrap a payload in a frame, ready to be written to a channel.
+	 * @param payload Bytes produced by encode
+	 * @return A flipped buffer holding the length prefix and the payload
+	 */
+	public static ByteBuffer frame(byte[] payload){
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+		buf.putInt(payload.length);
+		buf.put(payload);
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Write one object as a frame.  Callers sharing a stream must synchronize on it.
+	 * @param out Stream to write to
+	 * @param o Object to send
+	 */
+	public static void writeFrame(DataOutputStream out, Object o) throws IOException{
+		writePayload(out, encoded(o).payload);
+		out.flush();
+	}
+
+	/**
+	 * Write an encoded payload as a frame without flushing, so several can go out together.
+	 * @param out Stream to write to
+	 * @param payload Bytes produced by encode
+	 */
+	public static void writePayload(DataOutputStream out, byte[] payload) throws IOException{
+		out.writeInt(payload.length);
+		out.write(payload);
+	}
+
+	/**
+	 * Block until a whole frame has arrived and decode it.
+	 * @param in Stream to read from
+	 * @return The decoded object
+	 */
+	public static Object readFrame(DataInputStream in) throws IOException, ClassNotFoundException{
+		int length = in.readInt();
+		checkLength(length);
+		if(length > BufferPool.BUFFER_SIZE){
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			return decode(payload);
+		}
+		ByteBuffer buf = BufferPool.acquire();
+		try{
+			in.readFully(buf.array(), 0, length);
+			buf.limit(length);
+			return decode(buf);
+		}finally{
+			BufferPool.release(buf);
+		}
+	}
+
+	/**
+	 * Make sure a frame length read off the wire is sane.
+	 * @param length The length prefix of a frame
+	 */
+	public static void checkLength(int length) throws IOException{
+		if(length < 0 || length > MAX_FRAME_SIZE){
+			throw new IOException("Bad frame length " + length);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package nw;
+
+import game.world.commands.Command;
+import game.world.logic.EntityState;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records a game to a file, so it can be run again by the Replayer.
+ *
+ * A recording is the world as it was loaded, the entities as they were when recording started,
+ * then every command the world accepted after that in the order it accepted them, a tick at a
+ * time with the time each tick ended.  Every -Dnw.keyframeInterval seconds the entities are
+ * written again as a keyframe, so a replay can start part way through and check it hasn't
+ * strayed from what really happened.  The whole file is gzipped.
+ *
+ * The simulation thread only encodes commands.  Compressing and writing is done by a thread of
+ * its own.
+ */
+public class Recorder {
+
+	//Seconds between keyframes
+	public static final int KEYFRAME_INTERVAL = Integer.getInteger("nw.keyframeInterval", 10);
+
+	//At the start of every recording
+	public static final int MAGIC = 0x53455243;
+	public static final int FORMAT = 1;
+
+	//Record types after the header
+	public static final byte END = 0;
+	public static final byte TICK = 1;
+	public static final byte KEYFRAME = 2;
+
+	private final DataOutputStream out;
+	private final long keyframeNanos;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory(){
+		public Thread newThread(Runnable r){
+			Thread t = new Thread(r, "Recorder");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	//Only touched by the simulation thread
+	private long started;
+	private long lastKeyframe;
+	private List<byte[]> tick = new ArrayList<byte[]>();
+	private long commands = 0;
+
+	/**
+	 * @param file File to record to, replacing anything there
+	 */
+	public Recorder(File file) throws IOException{
+		this(file, KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * @param file File to record to, replacing anything there
+	 * @param keyframeInterval Seconds between keyframes
+	 */
+	public Recorder(File file, int keyframeInterval) throws IOException{
+		this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file), true)));
+		this.keyframeNanos = TimeUnit.SECONDS.toNanos(keyframeInterval);
+	}
+
+	/**
+	 * Start the recording.  Called by the simulation between ticks.
+	 * @param baseline The world as it was loaded, encoded
+	 * @param state The entities as they are now
+	 */
+	public void begin(final byte[] baseline, EntityState state) throws IOException{
+		final byte[] entities = Protocol.encode(state);
+		started = lastKeyframe = System.nanoTime();
+		write(new Task(){
+			public void write() throws IOException{
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT);
+				out.writeInt(baseline.length);
+				out.write(baseline);
+				out.writeInt(entities.length);
+				out.write(entities);
+			}
+		});
+	}
+
+	/**
+	 * Record a command the world has just accepted.
+	 * @param command The command
+	 */
+	public void record(Command command) throws IOException{
+		tick.add(Protocol.encode(command));
+	}
+
+	/**
+	 * Record the commands accepted since the last tick, and a keyframe if one is due.
+	 * @param state The entities as the tick left them
+	 */
+	public void endTick(EntityState state) throws IOException{
+		final long elapsed = System.nanoTime() - started;
+		if(!tick.isEmpty()){
+			final List<byte[]> commands = tick;
+			tick = new ArrayList<byte[]>();
+			this.commands += commands.size();
+			write(new Task(){
+				public void write() throws IOException{
+					out.writeByte(TICK);
+					out.writeLong(elapsed);
+					out.writeInt(commands.size());
+					for(byte[] command : commands){
+						out.writeInt(command.length);
+						out.write(command);
+					}
+				}
+			});
+		}
+		if(System.nanoTime() - lastKeyframe >= keyframeNanos){
+			lastKeyframe = System.nanoTime();
+			final byte[] entities = Protocol.encode(state);
+			write(new Task(){
+				public void write() throws IOException{
+					out.writeByte(KEYFRAME);
+					out.writeLong(elapsed);
+					out.writeInt(entities.length);
+					out.write(entities);
+					out.flush();//So a crash doesn't lose more than a keyframe's worth
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return Number of commands recorded so far
+	 */
+	public long getCommands(){
+		return commands;
+	}
+
+	/**
+	 * Finish the recording and close the file, waiting for everything to be written.
+	 */
+	public void close(){
+		write(new Task(){
+			public void write() throws IOException{
+				out.writeByte(END);
+				out.close();
+			}
+		});
+		writer.shutdown();
+		try{
+			writer.awaitTermination(10, TimeUnit.SECONDS);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void write(final Task task){
+		writer.execute(new Runnable(){
+			public void run(){
+				try{
+					task.write();
+				}catch(IOException e){
+					System.err.println("Recorder: " + e);
+				}
+			}
+		});
+	}
+
+	private interface Task{
+		void write() throws IOException;
+	}
+}
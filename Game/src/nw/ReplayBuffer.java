@@ -0,0 +1,73 @@
+package nw;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the server sent in each of its last few hundred ticks, kept so a client that lost its
+ * connection can be sent just what it missed instead of the whole world again.
+ *
+ * It is a ring with a slot for every tick, keyed by the tick's sequence number, so the oldest
+ * tick is overwritten by the newest and how far back it reaches is a fixed amount of time.  Not
+ * thread safe, it is only used by the simulation thread.
+ */
+public class ReplayBuffer<T> {
+
+	private final List<List<T>> ticks;
+	private final long[] sequences;
+	private long latest = 0;
+
+	/**
+	 * @param capacity Number of ticks to keep
+	 */
+	public ReplayBuffer(int capacity){
+		if(capacity < 1){
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		}
+		this.ticks = new ArrayList<List<T>>(Collections.<List<T>>nCopies(capacity, null));
+		this.sequences = new long[capacity];
+	}
+
+	/**
+	 * Keep what a tick sent, overwriting the oldest tick kept.
+	 * @param sequence The tick's sequence number, one more than the last one added
+	 * @param items What it sent
+	 */
+	public void add(long sequence, List<T> items){
+		if(sequence != latest + 1){
+			throw new IllegalArgumentException("Tick " + sequence + " follows " + latest);
+		}
+		int slot = (int)(sequence % sequences.length);
+		ticks.set(slot, items);
+		sequences[slot] = sequence;
+		latest = sequence;
+	}
+
+	/**
+	 * @return The sequence number of the last tick added, or 0 if none have been
+	 */
+	public long getLatest(){
+		return latest;
+	}
+
+	/**
+	 * @param since The last tick a client heard about
+	 * @return true if every tick after that one is still kept
+	 */
+	public boolean covers(long since){
+		return since >= 0 && since <= latest && latest - since <= sequences.length;
+	}
+
+	/**
+	 * @param sequence A tick's sequence number
+	 * @return What it sent, or null if it is no longer kept
+	 */
+	public List<T> get(long sequence){
+		int slot = (int)(sequence % sequences.length);
+		if(sequence < 1 || sequences[slot] != sequence){
+			return null;
+		}
+		return ticks.get(slot);
+	}
+}
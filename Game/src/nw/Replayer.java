@@ -0,0 +1,358 @@
+package nw;
+
+import game.world.commands.Command;
+import game.world.commands.CommandType;
+import game.world.logic.EntityState;
+import game.world.logic.ServerWorld;
+import game.world.model.World;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Runs a game the Recorder recorded through the world again, without a server or any clients,
+ * and reports how fast the world got through it.
+ *
+ * The world is decoded from the recording's baseline and brought to where the recording started,
+ * then every command is applied in order with ServerWorld.applyCommand.  By default that is as
+ * fast as possible, which makes the recording a benchmark of the world's own logic.  -speed 1
+ * replays it at the pace it was recorded, and -speed 4 four times faster.
+ *
+ * -seek starts the replay part way through, from the last keyframe before then.  The commands
+ * between the keyframe and the seek are applied untimed, so the replay starts exactly where the
+ * game was.  -check compares the world at every keyframe with what was recorded, so a change to
+ * the world's logic that makes it play out differently shows up.
+ *
+ * Usage: java nw.Replayer file [-speed 0|1|n] [-seek seconds] [-check true|false] [-passes n]
+ */
+public class Replayer {
+
+	private final File file;
+	private double speed = 0;//0 for as fast as possible
+	private double seek = 0;
+	private boolean check = false;
+	private int passes = 1;
+
+	/**
+	 * @param file A recording
+	 */
+	public Replayer(File file){
+		this.file = file;
+	}
+
+	public static void main(String[] args) throws Exception{
+		Replayer replayer = null;
+		try{
+			if(args.length == 0){
+				throw new IllegalArgumentException("No recording given");
+			}
+			replayer = new Replayer(new File(args[0]));
+			replayer.parse(Arrays.copyOfRange(args, 1, args.length));
+		}catch(RuntimeException e){
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java nw.Replayer file [-speed 0|1|n] [-seek seconds] [-check true|false] [-passes n]");
+			System.exit(1);
+		}
+		for(int i = 1; i <= replayer.passes; i++){
+			Result result = replayer.replay();
+			System.out.println();
+			if(replayer.passes > 1){
+				System.out.println("Pass " + i);
+			}
+			System.out.print(result.report());
+		}
+		System.exit(0);
+	}
+
+	private void parse(String[] args){
+		for(int i = 0; i < args.length; i += 2){
+			if(i + 1 >= args.length){
+				throw new IllegalArgumentException("No value for " + args[i]);
+			}
+			String value = args[i + 1];
+			if(args[i].equals("-speed")){
+				speed = Double.parseDouble(value);
+			}else if(args[i].equals("-seek")){
+				seek = Double.parseDouble(value);
+			}else if(args[i].equals("-check")){
+				check = Boolean.parseBoolean(value);
+			}else if(args[i].equals("-passes")){
+				passes = Integer.parseInt(value);
+			}else{
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+	}
+
+	/**
+	 * @param speed How many times faster than it was recorded to replay, or 0 for as fast as possible
+	 */
+	public void setSpeed(double speed){
+		this.speed = speed;
+	}
+
+	/**
+	 * @param seek Seconds into the recording to start the replay
+	 */
+	public void setSeek(double seek){
+		this.seek = seek;
+	}
+
+	/**
+	 * @param check true to compare the world with every keyframe replayed
+	 */
+	public void setCheck(boolean check){
+		this.check = check;
+	}
+
+	/**
+	 * Replay the whole recording, or from the seek on.
+	 * @return What happened
+	 */
+	public Result replay() throws IOException, ClassNotFoundException{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+		try{
+			if(in.readInt() != Recorder.MAGIC){
+				throw new IOException(file + " is not a recording");
+			}
+			int format = in.readInt();
+			if(format != Recorder.FORMAT){
+				throw new IOException(file + " is format " + format + ", expected " + Recorder.FORMAT);
+			}
+			return replay(in, read(in), read(in));
+		}finally{
+			in.close();
+		}
+	}
+
+	private Result replay(DataInputStream in, byte[] baseline, byte[] initial) throws IOException, ClassNotFoundException{
+		Result result = new Result();
+		long seekNanos = (long)(seek * 1e9);
+
+		//Until the seek, the last keyframe and the commands since it
+		byte[] keyframe = initial;
+		long keyframeElapsed = 0;
+		List<byte[]> since = new ArrayList<byte[]>();
+
+		long began = 0;
+		while(true){
+			byte type;
+			try{
+				type = in.readByte();
+			}catch(EOFException e){
+				result.truncated = true;//The server stopped without finishing the recording
+				break;
+			}
+			if(type == Recorder.END){
+				break;
+			}
+			long elapsed = in.readLong();
+			List<byte[]> commands = new ArrayList<byte[]>();
+			byte[] entities = null;
+			if(type == Recorder.TICK){
+				int count = in.readInt();
+				for(int i = 0; i < count; i++){
+					commands.add(read(in));
+				}
+			}else if(type == Recorder.KEYFRAME){
+				entities = read(in);
+			}else{
+				throw new IOException("Unknown record " + type + " in " + file);
+			}
+			result.recorded = elapsed;
+
+			if(result.world == null){
+				if(elapsed < seekNanos){
+					if(entities != null){
+						keyframe = entities;
+						keyframeElapsed = elapsed;
+						since.clear();
+					}else{
+						since.addAll(commands);
+					}
+					continue;
+				}
+				catchUp(result, baseline, keyframe, since);
+				result.keyframeElapsed = keyframeElapsed;
+				began = System.nanoTime();
+			}
+
+			if(speed > 0){
+				long due = began + (long)((elapsed - seekNanos) / speed);
+				long wait = due - System.nanoTime();
+				if(wait > 0){
+					try{
+						Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+					}catch(InterruptedException e){
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+			if(entities != null){
+				if(check){
+					result.keyframes++;
+					byte[] now = Protocol.encode(EntityState.capture(result.world, result.version));
+					if(!Arrays.equals(now, entities)){
+						result.differing++;
+					}
+				}
+			}else{
+				result.ticks++;
+				for(byte[] payload : commands){
+					apply(result, (Command)Protocol.decode(payload), true);
+				}
+			}
+		}
+		if(result.world == null){//Seeked past the end
+			catchUp(result, baseline, keyframe, since);
+			began = System.nanoTime();
+		}
+		result.nanos = System.nanoTime() - began;
+		return result;
+	}
+
+	/*
+	 * Build the world as it was at a keyframe, and apply the commands since it without timing them.
+	 */
+	private void catchUp(Result result, byte[] baseline, byte[] keyframe, List<byte[]> since) throws IOException, ClassNotFoundException{
+		World world = (World)Protocol.decode(baseline);
+		EntityState state = (EntityState)Protocol.decode(keyframe);
+		state.applyTo(world);
+		result.world = world;
+		result.version = state.getVersion();
+		for(byte[] payload : since){
+			apply(result, (Command)Protocol.decode(payload), false);
+			result.skipped++;
+		}
+		since.clear();
+	}
+
+	private void apply(Result result, Command command, boolean timed){
+		long start = System.nanoTime();
+		boolean accepted = !result.world.applyCommand(command).isEmpty();
+		if(timed){
+			result.record(command.getType(), System.nanoTime() - start);
+		}
+		if(accepted){
+			result.version++;
+		}else{
+			result.refused++;//The recording only has accepted commands, so the world plays differently now
+		}
+	}
+
+	private static byte[] read(DataInputStream in) throws IOException{
+		int length = in.readInt();
+		if(length < 0 || length > Protocol.MAX_FRAME_SIZE){
+			throw new IOException("Bad length " + length + " in recording");
+		}
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		return payload;
+	}
+
+	/**
+	 * What a replay did, and how long it took.
+	 */
+	public static class Result{
+		private ServerWorld world;
+		private long version;
+		private long ticks = 0;
+		private long commands = 0;
+		private long skipped = 0;//Applied untimed to get from a keyframe to the seek
+		private long refused = 0;
+		private long keyframes = 0;
+		private long differing = 0;
+		private long recorded = 0;//Nanoseconds into the recording of its last record
+		private long keyframeElapsed = 0;
+		private long nanos = 0;
+		private long applyNanos = 0;
+		private boolean truncated = false;
+		private final Map<CommandType, Histogram> byType = new EnumMap<CommandType, Histogram>(CommandType.class);
+
+		private void record(CommandType type, long nanos){
+			Histogram h = byType.get(type);
+			if(h == null){
+				h = new Histogram();
+				byType.put(type, h);
+			}
+			h.record(nanos);
+			commands++;
+			applyNanos += nanos;
+		}
+
+		/**
+		 * @return The world as the replay left it
+		 */
+		public ServerWorld getWorld(){
+			return world;
+		}
+
+		/**
+		 * @return The version the world reached
+		 */
+		public long getVersion(){
+			return version;
+		}
+
+		/**
+		 * @return Number of commands replayed after the seek
+		 */
+		public long getCommands(){
+			return commands;
+		}
+
+		/**
+		 * @return Number of recorded commands the world refused when they were replayed
+		 */
+		public long getRefused(){
+			return refused;
+		}
+
+		/**
+		 * @return Number of keyframes the world was checked against
+		 */
+		public long getKeyframes(){
+			return keyframes;
+		}
+
+		/**
+		 * @return Number of keyframes the world didn't match
+		 */
+		public long getDiffering(){
+			return differing;
+		}
+
+		public String report(){
+			StringBuilder out = new StringBuilder();
+			double secs = nanos / 1e9;
+			out.append("Recording:  " + format(recorded / 1e9) + "s" + (truncated ? ", cut short" : "") + "\n");
+			if(skipped > 0 || keyframeElapsed > 0){
+				out.append("Seek:       from the keyframe at " + format(keyframeElapsed / 1e9) + "s, " + skipped + " commands applied to catch up\n");
+			}
+			out.append("Replayed:   " + commands + " commands in " + ticks + " ticks, " + format(secs * 1000) + "ms"
+					+ (secs > 0 ? " (" + format(commands / secs) + " commands/s)" : "") + "\n");
+			out.append("Applying:   " + format(applyNanos / 1e6) + "ms"
+					+ (commands > 0 ? ", " + format(applyNanos / 1e3 / commands) + "us per command" : "") + "\n");
+			for(Map.Entry<CommandType, Histogram> e : byType.entrySet()){
+				Histogram h = e.getValue();
+				out.append("  " + e.getKey().getName() + ": " + h.getCount() + ", us mean " + format(h.getMean() / 1e3)
+						+ "  p99 " + format(h.getPercentile(99) / 1e3) + "  max " + format(h.getMax() / 1e3) + "\n");
+			}
+			out.append("Refused:    " + refused + (refused > 0 ? " (the world no longer plays out as recorded)" : "") + "\n");
+			if(keyframes > 0){
+				out.append("Keyframes:  " + keyframes + " checked, " + differing + " differ\n");
+			}
+			return out.toString();
+		}
+
+		private static String format(double d){
+			return String.format("%.2f", d);
+		}
+	}
+}
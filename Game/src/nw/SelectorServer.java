@@ -0,0 +1,297 @@
+package nw;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector driven server engine.  Instead of one sleeping thread per player, a small fixed number
+ * of event loops multiplex every connection over non-blocking socket channels.  Incoming frames
+ * are handed to Server.handle exactly as the thread-per-connection engine does, so the world does
+ * not care which engine a client came in on.
+ */
+public class SelectorServer {
+	private final ServerSocketChannel serverChannel;
+	private final EventLoop[] loops;
+	private int nextID = 0;
+
+	/**
+	 * @param port Port to listen on
+	 * @param loopCount Number of selector threads to spread connections over
+	 */
+	public SelectorServer(int port, int loopCount) throws IOException{
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().bind(new InetSocketAddress(port));
+
+		loops = new EventLoop[Math.max(1, loopCount)];
+		for(int i = 0; i < loops.length; i++){
+			loops[i] = new EventLoop(i);
+			loops[i].start();
+		}
+	}
+
+	/*
+	 * Accept connections forever, handing them round robin to the event loops.
+	 */
+	public void run(){
+		try{
+			while(true){
+				SocketChannel channel = serverChannel.accept();
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				loops[nextID % loops.length].add(new ChannelConnection(channel, nextID));
+				nextID++;
+			}
+		}catch(IOException e){
+			System.err.println("Selector accept: " + e);
+		}
+	}
+
+	/**
+	 * One selector and the thread that drives it.
+	 */
+	private static class EventLoop extends Thread{
+		private final Selector selector;
+
+		//Connections waiting to be registered, and connections with something new to write.
+		//Both are filled by other threads and drained by the loop so only it touches the keys.
+		private final Queue<ChannelConnection> newConnections = new ConcurrentLinkedQueue<ChannelConnection>();
+		private final Queue<ChannelConnection> writeRequests = new ConcurrentLinkedQueue<ChannelConnection>();
+
+		public EventLoop(int index) throws IOException{
+			super("Selector-" + index);
+			setDaemon(true);
+			selector = Selector.open();
+		}
+
+		public void add(ChannelConnection conn){
+			conn.loop = this;
+			newConnections.add(conn);
+			selector.wakeup();
+		}
+
+		public void requestWrite(ChannelConnection conn){
+			writeRequests.add(conn);
+			selector.wakeup();
+		}
+
+		public void run(){
+			while(true){
+				try{
+					selector.select();
+				}catch(IOException e){
+					System.err.println("Selector IO: " + e);
+					return;
+				}
+
+				ChannelConnection conn;
+				while((conn = newConnections.poll()) != null){
+					register(conn);
+				}
+				while((conn = writeRequests.poll()) != null){
+					if(conn.key != null && conn.key.isValid()){
+						conn.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					}
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()){
+					SelectionKey key = keys.next();
+					keys.remove();
+					conn = (ChannelConnection)key.attachment();
+					try{
+						if(key.isValid() && key.isReadable()){
+							conn.read();
+						}
+						if(key.isValid() && key.isWritable()){
+							conn.write();
+						}
+					}catch(IOException e){
+						System.err.println("Server IO: " + e);
+						conn.close();
+					}catch(ClassNotFoundException e){
+						System.err.println("Server CNF: " + e);
+						conn.close();
+					}catch(CancelledKeyException e){
+						conn.close();
+					}
+				}
+			}
+		}
+
+		private void register(ChannelConnection conn){
+			try{
+				conn.key = conn.channel.register(selector, SelectionKey.OP_READ, conn);
+				Server.join(conn);
+			}catch(IOException e){
+				System.err.println("Server join: " + e);
+				conn.close();
+			}
+		}
+	}
+
+	/**
+	 * A client on a non-blocking channel.  Sends are queued and written by the event loop when
+	 * the socket can take them, so the queue is drained as fast as the client reads.
+	 */
+	private static class ChannelConnection implements Connection{
+		private static final int READ_BUFFER_SIZE = 8192;
+
+		private final SocketChannel channel;
+		private final int id;
+		private final OutboundQueue writeQueue = new OutboundQueue();
+		private ByteBuffer writing = null;//The frames part way through being written
+		private boolean writingPooled = false;
+		private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);//Grown for big frames while they arrive
+		private EventLoop loop;
+		private SelectionKey key;
+		private volatile boolean closed = false;
+		private final Metrics.ConnectionStats stats;
+
+		public ChannelConnection(SocketChannel channel, int id){
+			this.channel = channel;
+			this.id = id;
+			this.stats = Server.getMetrics().connect(id, writeQueue);
+		}
+
+		@Override
+		public int getId(){
+			return id;
+		}
+
+		@Override
+		public void send(Object o) throws IOException{
+			if(closed){
+				return;
+			}
+			if(!writeQueue.offer(Protocol.encoded(o))){
+				System.err.println("Disconnecting slow client " + id);
+				close();
+				return;
+			}
+			loop.requestWrite(this);
+		}
+
+		/*
+		 * Pull whatever has arrived off the socket, and hand every complete frame to the server.
+		 */
+		private void read() throws IOException, ClassNotFoundException{
+			int n = channel.read(readBuffer);
+			if(n < 0){
+				close();
+				return;
+			}
+			stats.read(n);
+			readBuffer.flip();
+			while(readBuffer.remaining() >= Protocol.HEADER_SIZE){
+				int length = readBuffer.getInt(readBuffer.position());
+				Protocol.checkLength(length);
+				if(readBuffer.remaining() < Protocol.HEADER_SIZE + length){
+					//Not all here yet.  Make sure the whole frame will fit once it is.
+					if(readBuffer.capacity() < Protocol.HEADER_SIZE + length){
+						ByteBuffer bigger = ByteBuffer.allocate(Protocol.HEADER_SIZE + length);
+						bigger.put(readBuffer);
+						readBuffer = bigger;
+						return;
+					}
+					break;
+				}
+				readBuffer.getInt();
+				//Decode straight out of the read buffer rather than copying each payload out
+				int end = readBuffer.position() + length;
+				int limit = readBuffer.limit();
+				readBuffer.limit(end);
+				Object message = Protocol.decode(readBuffer);
+				readBuffer.limit(limit);
+				readBuffer.position(end);
+				stats.frameIn();
+				if(!Server.handle(this, message)){
+					System.out.println("Player Quit");
+					close();
+					return;
+				}
+			}
+			readBuffer.compact();
+			//Once a big frame has gone, don't keep its buffer for the life of the connection
+			if(readBuffer.capacity() > READ_BUFFER_SIZE && readBuffer.position() <= READ_BUFFER_SIZE){
+				readBuffer.flip();
+				ByteBuffer smaller = ByteBuffer.allocate(READ_BUFFER_SIZE);
+				smaller.put(readBuffer);
+				readBuffer = smaller;
+			}
+		}
+
+		/*
+		 * Write as much of the queue as the socket will take, and stop asking to write once it is empty.
+		 */
+		private void write() throws IOException{
+			while(true){
+				if(writing == null && !fill()){
+					break;
+				}
+				stats.wrote(channel.write(writing));
+				if(writing.hasRemaining()){
+					return;
+				}
+				if(writingPooled){
+					BufferPool.release(writing);
+				}
+				writing = null;
+			}
+			key.interestOps(SelectionKey.OP_READ);
+			//A send may have slipped in after the queue emptied but before interest was dropped
+			if(writeQueue.size() != 0){
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+
+		/*
+		 * Pack as many queued frames as fit into a pooled buffer, so one write covers them all.
+		 * A frame too big for a pooled buffer, like the world baseline, goes out on its own.
+		 * Returns false if the queue is empty.
+		 */
+		private boolean fill(){
+			ByteBuffer buf = BufferPool.acquire();
+			Protocol.Encoded next;
+			while((next = writeQueue.poll(buf.remaining() - Protocol.HEADER_SIZE)) != null){
+				buf.putInt(next.payload.length);
+				buf.put(next.payload);
+				stats.frameOut();
+			}
+			if(buf.position() != 0){
+				buf.flip();
+				writing = buf;
+				writingPooled = true;
+				return true;
+			}
+			BufferPool.release(buf);
+			next = writeQueue.poll();
+			if(next == null){
+				return false;
+			}
+			writing = Protocol.frame(next.payload);
+			writingPooled = false;
+			stats.frameOut();
+			return true;
+		}
+
+		@Override
+		public void close(){
+			if(closed){
+				return;
+			}
+			closed = true;
+			Server.leave(this);
+			if(key != null){
+				key.cancel();
+			}
+			try{
+				channel.close();
+			}catch(IOException e){System.err.println("Server close " + e);}
+		}
+	}
+}
@@ -1,4 +1,5 @@
 package nw;
+import game.world.commands.*;
 import game.world.dimensions.*;
 import game.world.model.*;
 import game.world.logic.*;
@@ -9,9 +10,7 @@ import java.net.*;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.HashMap;
 import java.awt.Polygon;
-import java.util.Iterator;
 
 /**
  *@author Aaron Haslett 300306981
@@ -30,30 +29,141 @@ public class Server extends Thread{
 	private OutputStream outStream;
 	private int id;
 
-	//One hashmap of output streams shared by all connections.  Every time something needs to be sent out
-	//to all clients (almost everything), it is sent out on each stream in this hashmap.
-	//Neds to be a hashmap so we can remove the right stream on exit.
-	private static HashMap<Integer, ObjectOutputStream> outStreams = new HashMap<Integer, ObjectOutputStream>();
+	//Block on reads instead of polling the stream every 10ms
+	private final boolean blocking;
 
-	//The single server world.  Should probably synchronize this, lest wrath we face.
-	private static ServerWorld world;
+	//Blocking connection threads spend their lives parked in a read, so they get a small stack.
+	//This keeps thousands of idle players cheap.
+	private static final long BLOCKING_STACK_SIZE = 256 * 1024;
+
+	//Every game being hosted.  Connections hand the simulation of the game they are in everything
+	//they receive, and it sends them the results.
+	private static final GameHost games;
+
+	//The default game, which every connection starts in
+	private static Simulation simulation;
+
+	//Whether a shutdown hook has been added to finish a recording
+	private static boolean finishing = false;
+
+	//How long commands, ticks and clients are taking.  Kept across worlds.
+	private static final Metrics metrics = new Metrics();
+
+	static{
+		games = new GameHost(metrics);
+	}
 
 	private static boolean printing = false;
 
 	public Server(InputStream inStream, OutputStream outStream, int id){
+		this(inStream, outStream, id, false);
+	}
+
+	public Server(InputStream inStream, OutputStream outStream, int id, boolean blocking){
+		super(null, null, "Server-" + id, blocking ? BLOCKING_STACK_SIZE : 0);
 		this.inStream = inStream;
 		this.outStream = outStream;
 		this.id = id;
+		this.blocking = blocking;
 	}
 
 	/*
 	 * On the first day, God called this function.
 	 */
 	public static void initialiseWorld(){
+		initialiseWorld(true);
+	}
+
+	/**
+	 * Load the world and start simulating it.  With -Dnw.journal set to a directory, the world is
+	 * recovered from the journal there and everything it accepts is written to it.
+	 * With -Dnw.record set to a file, a server records everything it accepts there for the Replayer.
+	 * Both only apply to the default game, not to games started from the lobby.
+	 * With -Dnw.shards set, the default game runs only the places this server owns (see ShardMap).
+	 * @param remote false if the only client will be a LocalConnection in this process, so the
+	 *        world never needs to be sent
+	 */
+	public static void initialiseWorld(boolean remote){
+		if(simulation != null){
+			simulation.stop();
+		}
+		World world = loadWorld();
+		try{
+			simulation = games.simulate(world, remote);
+		}catch(IOException e){
+			throw new RuntimeException("Could not encode the world", e);
+		}
+		ShardMap shards = ShardMap.fromProperties(world);
+		if(shards != null){
+			simulation.setShards(shards);
+			System.out.println("Running places for server " + shards.getSelf());
+		}
+		String journal = System.getProperty("nw.journal");
+		if(journal != null){
+			try{
+				simulation.recover(new Journal(new File(journal)));
+			}catch(IOException e){
+				throw new RuntimeException("Could not recover the world from " + journal, e);
+			}catch(ClassNotFoundException e){
+				throw new RuntimeException("Could not recover the world from " + journal, e);
+			}
+			System.out.println("Recovered the world to version " + simulation.getSnapshot().getVersion());
+		}
+		String record = System.getProperty("nw.record");
+		if(record != null && remote){
+			try{
+				simulation.startRecording(new Recorder(new File(record)));
+				finishOnExit();
+			}catch(IOException e){
+				throw new RuntimeException("Could not record to " + record, e);
+			}
+		}
+		games.add(GameHost.DEFAULT, null, simulation);
+	}
+
+	/*
+	 * Stop the simulation when the process ends, so a recording is finished rather than cut short.
+	 */
+	private static synchronized void finishOnExit(){
+		if(finishing){
+			return;
+		}
+		finishing = true;
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+			public void run(){
+				Simulation s = simulation;
+				if(s != null){
+					s.stop();
+				}
+			}
+		}, "Finish recording"));
+	}
+
+	/**
+	 * Load a world for a game started from the lobby.
+	 * @param name World file in the nw.worlds directory ("worlds" by default), or null for the
+	 *        default world
+	 * @return A fresh copy of the world, or null if there is no such file
+	 */
+	public static World loadWorld(String name){
+		if(name == null){
+			return loadWorld();
+		}
+		File f = new File(System.getProperty("nw.worlds", "worlds"), name);
+		if(!f.isFile()){
+			return null;
+		}
+		return WorldMaker.parseWorld(f);
+	}
+
+	/*
+	 * Load the world from the world file, or make a small default one if there isn't a file.
+	 * @return A fresh copy of the world
+	 */
+	public static World loadWorld(){
 		File f = new File("world");
 		if(f.exists() && !f.isDirectory()){
-			world = WorldMaker.parseWorld(f);
-			return;
+			return WorldMaker.parseWorld(f);
 		}
 
 		int[] xpoints = new int[] { 200, 800, 800, 200 };
@@ -78,18 +188,73 @@ public class Server extends Thread{
 		firstRoom.addExit(exit);
 		secondRoom.addExit(exit);
 
-		world = new World(places);
+		World world = new World(places);
 		world.addExit(exit);
+		return world;
+	}
+
+	/*
+	 * Start bringing a newly accepted connection up to date by telling it which baseline we have.
+	 * @param c The newly accepted connection
+	 */
+	public static void join(Connection c) throws IOException{
+		games.join(c);
 	}
 
 	/*
-	 * Broadcast an object to all clients.
-	 * @param o Object to send to all clients.
+	 * Remove a connection from the broadcast list.
+	 * @param c The connection that has gone away
 	 */
-	 synchronized public static void send(Object o) throws IOException{
-		for(ObjectOutputStream os : outStreams.values()){
-			os.writeObject(o);
+	public static void leave(Connection c){
+		metrics.disconnect(c.getId());
+		Simulation game = games.of(c);
+		if(!games.leave(c)){
+			return;
+		}
+
+		System.out.print(" Remaining IDs: ");
+		for(Integer cid : game.getConnectionIds()){
+			System.out.print(cid + ", ");
 		}
+		print("");
+	}
+
+	/*
+	 * Handle one object received from a client, from whichever engine read it.  Commands and sync
+	 * requests are queued for the next tick of the connection's game rather than run here, and lobby
+	 * requests are answered straight away.
+	 * @param c The connection it arrived on
+	 * @param received The decoded object
+	 * @return false if the client has quit, true otherwise
+	 */
+	public static boolean handle(Connection c, Object received) throws IOException{
+		if(received instanceof Sync.Request || received instanceof Command
+				|| received instanceof Handoff.Hello || received instanceof Handoff.Transfer){
+			games.submit(c, received);
+		}else if(received instanceof Sync.Pong){
+			games.of(c).ponged(c, (Sync.Pong)received);
+		}else if(received instanceof Lobby.Request){
+			games.handle(c, (Lobby.Request)received);
+		}else if("Quit".equals(received)){
+			return false;
+		}else if(received instanceof String){//Command text from a client that doesn't speak binary
+			Command command = TextCommandCodec.INSTANCE.decode((String)received);
+			if(command != null){
+				games.submit(c, command);
+			}else{
+				print("[Server] Not a command: " + received);
+			}
+		}else{
+			print("[Server] No idea what this is: " + received);
+		}
+		return true;
+	}
+
+	/**
+	 * @return What the server has been doing and how long it took
+	 */
+	public static Metrics getMetrics(){
+		return metrics;
 	}
 
 	public static void print(String msg){
@@ -101,50 +266,40 @@ public class Server extends Thread{
 	/*
 	 * The main loop.  This function is running once for each player in the game concurrently.
 	 * It:
-	 *   1. Wraps the streams to add buffering and object serialization
-	 *   2. Sends the world to the current client
+	 *   1. Wraps the streams to add buffering and framing
+	 *   2. Offers the world to the current client
 	 *   3. Loops forever, processing any objects in the incoming queue when one is ready
+	 * In blocking mode step 3 waits on the stream, so a command is handled as soon as it arrives.
 	 */
 	public void run(){
-		ObjectInputStream in = null;
-		ObjectOutputStream out = null;
-
-		Object received = null;
-		String recStr = "";
+		DataInputStream in = null;
+		StreamConnection conn = null;
 
 		try{
-
-			//Wrap the output stream in an ObjectOutputStream, for sending whole objects
-			out = new ObjectOutputStream(outStream);
-			out.flush();
-			print("adding broadcast id " + id);
-			outStreams.put(id, out);//Add the output stream to the list of broadcast streams
+			conn = new StreamConnection(id, outStream);
+			Metrics.ConnectionStats stats = conn.getStats();
 
 			//Wrap the input stream in a buffer, so we don't block waiting for the client to send
-			BufferedInputStream bis = new BufferedInputStream(inStream);
-			in = new ObjectInputStream(bis);//And also in an ObjectInputStream as above
+			BufferedInputStream bis = new BufferedInputStream(stats.counting(inStream));
+			in = new DataInputStream(bis);//And also in a DataInputStream to read frames
 
-			synchronized(world){
-				out.writeObject(world);//Send the whole world to the client
+			Server.join(conn);//Offer the world to the client
+
+			while(blocking){//Forever, waiting for each object to arrive:
+				Object received = Protocol.readFrame(in);
+				stats.frameIn();
+				if(!Server.handle(conn, received)){
+					throw new QuitException();
+				}
 			}
+
 			while(true){//Forever:
 
 				if(bis.available() != 0){//If there are any objects incoming
-					received = in.readObject();//Get one
-					if(received instanceof String){//If it's a string, it's a command, let's process it
-						recStr = ((String)received);
-						print("[Server] Got: " + recStr);
-						if(recStr.equals("Quit")){
-							throw new QuitException();
-						}
-						//System.out.println(getRemainingSeconds() + " remaining");
-
-						for(String cmd : world.applyCommand((String)received)){//Apply the command and
-							print("[Server] Returning: " + cmd);
-							Server.send(cmd);//Send each resulting command to all clients.
-						}
-					}else{
-						print("[Server] No idea what this is: " + received);
+					Object received = Protocol.readFrame(in);
+					stats.frameIn();
+					if(!Server.handle(conn, received)){//Get one and process it
+						throw new QuitException();
 					}
 				}
 
@@ -159,38 +314,74 @@ public class Server extends Thread{
 		}catch(QuitException e){
 			System.out.println("Player Quit");
 		}finally{
-			outStreams.remove(id);
-
-			System.out.print(" Remaining IDs: ");
-			for(Integer cid : outStreams.keySet()){
-				System.out.print(cid + ", ");
+			if(conn != null){
+				conn.close();//Also removes it from the broadcast list
 			}
-			print("");
 
 			try{
 				in.close();
-				out.close();
 			}catch(Exception e){System.err.println("Server close");}
 		}
 	}
 
-	public static void main(String[] args) throws IOException{
-		if(args.length != 1){
-			System.err.println("Usage: java Server [port]");
-			System.exit(1);
-		}
-
-		int portNumber = Integer.parseInt(args[0]);
-
-		try{
+	/**
+	 * Load the world and serve it on a port until the process ends.  Metrics are exported as the
+	 * nw.adminPort and nw.metricsFile properties ask.  With -Dnw.udp=true moves also go as
+	 * datagrams on the same port number (see Datagrams).
+	 * @param portNumber Port to listen on
+	 * @param mode threads, blocking or nio
+	 */
+	public static void serve(int portNumber, String mode) throws IOException{
+		MetricsExporter.start(metrics);
+		if(mode.equals("nio")){
+			//A few selector loops multiplex every connection
+			SelectorServer selectorServer = new SelectorServer(portNumber, Integer.getInteger("nw.selectors", 1));
+			Server.initialiseWorld();
+			startDatagrams(portNumber);
+			selectorServer.run();
+		}else if(mode.equals("threads") || mode.equals("blocking")){
+			boolean blocking = mode.equals("blocking");
 			ServerSocket serverSocket = new ServerSocket(portNumber);
 			Server.initialiseWorld();
+			startDatagrams(portNumber);
 			int nextID = 0;
 			while(true){
 				Socket clientSock = serverSocket.accept();
-				new Server(clientSock.getInputStream(), clientSock.getOutputStream(), nextID).start();
+				Server server = new Server(clientSock.getInputStream(), clientSock.getOutputStream(), nextID, blocking);
+				server.start();
 				nextID++;
 			}
+		}else{
+			throw new IllegalArgumentException("Unknown server mode: " + mode);
+		}
+	}
+
+	/*
+	 * Start taking moves as datagrams if the nw.udp property asks for it.
+	 */
+	private static void startDatagrams(int portNumber) throws IOException{
+		if(!Boolean.getBoolean("nw.udp")){
+			return;
+		}
+		DatagramServer datagrams = new DatagramServer(portNumber);
+		datagrams.start();
+		games.setDatagrams(datagrams);
+	}
+
+	public static void main(String[] args) throws IOException{
+		if(args.length != 1 && args.length != 2){
+			System.err.println("Usage: java Server [port] [threads|blocking|nio]");
+			System.exit(1);
+		}
+
+		int portNumber = Integer.parseInt(args[0]);
+		String mode = args.length == 2 ? args[1] : System.getProperty("nw.mode", "threads");
+
+		try{
+			serve(portNumber, mode);
+		}catch(IllegalArgumentException e){
+			System.err.println(e.getMessage());
+			System.exit(1);
 		}catch(IOException e){
 			System.err.println(e);
 		}
@@ -0,0 +1,277 @@
+package nw;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every client's session in one game, and what the game sent in its last few ticks, so a client
+ * that loses its connection can come back to its player and be sent only what it missed.
+ *
+ * A session is named by a token the client is given when it joins, and outlives the connection
+ * it was made on by the resume window.  What each tick sent is kept in a ReplayBuffer reaching
+ * back as far.  Sessions are looked up from any thread, but the replay is only touched by the
+ * simulation thread.
+ *
+ * @param <T> What a tick sends
+ */
+public class Sessions<T> {
+
+	/**
+	 * Which of what a tick sent a session saw.
+	 */
+	public interface Audience<T>{
+		/**
+		 * @param item Something a tick sent
+		 * @param session A session
+		 * @param place The place the session could see at the end of the tick, or null
+		 * @return true if the session was sent it
+		 */
+		boolean saw(T item, Session session, String place);
+	}
+
+	private final Map<Long, Session> byToken = new ConcurrentHashMap<Long, Session>();
+	private final Map<Integer, Session> byConnection = new ConcurrentHashMap<Integer, Session>();
+	private final SecureRandom random = new SecureRandom();
+	private final long window;
+	private long lastExpiry = 0;
+
+	//What each recent tick sent, or null if nothing is kept
+	private final ReplayBuffer<T> replay;
+	private final int replayTicks;
+
+	/**
+	 * @param window Seconds a session outlives its connection
+	 * @param replayTicks Number of ticks to keep what was sent for, or 0 to keep nothing
+	 */
+	public Sessions(int window, int replayTicks){
+		this.window = TimeUnit.SECONDS.toNanos(window);
+		this.replayTicks = replayTicks;
+		this.replay = replayTicks > 0 ? new ReplayBuffer<T>(replayTicks) : null;
+	}
+
+	/**
+	 * Start a new session for a connection.
+	 * @param c The connection
+	 * @return The session
+	 */
+	public Session open(Connection c){
+		Session s = new Session(random.nextLong(), c);
+		byToken.put(s.token, s);
+		byConnection.put(c.getId(), s);
+		return s;
+	}
+
+	/**
+	 * Start a session for a player with no connection yet, which their client resumes.  It is
+	 * forgotten if it isn't resumed within the window.
+	 * @param player The player
+	 * @param place The place they are in
+	 * @param tick The tick they arrived in
+	 * @return The session
+	 */
+	public Session reserve(String player, String place, long tick){
+		Session s = new Session(random.nextLong(), null);
+		s.detached = System.nanoTime();
+		s.moved(player, place, tick, tick - replayTicks);
+		byToken.put(s.token, s);
+		return s;
+	}
+
+	/**
+	 * @param token A session token
+	 * @return The session, or null if there isn't one or it has expired
+	 */
+	public Session get(long token){
+		return byToken.get(token);
+	}
+
+	/**
+	 * @param c A connection
+	 * @return The session it has, or null
+	 */
+	public Session of(Connection c){
+		return byConnection.get(c.getId());
+	}
+
+	/**
+	 * Give a session a new connection.
+	 * @param s The session
+	 * @param c Its new connection
+	 * @return The connection it had, or null
+	 */
+	public Connection attach(Session s, Connection c){
+		Connection old;
+		synchronized(s){
+			old = s.connection;
+			s.connection = c;
+			s.detached = 0;
+		}
+		byConnection.put(c.getId(), s);
+		if(old != null && old != c){
+			byConnection.remove(old.getId());
+		}
+		return old;
+	}
+
+	/**
+	 * Note that a connection has gone, starting its session's window.
+	 * @param c The connection
+	 */
+	public void detach(Connection c){
+		Session s = byConnection.remove(c.getId());
+		if(s != null){
+			synchronized(s){
+				if(s.connection == c){//Unless it has already been resumed on another
+					s.connection = null;
+					s.detached = System.nanoTime();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forget a connection's session now, as it will be resumed somewhere else.
+	 * @param c The connection
+	 */
+	public void release(Connection c){
+		Session s = byConnection.get(c.getId());
+		if(s != null){
+			byToken.remove(s.token);
+		}
+	}
+
+	/**
+	 * Note where a connection's player is from a tick on.
+	 * @param c The connection
+	 * @param player The player
+	 * @param place The place they are in
+	 * @param tick The tick
+	 */
+	public void moved(Connection c, String player, String place, long tick){
+		Session s = byConnection.get(c.getId());
+		if(s != null){
+			s.moved(player, place, tick, tick - replayTicks);
+		}
+	}
+
+	/**
+	 * Forget sessions that have been without a connection longer than the window.  Only looks
+	 * once a second.
+	 */
+	public void expire(){
+		long now = System.nanoTime();
+		if(now - lastExpiry < TimeUnit.SECONDS.toNanos(1)){
+			return;
+		}
+		lastExpiry = now;
+		Iterator<Session> it = byToken.values().iterator();
+		while(it.hasNext()){
+			long detached = it.next().detached;
+			if(detached != 0 && now - detached > window){
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return true if what each tick sends is kept
+	 */
+	public boolean isReplaying(){
+		return replay != null;
+	}
+
+	/**
+	 * Keep what a tick sent, unless it has been kept already.
+	 * @param tick The tick
+	 * @param items What it sent
+	 */
+	public void remember(long tick, List<T> items){
+		if(replay != null && replay.getLatest() < tick){
+			replay.add(tick, items);
+		}
+	}
+
+	/**
+	 * @param tick A tick
+	 * @return true if what it sent has been kept already, or isn't kept at all
+	 */
+	public boolean remembers(long tick){
+		return replay == null || replay.getLatest() >= tick;
+	}
+
+	/**
+	 * @param s A session
+	 * @param since The last tick its client heard about
+	 * @param until The first tick not to include
+	 * @param audience Which of what was sent it saw
+	 * @return What it was sent after since and before until, or null if that isn't all kept
+	 */
+	public List<T> missed(Session s, long since, long until, Audience<T> audience){
+		if(replay == null || !replay.covers(since)){
+			return null;
+		}
+		List<T> missed = new ArrayList<T>();
+		for(long tick = since + 1; tick < until; tick++){
+			String seen = s.placeAt(tick);
+			for(T item : replay.get(tick)){
+				if(audience.saw(item, s, seen)){
+					missed.add(item);
+				}
+			}
+		}
+		return missed;
+	}
+
+	/**
+	 * A client's claim on its player, which outlives the connection it was made on so the client
+	 * can come back to it.
+	 */
+	public static class Session{
+		public final long token;
+		private volatile Connection connection;//Null while it has none
+		private volatile long detached = 0;//When it lost its connection
+
+		//Only touched by the simulation thread
+		private String player;//The player it placed, once it has
+		private final TreeMap<Long, String> places = new TreeMap<Long, String>();//Place it could see from each tick on
+
+		private Session(long token, Connection connection){
+			this.token = token;
+			this.connection = connection;
+		}
+
+		/**
+		 * @return The name of the player it placed, or null if it hasn't
+		 */
+		public String getPlayer(){
+			return player;
+		}
+
+		/*
+		 * The place the session could see at the end of a tick, or null if it had no player yet.
+		 */
+		private String placeAt(long tick){
+			Map.Entry<Long, String> e = places.floorEntry(tick);
+			return e == null ? null : e.getValue();
+		}
+
+		/*
+		 * Note where the session's player is from a tick on, forgetting anything from before the
+		 * oldest tick that could be replayed.
+		 */
+		private void moved(String player, String place, long tick, long oldest){
+			this.player = player;
+			places.put(tick, place);
+			Long floor = places.floorKey(oldest);
+			if(floor != null){
+				places.headMap(floor).clear();
+			}
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package nw;
+
+import game.world.logic.ServerWorld;
+import game.world.model.Place;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Which server runs each place of a world split across several, and the links between them.
+ *
+ * Every server in the cluster loads the same world, and runs only the places it owns.  A player
+ * is only ever in one server's world, and moves to another by a handoff (see Handoff) when they
+ * take an exit to a place it owns.  The servers are listed in the same order on each, with
+ * -Dnw.shards=host:port,host:port,... and each is told which one it is with -Dnw.shard=n.
+ *
+ * Places are dealt out in turn in the order the world lists them, so the first place, where
+ * players start, is run by the first server.  -Dnw.shardMap=Room1:0,Room2:1 gives places to
+ * servers by name instead.  -Dnw.shardKey must be set to the same secret on every server, as
+ * anyone who knows it can send a server a player, and a server won't start split without one.
+ *
+ * A server sends players to another over a connection to its game port, which it opens the first
+ * time it needs it.  Connecting and writing are done by the link's own thread, so a server that
+ * is slow to answer never holds up the one sending to it, and one that can't be reached within
+ * -Dnw.shardConnectTimeout milliseconds counts as lost.  What comes back is handed to a Receiver.
+ */
+public class ShardMap {
+
+	/**
+	 * Told what another server answered, on the thread reading from it.
+	 */
+	public interface Receiver{
+		/**
+		 * @param node The server that answered
+		 * @param message Its answer
+		 */
+		void received(int node, Object message);
+
+		/**
+		 * @param node A server whose link has failed.  Nothing sent to it will be answered.
+		 */
+		void lost(int node);
+	}
+
+	public static final int CONNECT_TIMEOUT = Integer.getInteger("nw.shardConnectTimeout", 2000);
+
+	private final List<InetSocketAddress> nodes;
+	private final int self;
+	private final String key;
+	private final String start;//Where players are placed
+	private final Map<String, Integer> owners = new HashMap<String, Integer>();
+	private final Link[] links;
+
+	/**
+	 * @param nodes Every server, in the same order as on every other server
+	 * @param self Which of them this one is
+	 * @param key Secret shared by every server
+	 * @param world The world every server loaded
+	 * @param assigned Places given to servers by name, and the rest are dealt out in turn
+	 */
+	public ShardMap(List<InetSocketAddress> nodes, int self, String key, ServerWorld world, Map<String, Integer> assigned){
+		if(self < 0 || self >= nodes.size()){
+			throw new IllegalArgumentException("Server " + self + " is not one of the " + nodes.size());
+		}
+		if(key == null || key.isEmpty()){
+			throw new IllegalArgumentException("The servers need a shared key, -Dnw.shardKey");
+		}
+		this.nodes = nodes;
+		this.self = self;
+		this.key = key;
+		this.links = new Link[nodes.size()];
+		int next = 0;
+		String first = null;
+		Iterator<Place> places = world.getPlaces();
+		while(places.hasNext()){
+			String name = places.next().getName();
+			if(first == null){
+				first = name;
+			}
+			Integer node = assigned.get(name);
+			if(node == null){
+				node = next++ % nodes.size();
+			}else if(node < 0 || node >= nodes.size()){
+				throw new IllegalArgumentException(name + " is given to server " + node + ", which isn't listed");
+			}
+			owners.put(name, node);
+		}
+		this.start = first;
+	}
+
+	/**
+	 * @param world The world this server loaded
+	 * @return The cluster the nw.shards properties describe, or null if they don't
+	 */
+	public static ShardMap fromProperties(ServerWorld world){
+		String list = System.getProperty("nw.shards");
+		if(list == null || list.isEmpty()){
+			return null;
+		}
+		List<InetSocketAddress> nodes = new ArrayList<InetSocketAddress>();
+		for(String node : list.split(",")){
+			int colon = node.lastIndexOf(':');
+			if(colon < 0){
+				throw new IllegalArgumentException("Not host:port: " + node);
+			}
+			nodes.add(InetSocketAddress.createUnresolved(node.substring(0, colon).trim(),
+					Integer.parseInt(node.substring(colon + 1).trim())));
+		}
+		Map<String, Integer> assigned = new HashMap<String, Integer>();
+		String map = System.getProperty("nw.shardMap");
+		if(map != null && !map.isEmpty()){
+			for(String entry : map.split(",")){
+				int colon = entry.lastIndexOf(':');
+				if(colon < 0){
+					throw new IllegalArgumentException("Not place:server: " + entry);
+				}
+				assigned.put(entry.substring(0, colon).trim(), Integer.parseInt(entry.substring(colon + 1).trim()));
+			}
+		}
+		return new ShardMap(nodes, Integer.getInteger("nw.shard", 0), System.getProperty("nw.shardKey"), world, assigned);
+	}
+
+	/**
+	 * @return Which server this one is
+	 */
+	public int getSelf(){
+		return self;
+	}
+
+	/**
+	 * @param place A place's name
+	 * @return The server that runs it.  A place the world doesn't have is run here.
+	 */
+	public int ownerOf(String place){
+		Integer node = owners.get(place);
+		return node == null ? self : node;
+	}
+
+	/**
+	 * @param place A place's name
+	 * @return true if this server runs it
+	 */
+	public boolean owns(String place){
+		return ownerOf(place) == self;
+	}
+
+	/**
+	 * @return true if players are placed on this server
+	 */
+	public boolean ownsStart(){
+		return owns(start);
+	}
+
+	/**
+	 * @param node A server
+	 * @return Where its game port is
+	 */
+	public InetSocketAddress getNode(int node){
+		return nodes.get(node);
+	}
+
+	/**
+	 * @param key What a connection said the cluster's key was
+	 * @return true if it is right
+	 */
+	public boolean accepts(String key){
+		return this.key.equals(key);
+	}
+
+	/**
+	 * Send a message to another server, connecting to it first if need be.  The message is
+	 * encoded now and sent later by the link's thread, so this never waits on the network.  If
+	 * the link fails before it goes the receiver is told the server is lost.
+	 * @param node The server
+	 * @param message What to send
+	 * @param receiver Told what comes back
+	 * @throws IOException If the message can't be encoded, or the link has already failed
+	 */
+	public void send(int node, Object message, Receiver receiver) throws IOException{
+		Protocol.Encoded encoded = Protocol.encoded(message);
+		Link link;
+		synchronized(links){
+			link = links[node];
+			if(link == null){
+				link = new Link(node, receiver);
+				links[node] = link;
+				link.start();
+			}
+		}
+		if(!link.send(encoded)){
+			throw new IOException("Link to server " + node + " has failed");
+		}
+	}
+
+	/**
+	 * Close every link.
+	 */
+	public void close(){
+		synchronized(links){
+			for(Link link : links){
+				if(link != null){
+					link.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A connection to another server's game port.  Its thread connects, says hello with the key to
+	 * show it is one of the cluster, then writes whatever is queued.  Another thread reads the
+	 * answers.  It is offered the world like any client, which it ignores.
+	 */
+	private class Link extends Thread{
+		private final int node;
+		private final Receiver receiver;
+		private final Socket socket = new Socket();
+		private final BlockingQueue<Protocol.Encoded> queue = new LinkedBlockingQueue<Protocol.Encoded>();
+		private boolean closed = false;
+
+		Link(int node, Receiver receiver){
+			super("Shard link " + node);
+			this.node = node;
+			this.receiver = receiver;
+			setDaemon(true);
+		}
+
+		/*
+		 * Queue a message to be written, unless the link has failed.
+		 */
+		synchronized boolean send(Protocol.Encoded message){
+			if(closed){
+				return false;
+			}
+			queue.add(message);
+			return true;
+		}
+
+		public void run(){
+			try{
+				InetSocketAddress address = nodes.get(node);
+				socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT);
+				socket.setTcpNoDelay(true);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				Protocol.writeFrame(out, new Handoff.Hello(key));
+				Thread reader = new Thread("Shard link reader " + node){
+					public void run(){
+						read(in);
+					}
+				};
+				reader.setDaemon(true);
+				reader.start();
+				while(true){
+					Protocol.writeFrame(out, queue.take());
+				}
+			}catch(IOException e){
+				Server.print("Shard link " + node + ": " + e);
+			}catch(InterruptedException e){
+				//Closed
+			}finally{
+				close();
+			}
+		}
+
+		private void read(DataInputStream in){
+			try{
+				while(true){
+					Object message = Protocol.readFrame(in);
+					if(message instanceof Handoff.Accepted || message instanceof Handoff.Rejected){
+						receiver.received(node, message);
+					}
+				}
+			}catch(IOException e){
+				Server.print("Shard link " + node + ": " + e);
+			}catch(ClassNotFoundException e){
+				System.err.println("Shard link " + node + ": " + e);
+			}finally{
+				close();
+			}
+		}
+
+		/*
+		 * Stop using the link, the first time only telling the receiver that nothing sent on it
+		 * will be answered.
+		 */
+		void close(){
+			synchronized(this){
+				if(closed){
+					return;
+				}
+				closed = true;
+			}
+			synchronized(links){
+				if(links[node] == this){
+					links[node] = null;
+				}
+			}
+			try{
+				socket.close();
+			}catch(IOException e){
+				System.err.println("Shard link close: " + e);
+			}
+			interrupt();
+			receiver.lost(node);
+		}
+	}
+}
@@ -0,0 +1,1470 @@
+package nw;
+
+import game.world.commands.*;
+import game.world.commands.Command.Target;
+import game.world.dimensions.Point3D;
+import game.world.logic.EntityState;
+import game.world.logic.MovementHandler;
+import game.world.logic.ServerWorld;
+import game.world.model.Place;
+import game.world.model.Player;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The authoritative game loop.
+ *
+ * Connection threads never touch the world.  They put what they receive on a lock-free queue, and
+ * one simulation thread wakes up at a fixed rate, applies everything that has arrived since the
+ * last tick, and sends each client a single batch holding every result it needs from that tick.
+ * The world only ever has one writer, and the cost of a tick depends on how much happened in it
+ * rather than on how many threads are fighting over the world.
+ *
+ * Within a tick, commands that only touch one place are run by that place's actor (see
+ * PlaceActors), so busy rooms don't wait on each other.  The simulation thread waits for the
+ * actors before anything that can touch the whole world, and does all the sending itself.
+ *
+ * After each tick the entities are published as an immutable EntityState that shares every place
+ * the tick didn't touch with the one before.  Anything that wants to read the whole world reads
+ * that instead, from any thread, and a joining client is sent it by a thread of its own so a
+ * big world never holds up the players already in it.
+ *
+ * Every client that joins from afar is given a session, which is how it keeps its player if its
+ * connection drops.  What each tick sent is kept for a while (see Sessions), so a client that
+ * reconnects soon enough is sent only what it missed.
+ *
+ * Given a Journal, every command the world accepts is written to disk before its results go out,
+ * one sync per tick, and the world is recovered from it when the simulation is made.
+ *
+ * Given a ShardMap, the simulation only runs the places this server owns.  A player taking an exit
+ * to a place another server runs is handed off to it (see Handoffs), and their client redirected.
+ *
+ * A client can send moves faster than the simulation ticks, but only where a player ends up
+ * matters, so of the moves a player sends in a row between two ticks only the last is applied.
+ * Anything else they send keeps its place among their moves.
+ *
+ * A client in input mode sends which movement keys it holds (see InputCommand) rather than moves,
+ * and only when that changes.  Each tick the simulation turns what every such player holds into a
+ * move of its own, which is then applied, sent and journalled like any other.  Players walk at
+ * -Dnw.inputSpeed units a second, and moves they send themselves while holding keys are refused.
+ *
+ * How much each client over the network is sent follows how well its connection keeps up (see
+ * UpdateRate).  One that falls behind, or goes over its byte budget, is still sent everything
+ * near its player every tick, but only the latest moves of distant players every few ticks.
+ *
+ * A simulation normally has threads of its own.  A server hosting many games (see GameHost)
+ * instead hands every one of them the same pools, and has them tick on a shared scheduler.
+ *
+ * The rate is set with -Dnw.tickRate, in ticks per second, and how long a session outlives its
+ * connection with -Dnw.resumeWindow, in seconds.
+ */
+public class Simulation implements Runnable {
+
+	public static final int DEFAULT_TICK_RATE = Integer.getInteger("nw.tickRate", 20);
+	public static final int RESUME_WINDOW = Integer.getInteger("nw.resumeWindow", 30);
+	public static final float INPUT_SPEED = Float.parseFloat(System.getProperty("nw.inputSpeed", "160"));
+
+	private final ServerWorld world;
+
+	//The world as it was loaded, encoded once and sent to any client that hasn't cached it.  Null
+	//if every client is in this process and has its own copy.
+	private final Protocol.Encoded baseline;
+
+	//Clients that are up to date and get every batch
+	private final Map<Integer, Connection> connections = new ConcurrentHashMap<Integer, Connection>();
+
+	//Which place each connection can see, so room local results only go to that room
+	private final InterestManager interest = new InterestManager();
+
+	//Everything received since the last tick.  Many connection threads add, the simulation takes.
+	private final Queue<Inbound> inbound = new ConcurrentLinkedQueue<Inbound>();
+	private final AtomicInteger queued = new AtomicInteger();//Size of inbound, which is slow to count
+
+	private final Metrics metrics;
+
+	//Runs room local commands, one actor per place, so commands in different rooms run in parallel
+	private final PlaceActors places;
+
+	//Commands the actors have finished with, waiting for this thread to send out their results
+	private final Queue<Applied> applied = new ConcurrentLinkedQueue<Applied>();
+
+	//The entities as they were at the end of the last tick.  Never changes once published.
+	private volatile EntityState snapshot;
+
+	//Clients being sent a snapshot.  Batches for them are held until it has gone.
+	private final ConcurrentMap<Integer, Joining> joining = new ConcurrentHashMap<Integer, Joining>();
+	private final ExecutorService joiner;
+	private final boolean ownPools;//false if the pools are shared with other games
+
+	//Where moves go for clients that take them as datagrams, or null if none do
+	private volatile DatagramServer datagrams;
+
+	//What each player in input mode is holding, by player name.  Removed from by any thread when a
+	//connection leaves.
+	private final Map<String, Input> inputs = new ConcurrentHashMap<String, Input>();
+
+	//The moves this tick made for them, which their clients didn't predict so aren't corrected
+	private final Set<Command> walked = Collections.newSetFromMap(new IdentityHashMap<Command, Boolean>());
+
+	//How much each client over the network is sent, by connection id.  Only touched by the
+	//simulation thread.
+	private final Map<Integer, UpdateRate> rates = new HashMap<Integer, UpdateRate>();
+	private final int tickRate;
+	private long lastPing = 0;//When clients were last pinged and their connections sampled
+
+	//Moves players to and from the other servers when the world is split across several
+	private final Handoffs handoffs;
+
+	//Players who have left a place for one another server runs.  Actors add, this thread takes.
+	private final Queue<Applied> departing = new ConcurrentLinkedQueue<Applied>();
+
+	//Every client's session, and what each recent tick sent for clients resuming one.  Nothing is
+	//kept if every client is in this process, as they never lose their connection.
+	private final Sessions<Outgoing> sessions;
+
+	//Which of what a tick sent each session saw, the same as flush decides it
+	private static final Sessions.Audience<Outgoing> AUDIENCE = new Sessions.Audience<Outgoing>(){
+		public boolean saw(Outgoing o, Sessions.Session session, String place){
+			return o.only == null ? (o.scope == null || o.scope.equals(place)) : o.session == session;
+		}
+	};
+
+	//Where accepted commands are written before their results go out, or null to keep nothing
+	private Journal journal = null;
+
+	//Where accepted commands are recorded for the Replayer, or null.  A recorder handed over is
+	//picked up at the start of the next tick, so it starts from a whole tick's snapshot.
+	private volatile Recorder nextRecorder = null;
+	private volatile boolean stopRecording = false;
+	private Recorder recorder = null;
+
+	private final long tickNanos;
+	private volatile boolean running = false;
+	private Thread thread;
+
+	//The next tick, when ticking on a shared scheduler.  Ticks hold the lock while they run.
+	private ScheduledFuture<?> scheduled;
+	private final Object ticking = new Object();
+
+	//Only touched by the simulation thread
+	private long sequence = 0;//Number of the tick being run
+	private long version = 0;//Number of commands the world has accepted
+	private final List<Outgoing> outgoing = new ArrayList<Outgoing>();//Results waiting for the end of the tick
+	private final List<Inbound> arrived = new ArrayList<Inbound>();//Commands taken off inbound this tick
+	private final Set<String> changed = new HashSet<String>();//Places changed this tick
+	private boolean changedAll = false;//Something changed this tick that could be anywhere
+
+	/**
+	 * @param world The world to run.  Nothing else may change it once the simulation starts.
+	 * @param tickRate Ticks per second
+	 */
+	public Simulation(ServerWorld world, int tickRate) throws IOException{
+		this(world, tickRate, new Metrics());
+	}
+
+	/**
+	 * @param world The world to run.  Nothing else may change it once the simulation starts.
+	 * @param tickRate Ticks per second
+	 * @param metrics Where to record how long things take
+	 */
+	public Simulation(ServerWorld world, int tickRate, Metrics metrics) throws IOException{
+		this(world, tickRate, metrics, true);
+	}
+
+	/**
+	 * @param world The world to run.  Nothing else may change it once the simulation starts.
+	 * @param tickRate Ticks per second
+	 * @param metrics Where to record how long things take
+	 * @param remote false if every client will be a LocalConnection with its own copy of the
+	 *        world, so there is no need to encode one to send
+	 */
+	public Simulation(ServerWorld world, int tickRate, Metrics metrics, boolean remote) throws IOException{
+		this(world, tickRate, metrics, remote, null, null);
+	}
+
+	/**
+	 * @param world The world to run.  Nothing else may change it once the simulation starts.
+	 * @param tickRate Ticks per second
+	 * @param metrics Where to record how long things take
+	 * @param remote false if every client will be a LocalConnection with its own copy of the
+	 *        world, so there is no need to encode one to send
+	 * @param placePool Threads to run the place actors on, shared with other games, or null for
+	 *        a pool of its own
+	 * @param joinPool Threads to send joining clients their snapshot on, shared with other games,
+	 *        or null for one of its own
+	 */
+	public Simulation(ServerWorld world, int tickRate, Metrics metrics, boolean remote,
+			ExecutorService placePool, ExecutorService joinPool) throws IOException{
+		this.world = world;
+		this.ownPools = placePool == null;
+		this.places = placePool == null ? new PlaceActors(PlaceActors.DEFAULT_THREADS) : new PlaceActors(placePool);
+		this.joiner = joinPool != null ? joinPool : Executors.newSingleThreadExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "Joiner");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.metrics = metrics;
+		this.tickRate = Math.max(1, tickRate);
+		this.tickNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, tickRate);
+		//The world as loaded is the baseline clients cache, so encode it before anyone plays
+		this.baseline = remote ? Protocol.encoded(new Sync.Baseline(Protocol.encode(world))) : null;
+		this.sessions = new Sessions<Outgoing>(RESUME_WINDOW, remote ? Math.max(1, RESUME_WINDOW * this.tickRate) : 0);
+		this.handoffs = new Handoffs(world, metrics, new Handoffs.Game(){
+			public void post(Object message){
+				submit(null, message);
+			}
+
+			public void moved(ExitCommand exit, List<Command> results){
+				changed(exit);
+				for(Command result : results){
+					outgoing.add(new Outgoing(result, InterestManager.scopeOf(result), null));
+				}
+			}
+
+			public long reserve(Player player){
+				Place place = Simulation.this.world.getPlaceOfPlayer(player);
+				return sessions.reserve(player.getName(), place.getName(), sequence).token;
+			}
+
+			public void left(Connection c){
+				sessions.release(c);
+				leave(c);
+			}
+		});
+		this.snapshot = EntityState.capture(world, version);
+		metrics.published(snapshot);
+	}
+
+	/**
+	 * Bring the world back to where the journal says it was, and write every command it accepts
+	 * from now on to the journal.  Must be called before start.
+	 * @param journal The journal, not yet recovered
+	 */
+	public void recover(Journal journal) throws IOException, ClassNotFoundException{
+		long start = System.nanoTime();
+		version = journal.recover(world);
+		metrics.recovered(journal.getSnapshotVersion(), journal.getReplayed(), System.nanoTime() - start);
+		snapshot = EntityState.capture(world, version);
+		metrics.published(snapshot);
+		this.journal = journal;
+	}
+
+	public void start(){
+		running = true;
+		thread = new Thread(this, "Simulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Tick on a scheduler shared with other games, rather than on a thread of its own.
+	 * @param ticker The scheduler
+	 */
+	public void start(ScheduledExecutorService ticker){
+		running = true;
+		schedule(ticker, System.nanoTime());
+	}
+
+	/*
+	 * Run the next tick when it is due, and have it schedule the one after.
+	 */
+	private void schedule(final ScheduledExecutorService ticker, final long next){
+		scheduled = ticker.schedule(new Runnable(){
+			public void run(){
+				synchronized(ticking){
+					if(running){
+						schedule(ticker, step(next));
+					}
+				}
+			}
+		}, Math.max(0, next - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	public void stop(){
+		running = false;
+		if(thread != null){
+			thread.interrupt();
+		}
+		if(scheduled != null){
+			scheduled.cancel(false);
+			synchronized(ticking){
+				//Wait for a tick that is running to finish
+			}
+		}
+		if(ownPools){
+			places.shutdown();
+			joiner.shutdownNow();
+		}
+		handoffs.close();
+		if(journal != null || recorder != null){
+			try{
+				if(thread != null){
+					thread.join(1000);
+				}
+				if(recorder != null){
+					recorder.close();
+					recorder = null;
+				}
+				if(journal != null){
+					journal.close();
+				}
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}catch(IOException e){
+				System.err.println("Simulation journal: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Record every command the world accepts from the start of the next tick, until stopRecording
+	 * or stop.  Only a server's simulation can record, as the recording starts from the baseline.
+	 * @param recorder The recorder, not yet begun
+	 */
+	public void startRecording(Recorder recorder){
+		if(baseline == null){
+			throw new IllegalStateException("Only a server's simulation can be recorded");
+		}
+		stopRecording = false;
+		nextRecorder = recorder;
+	}
+
+	/**
+	 * Finish the recording at the end of the next tick.
+	 */
+	public void stopRecording(){
+		stopRecording = true;
+	}
+
+	/**
+	 * Offer every client that joins from now on to send and receive moves as datagrams.
+	 * @param datagrams The server's datagram socket
+	 */
+	public void setDatagrams(DatagramServer datagrams){
+		this.datagrams = datagrams;
+	}
+
+	/**
+	 * Run only the places this server owns, and hand players going anywhere else to the server
+	 * that runs it.  Must be called before start.
+	 * @param shards Which server runs each place
+	 */
+	public void setShards(ShardMap shards){
+		handoffs.setShards(shards);
+	}
+
+	/**
+	 * @return The entities as they were at the end of the last tick.  Safe to read from any
+	 * thread, and never changes.
+	 */
+	public EntityState getSnapshot(){
+		return snapshot;
+	}
+
+	/**
+	 * Start bringing a newly accepted connection up to date by telling it which baseline we have.
+	 * @param c The newly accepted connection
+	 */
+	public void join(Connection c) throws IOException{
+		if(baseline == null){
+			throw new IllegalStateException("Not serving remote clients");
+		}
+		c.send(new Sync.Offer(((Sync.Baseline)baseline.message).hash));
+		DatagramServer d = datagrams;
+		if(d != null){
+			c.send(new Sync.Udp(d.getPort(), d.register(c)));
+		}
+	}
+
+	/**
+	 * Queue something a client sent for the next tick.  Safe to call from any thread.
+	 * @param c The connection it arrived on
+	 * @param message A Command or a Sync.Request
+	 */
+	public void submit(Connection c, Object message){
+		queued.incrementAndGet();
+		inbound.add(new Inbound(c, message));
+	}
+
+	/**
+	 * Note a client's answer to a ping, timing the round trip as it arrives rather than at the
+	 * next tick.
+	 * @param c The connection it arrived on
+	 * @param pong The answer
+	 */
+	public void ponged(Connection c, Sync.Pong pong){
+		submit(c, new RoundTrip(System.nanoTime() - pong.sent));
+	}
+
+	/**
+	 * Stop sending to a connection.
+	 * @param c The connection that has gone away
+	 * @return false if it was never brought up to date
+	 */
+	public boolean leave(Connection c){
+		interest.remove(c);
+		Iterator<Input> held = inputs.values().iterator();
+		while(held.hasNext()){
+			if(held.next().connection == c){//Its client sends it again if it resumes
+				held.remove();
+			}
+		}
+		joining.remove(c.getId());
+		DatagramServer d = datagrams;
+		if(d != null){
+			d.unregister(c);
+		}
+		sessions.detach(c);
+		handoffs.leave(c);
+		return connections.remove(c.getId()) != null;
+	}
+
+	/**
+	 * Stop sending to a connection that is moving to another game, then carry on with the move.
+	 * Done between ticks, so nothing from this game is sent to it after the move has begun.
+	 * @param c The connection
+	 * @param then The rest of the move, run on this simulation's thread
+	 */
+	public void handOff(Connection c, Runnable then){
+		submit(c, new HandOff(then));
+	}
+
+	/**
+	 * @param token A session token
+	 * @return true if the session is one of this game's, and hasn't expired
+	 */
+	public boolean hasSession(long token){
+		return sessions.get(token) != null;
+	}
+
+	/**
+	 * @return The ids of every connection that is up to date
+	 */
+	public Set<Integer> getConnectionIds(){
+		return connections.keySet();
+	}
+
+	@Override
+	public void run(){
+		long next = System.nanoTime();
+		while(running){
+			next = step(next);
+			long wait = next - System.nanoTime();
+			if(wait > 0){
+				LockSupport.parkNanos(wait);
+			}
+		}
+	}
+
+	/*
+	 * Run a tick that was due at a time, and work out when the next one is due.
+	 */
+	private long step(long next){
+		long start = System.nanoTime();
+		try{
+			tick();
+		}catch(RuntimeException e){
+			//A bad command shouldn't take the whole server down
+			System.err.println("Simulation: " + e);
+			e.printStackTrace();
+			outgoing.clear();
+			arrived.clear();
+			remember();
+			//Don't know how far it got, so record everything in the next snapshot
+			changedAll = true;
+		}
+		metrics.ticks().record(System.nanoTime() - start);
+		next += tickNanos;
+		if(next - System.nanoTime() < -tickNanos){
+			//Fallen more than a tick behind.  Carry on from now rather than running a burst of
+			//ticks to catch up.
+			next = System.nanoTime();
+		}
+		return next;
+	}
+
+	/*
+	 * Apply everything that has arrived, then send out the results.
+	 *
+	 * Commands that only change one place are sent to that place's actor, so different rooms run
+	 * at once.  Anything that can change more than one place waits for the actors to finish and
+	 * then runs on this thread alone.
+	 *
+	 * Clients asking to be brought up to date are served first, before anything this tick is
+	 * applied, so the snapshot the last tick published is exactly the world they join, and every
+	 * result from this tick on goes to them.
+	 */
+	private void tick(){
+		sequence++;
+		sessions.expire();
+		if(nextRecorder != null){
+			begin(nextRecorder);
+			nextRecorder = null;
+		}
+		metrics.inboundDepth(queued.get());
+		Inbound in;
+		while((in = inbound.poll()) != null){
+			queued.decrementAndGet();
+			if(in.message instanceof Sync.Request){
+				sync(in.connection, (Sync.Request)in.message);
+			}else if(in.message instanceof HandOff){
+				leave(in.connection);
+				((HandOff)in.message).then.run();
+			}else if(in.message instanceof InputCommand){
+				input(in.connection, (InputCommand)in.message);
+			}else if(in.message instanceof RoundTrip){
+				UpdateRate rate = rates.get(in.connection.getId());
+				if(rate != null){
+					rate.ponged(((RoundTrip)in.message).nanos);
+				}
+			}else if(!handoffs.handle(in.connection, in.message)){
+				arrived.add(in);
+			}
+		}
+		walk();
+		overrule();
+		coalesce();
+		for(Inbound a : arrived){
+			try{
+				Command command = (Command)a.message;
+				String place = placeOf(command);
+				if(place != null){
+					dispatch(a.connection, command, place);
+				}else{
+					settle();
+					finish(apply(a.connection, command));
+				}
+			}catch(IOException e){
+				System.err.println("Simulation IO: " + e);
+			}
+		}
+		arrived.clear();
+		try{
+			settle();
+		}catch(IOException e){
+			System.err.println("Simulation IO: " + e);
+		}
+		publish();
+		commit();
+		record();
+		flush();
+	}
+
+	/*
+	 * Drop every move that is followed by another move from the same player, on the same
+	 * connection and in the same place, with nothing else from that player in between.  The later
+	 * move carries the higher number, so answering it answers the client's earlier ones too.  A
+	 * player then costs at most one move a tick more than the other commands they send, however
+	 * fast they send moves.
+	 */
+	private void coalesce(){
+		if(arrived.size() < 2){
+			return;
+		}
+		//The last move from each player that nothing else from them has followed yet
+		Map<String, Integer> last = new HashMap<String, Integer>();
+		int dropped = 0;
+		for(int i = 0; i < arrived.size(); i++){
+			Inbound in = arrived.get(i);
+			Command command = (Command)in.message;
+			Integer previous = last.remove(command.getPlayerName());
+			if(command.getType() != CommandType.MOVE || command.getTarget() != Target.SERVER){
+				continue;
+			}
+			if(previous != null){
+				Inbound earlier = arrived.get(previous);
+				String place = ((MoveCommand)command).getPlaceName();
+				if(earlier.connection == in.connection && place != null
+						&& place.equals(((MoveCommand)earlier.message).getPlaceName())){
+					arrived.set(previous, null);
+					dropped++;
+				}
+			}
+			last.put(command.getPlayerName(), i);
+		}
+		if(dropped > 0){
+			arrived.removeAll(Collections.singleton(null));
+			metrics.coalesced(dropped);
+		}
+	}
+
+	/*
+	 * Remember what a player is holding until they say otherwise.
+	 */
+	private void input(Connection c, InputCommand input){
+		metrics.command(CommandType.INPUT).count(true);//The work is in walk, which times it
+		if(input.getHeld() == 0){
+			inputs.remove(input.getPlayerName());
+		}else{
+			inputs.put(input.getPlayerName(), new Input(c, input));
+		}
+	}
+
+	/*
+	 * Make this tick's step for every player holding movement keys, from where they are now.  The
+	 * moves go first, ahead of anything that arrived, as the keys were held before it was sent.
+	 * A player in no place, such as one being handed to another server, stays put.
+	 */
+	private void walk(){
+		walked.clear();
+		if(inputs.isEmpty()){
+			return;
+		}
+		float distance = INPUT_SPEED * tickNanos / TimeUnit.SECONDS.toNanos(1);
+		Map<String, Player> players = new HashMap<String, Player>();
+		Iterator<Player> all = world.getPlayers();
+		while(all.hasNext()){
+			Player p = all.next();
+			players.put(p.getName(), p);
+		}
+		List<Inbound> moves = new ArrayList<Inbound>();
+		Metrics.CommandStats timing = metrics.command(CommandType.INPUT);
+		for(Input held : inputs.values()){
+			long start = System.nanoTime();
+			InputCommand input = held.input;
+			Player player = players.get(input.getPlayerName());
+			Place place = player == null ? null : world.getPlaceOfPlayer(player);
+			if(place == null){
+				continue;
+			}
+			Point3D to = MovementHandler.walk(player, input.getHeld(), input.getViewAngle(), distance);
+			timing.time(System.nanoTime() - start);
+			if(to != null){
+				MoveCommand move = new MoveCommand(Target.SERVER, player.getName(), to, place.getName(), input.getSequence());
+				walked.add(move);
+				moves.add(new Inbound(held.connection, move));
+			}
+		}
+		arrived.addAll(0, moves);
+	}
+
+	/*
+	 * Refuse moves sent by players holding movement keys.  The server walks them at its own
+	 * speed, so a move of their own could take them anywhere, and would overtake their step.
+	 * They are answered like any other refused move, with where the player really is.
+	 */
+	private void overrule(){
+		if(inputs.isEmpty()){
+			return;
+		}
+		Iterator<Inbound> i = arrived.iterator();
+		while(i.hasNext()){
+			Inbound in = i.next();
+			Command command = (Command)in.message;
+			if(command.getType() == CommandType.MOVE && command.getTarget() == Target.SERVER
+					&& !walked.contains(command) && inputs.containsKey(command.getPlayerName())){
+				i.remove();
+				metrics.command(CommandType.MOVE).record(0, false);
+				applied.add(new Applied(in.connection, command, new ArrayList<Command>()));
+			}
+		}
+	}
+
+	/*
+	 * Start a recording from the snapshot the last tick published.
+	 */
+	private void begin(Recorder r){
+		try{
+			r.begin(((Sync.Baseline)baseline.message).world, snapshot);
+			if(recorder != null){
+				recorder.close();
+			}
+			recorder = r;
+		}catch(IOException e){
+			System.err.println("Simulation recorder: " + e);
+		}
+	}
+
+	/*
+	 * Record what this tick accepted, and finish the recording if it has been asked to stop.
+	 */
+	private void record(){
+		if(recorder == null){
+			return;
+		}
+		try{
+			recorder.endTick(snapshot);
+		}catch(IOException e){
+			System.err.println("Simulation recorder: " + e);
+		}
+		if(stopRecording){
+			recorder.close();
+			recorder = null;
+			stopRecording = false;
+		}
+	}
+
+	/*
+	 * Get everything the world accepted this tick onto disk before anyone hears about it, and
+	 * every so often start a snapshot.
+	 */
+	private void commit(){
+		Journal j = journal;
+		if(j == null){
+			return;
+		}
+		try{
+			int commands = j.getPending();
+			long start = System.nanoTime();
+			int bytes = j.commit();
+			if(commands > 0){
+				metrics.journalled(commands, bytes, System.nanoTime() - start);
+			}
+			if(j.snapshotDue()){
+				j.snapshot(snapshot);
+			}
+		}catch(IOException e){
+			//Carry on playing, but say so loudly.  A later commit may still work.
+			System.err.println("Simulation journal: " + e);
+		}
+	}
+
+	/*
+	 * Publish a snapshot of the world as this tick left it, recording again only the places it
+	 * changed.
+	 */
+	private void publish(){
+		if(!changedAll && changed.isEmpty()){
+			return;
+		}
+		snapshot = snapshot.update(world, version, changedAll ? null : changed);
+		metrics.published(snapshot);
+		changed.clear();
+		changedAll = false;
+	}
+
+	/*
+	 * Note which places an accepted command changed, so the next snapshot records them again.
+	 */
+	private void changed(Command command){
+		String place = placeOf(command);
+		if(place != null){
+			changed.add(place);
+		}
+		if(command.getType() == CommandType.EXIT || command.getType() == CommandType.PLAYER_PLACEMENT){
+			//Where the player has gone to
+			Player player = findPlayer(command.getPlayerName());
+			Place now = player == null ? null : world.getPlaceOfPlayer(player);
+			if(now != null){
+				changed.add(now.getName());
+			}
+		}else if(place == null){
+			changedAll = true;
+		}
+	}
+
+	/*
+	 * The one place a command changes, or null if it could change more than one.  An exit
+	 * changes two, but is handed from one to the other so it counts as the one being left.
+	 */
+	private static String placeOf(Command command){
+		if(command.getTarget() != Target.SERVER){
+			return null;
+		}
+		switch(command.getType()){
+		case MOVE:
+			return ((MoveCommand)command).getPlaceName();
+		case EXIT:
+			return ((ExitCommand)command).getPlaceName();
+		case ITEM_PICK_UP:
+			return ((PickUpCommand)command).getPlaceName();
+		case ITEM_DROP:
+			return ((DropCommand)command).getPlaceName();
+		case CONTAINER:
+			return ((ContainerCommand)command).getPlaceName();
+		default:
+			return null;
+		}
+	}
+
+	/*
+	 * Send a room local command to its place's actor.  A player can only be changed by the actor
+	 * of the place they are in, so a command naming some other place is refused.
+	 */
+	private void dispatch(final Connection c, final Command command, final String place){
+		if(command instanceof ExitCommand){
+			places.send(place, new Runnable(){
+				public void run(){
+					takeExit(c, (ExitCommand)command);
+				}
+			});
+			return;
+		}
+		places.send(place, new Runnable(){
+			public void run(){
+				if(world.isInPlace(command.getPlayerName(), place)){
+					applied.add(apply(c, command));
+				}else{
+					metrics.command(command.getType()).record(0, false);
+					applied.add(new Applied(c, command, new ArrayList<Command>()));
+				}
+			}
+		});
+	}
+
+	/*
+	 * Taking an exit is handed between two actors.  The place being left checks the player may go
+	 * and takes them out, then the place being entered finds room for them.  If there's no room
+	 * the player is handed back.
+	 */
+	private void takeExit(final Connection c, final ExitCommand exit){
+		Server.print("[Server] Got: " + exit);
+		long start = System.nanoTime();
+		String to = world.leavePlace(exit);
+		final long leaving = System.nanoTime() - start;
+		if(to == null){
+			metrics.command(CommandType.EXIT).record(leaving, false);
+			applied.add(new Applied(c, exit, new ArrayList<Command>()));
+			return;
+		}
+		if(!handoffs.owns(to)){
+			departing.add(new Applied(c, exit, null));
+			return;
+		}
+		places.send(to, new Runnable(){
+			public void run(){
+				long start = System.nanoTime();
+				List<Command> results = world.enterPlace(exit);
+				metrics.command(CommandType.EXIT).record(leaving + System.nanoTime() - start, !results.isEmpty());
+				if(results.isEmpty()){
+					places.send(exit.getPlaceName(), new Runnable(){
+						public void run(){
+							world.returnToPlace(exit);
+						}
+					});
+				}
+				applied.add(new Applied(c, exit, results));
+			}
+		});
+	}
+
+	/*
+	 * Wait for the actors to finish everything sent to them, then send out what they did.
+	 */
+	private void settle() throws IOException{
+		try{
+			places.await();
+		}catch(InterruptedException e){
+			//Being stopped
+			Thread.currentThread().interrupt();
+			return;
+		}
+		Applied a;
+		while((a = applied.poll()) != null){
+			finish(a);
+		}
+		while((a = departing.poll()) != null){
+			handoffs.transfer(a.connection, findPlayer(a.command.getPlayerName()), (ExitCommand)a.command);
+		}
+	}
+
+	/*
+	 * Finish bringing a connection up to date.  It gets the baseline if it hasn't cached it, then
+	 * the last snapshot published, and from then on every batch.  A client that has been here
+	 * before and asks to resume its session may be sent much less (see resume).  A client in this
+	 * process just shares the snapshot.
+	 */
+	private void sync(Connection c, Sync.Request request){
+		Server.print("adding broadcast id " + c.getId());
+		if(c instanceof LocalConnection){
+			((LocalConnection)c).send(new Sync.State(snapshot, sequence - 1, 0));
+			connections.put(c.getId(), c);
+			return;
+		}
+		if(request.session != 0 && sessions.isReplaying()){
+			resume(c, request);
+			return;
+		}
+		sendState(c, request.needBaseline, sessions.open(c));
+	}
+
+	/*
+	 * Send a connection the last snapshot published, and hold any batches that are ready before
+	 * it has gone.  Encoding the snapshot is left to the joiner thread.
+	 */
+	private void sendState(final Connection c, final boolean needBaseline, Sessions.Session session){
+		final Joining j = new Joining(c);
+		joining.put(c.getId(), j);
+		connections.put(c.getId(), c);
+		final Sync.State state = new Sync.State(snapshot, sequence - 1, session.token);
+		joiner.execute(new Runnable(){
+			public void run(){
+				try{
+					j.start(needBaseline ? baseline : null, Protocol.encoded(state));
+				}catch(IOException e){
+					System.err.println("Simulation join: " + e);
+					c.close();
+				}finally{
+					joining.remove(c.getId(), j);
+				}
+			}
+		});
+	}
+
+	/*
+	 * Hand a session to the client that had it, on its new connection.  If the old connection is
+	 * still here the client has noticed it has gone before we have, so it is dropped.  The client
+	 * keeps its player either way.  If every tick since the last one it heard about is still kept
+	 * it is sent just what it missed from them, otherwise it is sent the snapshot again.  A session
+	 * left without a connection too long is gone, and the client joins as someone new.
+	 */
+	private void resume(Connection c, Sync.Request request){
+		Sessions.Session s = sessions.get(request.session);
+		if(s == null){
+			metrics.resumed(false, 0);
+			sendState(c, false, sessions.open(c));
+			return;
+		}
+		Connection old = sessions.attach(s, c);
+		if(old != null && old != c){
+			leave(old);
+			old.close();
+		}
+
+		Player player = s.getPlayer() == null ? null : findPlayer(s.getPlayer());
+		Place place = player == null ? null : world.getPlaceOfPlayer(player);
+		if(place != null){
+			interest.bind(c, player, place);
+		}
+		List<Outgoing> missed = sessions.missed(s, request.since, sequence, AUDIENCE);
+		if(missed == null){
+			metrics.resumed(false, 0);
+			sendState(c, false, s);
+			return;
+		}
+		List<Protocol.Encoded> parts = new ArrayList<Protocol.Encoded>();
+		for(Outgoing o : missed){
+			parts.add(o.encoded(metrics.encoding()));
+		}
+		connections.put(c.getId(), c);
+		long bytes = 0;
+		try{
+			if(!parts.isEmpty()){
+				Protocol.Encoded batch = Protocol.batch(parts, sequence - 1);
+				bytes = batch.payload.length;
+				c.send(batch);
+			}
+			c.send(Protocol.encoded(new Sync.Resumed(sequence - 1)));
+		}catch(IOException e){
+			System.err.println("Simulation resume: " + e);
+			c.close();
+			return;
+		}
+		metrics.resumed(true, bytes);
+	}
+
+	private Applied apply(Connection c, Command command){
+		Server.print("[Server] Got: " + command);
+		if(command.getType() == CommandType.PLAYER_PLACEMENT && !handoffs.ownsStart()){
+			//Players start in a place another server runs
+			metrics.command(command.getType()).record(0, false);
+			return new Applied(c, command, new ArrayList<Command>());
+		}
+		long start = System.nanoTime();
+		List<Command> results = world.applyCommand(command);
+		metrics.command(command.getType()).record(System.nanoTime() - start, !results.isEmpty());
+		return new Applied(c, command, results);
+	}
+
+	/*
+	 * Queue the results of a command to go out at the end of the tick.  Only ever run on this
+	 * thread with the actors idle, so it can look at the whole world.
+	 */
+	private void finish(Applied a) throws IOException{
+		Connection c = a.connection;
+		List<Command> results = a.results;
+		if(!results.isEmpty()){
+			version++;
+			changed(a.command);
+			if(journal != null){
+				long start = System.nanoTime();
+				journal.append(version, a.command);
+				metrics.journalled(0, 0, System.nanoTime() - start);
+			}
+			if(recorder != null){
+				recorder.record(a.command);
+			}
+		}else if(a.command instanceof MoveCommand && !walked.contains(a.command)){
+			correct(c, (MoveCommand)a.command);
+		}
+		for(Command result : results){
+			Server.print("[Server] Returning: " + result);
+			outgoing.add(new Outgoing(result, InterestManager.scopeOf(result), null));
+			updateInterest(c, result);
+		}
+	}
+
+	/*
+	 * The client that sent a refused move has already moved its player, so tell it where the
+	 * player really is.  The move's number tells it which of its later moves to replay.
+	 */
+	private void correct(Connection c, MoveCommand move){
+		Player player = findPlayer(move.getPlayerName());
+		if(player == null){
+			return;
+		}
+		Place place = world.getPlaceOfPlayer(player);
+		if(place == null){
+			return;
+		}
+		outgoing.add(new Outgoing(new MoveCommand(Target.CLIENT, player.getName(), player.getPosition(),
+				place.getName(), move.getSequence()), null, c));
+	}
+
+	/*
+	 * Keep subscriptions in step with where players are.  Placing a player subscribes the
+	 * connection that placed it, and taking an exit moves the subscription to the other place.
+	 * @param sender The connection the command came from
+	 * @param cmd A result returned by the world
+	 */
+	private void updateInterest(Connection sender, Command cmd) throws IOException{
+		Connection c;
+		if(cmd.isResult(CommandType.PLAYER_PLACEMENT)){
+			c = sender;
+		}else if(cmd.isResult(CommandType.EXIT)){
+			c = interest.getConnection(cmd.getPlayerName());
+		}else{
+			return;
+		}
+		if(c == null){
+			return;
+		}
+
+		Player player = findPlayer(cmd.getPlayerName());
+		if(player == null){
+			return;
+		}
+		Place place = world.getPlaceOfPlayer(player);
+		if(place == null){
+			return;
+		}
+		if(interest.getPlayer(c) == null){
+			interest.bind(c, player, place);
+		}else{
+			interest.subscribe(c, place);
+		}
+		sessions.moved(c, player.getName(), place.getName(), sequence);
+
+		//Moves in the new place were not being sent to this client, so bring it up to date
+		Iterator<Player> occupants = place.getPlayers();
+		while(occupants.hasNext()){
+			Player p = occupants.next();
+			outgoing.add(new Outgoing(new MoveCommand(Target.CLIENT, p.getName(), p.getPosition(),
+					place.getName()), null, c));
+		}
+	}
+
+	private Player findPlayer(String name){
+		Iterator<Player> players = world.getPlayers();
+		while(players.hasNext()){
+			Player p = players.next();
+			if(p.getName().equals(name)){
+				return p;
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Send every connection one batch of the results it can see from this tick.  Who can see a
+	 * room local result is decided by where clients are at the end of the tick.  A client that
+	 * changed place this tick also gets the positions of everyone in its new place, so it never
+	 * misses anything it needs.
+	 *
+	 * Clients that can see the same place get the same batch, so it is only built once.  A client
+	 * in this process gets the commands themselves, and nothing is encoded for it.  A client that
+	 * takes moves as datagrams gets the moves it can see that way, and the rest on its stream.
+	 */
+	private void flush(){
+		boolean holding = pace();
+		if(outgoing.isEmpty() && !holding){
+			remember();
+			return;
+		}
+		Set<Connection> individual = new HashSet<Connection>();
+		for(Outgoing o : outgoing){
+			if(o.only != null){
+				individual.add(o.only);
+			}
+		}
+
+		DatagramServer d = datagrams;
+		Map<String, Protocol.Encoded> batches = new HashMap<String, Protocol.Encoded>();
+		Map<String, Protocol.Encoded> streamBatches = new HashMap<String, Protocol.Encoded>();
+		Map<String, List<Protocol.Encoded>> moves = new HashMap<String, List<Protocol.Encoded>>();
+		for(Connection c : connections.values()){
+			String place = interest.getPlace(c);
+			//Clients taking moves as datagrams get them that way once they are up to date
+			boolean split = d != null && d.canSend(c) && !joining.containsKey(c.getId());
+			UpdateRate rate = joining.containsKey(c.getId()) ? null : rates.get(c.getId());
+			if(rate != null){
+				rate.in(place);
+				if(rate.isThrottled()){
+					throttled(c, place, split ? d : null, rate);
+					continue;
+				}
+			}
+			if(split && !moves.containsKey(place)){
+				moves.put(place, movesFor(place));
+			}
+			Map<String, Protocol.Encoded> cache = split ? streamBatches : batches;
+			Object batch;
+			if(c instanceof LocalConnection){
+				batch = localBatchFor(place, c);
+			}else if(individual.contains(c)){
+				batch = batchFor(place, c, split);
+			}else if(cache.containsKey(place)){
+				batch = cache.get(place);
+			}else{
+				Protocol.Encoded shared = batchFor(place, null, split);
+				cache.put(place, shared);
+				batch = shared;
+			}
+			if(rate != null){
+				//Only while the budget covers everything, distant moves and all
+				int size = (split ? size(moves.get(place)) : 0)
+						+ (batch == null ? 0 : ((Protocol.Encoded)batch).payload.length);
+				if(!rate.covers(size)){
+					throttled(c, place, split ? d : null, rate);
+					continue;
+				}
+				rate.spent(size);
+			}
+			if(split){
+				d.send(c, moves.get(place));
+			}
+			if(batch == null){
+				continue;
+			}
+			try{
+				Joining j = joining.get(c.getId());
+				if(j != null){
+					j.send(batch);
+				}else{
+					c.send(batch);
+				}
+			}catch(IOException e){
+				System.err.println("Simulation send: " + e);
+			}
+		}
+		remember();
+		outgoing.clear();
+	}
+
+	/*
+	 * Keep track of how much each client over the network can be sent.  Each tick tops up what
+	 * they may be sent, and once a second each is pinged and its connection sampled.  Only
+	 * clients whose connections the metrics keep figures for are paced, as there is no telling
+	 * how the rest are keeping up.  Returns true if any client has distant moves held back.
+	 */
+	private boolean pace(){
+		long now = System.nanoTime();
+		boolean sample = now - lastPing >= TimeUnit.SECONDS.toNanos(1);
+		if(sample){
+			lastPing = now;
+			rates.keySet().retainAll(connections.keySet());
+		}
+		boolean holding = false;
+		for(Connection c : connections.values()){
+			Metrics.ConnectionStats stats = metrics.getConnection(c.getId());
+			if(stats == null || c instanceof LocalConnection || joining.containsKey(c.getId())){
+				continue;
+			}
+			UpdateRate rate = rates.get(c.getId());
+			if(rate == null){
+				rate = new UpdateRate(UpdateRate.BUDGET, tickRate);
+				rates.put(c.getId(), rate);
+			}
+			rate.tick();
+			if(sample){
+				rate.sample(stats.getBytesOut(), stats.getBacklog(), now);
+				stats.paced(rate.getRtt(), rate.getInterval());
+				try{
+					c.send(Protocol.encoded(new Sync.Ping(now)));
+				}catch(IOException e){
+					System.err.println("Simulation ping: " + e);
+				}
+			}
+			holding |= rate.isHolding();
+		}
+		return holding;
+	}
+
+	/*
+	 * Send a client that isn't keeping up its own batch.  It gets everything as usual except the
+	 * moves of players far from its own, which are held back and sent when the rate says.
+	 * @param datagrams Where its moves go, or null if they go on the stream
+	 */
+	private void throttled(Connection c, String place, DatagramServer datagrams, UpdateRate rate){
+		Player player = interest.getPlayer(c);
+		List<Protocol.Encoded> parts = new ArrayList<Protocol.Encoded>();
+		List<Protocol.Encoded> moves = new ArrayList<Protocol.Encoded>();
+		for(Outgoing o : outgoing){
+			boolean wanted = o.only == null ? (o.scope == null || o.scope.equals(place)) : o.only == c;
+			if(!wanted){
+				continue;
+			}
+			Protocol.Encoded encoded = o.encoded(metrics.encoding());
+			if(!o.isMove()){
+				parts.add(encoded);
+			}else if(isNear(player, (MoveCommand)o.command)){
+				(datagrams != null ? moves : parts).add(encoded);
+			}else{
+				rate.hold(o.command.getPlayerName(), encoded);
+			}
+		}
+		(datagrams != null ? moves : parts).addAll(rate.due(sequence));
+		if(!moves.isEmpty()){
+			datagrams.send(c, moves);
+			rate.spent(size(moves));
+		}
+		if(parts.isEmpty()){
+			return;
+		}
+		Protocol.Encoded batch = Protocol.batch(parts, sequence);
+		rate.spent(batch.payload.length);
+		try{
+			c.send(batch);
+		}catch(IOException e){
+			System.err.println("Simulation send: " + e);
+		}
+	}
+
+	/*
+	 * Whether a move is near enough a client's player that it can't be held back.
+	 */
+	private static boolean isNear(Player player, MoveCommand move){
+		if(player == null){
+			return false;
+		}
+		if(player.getName().equals(move.getPlayerName())){
+			return true;
+		}
+		Point3D at = player.getPosition();
+		return at == null || move.getPoint() == null
+				|| at.distanceTo(move.getPoint()).mag <= UpdateRate.NEAR_DISTANCE;
+	}
+
+	private static int size(List<Protocol.Encoded> parts){
+		int size = 0;
+		for(Protocol.Encoded part : parts){
+			size += part.payload.length;
+		}
+		return size;
+	}
+
+	/*
+	 * Keep what this tick sent, for clients that lose their connection before it arrives.
+	 */
+	private void remember(){
+		if(sessions.remembers(sequence)){
+			return;
+		}
+		if(outgoing.isEmpty()){
+			sessions.remember(sequence, Collections.<Outgoing>emptyList());
+			return;
+		}
+		for(Outgoing o : outgoing){
+			if(o.only != null){
+				o.session = sessions.of(o.only);
+			}
+		}
+		sessions.remember(sequence, new ArrayList<Outgoing>(outgoing));
+	}
+
+	/*
+	 * Build the batch for a client that can see a place.  Returns null if there's nothing in it.
+	 * @param streamOnly true to leave out the moves it gets as datagrams
+	 */
+	private Protocol.Encoded batchFor(String place, Connection c, boolean streamOnly){
+		List<Protocol.Encoded> parts = new ArrayList<Protocol.Encoded>();
+		for(Outgoing o : outgoing){
+			boolean wanted = o.only == null ? (o.scope == null || o.scope.equals(place)) : o.only == c;
+			if(wanted && !(streamOnly && o.isMove())){
+				parts.add(o.encoded(metrics.encoding()));
+			}
+		}
+		if(parts.isEmpty()){
+			return null;
+		}
+		return Protocol.batch(parts, sequence);
+	}
+
+	/*
+	 * The moves a client that can see a place gets as datagrams.  Only moves everyone in the
+	 * place sees go this way.  Corrections, and the positions sent on changing place, must arrive
+	 * so they stay on the stream.
+	 */
+	private List<Protocol.Encoded> movesFor(String place){
+		List<Protocol.Encoded> parts = new ArrayList<Protocol.Encoded>();
+		for(Outgoing o : outgoing){
+			if(o.isMove() && (o.scope == null || o.scope.equals(place))){
+				parts.add(o.encoded(metrics.encoding()));
+			}
+		}
+		return parts;
+	}
+
+	/*
+	 * Build the batch for a client in this process, which takes the commands as they are.
+	 */
+	private Protocol.Batch localBatchFor(String place, Connection c){
+		List<Object> parts = new ArrayList<Object>();
+		for(Outgoing o : outgoing){
+			if(o.only == null ? (o.scope == null || o.scope.equals(place)) : o.only == c){
+				parts.add(o.command);
+			}
+		}
+		return parts.isEmpty() ? null : new Protocol.Batch(parts, sequence);
+	}
+
+	/**
+	 * The movement keys a player is holding, and the connection that said so.
+	 */
+	private static class Input{
+		final Connection connection;
+		final InputCommand input;
+
+		Input(Connection connection, InputCommand input){
+			this.connection = connection;
+			this.input = input;
+		}
+	}
+
+	/**
+	 * The round trip time of a ping, measured when its answer arrived.
+	 */
+	private static class RoundTrip{
+		final long nanos;
+
+		RoundTrip(long nanos){
+			this.nanos = nanos;
+		}
+	}
+
+	/**
+	 * A connection leaving for another game.
+	 */
+	private static class HandOff{
+		final Runnable then;
+
+		HandOff(Runnable then){
+			this.then = then;
+		}
+	}
+
+	/**
+	 * Something received from a client, waiting for the next tick.
+	 */
+	private static class Inbound{
+		final Connection connection;
+		final Object message;
+
+		Inbound(Connection connection, Object message){
+			this.connection = connection;
+			this.message = message;
+		}
+	}
+
+	/**
+	 * A client waiting for its snapshot.  Anything sent to it before then is held, and sent in
+	 * order straight after.
+	 */
+	private static class Joining{
+		final Connection connection;
+		private List<Object> held = new ArrayList<Object>();
+
+		Joining(Connection connection){
+			this.connection = connection;
+		}
+
+		synchronized void send(Object o) throws IOException{
+			if(held != null){
+				held.add(o);
+			}else{
+				connection.send(o);
+			}
+		}
+
+		/*
+		 * Send the baseline, if it's wanted, and the state, then everything held.
+		 */
+		synchronized void start(Object baseline, Object state) throws IOException{
+			if(baseline != null){
+				connection.send(baseline);
+			}
+			connection.send(state);
+			for(Object o : held){
+				connection.send(o);
+			}
+			held = null;
+		}
+	}
+
+	/**
+	 * A command that has been applied, and what the world made of it.
+	 */
+	private static class Applied{
+		final Connection connection;
+		final Command command;
+		final List<Command> results;
+
+		Applied(Connection connection, Command command, List<Command> results){
+			this.connection = connection;
+			this.command = command;
+			this.results = results;
+		}
+	}
+
+	/**
+	 * A result waiting to go out at the end of the tick.  It is encoded at most once however many
+	 * batches it ends up in.
+	 */
+	private static class Outgoing{
+		final Command command;
+		final String scope;//Place it is local to, or null if everyone sees it
+		final Connection only;//The one connection it is for, or null
+		Sessions.Session session;//The session of the one connection it is for, once it has been sent
+		private Protocol.Encoded encoded;
+
+		Outgoing(Command command, String scope, Connection only){
+			this.command = command;
+			this.scope = scope;
+			this.only = only;
+		}
+
+		/*
+		 * A move everyone who can see its place gets, which may go as a datagram.
+		 */
+		boolean isMove(){
+			return only == null && command.isResult(CommandType.MOVE);
+		}
+
+		Protocol.Encoded encoded(Histogram timing){
+			if(encoded == null){
+				long start = System.nanoTime();
+				try{
+					encoded = Protocol.encoded(command);
+					timing.record(System.nanoTime() - start);
+				}catch(IOException e){
+					throw new RuntimeException(e);
+				}
+			}
+			return encoded;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package nw;
+
+import java.io.*;
+
+/**
+ * A client's link to the server over a pair of streams, such as a socket's.  Every message is
+ * sent as a frame in the wire format.
+ */
+public class StreamChannel implements ClientChannel {
+	private final BufferedInputStream bis;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+
+	/**
+	 * @param inStream Stream from the server
+	 * @param outStream Stream to the server
+	 */
+	public StreamChannel(InputStream inStream, OutputStream outStream){
+		//Buffer the input so we can tell whether a frame is waiting without blocking
+		this.bis = new BufferedInputStream(inStream);
+		this.in = new DataInputStream(bis);
+		this.out = new DataOutputStream(new BufferedOutputStream(outStream));
+	}
+
+	@Override
+	public boolean ready() throws IOException{
+		return bis.available() != 0;
+	}
+
+	@Override
+	public Object read() throws IOException, ClassNotFoundException{
+		return Protocol.readFrame(in);
+	}
+
+	@Override
+	public void write(Object o) throws IOException{
+		Protocol.writePayload(out, Protocol.encoded(o).payload);
+	}
+
+	@Override
+	public void flush() throws IOException{
+		out.flush();
+	}
+
+	@Override
+	public void close(){
+		try{
+			out.close();
+			in.close();
+		}catch(IOException e){System.err.println("Client close" + e);}
+	}
+}
@@ -0,0 +1,94 @@
+package nw;
+
+import java.io.*;
+
+/**
+ * A connection over a plain output stream, used by the thread-per-connection engines and by the
+ * single player pipes.  Messages are queued and written by a writer thread of their own, so a
+ * client that stops reading never holds up whoever is broadcasting.
+ */
+public class StreamConnection implements Connection {
+	private final int id;
+	private final OutputStream rawOut;
+	private final DataOutputStream out;
+	private final OutboundQueue queue = new OutboundQueue();
+	private final Metrics.ConnectionStats stats;
+	private final Thread writer;
+	private volatile boolean closed = false;
+
+	public StreamConnection(int id, OutputStream outStream){
+		this.id = id;
+		this.rawOut = outStream;
+		this.out = new DataOutputStream(new BufferedOutputStream(outStream));
+		this.stats = Server.getMetrics().connect(id, queue);
+		this.writer = new Thread("Writer-" + id){
+			public void run(){
+				writeLoop();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public int getId(){
+		return id;
+	}
+
+	/**
+	 * @return What has been sent and received on this connection
+	 */
+	public Metrics.ConnectionStats getStats(){
+		return stats;
+	}
+
+	@Override
+	public void send(Object o) throws IOException{
+		if(closed){
+			return;
+		}
+		if(!queue.offer(Protocol.encoded(o))){
+			System.err.println("Disconnecting slow client " + id);
+			close();
+		}
+	}
+
+	/*
+	 * Write messages as they are queued, flushing once whenever the queue runs dry.
+	 */
+	private void writeLoop(){
+		try{
+			while(!closed){
+				Protocol.Encoded next = queue.take();
+				while(next != null){
+					Protocol.writePayload(out, next.payload);
+					stats.wrote(Protocol.HEADER_SIZE + next.payload.length);
+					stats.frameOut();
+					next = queue.poll();
+				}
+				out.flush();
+			}
+		}catch(InterruptedException e){
+			//Closed while waiting for something to write
+		}catch(IOException e){
+			if(!closed){
+				System.err.println("Server write: " + e);
+				close();
+			}
+		}
+	}
+
+	@Override
+	public void close(){
+		if(closed){
+			return;
+		}
+		closed = true;
+		Server.leave(this);
+		writer.interrupt();
+		try{
+			//Close the raw stream, flushing the buffer could block on a stalled client
+			rawOut.close();
+		}catch(IOException e){System.err.println("Server close " + e);}
+	}
+}
@@ -0,0 +1,175 @@
+package nw;
+
+import game.world.logic.EntityState;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Messages used to bring a joining client up to date.
+ *
+ * The world is split in two.  The baseline is the world exactly as the server loaded it: all the
+ * static geometry, and every item where it started.  It never changes while the server runs, so
+ * clients cache it by content hash and only download it once.  On top of that the client gets an
+ * EntityState with the players, items and locks as they are now, and after that only the results
+ * of commands.
+ *
+ * The exchange is:
+ *   server: Offer(hash)
+ *   client: Request(needBaseline)
+ *   server: Baseline (only if asked for), then State
+ *
+ * A server taking moves as datagrams also sends Udp straight after the Offer.
+ *
+ * The State names a session, and every batch after it carries the server tick it came from.  A
+ * client that loses its connection can reconnect and answer the Offer with a Request naming its
+ * session and the last tick it heard about.  If the server still has every tick since (see
+ * ReplayBuffer) it sends just what the client missed, then Resumed, and the client carries on with
+ * the world and player it had.  Otherwise it sends the State again.
+ *
+ * Once it is up to date the server pings a client about once a second, and the client answers
+ * with the time the ping carried, so the server can tell how long a round trip takes (see
+ * UpdateRate).
+ */
+public class Sync {
+
+	/**
+	 * Sent by the server when a client connects, saying which baseline it is running.
+	 */
+	public static class Offer implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final String hash;
+
+		public Offer(String hash){
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * Sent by a server that takes moves as datagrams (see Datagrams), saying where to send them
+	 * and the token to put on them.  A client that can't use them just sends moves on the stream.
+	 */
+	public static class Udp implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final int port;
+		public final long token;
+
+		public Udp(int port, long token){
+			this.port = port;
+			this.token = token;
+		}
+	}
+
+	/**
+	 * Sent by the client in reply to an Offer.
+	 */
+	public static class Request implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final boolean needBaseline;
+		public final long session;//Session to resume, or 0 to join afresh
+		public final long since;//Last tick the resuming client heard about
+
+		public Request(boolean needBaseline){
+			this(needBaseline, 0, 0);
+		}
+
+		/**
+		 * Ask to resume a session after reconnecting.  The client must still have its baseline.
+		 * @param session The session the last State named
+		 * @param since The last tick the client heard about
+		 */
+		public Request(long session, long since){
+			this(false, session, since);
+		}
+
+		private Request(boolean needBaseline, long session, long since){
+			this.needBaseline = needBaseline;
+			this.session = session;
+			this.since = since;
+		}
+	}
+
+	/**
+	 * The serialized world as it was loaded, and the hash it is cached under.
+	 */
+	public static class Baseline implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final String hash;
+		public final byte[] world;
+
+		public Baseline(byte[] world){
+			this.hash = hash(world);
+			this.world = world;
+		}
+	}
+
+	/**
+	 * The entities as they are when the client joins.  Every command result sent after this
+	 * applies on top of it.
+	 */
+	public static class State implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final EntityState entities;
+		public final long sequence;//The last tick included in it
+		public final long session;//Token to resume with, or 0 if the client can't
+
+		public State(EntityState entities, long sequence, long session){
+			this.entities = entities;
+			this.sequence = sequence;
+			this.session = session;
+		}
+	}
+
+	/**
+	 * Sent once a resuming client has been sent everything it missed.
+	 */
+	public static class Resumed implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final long sequence;//The last tick it has now heard about
+
+		public Resumed(long sequence){
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * Sent by the server to time a round trip to the client.
+	 */
+	public static class Ping implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final long sent;//The server's System.nanoTime() when it sent it
+
+		public Ping(long sent){
+			this.sent = sent;
+		}
+	}
+
+	/**
+	 * The client's answer to a Ping, sent as soon as it arrives.
+	 */
+	public static class Pong implements Serializable{
+		private static final long serialVersionUID = 1L;
+		public final long sent;//What the ping carried
+
+		public Pong(long sent){
+			this.sent = sent;
+		}
+	}
+
+	/**
+	 * @param bytes Data to hash
+	 * @return The SHA-1 of the data as a hex string
+	 */
+	public static String hash(byte[] bytes){
+		try{
+			StringBuilder hex = new StringBuilder();
+			for(byte b : MessageDigest.getInstance("SHA-1").digest(bytes)){
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}catch(NoSuchAlgorithmException e){
+			throw new RuntimeException(e);
+		}
+	}
+}
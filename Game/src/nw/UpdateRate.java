@@ -0,0 +1,211 @@
+package nw;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How much one client is sent, worked out from how well its connection keeps up.
+ *
+ * A client is always sent everything about its own player, everything that isn't a move, and the
+ * moves of players within -Dnw.nearDistance of its player.  Moves of players further away are
+ * the detail that can wait.  While the connection keeps up they go every tick like everything
+ * else.  Once it falls behind they are held back, only the latest for each player, and sent every
+ * interval ticks.
+ *
+ * Once a second the simulation samples the connection: how many frames are waiting in its
+ * outbound queue, how many bytes it has actually written since the last sample, and the round
+ * trip time of the last ping (see Sync.Ping).  If the queue is backing up, the round trip has
+ * grown well past the best seen, or it wrote more than its budget, the interval doubles, up to
+ * -Dnw.maxInterval ticks.  While the queue is empty and it is well inside its budget, the
+ * interval comes down again a tick at a time.
+ *
+ * Each client may be sent -Dnw.clientBudget bytes a second.  Everything sent to it is counted
+ * against a bucket that fills at that rate and holds a second's worth.  Held moves are only let
+ * go as far as the bucket covers them, the longest held first, and the rest wait for it to fill
+ * again.  So distant moves never take a client over its budget.  What it can't do without, its
+ * own surroundings and everything that isn't a move, is always sent, and can on its own take a
+ * client over budget.  Such a client gets distant moves only once it is back under.  As a client is
+ * only ever holding one move per player, a slow one never builds up a backlog.
+ *
+ * Not thread safe, it is only used by the simulation thread.
+ */
+public class UpdateRate {
+
+	public static final int BUDGET = Integer.getInteger("nw.clientBudget", 32 * 1024);
+	public static final float NEAR_DISTANCE = Float.parseFloat(System.getProperty("nw.nearDistance", "250"));
+	public static final int MAX_INTERVAL = Integer.getInteger("nw.maxInterval", 8);
+
+	//Frames waiting in a connection's queue before it counts as behind
+	static final int BACKLOG = 4;
+
+	//How far the round trip can grow past the best seen before the connection counts as behind
+	private static final long RTT_SLACK = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private final int budget;
+	private final double refill;//Bytes added to the bucket each tick
+	private double tokens;
+
+	private int interval = 1;
+	private long rtt = -1;
+	private long minRtt = Long.MAX_VALUE;
+	private long throughput = 0;//Bytes a second written at the last sample
+	private long lastWritten = 0;
+	private long lastSample = 0;
+
+	//Distant moves waiting to be sent, the latest for each player
+	private final Map<String, Protocol.Encoded> held = new LinkedHashMap<String, Protocol.Encoded>();
+	private String place;
+
+	/**
+	 * @param budget Bytes a second the client may be sent
+	 * @param tickRate Ticks per second
+	 */
+	public UpdateRate(int budget, int tickRate){
+		if(budget < 1 || tickRate < 1){
+			throw new IllegalArgumentException("Budget and tick rate must be at least 1");
+		}
+		this.budget = budget;
+		this.refill = budget / (double)tickRate;
+		this.tokens = budget;
+	}
+
+	/**
+	 * Top up what the client may be sent, once a tick.
+	 */
+	public void tick(){
+		tokens = Math.min(budget, tokens + refill);
+	}
+
+	/**
+	 * @param bytes What has just been sent to the client
+	 */
+	public void spent(int bytes){
+		tokens -= bytes;
+	}
+
+	/**
+	 * @param bytes What would be sent to the client
+	 * @return true if it is within the budget left
+	 */
+	public boolean covers(int bytes){
+		return bytes <= tokens;
+	}
+
+	/**
+	 * @return true if distant moves have to be held back this tick, rather than sent with
+	 *         everything else
+	 */
+	public boolean isThrottled(){
+		return interval > 1 || tokens <= 0 || !held.isEmpty();
+	}
+
+	/**
+	 * @return true if there are distant moves waiting to be sent
+	 */
+	public boolean isHolding(){
+		return !held.isEmpty();
+	}
+
+	/**
+	 * Note which place the client can see.  Moves held back from another place are thrown away,
+	 * as the client no longer cares where those players are.
+	 * @param place The place, or null if it can't see one
+	 */
+	public void in(String place){
+		if(place == null ? this.place != null : !place.equals(this.place)){
+			held.clear();
+		}
+		this.place = place;
+	}
+
+	/**
+	 * Hold back a distant move, replacing any held for the same player.  A player keeps their
+	 * place in line, so one who never stops moving isn't put off for ever.
+	 * @param player The player who moved
+	 * @param move The encoded move
+	 */
+	public void hold(String player, Protocol.Encoded move){
+		held.put(player, move);
+	}
+
+	/**
+	 * Let go of the held moves the budget covers, if they are due to go this tick.  They are not
+	 * counted against the budget until they are spent.
+	 * @param sequence The tick being sent
+	 * @return The moves to send now, the longest held first
+	 */
+	public List<Protocol.Encoded> due(long sequence){
+		if(held.isEmpty() || sequence % interval != 0 || tokens <= 0){
+			return Collections.emptyList();
+		}
+		List<Protocol.Encoded> moves = new ArrayList<Protocol.Encoded>();
+		double left = tokens;
+		Iterator<Protocol.Encoded> i = held.values().iterator();
+		while(i.hasNext()){
+			Protocol.Encoded move = i.next();
+			//A full bucket always lets one go, so a move bigger than the budget can't get stuck
+			if(move.payload.length > left && !(moves.isEmpty() && tokens >= budget)){
+				break;
+			}
+			left -= move.payload.length;
+			moves.add(move);
+			i.remove();
+		}
+		return moves;
+	}
+
+	/**
+	 * Note the round trip time of a ping.
+	 * @param nanos Time from sending the ping to the answer arriving
+	 */
+	public void ponged(long nanos){
+		rtt = nanos;
+		minRtt = Math.min(minRtt, nanos);
+	}
+
+	/**
+	 * See how well the connection is keeping up, and change the interval to suit.
+	 * @param written Bytes written to the client so far
+	 * @param backlog Frames waiting in its outbound queue
+	 * @param now The time, from System.nanoTime()
+	 */
+	public void sample(long written, int backlog, long now){
+		if(lastSample != 0 && now > lastSample){
+			throughput = (written - lastWritten) * TimeUnit.SECONDS.toNanos(1) / (now - lastSample);
+		}
+		lastWritten = written;
+		lastSample = now;
+		boolean slow = rtt >= 0 && rtt > minRtt * 2 + RTT_SLACK;
+		if(backlog > BACKLOG || slow || throughput > budget){
+			interval = Math.min(MAX_INTERVAL, interval * 2);
+		}else if(backlog == 0 && throughput < budget / 2 && interval > 1){
+			interval--;
+		}
+	}
+
+	/**
+	 * @return Ticks between sends of distant moves
+	 */
+	public int getInterval(){
+		return interval;
+	}
+
+	/**
+	 * @return The last round trip time in nanoseconds, or -1 if there hasn't been one
+	 */
+	public long getRtt(){
+		return rtt;
+	}
+
+	/**
+	 * @return Bytes a second written to the client at the last sample
+	 */
+	public long getThroughput(){
+		return throughput;
+	}
+}
@@ -0,0 +1,64 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.reflect.Field;
+
+import nw.BaselineCache;
+import nw.Sync;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the client's cache of world baselines.
+ */
+public class BaselineCacheTests {
+
+	private File dir;
+
+	@Before
+	public void makeDir() throws Exception{
+		dir = File.createTempFile("baselines", "");
+		dir.delete();
+	}
+
+	@After
+	public void deleteDir(){
+		File[] files = dir.listFiles();
+		if(files != null){
+			for(File f : files){
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void storeTest(){
+		BaselineCache cache = new BaselineCache(dir);
+		Sync.Baseline baseline = new Sync.Baseline(new byte[]{1, 2, 3});
+		assertFalse(cache.contains(baseline.hash));
+		cache.store(baseline);
+		assertTrue(cache.contains(baseline.hash));
+		assertArrayEquals(baseline.world, cache.load(baseline.hash));
+	}
+
+	/**
+	 * The hash names a file, so one a server made up to point somewhere else is never used.
+	 */
+	@Test
+	public void pathTest() throws Exception{
+		BaselineCache cache = new BaselineCache(dir);
+		Sync.Baseline baseline = new Sync.Baseline(new byte[]{1, 2, 3});
+		Field hash = Sync.Baseline.class.getField("hash");
+		hash.setAccessible(true);
+		hash.set(baseline, "../escaped");
+		cache.store(baseline);
+		assertFalse(new File(dir.getParentFile(), "escaped").exists());
+		assertFalse(cache.contains("../escaped"));
+		assertNull(cache.load("../escaped"));
+	}
+}
@@ -0,0 +1,74 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import game.world.commands.Command.Target;
+import game.world.commands.MoveCommand;
+import game.world.dimensions.Point3D;
+import nw.Datagrams;
+import nw.Protocol;
+
+import org.junit.Test;
+
+/**
+ * Tests the packing of moves into datagrams.
+ */
+public class DatagramsTests {
+
+	private List<Protocol.Encoded> moves(int count) throws Exception{
+		List<Protocol.Encoded> moves = new ArrayList<Protocol.Encoded>();
+		for(int i = 0; i < count; i++){
+			moves.add(Protocol.encoded(new MoveCommand(Target.CLIENT, "Bot" + i, new Point3D(i, 0, -i), "Room1", i + 1)));
+		}
+		return moves;
+	}
+
+	/**
+	 * Moves should come out of the datagrams they are packed into in order.
+	 */
+	@Test
+	public void roundTripTest() throws Exception{
+		List<Protocol.Encoded> moves = moves(3);
+		List<byte[]> datagrams = Datagrams.toClient(moves);
+		assertEquals(1, datagrams.size());
+		List<Object> received = Datagrams.fromServer(datagrams.get(0), datagrams.get(0).length);
+		assertEquals(3, received.size());
+		for(int i = 0; i < 3; i++){
+			assertEquals(moves.get(i).message, received.get(i));
+		}
+		assertTrue(Datagrams.toClient(new ArrayList<Protocol.Encoded>()).isEmpty());
+	}
+
+	/**
+	 * Too many moves for one datagram should be split over several, none too big.
+	 */
+	@Test
+	public void splitTest() throws Exception{
+		List<Protocol.Encoded> moves = moves(200);
+		List<byte[]> datagrams = Datagrams.toClient(moves);
+		assertTrue(datagrams.size() > 1);
+		List<Object> received = new ArrayList<Object>();
+		for(byte[] datagram : datagrams){
+			assertTrue(datagram.length <= Datagrams.MAX_SIZE);
+			received.addAll(Datagrams.fromServer(datagram, datagram.length));
+		}
+		assertEquals(200, received.size());
+		assertEquals(moves.get(199).message, received.get(199));
+	}
+
+	/**
+	 * A datagram to the server should start with the client's token.
+	 */
+	@Test
+	public void toServerTest() throws Exception{
+		MoveCommand move = new MoveCommand(Target.SERVER, "Jim", new Point3D(1, 0, 2), "Room1", 7);
+		ByteBuffer in = ByteBuffer.wrap(Datagrams.toServer(42L, move));
+		assertEquals(42L, in.getLong());
+		assertEquals(move, Protocol.decode(in));
+		assertEquals(Datagrams.TOKEN_SIZE, Datagrams.toServer(42L, null).length);
+	}
+}
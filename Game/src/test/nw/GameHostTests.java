@@ -0,0 +1,93 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import game.world.commands.Command.Target;
+import game.world.commands.PlacementCommand;
+import nw.GameHost;
+import nw.Lobby;
+import nw.Metrics;
+import nw.Sync;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.nw.util.FakeConnection;
+import test.world.util.DoubleRoomWorldTest;
+
+/**
+ * Tests for hosting several games and moving between them through the lobby.
+ */
+public class GameHostTests {
+
+	private GameHost host;
+
+	@Before
+	public void start() throws Exception{
+		host = new GameHost(new Metrics());
+		host.add(GameHost.DEFAULT, null, host.simulate(new DoubleRoomWorldTest().getWorld(), true));
+	}
+
+	@After
+	public void stop(){
+		host.stop();
+	}
+
+	/**
+	 * Games can be started by name, but not twice and not with names that could be paths.
+	 */
+	@Test
+	public void createTest() throws Exception{
+		FakeConnection c = new FakeConnection();
+		host.join(c);
+		assertTrue(c.next() instanceof Sync.Offer);
+
+		host.handle(c, new Lobby.Create("other", null));
+		assertTrue(c.next() instanceof Lobby.Created);
+		host.handle(c, new Lobby.Create("other", null));
+		assertTrue(c.next() instanceof Lobby.Refused);
+		host.handle(c, new Lobby.Create("third", "../world"));
+		assertTrue(c.next() instanceof Lobby.Refused);
+
+		host.handle(c, new Lobby.ListGames());
+		List<Lobby.Game> games = ((Lobby.Games)c.next()).games;
+		assertEquals(2, games.size());
+		assertEquals("main", games.get(0).name);
+		assertEquals(1, games.get(0).players);
+		assertEquals("other", games.get(1).name);
+		assertEquals(0, games.get(1).players);
+	}
+
+	/**
+	 * A connection that moves is told so, offered the new world, and from then on plays there.
+	 */
+	@Test
+	public void joinTest() throws Exception{
+		FakeConnection c = new FakeConnection();
+		host.join(c);
+		assertTrue(c.next() instanceof Sync.Offer);
+		host.submit(c, new Sync.Request(true));
+		assertTrue(c.next() instanceof Sync.Baseline);
+		assertTrue(c.next() instanceof Sync.State);
+
+		host.handle(c, new Lobby.Create("other", null));
+		assertTrue(c.next() instanceof Lobby.Created);
+		host.handle(c, new Lobby.Join("other"));
+		assertTrue(c.next() instanceof Lobby.Joined);
+		assertTrue(c.next() instanceof Sync.Offer);
+		assertFalse(host.get(GameHost.DEFAULT).getConnectionIds().contains(1));
+
+		host.submit(c, new Sync.Request(false));//Same world, so the baseline is cached
+		assertTrue(c.next() instanceof Sync.State);
+		host.submit(c, new PlacementCommand(Target.SERVER, "Jim", "Char1", null));
+		long end = System.currentTimeMillis() + 5000;
+		while(host.get("other").getSnapshot().getVersion() == 0 && System.currentTimeMillis() < end){
+			Thread.sleep(10);
+		}
+		assertEquals(1, host.get("other").getSnapshot().getVersion());
+		assertEquals(0, host.get(GameHost.DEFAULT).getSnapshot().getVersion());
+	}
+}
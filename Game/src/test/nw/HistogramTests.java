@@ -0,0 +1,50 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import nw.Histogram;
+
+import org.junit.Test;
+
+/**
+ * Tests for the histograms the server records timings in.
+ */
+public class HistogramTests {
+
+	@Test
+	public void emptyTest(){
+		Histogram h = new Histogram();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getPercentile(99));
+		assertEquals(0, h.getMean());
+	}
+
+	/**
+	 * Percentiles should never be below the true value, nor more than a quarter above it.
+	 */
+	@Test
+	public void percentileTest(){
+		Histogram h = new Histogram();
+		for(long i = 1; i <= 1000; i++){
+			h.record(i * 1000);
+		}
+		assertEquals(1000, h.getCount());
+		assertEquals(1000000, h.getMax());
+		assertEquals(500500, h.getMean());
+		long[][] expected = {{50, 500000}, {90, 900000}, {99, 990000}, {100, 1000000}};
+		for(long[] e : expected){
+			long p = h.getPercentile(e[0]);
+			assertTrue(p + " for p" + e[0], p >= e[1] && p <= e[1] * 5 / 4);
+		}
+	}
+
+	@Test
+	public void smallTest(){
+		Histogram h = new Histogram();
+		h.record(0);
+		h.record(3);
+		h.record(-5);
+		assertEquals(0, h.getPercentile(50));
+		assertEquals(3, h.getPercentile(100));
+	}
+}
@@ -0,0 +1,120 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import game.world.commands.*;
+import game.world.commands.Command.Target;
+import game.world.dimensions.Point3D;
+import game.world.logic.EntityState;
+import game.world.logic.ServerWorld;
+import nw.Journal;
+import nw.Protocol;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.world.util.DoubleRoomWorldTest;
+
+/**
+ * Tests that a world can be rebuilt from its journal and snapshots.
+ */
+public class JournalTests {
+
+	private File dir;
+
+	@Before
+	public void makeDir() throws Exception{
+		dir = File.createTempFile("journal", "");
+		dir.delete();
+	}
+
+	@After
+	public void deleteDir(){
+		File[] files = dir.listFiles();
+		if(files != null){
+			for(File f : files){
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private List<Command> commands(){
+		return Arrays.<Command>asList(
+			new PlacementCommand(Target.SERVER, "Jim", "Char1", null),
+			new MoveCommand(Target.SERVER, "Jim", new Point3D(435, 0, 435), "Room1"),
+			new ExitCommand(Target.SERVER, "Jim", "Door1", "Room1", null));
+	}
+
+	/*
+	 * Apply commands to a world, journalling the ones it accepts as the simulation does.
+	 */
+	private long play(ServerWorld world, Journal journal, long version, List<Command> commands) throws Exception{
+		for(Command c : commands){
+			if(!world.applyCommand(c).isEmpty()){
+				journal.append(++version, c);
+			}
+		}
+		journal.commit();
+		return version;
+	}
+
+	private static byte[] state(ServerWorld world, long version) throws Exception{
+		return Protocol.encode(EntityState.capture(world, version));
+	}
+
+	/**
+	 * Replaying the journal should rebuild the world exactly.
+	 */
+	@Test
+	public void replayTest() throws Exception{
+		ServerWorld world = new DoubleRoomWorldTest().getWorld();
+		Journal journal = new Journal(dir, true, 3600);
+		long version = play(world, journal, journal.recover(world), commands());
+		journal.close();
+		assertEquals(3, version);
+
+		ServerWorld recovered = new DoubleRoomWorldTest().getWorld();
+		Journal again = new Journal(dir, true, 3600);
+		assertEquals(version, again.recover(recovered));
+		assertEquals(3, again.getReplayed());
+		assertArrayEquals(state(world, version), state(recovered, version));
+		again.close();
+	}
+
+	/**
+	 * After a snapshot only the commands since it should be replayed, and a record the crash cut
+	 * short should be ignored.
+	 */
+	@Test
+	public void snapshotTest() throws Exception{
+		ServerWorld world = new DoubleRoomWorldTest().getWorld();
+		Journal journal = new Journal(dir, true, 0);
+		long version = play(world, journal, journal.recover(world), commands().subList(0, 2));
+		assertTrue(journal.snapshotDue());
+		journal.snapshot(EntityState.capture(world, version));
+		version = play(world, journal, version, commands().subList(2, 3));
+		journal.close();
+
+		//Half a record, as if the server died writing it
+		File[] segments = dir.listFiles();
+		Arrays.sort(segments);
+		FileOutputStream torn = new FileOutputStream(segments[0], true);
+		torn.write(new byte[]{0, 0, 0, 40, 0, 0});
+		torn.close();
+
+		ServerWorld recovered = new DoubleRoomWorldTest().getWorld();
+		Journal again = new Journal(dir, true, 3600);
+		assertEquals(version, again.recover(recovered));
+		assertEquals(2, again.getSnapshotVersion());
+		assertEquals(1, again.getReplayed());
+		assertArrayEquals(state(world, version), state(recovered, version));
+		again.close();
+	}
+}
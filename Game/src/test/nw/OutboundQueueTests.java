@@ -0,0 +1,99 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import game.world.commands.TextCommandCodec;
+import nw.OutboundQueue;
+import nw.Protocol;
+
+import org.junit.Test;
+
+/**
+ * Tests for the slow consumer policies of the per connection outbound queue.
+ */
+public class OutboundQueueTests {
+
+	/**
+	 * Makes a queued command without bothering to encode it.
+	 */
+	private Protocol.Encoded message(String cmd){
+		return new Protocol.Encoded(TextCommandCodec.INSTANCE.decode(cmd), new byte[0]);
+	}
+
+	private Protocol.Encoded move(String name, int x){
+		return message("Client Move Name ( " + name + " ) Point Point: ( " + x + ".0 , 0.0 , 0.0 )  Name ( Room1 ) ");
+	}
+
+	/**
+	 * A full queue under the disconnect policy should refuse anything more.
+	 */
+	@Test
+	public void disconnectWhenFullTest(){
+		OutboundQueue queue = new OutboundQueue(2, OutboundQueue.Policy.DISCONNECT);
+		assertTrue(queue.offer(move("Jim", 1)));
+		assertTrue(queue.offer(move("Jim", 2)));
+		assertFalse(queue.offer(move("Jim", 3)));
+	}
+
+	/**
+	 * Dropping should throw away the oldest move and keep everything else in order.
+	 */
+	@Test
+	public void dropOldestMoveTest(){
+		OutboundQueue queue = new OutboundQueue(2, OutboundQueue.Policy.DROP);
+		Protocol.Encoded pickUp = message("Client ItemPickUp Name ( Jim ) Name ( Key ) Name ( Room1 )");
+		assertTrue(queue.offer(move("Jim", 1)));
+		assertTrue(queue.offer(pickUp));
+		assertTrue(queue.offer(move("Jim", 2)));
+
+		assertEquals(1, queue.getDropped());
+		assertSame(pickUp, queue.poll());
+		assertEquals(move("Jim", 2).message, queue.poll().message);
+	}
+
+	/**
+	 * With no moves to throw away, a queue full of other commands can only disconnect.
+	 */
+	@Test
+	public void dropCantLoseStateTest(){
+		OutboundQueue queue = new OutboundQueue(1, OutboundQueue.Policy.DROP);
+		assertTrue(queue.offer(message("Client ItemDrop Name ( Jim ) Name ( Key ) Name ( Room1 )")));
+		assertTrue(queue.offer(move("Jim", 1)));
+		assertFalse(queue.offer(message("Client ItemPickUp Name ( Jim ) Name ( Key ) Name ( Room1 )")));
+	}
+
+	/**
+	 * Coalescing should keep only the latest move for each player.
+	 */
+	@Test
+	public void coalesceTest(){
+		OutboundQueue queue = new OutboundQueue(3, OutboundQueue.Policy.COALESCE);
+		assertTrue(queue.offer(move("Jim", 1)));
+		assertTrue(queue.offer(move("Bob", 1)));
+		assertTrue(queue.offer(move("Bob", 2)));
+		assertTrue(queue.offer(move("Jim", 2)));
+
+		assertEquals(2, queue.size());
+		assertEquals(move("Bob", 2).message, queue.poll().message);
+		assertEquals(move("Jim", 2).message, queue.poll().message);
+	}
+
+	/**
+	 * A batch of nothing but moves should be coalesced away once later moves cover every player
+	 * in it, and a batch with anything else in it should be kept.
+	 */
+	@Test
+	public void coalesceBatchTest(){
+		OutboundQueue queue = new OutboundQueue(2, OutboundQueue.Policy.COALESCE);
+		Protocol.Encoded mixed = Protocol.batch(Arrays.asList(move("Jim", 1),
+				message("Client ItemPickUp Name ( Jim ) Name ( Key ) Name ( Room1 )")));
+		assertTrue(queue.offer(Protocol.batch(Arrays.asList(move("Jim", 1), move("Bob", 1)))));
+		assertTrue(queue.offer(mixed));
+		assertTrue(queue.offer(Protocol.batch(Arrays.asList(move("Bob", 2), move("Jim", 2)))));
+
+		assertEquals(1, queue.getDropped());
+		assertSame(mixed, queue.poll());
+	}
+}
@@ -0,0 +1,66 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import game.world.commands.*;
+import game.world.commands.Command.Target;
+import game.world.dimensions.Point3D;
+import nw.Protocol;
+import nw.Sync;
+
+import org.junit.Test;
+
+/**
+ * Tests that messages survive the binary wire format.
+ */
+public class ProtocolTests {
+
+	private Object roundTrip(Object o) throws Exception{
+		return Protocol.decode(Protocol.encode(o));
+	}
+
+	/**
+	 * Every kind of command should come back the same, with and without the points only
+	 * results carry.
+	 */
+	@Test
+	public void commandTest() throws Exception{
+		Point3D p = new Point3D(479.5f, 0, -43.25f);
+		Command[] commands = {
+			new PlacementCommand(Target.SERVER, "Jim", "Char1", null),
+			new PlacementCommand(Target.CLIENT, "Jim", "Char1", p),
+			new MoveCommand(Target.CLIENT, "Jim", p, "Room 1"),
+			new ExitCommand(Target.SERVER, "Jim", "Door1", "Room1", null),
+			new ExitCommand(Target.CLIENT, "Jim", "Door1", "Room1", p),
+			new PickUpCommand(Target.SERVER, "Jim", "Key", "Room1"),
+			new DropCommand(Target.CLIENT, "Jim", "Key", "Room1", p),
+			new ContainerCommand(Target.SERVER, "Jim", "Chest", "Room1"),
+			new UseCommand(Target.SERVER, "Jim", "Tank"),
+			new InputCommand(Target.SERVER, "Jim", InputCommand.UP | InputCommand.LEFT, 1.5f, 7)
+		};
+		for(Command c : commands){
+			assertEquals(c, roundTrip(c));
+		}
+	}
+
+	/**
+	 * Commands should be a fraction of the size they are as text.
+	 */
+	@Test
+	public void compactTest() throws Exception{
+		Command move = new MoveCommand(Target.SERVER, "Jim", new Point3D(479, 0, 443), "Room1");
+		assertTrue(Protocol.encode(move).length < move.toString().length() / 2);
+	}
+
+	/**
+	 * Anything that isn't a command should still get through.
+	 */
+	@Test
+	public void fallbackTest() throws Exception{
+		assertEquals("Quit", roundTrip("Quit"));
+		assertEquals(1, Protocol.encode("Quit").length);
+		assertEquals("Server Dance Name ( Jim )", roundTrip("Server Dance Name ( Jim )"));
+		Sync.Offer offer = (Sync.Offer)roundTrip(new Sync.Offer("abc"));
+		assertEquals("abc", offer.hash);
+	}
+}
@@ -0,0 +1,92 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import game.world.commands.*;
+import game.world.commands.Command.Target;
+import game.world.dimensions.Point3D;
+import game.world.logic.EntityState;
+import game.world.logic.ServerWorld;
+import nw.Protocol;
+import nw.Recorder;
+import nw.Replayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.world.util.DoubleRoomWorldTest;
+
+/**
+ * Tests that a recorded game replays to the same world.
+ */
+public class RecorderTests {
+
+	private File file;
+	private ServerWorld world;
+	private long version;
+
+	@Before
+	public void record() throws Exception{
+		file = File.createTempFile("recording", ".dat");
+		world = new DoubleRoomWorldTest().getWorld();
+		List<Command> commands = Arrays.<Command>asList(
+			new PlacementCommand(Target.SERVER, "Jim", "Char1", null),
+			new MoveCommand(Target.SERVER, "Jim", new Point3D(435, 0, 435), "Room1"),
+			new MoveCommand(Target.SERVER, "Jim", new Point3D(-5000, 0, -5000), "Room1"),//Refused, so not recorded
+			new ExitCommand(Target.SERVER, "Jim", "Door1", "Room1", null));
+
+		//A keyframe after every tick, one command a tick, as the simulation would record them
+		Recorder recorder = new Recorder(file, 0);
+		recorder.begin(Protocol.encode(world), EntityState.capture(world, version));
+		for(Command c : commands){
+			if(!world.applyCommand(c).isEmpty()){
+				recorder.record(c);
+				version++;
+			}
+			recorder.endTick(EntityState.capture(world, version));
+		}
+		recorder.close();
+		assertEquals(3, recorder.getCommands());
+	}
+
+	@After
+	public void delete(){
+		file.delete();
+	}
+
+	/**
+	 * The replay should accept everything recorded, match every keyframe, and end where the game did.
+	 */
+	@Test
+	public void replayTest() throws Exception{
+		Replayer replayer = new Replayer(file);
+		replayer.setCheck(true);
+		Replayer.Result result = replayer.replay();
+		assertEquals(3, result.getCommands());
+		assertEquals(0, result.getRefused());
+		assertTrue(result.getKeyframes() > 0);
+		assertEquals(0, result.getDiffering());
+		assertEquals(version, result.getVersion());
+		assertArrayEquals(Protocol.encode(EntityState.capture(world, version)),
+				Protocol.encode(EntityState.capture(result.getWorld(), result.getVersion())));
+	}
+
+	/**
+	 * Seeking past the end should still catch up to where the game ended.
+	 */
+	@Test
+	public void seekTest() throws Exception{
+		Replayer replayer = new Replayer(file);
+		replayer.setSeek(3600);
+		Replayer.Result result = replayer.replay();
+		assertEquals(0, result.getCommands());
+		assertEquals(version, result.getVersion());
+		assertArrayEquals(Protocol.encode(EntityState.capture(world, version)),
+				Protocol.encode(EntityState.capture(result.getWorld(), result.getVersion())));
+	}
+}
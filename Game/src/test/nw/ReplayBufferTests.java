@@ -0,0 +1,47 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import nw.ReplayBuffer;
+
+import org.junit.Test;
+
+/**
+ * Tests for the ring of recent ticks kept for resuming clients.
+ */
+public class ReplayBufferTests {
+
+	/**
+	 * Only the newest ticks should be kept, and a client is only covered if every tick after the
+	 * last one it heard about still is.
+	 */
+	@Test
+	public void ringTest(){
+		ReplayBuffer<String> buffer = new ReplayBuffer<String>(3);
+		assertTrue(buffer.covers(0));
+		for(int tick = 1; tick <= 5; tick++){
+			buffer.add(tick, Arrays.asList("t" + tick));
+		}
+		assertEquals(5, buffer.getLatest());
+		assertNull(buffer.get(2));
+		assertEquals(Arrays.asList("t3"), buffer.get(3));
+		assertEquals(Arrays.asList("t5"), buffer.get(5));
+		assertFalse(buffer.covers(1));
+		assertTrue(buffer.covers(2));
+		assertTrue(buffer.covers(5));
+		assertFalse(buffer.covers(6));
+	}
+
+	/**
+	 * Ticks must be added one after another, or what a client missed can't be worked out.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void gapTest(){
+		ReplayBuffer<String> buffer = new ReplayBuffer<String>(3);
+		buffer.add(1, Collections.<String>emptyList());
+		buffer.add(3, Collections.<String>emptyList());
+	}
+}
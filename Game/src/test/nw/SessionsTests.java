@@ -0,0 +1,79 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import nw.Sessions;
+import test.nw.util.FakeConnection;
+
+import org.junit.Test;
+
+/**
+ * Tests for the sessions clients come back to, and working out what they missed.
+ */
+public class SessionsTests {
+
+	//Saw everything sent to where it was, or to everyone if the item has no place
+	private static final Sessions.Audience<String> AUDIENCE = new Sessions.Audience<String>(){
+		public boolean saw(String item, Sessions.Session session, String place){
+			return !item.contains("@") || item.endsWith("@" + place);
+		}
+	};
+
+	/**
+	 * A session is kept for its token after its connection goes, and moves to the connection that
+	 * resumes it.
+	 */
+	@Test
+	public void attachTest(){
+		Sessions<String> sessions = new Sessions<String>(10, 5);
+		FakeConnection first = new FakeConnection(1);
+		FakeConnection second = new FakeConnection(2);
+		Sessions.Session s = sessions.open(first);
+		assertSame(s, sessions.of(first));
+		sessions.detach(first);
+		assertNull(sessions.of(first));
+		assertSame(s, sessions.get(s.token));
+		assertNull(sessions.attach(s, second));
+		assertSame(s, sessions.of(second));
+
+		sessions.release(second);
+		assertNull(sessions.get(s.token));
+	}
+
+	/**
+	 * A client is sent what went to everyone and to where it was at each tick, and nothing if the
+	 * ticks it missed are no longer kept.
+	 */
+	@Test
+	public void missedTest(){
+		Sessions<String> sessions = new Sessions<String>(10, 3);
+		FakeConnection c = new FakeConnection();
+		Sessions.Session s = sessions.open(c);
+		sessions.moved(c, "Jim", "Room1", 1);
+		sessions.remember(1, Arrays.asList("a@Room1"));
+		sessions.remember(2, Arrays.asList("b@Room1", "c@Room2"));
+		sessions.moved(c, "Jim", "Room2", 3);
+		sessions.remember(3, Arrays.asList("d@Room1", "e@Room2", "f"));
+		sessions.remember(4, Collections.<String>emptyList());
+		assertTrue(sessions.remembers(4));
+		assertFalse(sessions.remembers(5));
+		assertEquals("Jim", s.getPlayer());
+		assertEquals(Arrays.asList("b@Room1", "e@Room2", "f"), sessions.missed(s, 1, 5, AUDIENCE));
+		assertNull(sessions.missed(s, 0, 5, AUDIENCE));
+	}
+
+	/**
+	 * Nothing is kept if there is nothing to replay.
+	 */
+	@Test
+	public void localTest(){
+		Sessions<String> sessions = new Sessions<String>(10, 0);
+		assertFalse(sessions.isReplaying());
+		assertTrue(sessions.remembers(1));
+		sessions.remember(1, Arrays.asList("a"));
+		assertNull(sessions.missed(sessions.open(new FakeConnection()), 0, 2, AUDIENCE));
+	}
+}
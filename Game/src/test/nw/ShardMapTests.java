@@ -0,0 +1,129 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import game.world.commands.*;
+import game.world.commands.Command.Target;
+import game.world.dimensions.Point3D;
+import game.world.logic.ServerWorld;
+import game.world.model.Player;
+import nw.Handoff;
+import nw.Protocol;
+import nw.ShardMap;
+
+import org.junit.Test;
+
+import test.world.util.DoubleRoomWorldTest;
+
+/**
+ * Tests for splitting a world's places between servers and handing players between them.
+ */
+public class ShardMapTests {
+
+	private static List<InetSocketAddress> nodes(){
+		return Arrays.asList(InetSocketAddress.createUnresolved("localhost", 1),
+				InetSocketAddress.createUnresolved("localhost", 2));
+	}
+
+	/**
+	 * Places are dealt out in turn unless given to a server by name, and players start on the
+	 * server with the first place.
+	 */
+	@Test
+	public void ownershipTest(){
+		ServerWorld world = new DoubleRoomWorldTest().getWorld();
+		ShardMap first = new ShardMap(nodes(), 0, "key", world, new HashMap<String, Integer>());
+		assertEquals(0, first.ownerOf("Room1"));
+		assertEquals(1, first.ownerOf("Room2"));
+		assertTrue(first.ownsStart());
+		assertTrue(first.accepts("key"));
+		assertFalse(first.accepts("guess"));
+
+		Map<String, Integer> assigned = new HashMap<String, Integer>();
+		assigned.put("Room1", 1);
+		ShardMap second = new ShardMap(nodes(), 1, "key", world, assigned);
+		assertTrue(second.owns("Room1"));
+		assertTrue(second.ownsStart());
+		assertEquals(0, second.ownerOf("Room2"));
+	}
+
+	/**
+	 * A place can't be given to a server that isn't listed.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownServerTest(){
+		Map<String, Integer> assigned = new HashMap<String, Integer>();
+		assigned.put("Room2", 2);
+		new ShardMap(nodes(), 0, "key", new DoubleRoomWorldTest().getWorld(), assigned);
+	}
+
+	/**
+	 * Without a key anyone could send a server players, so the servers won't split a world
+	 * without one.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void keyTest(){
+		new ShardMap(nodes(), 0, "", new DoubleRoomWorldTest().getWorld(), new HashMap<String, Integer>());
+	}
+
+	/**
+	 * A player who leaves one world through an exit can arrive in a copy of it on another server,
+	 * and is taken out of the first.
+	 */
+	@Test
+	public void handoffTest() throws Exception{
+		ServerWorld from = new DoubleRoomWorldTest().getWorld();
+		ServerWorld to = new DoubleRoomWorldTest().getWorld();
+		from.applyCommand(new PlacementCommand(Target.SERVER, "Jim", "Char1", null));
+		from.applyCommand(new MoveCommand(Target.SERVER, "Jim", new Point3D(435, 0, 435), "Room1"));
+		ExitCommand exit = new ExitCommand(Target.SERVER, "Jim", "Door1", "Room1", null);
+		assertEquals("Room2", from.leadsTo(exit));
+		assertEquals("Room2", from.leavePlace(exit));
+
+		Player player = from.depart("Jim");
+		assertNotNull(player);
+		assertFalse(from.isInPlace("Jim", "Room1"));
+		Player sent = (Player)Protocol.decode(Protocol.encode(player));
+		assertFalse(to.arrive(sent, exit).isEmpty());
+		assertTrue(to.isInPlace("Jim", "Room2"));
+		assertFalse(to.applyCommand(new MoveCommand(Target.SERVER, "Jim", new Point3D(450, 0, 550), "Room2")).isEmpty());
+	}
+
+	/**
+	 * Sending to a server that can't be reached doesn't wait for it, and the server is reported
+	 * lost so whatever was sent can be given up on.
+	 */
+	@Test
+	public void lostTest() throws Exception{
+		ServerSocket probe = new ServerSocket(0);
+		int closed = probe.getLocalPort();
+		probe.close();
+		ServerWorld world = new DoubleRoomWorldTest().getWorld();
+		List<InetSocketAddress> nodes = Arrays.asList(InetSocketAddress.createUnresolved("localhost", 1),
+				InetSocketAddress.createUnresolved("localhost", closed));
+		ShardMap shards = new ShardMap(nodes, 0, "key", world, new HashMap<String, Integer>());
+		final BlockingQueue<Integer> lost = new LinkedBlockingQueue<Integer>();
+		try{
+			shards.send(1, new Handoff.Rejected(1), new ShardMap.Receiver(){
+				public void received(int node, Object message){}
+
+				public void lost(int node){
+					lost.add(node);
+				}
+			});
+			assertEquals(Integer.valueOf(1), lost.poll(ShardMap.CONNECT_TIMEOUT + 2000, TimeUnit.MILLISECONDS));
+		}finally{
+			shards.close();
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import game.world.commands.*;
+import game.world.commands.Command.Target;
+import game.world.dimensions.Point3D;
+import game.world.logic.ServerWorld;
+import game.world.model.Player;
+import nw.Handoff;
+import nw.LocalConnection;
+import nw.Metrics;
+import nw.Protocol;
+import nw.ShardMap;
+import nw.Simulation;
+import nw.Sync;
+
+import org.junit.After;
+import org.junit.Test;
+
+import test.nw.util.FakeConnection;
+import test.world.util.DoubleRoomWorldTest;
+
+/**
+ * Tests for the server tick loop.
+ */
+public class SimulationTests {
+
+	private Simulation simulation;
+
+	@After
+	public void stop(){
+		if(simulation != null){
+			simulation.stop();
+		}
+	}
+
+	/**
+	 * Everything that arrives between two ticks should be applied together and go out as one
+	 * batch.
+	 */
+	@Test
+	public void batchTest() throws Exception{
+		simulation = new Simulation(new DoubleRoomWorldTest().getWorld(), 50);
+		FakeConnection c = new FakeConnection();
+		simulation.submit(c, new Sync.Request(false));
+		simulation.submit(c, new PlacementCommand(Target.SERVER, "Jim", "Char1", null));
+		simulation.submit(c, new PlacementCommand(Target.SERVER, "Bob", "Char1", null));
+		simulation.start();
+
+		assertTrue(c.sent.poll(2, TimeUnit.SECONDS) instanceof Sync.State);
+		Object batch = c.sent.poll(2, TimeUnit.SECONDS);
+		assertTrue(batch instanceof Protocol.Batch);
+		int placements = 0;
+		for(Object message : ((Protocol.Batch)batch).messages){
+			if(((Command)message).isResult(CommandType.PLAYER_PLACEMENT)){
+				placements++;
+			}
+		}
+		assertEquals(2, placements);
+		assertNull(c.sent.poll(200, TimeUnit.MILLISECONDS));
+
+		//The snapshot is published before the batch goes out
+		assertEquals(2, simulation.getSnapshot().getVersion());
+		assertEquals(2, simulation.getSnapshot().getPlayerCount());
+	}
+
+	/**
+	 * Every command should be timed, and counted as accepted or rejected.
+	 */
+	@Test
+	public void metricsTest() throws Exception{
+		Metrics metrics = new Metrics();
+		simulation = new Simulation(new DoubleRoomWorldTest().getWorld(), 50, metrics);
+		FakeConnection c = new FakeConnection();
+		simulation.submit(c, new Sync.Request(false));
+		simulation.submit(c, new PlacementCommand(Target.SERVER, "Jim", "Char1", null));
+		simulation.submit(c, new MoveCommand(Target.SERVER, "Nobody", new Point3D(0, 0, 0), "Nowhere"));
+		simulation.start();
+
+		assertTrue(c.sent.poll(2, TimeUnit.SECONDS) instanceof Sync.State);
+		assertNotNull(c.sent.poll(2, TimeUnit.SECONDS));
+		Metrics.CommandStats placements = metrics.command(CommandType.PLAYER_PLACEMENT);
+		assertEquals(1, placements.getAccepted());
+		assertEquals(0, placements.getRejected());
+		assertEquals(1, placements.getHandling().getCount());
+		assertEquals(1, metrics.command(CommandType.MOVE).getRejected());
+		assertTrue(metrics.report().contains("command Move accepted 0 rejected 1"));
+	}
+
+	/**
+	 * An exit is handed from the place being left to the place being entered, and once a player
+	 * has gone, commands for the place they left are refused.
+	 */
+	@Test
+	public void exitTest() throws Exception{
+		Metrics metrics = new Metrics();
+		simulation = new Simulation(new DoubleRoomWorldTest().getWorld(), 50, metrics);
+		FakeConnection c = new FakeConnection();
+		simulation.submit(c, new Sync.Request(false));
+		simulation.submit(c, new PlacementCommand(Target.SERVER, "Jim", "Char1", null));
+		simulation.submit(c, new MoveCommand(Target.SERVER, "Jim", new Point3D(435, 0, 435), "Room1"));
+		simulation.submit(c, new ExitCommand(Target.SERVER, "Jim", "Door1", "Room1", null));
+		simulation.submit(c, new MoveCommand(Target.SERVER, "Jim", new Point3D(440, 0, 440), "Room1"));
+		simulation.start();
+
+		assertTrue(c.sent.poll(2, TimeUnit.SECONDS) instanceof Sync.State);
+		Object batch = c.sent.poll(2, TimeUnit.SECONDS);
+		assertTrue(batch instanceof Protocol.Batch);
+		boolean exited = false;
+		for(Object message : ((Protocol.Batch)batch).messages){
+			if(((Command)message).isResult(CommandType.EXIT)){
+				exited = true;
+			}
+		}
+		assertTrue(exited);
+		assertEquals(1, metrics.command(CommandType.EXIT).getAccepted());
+		assertEquals(1, metrics.command(CommandType.MOVE).getAccepted());
+		assertEquals(1, metrics.command(CommandType.MOVE).getRejected());
+	}
+
+	/**
+	 * Of the moves a player sends in a row in one tick only the last is applied, and anything
+	 * else they send keeps its place among them.
+	 */
+	@Test
+	public void coalesceTest() throws Exception{
+		Metrics metrics = new Metrics();
+		simulation = new Simulation(new DoubleRoomWorldTest().getWorld(), 50, metrics);
+		FakeConnection c = new FakeConnection();
+		simulation.submit(c, new Sync.Request(false));
+		simulation.submit(c, new PlacementCommand(Target.SERVER, "Jim", "Char1", null));
+		for(int i = 1; i <= 3; i++){
+			simulation.submit(c, new MoveCommand(Target.SERVER, "Jim", new Point3D(430 + i, 0, 435), "Room1", i));
+		}
+		simulation.submit(c, new PickUpCommand(Target.SERVER, "Jim", "Key", "Room1"));
+		for(int i = 4; i <= 5; i++){
+			simulation.submit(c, new MoveCommand(Target.SERVER, "Jim", new Point3D(430 + i, 0, 435), "Room1", i));
+		}
+		simulation.start();
+
+		assertTrue(c.sent.poll(2, TimeUnit.SECONDS) instanceof Sync.State);
+		Object batch = c.sent.poll(2, TimeUnit.SECONDS);
+		assertTrue(batch instanceof Protocol.Batch);
+		StringBuilder answered = new StringBuilder();
+		for(Object message : ((Protocol.Batch)batch).messages){
+			if(((Command)message).isResult(CommandType.MOVE) && ((MoveCommand)message).getSequence() != 0){
+				answered.append(((MoveCommand)message).getSequence());
+			}
+		}
+		assertEquals("35", answered.toString());
+		assertEquals(3, metrics.getCoalesced());
+		assertEquals(2, metrics.command(CommandType.MOVE).getAccepted());
+		assertEquals(1, metrics.command(CommandType.ITEM_PICK_UP).getRejected());
+	}
+
+	/**
+	 * A player holding a key is walked a step every tick, each step carrying the input's number,
+	 * until they let go.
+	 */
+	@Test
+	public void inputTest() throws Exception{
+		Metrics metrics = new Metrics();
+		simulation = new Simulation(new DoubleRoomWorldTest().getWorld(), 50, metrics);
+		FakeConnection c = new FakeConnection();
+		simulation.submit(c, new Sync.Request(false));
+		simulation.submit(c, new PlacementCommand(Target.SERVER, "Jim", "Char1", null));
+		simulation.submit(c, new InputCommand(Target.SERVER, "Jim", InputCommand.RIGHT, 0, 5));
+		simulation.start();
+
+		assertTrue(c.sent.poll(2, TimeUnit.SECONDS) instanceof Sync.State);
+		Point3D last = null;
+		int steps = 0;
+		while(steps < 3){
+			Object batch = c.sent.poll(2, TimeUnit.SECONDS);
+			assertNotNull(batch);
+			for(Object message : ((Protocol.Batch)batch).messages){
+				//Jim's position when he was placed has no number
+				if(((Command)message).isResult(CommandType.MOVE) && ((MoveCommand)message).getSequence() != 0){
+					MoveCommand move = (MoveCommand)message;
+					assertEquals(5, move.getSequence());
+					assertFalse(move.getPoint().equals(last));
+					last = move.getPoint();
+					steps++;
+				}
+			}
+		}
+
+		simulation.submit(c, new InputCommand(Target.SERVER, "Jim", 0, 0, 6));
+		Thread.sleep(100);
+		long walked = metrics.command(CommandType.MOVE).getAccepted();
+		Thread.sleep(100);
+		assertEquals(walked, metrics.command(CommandType.MOVE).getAccepted());
+		assertEquals(2, metrics.command(CommandType.INPUT).getAccepted());
+		assertTrue(metrics.command(CommandType.INPUT).getHandling().getCount() >= 3);//One a step
+	}
+
+	/**
+	 * A player holding keys is only ever moved by the server, so a move of their own is refused
+	 * however far it goes, and is only accepted once they let go.
+	 */
+	@Test
+	public void inputOverrulesMovesTest() throws Exception{
+		Metrics metrics = new Metrics();
+		simulation = new Simulation(new DoubleRoomWorldTest().getWorld(), 50, metrics);
+		FakeConnection c = new FakeConnection();
+		Point3D far = new Point3D(435, 0, 435);
+		simulation.submit(c, new Sync.Request(false));
+		simulation.submit(c, new PlacementCommand(Target.SERVER, "Jim", "Char1", null));
+		simulation.submit(c, new InputCommand(Target.SERVER, "Jim", InputCommand.RIGHT, 0, 5));
+		simulation.submit(c, new MoveCommand(Target.SERVER, "Jim", far, "Room1", 6));
+		simulation.start();
+
+		assertTrue(c.sent.poll(2, TimeUnit.SECONDS) instanceof Sync.State);
+		Thread.sleep(200);
+		assertEquals(1, metrics.command(CommandType.MOVE).getRejected());
+		simulation.submit(c, new InputCommand(Target.SERVER, "Jim", 0, 0, 7));
+		simulation.submit(c, new MoveCommand(Target.SERVER, "Jim", far, "Room1", 8));
+		Thread.sleep(200);
+
+		List<Integer> arrivedAt = new ArrayList<Integer>();
+		Object batch;
+		while((batch = c.sent.poll()) != null){
+			for(Object message : ((Protocol.Batch)batch).messages){
+				if(((Command)message).isResult(CommandType.MOVE) && ((MoveCommand)message).getPoint().equals(far)){
+					arrivedAt.add(((MoveCommand)message).getSequence());
+				}
+			}
+		}
+		assertEquals(Arrays.asList(8), arrivedAt);
+	}
+
+	/**
+	 * A client in the same process should get the state and the results as they are, with nothing
+	 * encoded, and a simulation only serving it needs no baseline.
+	 */
+	@Test
+	public void localTest() throws Exception{
+		simulation = new Simulation(new DoubleRoomWorldTest().getWorld(), 50, new Metrics(), false);
+		LocalConnection c = new LocalConnection(1);
+		simulation.submit(c, new Sync.Request(false));
+		simulation.submit(c, new PlacementCommand(Target.SERVER, "Jim", "Char1", null));
+		simulation.start();
+
+		assertTrue(c.read() instanceof Sync.State);
+		Object batch = c.read();
+		assertTrue(batch instanceof Protocol.Batch);
+		Command placed = (Command)((Protocol.Batch)batch).messages.get(0);
+		assertTrue(placed.isResult(CommandType.PLAYER_PLACEMENT));
+		assertFalse(c.ready());
+	}
+
+	/**
+	 * A client that comes back on a new connection should be sent only what it missed while it
+	 * was away, and then everything as before.
+	 */
+	@Test
+	public void resumeTest() throws Exception{
+		simulation = new Simulation(new DoubleRoomWorldTest().getWorld(), 50);
+		FakeConnection first = new FakeConnection(1);
+		simulation.submit(first, new Sync.Request(false));
+		simulation.submit(first, new PlacementCommand(Target.SERVER, "Jim", "Char1", null));
+		simulation.start();
+
+		Sync.State state = (Sync.State)first.sent.poll(2, TimeUnit.SECONDS);
+		assertTrue(state.session != 0);
+		Protocol.Batch placed = (Protocol.Batch)first.sent.poll(2, TimeUnit.SECONDS);
+		assertTrue(placed.sequence > state.sequence);
+
+		//The connection drops, and someone else arrives while it is gone
+		simulation.leave(first);
+		FakeConnection other = new FakeConnection(3);
+		simulation.submit(other, new PlacementCommand(Target.SERVER, "Bob", "Char1", null));
+		long end = System.currentTimeMillis() + 2000;
+		while(simulation.getSnapshot().getPlayerCount() < 2 && System.currentTimeMillis() < end){
+			Thread.sleep(10);
+		}
+
+		FakeConnection second = new FakeConnection(2);
+		simulation.submit(second, new Sync.Request(state.session, placed.sequence));
+		Protocol.Batch missed = (Protocol.Batch)second.sent.poll(2, TimeUnit.SECONDS);
+		assertEquals(1, missed.messages.size());
+		assertEquals("Bob", ((Command)missed.messages.get(0)).getPlayerName());
+		assertTrue(second.sent.poll(2, TimeUnit.SECONDS) instanceof Sync.Resumed);
+
+		simulation.submit(other, new PlacementCommand(Target.SERVER, "Ann", "Char1", null));
+		Protocol.Batch after = (Protocol.Batch)second.sent.poll(2, TimeUnit.SECONDS);
+		assertEquals("Ann", ((Command)after.messages.get(0)).getPlayerName());
+		assertTrue(first.sent.isEmpty());
+	}
+
+	/**
+	 * A session the server doesn't know gets the whole state, as a new client would.
+	 */
+	@Test
+	public void resumeUnknownTest() throws Exception{
+		simulation = new Simulation(new DoubleRoomWorldTest().getWorld(), 50);
+		FakeConnection c = new FakeConnection();
+		simulation.submit(c, new Sync.Request(12345L, 1));
+		simulation.start();
+
+		Sync.State state = (Sync.State)c.sent.poll(2, TimeUnit.SECONDS);
+		assertTrue(state.session != 0 && state.session != 12345L);
+	}
+
+	/**
+	 * Players are only taken from a connection that has shown it knows the cluster's key.
+	 */
+	@Test
+	public void peerTest() throws Exception{
+		ServerWorld from = new DoubleRoomWorldTest().getWorld();
+		from.applyCommand(new PlacementCommand(Target.SERVER, "Jim", "Char1", null));
+		from.applyCommand(new MoveCommand(Target.SERVER, "Jim", new Point3D(435, 0, 435), "Room1"));
+		ExitCommand exit = new ExitCommand(Target.SERVER, "Jim", "Door1", "Room1", null);
+		from.leavePlace(exit);
+		Player player = (Player)Protocol.decode(Protocol.encode(from.depart("Jim")));
+
+		ServerWorld world = new DoubleRoomWorldTest().getWorld();
+		simulation = new Simulation(world, 50);
+		simulation.setShards(new ShardMap(Arrays.asList(InetSocketAddress.createUnresolved("localhost", 1),
+				InetSocketAddress.createUnresolved("localhost", 2)), 1, "key", world, new HashMap<String, Integer>()));
+		FakeConnection client = new FakeConnection(1);
+		FakeConnection peer = new FakeConnection(2);
+		simulation.submit(client, new Handoff.Transfer(1, player, exit));
+		simulation.submit(peer, new Handoff.Hello("key"));
+		simulation.submit(peer, new Handoff.Transfer(2, player, exit));
+		simulation.start();
+
+		assertEquals(1, ((Handoff.Rejected)client.next()).id);
+		assertEquals(2, ((Handoff.Accepted)peer.next()).id);
+		assertTrue(world.isInPlace("Jim", "Room2"));
+	}
+}
@@ -0,0 +1,127 @@
+package test.nw;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import game.world.commands.Command.Target;
+import game.world.commands.MoveCommand;
+import game.world.dimensions.Point3D;
+import nw.Protocol;
+import nw.UpdateRate;
+
+import org.junit.Test;
+
+/**
+ * Tests for working out how much a client is sent from how well its connection keeps up.
+ */
+public class UpdateRateTests {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private static Protocol.Encoded move(String player, int x) throws Exception{
+		return Protocol.encoded(new MoveCommand(Target.CLIENT, player, new Point3D(x, 0, 0), "Room1"));
+	}
+
+	/**
+	 * A connection that backs up is sent distant moves less and less often, up to a limit, and
+	 * more often again once it has caught up.
+	 */
+	@Test
+	public void intervalTest(){
+		UpdateRate rate = new UpdateRate(1000, 20);
+		assertFalse(rate.isThrottled());
+		rate.sample(0, 0, SECOND);
+		rate.sample(100, UpdateRate.MAX_INTERVAL * 10, 2 * SECOND);
+		assertEquals(2, rate.getInterval());
+		assertTrue(rate.isThrottled());
+		for(int i = 3; i < 10; i++){
+			rate.sample(100 * i, UpdateRate.MAX_INTERVAL * 10, i * SECOND);
+		}
+		assertEquals(UpdateRate.MAX_INTERVAL, rate.getInterval());
+		rate.sample(1000, 0, 10 * SECOND);
+		assertEquals(UpdateRate.MAX_INTERVAL - 1, rate.getInterval());
+	}
+
+	/**
+	 * Writing more than the budget, or a round trip growing well past the best seen, counts as
+	 * falling behind too.
+	 */
+	@Test
+	public void behindTest(){
+		UpdateRate rate = new UpdateRate(1000, 20);
+		rate.sample(0, 0, SECOND);
+		rate.sample(5000, 0, 2 * SECOND);
+		assertEquals(5000, rate.getThroughput());
+		assertEquals(2, rate.getInterval());
+
+		UpdateRate slow = new UpdateRate(1000, 20);
+		slow.ponged(TimeUnit.MILLISECONDS.toNanos(2));
+		slow.sample(0, 0, SECOND);
+		assertEquals(1, slow.getInterval());
+		slow.ponged(TimeUnit.MILLISECONDS.toNanos(300));
+		slow.sample(0, 0, 2 * SECOND);
+		assertEquals(2, slow.getInterval());
+	}
+
+	/**
+	 * Only the latest move of each distant player is held, and they go together on the ticks the
+	 * interval says, while there is budget for them.
+	 */
+	@Test
+	public void heldTest() throws Exception{
+		UpdateRate rate = new UpdateRate(1000, 20);
+		rate.sample(0, 0, SECOND);
+		rate.sample(0, 100, 2 * SECOND);//Interval 2
+		rate.in("Room1");
+		rate.hold("Jim", move("Jim", 1));
+		rate.hold("Bob", move("Bob", 1));
+		rate.hold("Jim", move("Jim", 2));
+		assertTrue(rate.due(3).isEmpty());
+		List<Protocol.Encoded> due = rate.due(4);
+		assertEquals(2, due.size());
+		assertEquals("Jim", ((MoveCommand)due.get(0).message).getPlayerName());//Held longest
+		assertEquals(2f, ((MoveCommand)due.get(0).message).getPoint().getX(), 0);
+		assertFalse(rate.isHolding());
+
+		rate.hold("Jim", move("Jim", 3));
+		rate.spent(2000);
+		rate.tick();
+		assertTrue(rate.due(6).isEmpty());//Over budget
+		for(int i = 0; i < 20; i++){
+			rate.tick();
+		}
+		assertEquals(1, rate.due(6).size());
+
+		rate.hold("Jim", move("Jim", 4));
+		rate.in("Room2");//Moves in a place it can't see are no use to it
+		assertFalse(rate.isHolding());
+	}
+
+	/**
+	 * A client with more distant players moving than its budget covers is sent about its budget,
+	 * and what the budget doesn't cover waits its turn rather than piling up.
+	 */
+	@Test
+	public void budgetTest() throws Exception{
+		int budget = 2000;
+		int seconds = 10;
+		UpdateRate rate = new UpdateRate(budget, 20);
+		long sent = 0;
+		for(int tick = 1; tick <= 20 * seconds; tick++){
+			rate.tick();
+			for(int player = 0; player < 30; player++){
+				rate.hold("Bot" + player, move("Bot" + player, tick));
+			}
+			for(Protocol.Encoded move : rate.due(tick)){
+				rate.spent(move.payload.length);
+				sent += move.payload.length;
+			}
+		}
+		//The bucket starts full, so the first second can have two seconds' worth
+		assertTrue(sent + " bytes", sent <= (long)budget * (seconds + 1));
+		assertTrue(sent + " bytes", sent >= (long)budget * seconds * 9 / 10);
+		assertTrue(rate.isHolding());
+	}
+}
@@ -0,0 +1,50 @@
+package test.nw.util;
+
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import nw.Connection;
+import nw.Protocol;
+
+/**
+ * A connection for tests, which keeps everything the server sends it, decoded.
+ */
+public class FakeConnection implements Connection{
+	public final BlockingQueue<Object> sent = new LinkedBlockingQueue<Object>();
+	private final int id;
+
+	public FakeConnection(){
+		this(1);
+	}
+
+	public FakeConnection(int id){
+		this.id = id;
+	}
+
+	public int getId(){
+		return id;
+	}
+
+	public void send(Object o) throws IOException{
+		sent.add(o instanceof Protocol.Encoded ? ((Protocol.Encoded)o).message : o);
+	}
+
+	public void close(){}
+
+	/**
+	 * @return The next thing sent that isn't a tick's batch, waiting up to five seconds for it
+	 */
+	public Object next() throws InterruptedException{
+		while(true){
+			Object o = sent.poll(5, TimeUnit.SECONDS);
+			assertNotNull("Nothing sent", o);
+			if(!(o instanceof Protocol.Batch)){
+				return o;
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package test.world;
+
+import static org.junit.Assert.*;
+import game.world.dimensions.Point3D;
+import game.world.logic.EntityState;
+import game.world.model.*;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import test.world.util.DoubleRoomWorldTest;
+
+/**
+ * Tests that the entity state of one world can be used to bring a fresh copy
+ * of it up to date.
+ */
+public class EntityStateTests {
+
+	/**
+	 * A player in one world should turn up in the same place and position in
+	 * the other.
+	 */
+	@Test
+	public void playerTest() {
+		World world = new DoubleRoomWorldTest().getWorld();
+		Player jim = new Player("Jim");
+		jim.setImageName("Char2");
+		world.addPlayerToGameWorld(jim);
+
+		World copy = new DoubleRoomWorldTest().getWorld();
+		EntityState.capture(world, 3).applyTo(copy);
+
+		Player other = copy.getPlayers().next();
+		assertEquals("Jim", other.getName());
+		assertEquals("Char2", other.getImageName());
+		assertEquals(jim.getPosition(), other.getPosition());
+		assertEquals(world.getPlaceOfPlayer(jim), copy.getPlaceOfPlayer(other));
+	}
+
+	/**
+	 * Items that have moved out of a container and into an inventory should
+	 * move in the copy too.
+	 */
+	@Test
+	public void itemTest() {
+		World world = new DoubleRoomWorldTest().getWorld();
+		Player jim = new Player("Jim");
+		world.addPlayerToGameWorld(jim);
+		Chest chest = findChest(world);
+		Item crystal = chest.getContents().iterator().next();
+		chest.getContents().removeItem(crystal);
+		jim.addItem(crystal);
+
+		World copy = new DoubleRoomWorldTest().getWorld();
+		EntityState.capture(world, 1).applyTo(copy);
+
+		assertTrue(findChest(copy).getContents().isEmpty());
+		Item copied = copy.getPlayers().next().getInventory().iterator().next();
+		assertEquals(crystal.getName(), copied.getName());
+	}
+
+	/**
+	 * Updating a state should leave the old one as it was, and only record
+	 * again the places it is told about.
+	 */
+	@Test
+	public void updateTest() {
+		World world = new DoubleRoomWorldTest().getWorld();
+		Player jim = new Player("Jim");
+		world.addPlayerToGameWorld(jim);
+		Point3D before = jim.getPosition();
+		EntityState first = EntityState.capture(world, 1);
+
+		jim.move(new Point3D(before.x + 10, 0, before.z));
+		String place = world.getPlaceOfPlayer(jim).getName();
+		EntityState unchanged = first.update(world, 2, Collections.<String> emptySet());
+		EntityState second = first.update(world, 2, Collections.singleton(place));
+
+		assertEquals(2, second.getVersion());
+		assertEquals(1, second.getPlayerCount());
+		assertEquals(before, positionIn(first));
+		assertEquals(before, positionIn(unchanged));
+		assertEquals(jim.getPosition(), positionIn(second));
+	}
+
+	private Point3D positionIn(EntityState state) {
+		World copy = new DoubleRoomWorldTest().getWorld();
+		state.applyTo(copy);
+		return copy.getPlayers().next().getPosition();
+	}
+
+	private Chest findChest(World world) {
+		Iterator<Place> places = world.getPlaces();
+		while (places.hasNext()) {
+			Iterator<Item> items = places.next().getItems();
+			while (items.hasNext()) {
+				Item item = items.next();
+				if (item instanceof Chest) {
+					return (Chest) item;
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,64 @@
+package test.world;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import game.world.dimensions.Point3D;
+import game.world.logic.PositionHistory;
+
+import org.junit.Test;
+
+/**
+ * Tests drawing other players between the positions the server sends.
+ */
+public class PositionHistoryTests {
+
+	private static final long DELAY = 100;
+
+	@Test
+	public void interpolateTest() {
+		PositionHistory history = new PositionHistory();
+		assertNull(history.at(0));
+		history.add(1000, new Point3D(0, 0, 0), DELAY);
+		history.add(1050, new Point3D(10, 0, 20), DELAY);
+		assertEquals(new Point3D(0, 0, 0), history.at(900));
+		assertEquals(new Point3D(5, 0, 10), history.at(1025));
+		assertEquals(new Point3D(10, 0, 20), history.at(1050));
+	}
+
+	/**
+	 * With nothing new the player keeps going the same way for a while, then
+	 * stops.
+	 */
+	@Test
+	public void extrapolateTest() {
+		PositionHistory history = new PositionHistory();
+		history.add(1000, new Point3D(0, 0, 0), DELAY);
+		history.add(1050, new Point3D(10, 0, 0), DELAY);
+		assertEquals(new Point3D(20, 0, 0), history.at(1100));
+		long limit = 1050 + PositionHistory.MAX_EXTRAPOLATION;
+		assertEquals(history.at(limit), history.at(limit + 1000));
+	}
+
+	/**
+	 * A player that stood still starts from where it stood rather than
+	 * sliding there from long ago.
+	 */
+	@Test
+	public void idleTest() {
+		PositionHistory history = new PositionHistory();
+		history.add(0, new Point3D(0, 0, 0), DELAY);
+		history.add(5000, new Point3D(10, 0, 0), DELAY);
+		assertEquals(new Point3D(0, 0, 0), history.at(4900));
+		assertEquals(new Point3D(5, 0, 0), history.at(4950));
+	}
+
+	@Test
+	public void capacityTest() {
+		PositionHistory history = new PositionHistory();
+		for (int i = 0; i < 100; i++) {
+			history.add(i * 10, new Point3D(i, 0, 0), DELAY);
+		}
+		assertEquals(16, history.size());
+		assertEquals(new Point3D(98.5f, 0, 0), history.at(985));
+	}
+}
@@ -1,7 +1,11 @@
 package test.world;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import game.world.commands.Command.Target;
+import game.world.commands.MoveCommand;
+import game.world.dimensions.Point3D;
 import game.world.logic.ClientWorld;
 import game.world.logic.ServerWorld;
 import game.world.model.Player;
@@ -74,4 +78,35 @@ public class ServerClientWorldTests {
 			fail("Not yet implemented");
 		}
 	}
+
+	/**
+	 * A move should show up on the client straight away, and a move the
+	 * server refuses should be undone with the later moves made again.
+	 */
+	@Test
+	public void predictionTest() {
+		ServerWorld serverWorld = new SingleRoomWorldTest().world;
+		ClientWorld clientWorld = new SingleRoomWorldTest().world;
+		Player p = new Player("FattyBoomBoom");
+		for (String c : serverWorld.applyCommand(clientWorld.getSetClientPlayer(p))) {
+			clientWorld.applyCommand(c);
+		}
+		Point3D start = p.getPosition();
+		String place = clientWorld.getPlaceOfPlayer(p).getName();
+
+		MoveCommand first = (MoveCommand) clientWorld.makeCommand("Right", 0);
+		assertEquals(first.getPoint(), p.getPosition());
+		MoveCommand second = (MoveCommand) clientWorld.makeCommand("Right", 0);
+		assertEquals(second.getPoint(), p.getPosition());
+
+		// The server refuses the first move, the second is still waiting.
+		clientWorld.applyCommand(new MoveCommand(Target.CLIENT, p.getName(),
+				start, place, first.getSequence()));
+		assertEquals(second.getPoint(), p.getPosition());
+
+		// The server refuses the second move too.
+		clientWorld.applyCommand(new MoveCommand(Target.CLIENT, p.getName(),
+				start, place, second.getSequence()));
+		assertEquals(start, p.getPosition());
+	}
 }
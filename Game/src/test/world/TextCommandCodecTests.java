@@ -0,0 +1,57 @@
+package test.world;
+
+import static org.junit.Assert.*;
+import game.world.commands.*;
+import game.world.commands.Command.Target;
+import game.world.dimensions.Point3D;
+
+import org.junit.Test;
+
+/**
+ * Tests for the text form of commands.
+ */
+public class TextCommandCodecTests {
+
+	private TextCommandCodec codec = TextCommandCodec.INSTANCE;
+
+	/**
+	 * Text written the way the old clients wrote it should still be read,
+	 * spacing and all.
+	 */
+	@Test
+	public void decodeTest() {
+		Command move = codec.decode("Client  Move Name ( Jim Bob ) Point Point: ( 479.5 , 0.0 , -4.0 )  Name ( Room1 ) ");
+		assertEquals(new MoveCommand(Target.CLIENT, "Jim Bob", new Point3D(479.5f, 0, -4), "Room1"), move);
+
+		Command exit = codec.decode("Client Exit Name ( Jim ) Name ( Door1 ) Name ( Room1 ) Position ( Point: ( 1.0 , 0.0 , 2.0 )  )");
+		assertEquals(new Point3D(1, 0, 2), ((ExitCommand) exit).getPosition());
+		assertEquals("Door1", ((ExitCommand) exit).getExitName());
+
+		Command placement = codec.decode("Server PlayerPlacement Name ( Jim ) Image ( Char1 ) ");
+		assertEquals(new PlacementCommand(Target.SERVER, "Jim", "Char1", null), placement);
+	}
+
+	/**
+	 * Encoding then decoding should give the same command back.
+	 */
+	@Test
+	public void roundTripTest() {
+		Command drop = new DropCommand(Target.CLIENT, "Jim", "Key", "Room1", new Point3D(3, 0, 4));
+		assertEquals(drop, codec.decode(codec.encode(drop)));
+		Command use = new UseCommand(Target.SERVER, "Jim", "Tank");
+		assertEquals(use, codec.decode(codec.encode(use)));
+		Command input = new InputCommand(Target.SERVER, "Jim", InputCommand.DOWN, -0.25f, 3);
+		assertEquals(input, codec.decode(codec.encode(input)));
+	}
+
+	/**
+	 * Text that isn't a whole command should be refused.
+	 */
+	@Test
+	public void badTextTest() {
+		assertNull(codec.decode("Server Dance Name ( Jim )"));
+		assertNull(codec.decode("Server Move Name ( Jim"));
+		assertNull(codec.decode("Server Move Name ( Jim ) Name ( Room1 )"));
+		assertNull(codec.decode(""));
+	}
+}